@@ -0,0 +1,50 @@
+package wh.spring.benchmark;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wh.spring.client.DingTalkRobotClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求对象序列化为 JSON 的耗时，toJson 只序列化，toBytes 包括 UTF-8 编码，即实际写入请求体的形式
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+
+    @Param({"markdown", "text", "link", "overallActionCard", "independentActionCard", "feedCard"})
+    private String msgtype;
+
+    private OapiRobotSendRequest request;
+
+    @Setup
+    public void setup() {
+        request = Messages.build(msgtype);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return DingTalkRobotClient.toJson(request);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return DingTalkRobotClient.toJson(request).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,68 @@
+package wh.spring.benchmark;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import wh.spring.template.RobotRequests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试共用的消息内容，长度接近实际告警
+ */
+final class Messages {
+
+    static final List<String> PERSONS = Arrays.asList("13800000001", "13800000002", "13800000003");
+    static final String TITLE = "订单服务告警";
+    static final String TEXT = "#### 订单服务告警\n\n> 接口 /api/order/create 响应时间超过 3000ms\n\n> 最近 5 分钟失败 128 次，错误率 12.5%\n\n"
+            + "> 主机: order-service-7d9f8c-x2k4p\n\n> 时间: 2019-12-04 10:15:30";
+    static final String URL = "https://example.com/monitor/order?range=5m";
+    static final String PIC_URL = "https://example.com/monitor/order.png";
+    static final List<OapiRobotSendRequest.Btns> BTNS = btns();
+    static final List<OapiRobotSendRequest.Links> LINKS = links();
+
+    private Messages() {
+    }
+
+    static OapiRobotSendRequest build(String msgtype) {
+        switch (msgtype) {
+            case "markdown":
+                return RobotRequests.markdown(PERSONS, TITLE, TEXT, URL, PIC_URL);
+            case "text":
+                return RobotRequests.text(PERSONS, TEXT);
+            case "link":
+                return RobotRequests.link(TITLE, TEXT, URL, PIC_URL);
+            case "overallActionCard":
+                return RobotRequests.actionCard(TITLE, TEXT, "查看详情", URL);
+            case "independentActionCard":
+                return RobotRequests.actionCard(TITLE, TEXT, BTNS, "0");
+            case "feedCard":
+                return RobotRequests.feedCard(LINKS);
+            default:
+                throw new IllegalArgumentException("未知消息类型: " + msgtype);
+        }
+    }
+
+    private static List<OapiRobotSendRequest.Btns> btns() {
+        List<OapiRobotSendRequest.Btns> btns = new ArrayList<OapiRobotSendRequest.Btns>();
+        for (String title : Arrays.asList("查看详情", "忽略")) {
+            OapiRobotSendRequest.Btns btn = new OapiRobotSendRequest.Btns();
+            btn.setTitle(title);
+            btn.setActionURL(URL);
+            btns.add(btn);
+        }
+        return btns;
+    }
+
+    private static List<OapiRobotSendRequest.Links> links() {
+        List<OapiRobotSendRequest.Links> links = new ArrayList<OapiRobotSendRequest.Links>();
+        for (int i = 0; i < 3; i++) {
+            OapiRobotSendRequest.Links link = new OapiRobotSendRequest.Links();
+            link.setTitle(TITLE + i);
+            link.setMessageURL(URL);
+            link.setPicURL(PIC_URL);
+            links.add(link);
+        }
+        return links;
+    }
+}
@@ -0,0 +1,54 @@
+package wh.spring.benchmark;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import wh.spring.template.RobotRequests;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 六种消息类型构造请求对象的耗时，配合 -prof gc 查看每次构造的分配
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBuildBenchmark {
+
+    @Benchmark
+    public OapiRobotSendRequest markdown() {
+        return RobotRequests.markdown(Messages.PERSONS, Messages.TITLE, Messages.TEXT, Messages.URL, Messages.PIC_URL);
+    }
+
+    @Benchmark
+    public OapiRobotSendRequest text() {
+        return RobotRequests.text(Messages.PERSONS, Messages.TEXT);
+    }
+
+    @Benchmark
+    public OapiRobotSendRequest link() {
+        return RobotRequests.link(Messages.TITLE, Messages.TEXT, Messages.URL, Messages.PIC_URL);
+    }
+
+    @Benchmark
+    public OapiRobotSendRequest overallActionCard() {
+        return RobotRequests.actionCard(Messages.TITLE, Messages.TEXT, "查看详情", Messages.URL);
+    }
+
+    @Benchmark
+    public OapiRobotSendRequest independentActionCard() {
+        return RobotRequests.actionCard(Messages.TITLE, Messages.TEXT, Messages.BTNS, "0");
+    }
+
+    @Benchmark
+    public OapiRobotSendRequest feedCard() {
+        return RobotRequests.feedCard(Messages.LINKS);
+    }
+}
@@ -0,0 +1,96 @@
+package wh.spring.benchmark;
+
+import com.taobao.api.ApiException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.interfaces.ReactiveDingDingService;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.template.MessageTemplate;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端发送：加签、构造请求、序列化、限流器、重试、HTTP 请求，服务端为本地 StubServer。
+ * latency 为模拟的服务端耗时(毫秒)，0 时测的是客户端本身的开销；线程数用 -t 调整。
+ * 关闭了限流，否则吞吐量只取决于 dingding.limit.permitsPerMinute。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+
+    private static final String SECRET = "SEC0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    @Param({"0", "20"})
+    private long latency;
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private DingDingService service;
+    private ReactiveDingDingService reactiveService;
+    private MessageTemplate template;
+    private Map<String, Object> variables;
+    private String webhook;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new StubServer(latency);
+        webhook = server.getWebhook();
+        System.setProperty("dingding.limit.enabled", "false");
+        System.setProperty("dingding.metrics.jmx", "false");
+        context = new AnnotationConfigApplicationContext("wh.spring");
+        service = context.getBean(DingDingService.class);
+        reactiveService = context.getBean(ReactiveDingDingService.class);
+        template = MessageTemplate.text(Messages.PERSONS, "${service}: ${detail}");
+        variables = new HashMap<String, Object>();
+        variables.put("service", "order-service");
+        variables.put("detail", Messages.TEXT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        server.close();
+    }
+
+    @Benchmark
+    public DingDingSendResult markdown() throws ApiException {
+        return service.sendDingMarkdownMessage(SECRET, webhook, Messages.PERSONS, Messages.TITLE, Messages.TEXT, Messages.URL, Messages.PIC_URL);
+    }
+
+    @Benchmark
+    public DingDingSendResult text() throws ApiException {
+        return service.sendDingTextMessage(SECRET, webhook, Messages.PERSONS, Messages.TEXT);
+    }
+
+    @Benchmark
+    public DingDingSendResult template() throws ApiException {
+        return service.sendTemplateMessage(SECRET, webhook, template, variables);
+    }
+
+    @Benchmark
+    public DingDingSendResult reactiveText() {
+        return reactiveService.sendDingTextMessage(SECRET, webhook, Messages.PERSONS, Messages.TEXT).block();
+    }
+}
@@ -0,0 +1,65 @@
+package wh.spring.benchmark;
+
+import com.taobao.api.ApiException;
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wh.spring.sign.SignatureCache;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加签耗时
+ * <p>
+ * legacy 为改造前每次 Mac.getInstance 的写法，sign 为从 SignatureCache 的 Mac 池(ArrayBlockingQueue)借用实例后每次重新计算，cached 为 SignatureCache 命中缓存。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureBenchmark {
+
+    private static final String SECRET = "SEC0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    private SignatureCache signatureCache;
+
+    @Setup
+    public void setup() {
+        signatureCache = new SignatureCache();
+    }
+
+    @Benchmark
+    public String legacy() throws Exception {
+        Long timestamp = System.currentTimeMillis();
+        String stringToSign = timestamp + "\n" + SECRET;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes("UTF-8"), "HmacSHA256"));
+        byte[] signData = mac.doFinal(stringToSign.getBytes("UTF-8"));
+        String signature = URLEncoder.encode(new String(Base64.encodeBase64(signData)), "UTF-8");
+        return "&timestamp=" + timestamp + "&sign=" + signature;
+    }
+
+    @Benchmark
+    public String sign() throws Exception {
+        long timestamp = System.currentTimeMillis();
+        return "&timestamp=" + timestamp + "&sign=" + URLEncoder.encode(SignatureCache.sign(SECRET, timestamp), "UTF-8");
+    }
+
+    @Benchmark
+    public String cached() throws ApiException {
+        return signatureCache.getSignature(SECRET);
+    }
+}
@@ -0,0 +1,63 @@
+package wh.spring.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wh.spring.client.DingTalkRobotClient;
+import wh.spring.template.MessageTemplate;
+import wh.spring.template.RobotRequests;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同一条告警构造请求体的两种方式：每次构造请求对象再序列化，与预编码模板只拼入变量。
+ * 用 -prof gc 运行，比较 gc.alloc.rate.norm(每次操作分配的字节数)。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+    private static final String SERVICE = "order-service";
+    private static final String DETAIL = "接口 /api/order/create 响应时间超过 3000ms，最近 5 分钟失败 128 次";
+
+    private MessageTemplate template;
+    private Map<String, Object> variables;
+
+    @Setup
+    public void setup() {
+        template = MessageTemplate.markdown(Messages.PERSONS, "${service}告警", "#### ${service}告警\n\n> ${detail}");
+        variables = new HashMap<String, Object>();
+        variables.put("service", SERVICE);
+        variables.put("detail", DETAIL);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerialize() {
+        return DingTalkRobotClient.toJson(RobotRequests.markdown(Messages.PERSONS, SERVICE + "告警",
+                "#### " + SERVICE + "告警\n\n> " + DETAIL, null, null)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] renderValues() {
+        return template.render(SERVICE, DETAIL);
+    }
+
+    @Benchmark
+    public byte[] renderMap() {
+        return template.render(variables);
+    }
+}
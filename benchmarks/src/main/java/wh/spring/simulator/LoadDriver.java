@@ -0,0 +1,174 @@
+package wh.spring.simulator;
+
+import com.taobao.api.ApiException;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.model.DingDingSendResult;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测驱动：启动 RobotSimulator，按 webhooks 注册机器人，用 senders 个线程通过 DingDingService 同步发送 messages 条文本消息，
+ * 完成后输出吞吐量、p50/p90/p99/最大耗时、按 errcode 的分布和模拟器的计数。
+ * <p>
+ * 参数均为 key=value，以 dingding. 开头的作为系统属性传给 Spring 容器，用于调整线程池、限流和超时：
+ * <pre>
+ * senders          并发发送线程数，默认 16
+ * messages         发送总数，默认 2000
+ * webhooks         机器人个数，消息轮流发往各机器人，默认 20
+ * quota            模拟器每个机器人每分钟的配额，默认 600；未指定 dingding.limit.permitsPerMinute 时限流器使用同样的值
+ * penalty          超出配额后的封禁时长(毫秒)，默认 60000
+ * latency          模拟器固定延迟(毫秒)，默认 50
+ * jitter           在固定延迟上随机增加的最大毫秒数，默认 0
+ * errorRate        返回 -1 的比例，默认 0
+ * throttleRate     随机返回 130101 的比例，默认 0
+ * httpErrorRate    返回 HTTP 500 的比例，默认 0
+ *
+ * mvn install
+ * mvn -f benchmarks/pom.xml package
+ * java -cp benchmarks/target/benchmarks.jar wh.spring.simulator.LoadDriver senders=32 latency=100 errorRate=0.05 dingding.client.maxPerRoute=50
+ * </pre>
+ */
+public class LoadDriver {
+
+    private static final List<String> PERSONS = Arrays.asList("13800000001", "13800000002");
+    private static final long EXCEPTION = Long.MIN_VALUE;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("参数格式为 key=value: " + arg);
+            }
+            String key = arg.substring(0, index);
+            String value = arg.substring(index + 1);
+            if (key.startsWith("dingding.")) {
+                System.setProperty(key, value);
+            } else {
+                options.put(key, value);
+            }
+        }
+        int senders = Integer.parseInt(option(options, "senders", "16"));
+        int messages = Integer.parseInt(option(options, "messages", "2000"));
+        int webhookCount = Integer.parseInt(option(options, "webhooks", "20"));
+        int quota = Integer.parseInt(option(options, "quota", "600"));
+        if (System.getProperty("dingding.limit.permitsPerMinute") == null) {
+            System.setProperty("dingding.limit.permitsPerMinute", String.valueOf(quota));
+        }
+        if (System.getProperty("dingding.metrics.jmx") == null) {
+            System.setProperty("dingding.metrics.jmx", "false");
+        }
+
+        try (RobotSimulator simulator = new RobotSimulator()
+                .setPermitsPerMinute(quota)
+                .setPenalty(Long.parseLong(option(options, "penalty", "60000")))
+                .setLatency(Long.parseLong(option(options, "latency", "50")))
+                .setLatencyJitter(Long.parseLong(option(options, "jitter", "0")))
+                .setErrorRate(Double.parseDouble(option(options, "errorRate", "0")))
+                .setThrottleRate(Double.parseDouble(option(options, "throttleRate", "0")))
+                .setHttpErrorRate(Double.parseDouble(option(options, "httpErrorRate", "0")))
+                .start();
+             AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext("wh.spring")) {
+            String[] secrets = new String[webhookCount];
+            String[] webhooks = new String[webhookCount];
+            for (int i = 0; i < webhookCount; i++) {
+                secrets[i] = newSecret();
+                webhooks[i] = simulator.register("load-" + i, secrets[i]);
+            }
+            DingDingService service = context.getBean(DingDingService.class);
+
+            long[] latencies = new long[messages];
+            ConcurrentMap<Long, LongAdder> errcodes = new ConcurrentHashMap<Long, LongAdder>();
+            AtomicInteger sequence = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(senders);
+            System.out.printf("senders=%d messages=%d webhooks=%d quota=%d/min options=%s%n",
+                    senders, messages, webhookCount, quota, options);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < senders; i++) {
+                Thread sender = new Thread(() -> {
+                    try {
+                        int n;
+                        while ((n = sequence.getAndIncrement()) < messages) {
+                            int robot = n % webhookCount;
+                            long begin = System.nanoTime();
+                            long errcode;
+                            try {
+                                DingDingSendResult result = service.sendDingTextMessage(secrets[robot], webhooks[robot],
+                                        PERSONS, "压测消息 #" + n);
+                                errcode = result.getErrcode() == null ? EXCEPTION : result.getErrcode();
+                            } catch (ApiException | RuntimeException e) {
+                                errcode = EXCEPTION;
+                            }
+                            latencies[n] = System.nanoTime() - begin;
+                            errcodes.computeIfAbsent(errcode, k -> new LongAdder()).increment();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "load-sender-" + i);
+                sender.start();
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+
+            report(latencies, elapsed, errcodes, simulator);
+        }
+    }
+
+    private static void report(long[] latencies, long elapsed, Map<Long, LongAdder> errcodes, RobotSimulator simulator) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("elapsed=%.2fs throughput=%.1f msg/s%n", seconds, sorted.length / seconds);
+        System.out.printf("latency(ms) p50=%.2f p90=%.2f p99=%.2f max=%.2f%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 1.0));
+        Map<Long, LongAdder> ordered = new TreeMap<Long, LongAdder>(errcodes);
+        StringBuilder codes = new StringBuilder("errcode");
+        for (Map.Entry<Long, LongAdder> entry : ordered.entrySet()) {
+            codes.append(' ').append(entry.getKey() == EXCEPTION ? "exception" : String.valueOf(entry.getKey()))
+                    .append('=').append(entry.getValue().sum());
+        }
+        System.out.println(codes);
+        System.out.printf("simulator received=%d accepted=%d throttled=%d injectedErrors=%d signRejected=%d%n",
+                simulator.getReceivedCount(), simulator.getAcceptedCount(), simulator.getThrottledCount(),
+                simulator.getInjectedErrorCount(), simulator.getSignRejectedCount());
+    }
+
+    /**
+     * 最近秩法取百分位，单位毫秒
+     */
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0D;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static String newSecret() {
+        StringBuilder secret = new StringBuilder("SEC");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 64; i++) {
+            secret.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return secret.toString();
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+}
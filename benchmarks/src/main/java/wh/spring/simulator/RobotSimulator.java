@@ -0,0 +1,345 @@
+package wh.spring.simulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import wh.spring.sign.SignatureCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地模拟的钉钉自定义机器人 /robot/send
+ * <p>
+ * 按 access_token 注册机器人及其密钥，对每个请求：
+ * 1. 校验 timestamp 与当前时间相差不超过 1 小时、sign 与 SignatureCache.sign 的算法一致，不符时返回 310000；
+ * 2. 按机器人统计最近一分钟的消息数，超过 permitsPerMinute 返回 130101，并在 penalty 毫秒内拒绝该机器人的所有消息；
+ * 3. 按配置注入延迟、系统繁忙(-1)、随机限流(130101)和 HTTP 500。
+ * 各类结果分别计数，用于离线调整线程池、限流和超时参数。
+ * <pre>
+ * RobotSimulator simulator = new RobotSimulator().setLatency(50).setErrorRate(0.01);
+ * String webhook = simulator.register("token", "SECxxx");
+ * simulator.start();
+ * </pre>
+ */
+public class RobotSimulator implements AutoCloseable {
+
+    public static final long ERRCODE_SIGN_NOT_MATCH = 310000L;
+    public static final long ERRCODE_SEND_TOO_FAST = 130101L;
+    public static final long ERRCODE_SYSTEM_BUSY = -1L;
+    public static final long ERRCODE_TOKEN_NOT_EXIST = 300001L;
+    public static final long ERRCODE_INVALID_BODY = 40035L;
+
+    private static final long TIMESTAMP_TOLERANCE = TimeUnit.HOURS.toMillis(1);
+
+    private final ConcurrentMap<String, Robot> robots = new ConcurrentHashMap<String, Robot>();
+
+    private int permitsPerMinute = 20;
+    private long penalty = TimeUnit.MINUTES.toMillis(10);
+    private long latency;
+    private long latencyJitter;
+    private double errorRate;
+    private double throttleRate;
+    private double httpErrorRate;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder signRejected = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * 注册一个机器人
+     *
+     * @param accessToken webhook 中的 access_token
+     * @param secret      加签密钥
+     * @return 指向模拟器的 webhook，需在 start 之后使用
+     */
+    public String register(String accessToken, String secret) {
+        robots.put(accessToken, new Robot(secret));
+        return server == null ? "/robot/send?access_token=" + accessToken : getWebhook(accessToken);
+    }
+
+    public String getWebhook(String accessToken) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/robot/send?access_token=" + accessToken;
+    }
+
+    public RobotSimulator start() throws IOException {
+        // 响应头和响应体分两次写出，关闭 Nagle 避免每个请求多等一次延迟确认
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "robot-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/robot/send", this::handle);
+        server.start();
+        return this;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        received.increment();
+        byte[] body = readBody(exchange.getRequestBody());
+        long delay = latency + (latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(latencyJitter + 1) : 0L);
+        if (delay > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (httpErrorRate > 0 && random.nextDouble() < httpErrorRate) {
+            injectedErrors.increment();
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        Robot robot = robots.get(query.get("access_token"));
+        if (robot == null) {
+            respond(exchange, ERRCODE_TOKEN_NOT_EXIST, "token is not exist");
+            return;
+        }
+        String error = verifySign(robot.secret, query.get("timestamp"), query.get("sign"));
+        if (error != null) {
+            signRejected.increment();
+            respond(exchange, ERRCODE_SIGN_NOT_MATCH, error);
+            return;
+        }
+        if (body.length == 0 || !new String(body, StandardCharsets.UTF_8).contains("\"msgtype\"")) {
+            respond(exchange, ERRCODE_INVALID_BODY, "缺少参数 msgtype");
+            return;
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            injectedErrors.increment();
+            respond(exchange, ERRCODE_SYSTEM_BUSY, "系统繁忙");
+            return;
+        }
+        if ((throttleRate > 0 && random.nextDouble() < throttleRate) || !robot.tryAcquire(System.currentTimeMillis())) {
+            throttled.increment();
+            respond(exchange, ERRCODE_SEND_TOO_FAST, "send too fast, exceed " + permitsPerMinute + " times per minute");
+            return;
+        }
+        accepted.increment();
+        robot.accepted.increment();
+        respond(exchange, 0L, "ok");
+    }
+
+    /**
+     * @return 校验失败的原因，通过时返回 null
+     */
+    private static String verifySign(String secret, String timestamp, String sign) {
+        if (timestamp == null || sign == null) {
+            return "sign not match, missing timestamp or sign";
+        }
+        long time;
+        try {
+            time = Long.parseLong(timestamp);
+        } catch (NumberFormatException e) {
+            return "invalid timestamp";
+        }
+        if (Math.abs(System.currentTimeMillis() - time) > TIMESTAMP_TOLERANCE) {
+            return "invalid timestamp";
+        }
+        try {
+            if (!SignatureCache.sign(secret, time).equals(sign)) {
+                return "sign not match";
+            }
+        } catch (GeneralSecurityException e) {
+            return "sign not match, " + e.getMessage();
+        }
+        return null;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                query.put(pair.substring(0, index), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        try (InputStream body = in) {
+            while ((read = body.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, long errcode, String errmsg) throws IOException {
+        byte[] response = ("{\"errcode\":" + errcode + ",\"errmsg\":\"" + errmsg + "\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return 签名或时间戳校验失败的请求数
+     */
+    public long getSignRejectedCount() {
+        return signRejected.sum();
+    }
+
+    /**
+     * @return 返回 130101 的请求数，包括超出配额和随机注入的
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return 注入的系统繁忙和 HTTP 500 次数
+     */
+    public long getInjectedErrorCount() {
+        return injectedErrors.sum();
+    }
+
+    /**
+     * @return 机器人成功接收的消息数
+     */
+    public long getAcceptedCount(String accessToken) {
+        Robot robot = robots.get(accessToken);
+        return robot == null ? 0L : robot.accepted.sum();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 每个机器人每分钟最多接收的消息数，默认 20
+     */
+    public RobotSimulator setPermitsPerMinute(int permitsPerMinute) {
+        this.permitsPerMinute = permitsPerMinute;
+        return this;
+    }
+
+    /**
+     * 超出配额后拒绝该机器人所有消息的时长(毫秒)，默认 10 分钟
+     */
+    public RobotSimulator setPenalty(long penalty) {
+        this.penalty = penalty;
+        return this;
+    }
+
+    /**
+     * 固定延迟(毫秒)
+     */
+    public RobotSimulator setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * 在固定延迟上随机增加 0 到 latencyJitter 毫秒
+     */
+    public RobotSimulator setLatencyJitter(long latencyJitter) {
+        this.latencyJitter = latencyJitter;
+        return this;
+    }
+
+    /**
+     * 返回系统繁忙(-1)的比例
+     */
+    public RobotSimulator setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * 在配额内也随机返回 130101 的比例
+     */
+    public RobotSimulator setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    /**
+     * 返回 HTTP 500 的比例
+     */
+    public RobotSimulator setHttpErrorRate(double httpErrorRate) {
+        this.httpErrorRate = httpErrorRate;
+        return this;
+    }
+
+    /**
+     * 一个机器人的配额状态
+     */
+    private final class Robot {
+
+        private final String secret;
+        private final Deque<Long> window = new ArrayDeque<Long>();
+        private final LongAdder accepted = new LongAdder();
+        private long blockedUntil;
+
+        private Robot(String secret) {
+            this.secret = secret;
+        }
+
+        /**
+         * 滑动窗口计数，超出后在 penalty 内全部拒绝
+         */
+        private synchronized boolean tryAcquire(long now) {
+            if (now < blockedUntil) {
+                return false;
+            }
+            while (!window.isEmpty() && now - window.peekFirst() >= TimeUnit.MINUTES.toMillis(1)) {
+                window.pollFirst();
+            }
+            if (window.size() >= permitsPerMinute) {
+                blockedUntil = now + penalty;
+                return false;
+            }
+            window.addLast(now);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package wh.spring.async;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DingDingSendExecutorTest {
+
+    private static final String HOT = "http://127.0.0.1/robot/send?access_token=hot";
+    private static final String COLD = "http://127.0.0.1/robot/send?access_token=cold";
+
+    private DingDingSendExecutor executor;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (executor != null) {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    public void completesWithTaskResult() throws Exception {
+        executor = poolExecutor(2, 10, 100L);
+        assertEquals("done", executor.submit(() -> "done").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void taskFailureCompletesExceptionally() throws Exception {
+        executor = poolExecutor(2, 10, 100L);
+        CompletableFuture<String> future = executor.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void fullQueueRejectsWithoutRunningOnCaller() throws Exception {
+        executor = poolExecutor(1, 1, 50L);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> running = executor.submit(() -> {
+            release.await();
+            return null;
+        });
+        CompletableFuture<Void> queued = executor.submit(() -> null);
+        Thread caller = Thread.currentThread();
+        long start = System.nanoTime();
+        CompletableFuture<Thread> rejected = executor.submit(Thread::currentThread);
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("队列满时应等待 offerTimeout 后拒绝: " + waited, waited >= 40L);
+        try {
+            rejected.get(1, TimeUnit.SECONDS);
+            fail("队列满时应拒绝");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, executor.getQueueSize());
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        assertTrue(executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS) != caller);
+    }
+
+    @Test
+    public void virtualModeFallsBackToPoolBelowJdk21() throws Exception {
+        boolean supported = isJdk21OrLater();
+        ExecutorService virtual = DingDingSendExecutor.newVirtualThreadExecutor("test-");
+        try {
+            assertEquals(supported, virtual != null);
+        } finally {
+            if (virtual != null) {
+                virtual.shutdown();
+            }
+        }
+        executor = new DingDingSendExecutor();
+        executor.setVirtualThreads(true);
+        executor.afterPropertiesSet();
+        assertEquals(supported, executor.isVirtual());
+        String thread = executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+        assertTrue(thread, supported ? thread.startsWith("dingding-send-virtual-") : thread.startsWith("dingding-send-"));
+    }
+
+    @Test
+    public void tasksWaitingForWebhookDoNotHoldGlobalPermits() throws Exception {
+        executor = virtualExecutor(2, 1, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Void>> hot = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 5; i++) {
+            hot.add(executor.submit(HOT, () -> {
+                release.await();
+                return null;
+            }));
+        }
+        awaitCounts(1, 4);
+        // 4 个任务在等 HOT 的许可，但只有 1 个占用全局许可，其他 webhook 仍可执行
+        assertEquals("cold", executor.submit(COLD, () -> "cold").get(1, TimeUnit.SECONDS));
+        release.countDown();
+        for (CompletableFuture<Void> future : hot) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void globalPermitsBoundRunningTasks() throws Exception {
+        executor = virtualExecutor(1, 5, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> first = executor.submit(HOT, () -> {
+            release.await();
+            return null;
+        });
+        CompletableFuture<String> second = executor.submit(COLD, () -> "second");
+        awaitCounts(1, 1);
+        assertFalse(second.isDone());
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullWaitingQueueRejectsAfterOfferTimeout() throws Exception {
+        executor = virtualExecutor(10, 1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Void>> accepted = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 3; i++) {
+            accepted.add(executor.submit(HOT, () -> {
+                release.await();
+                return null;
+            }));
+        }
+        awaitCounts(1, 2);
+        long start = System.nanoTime();
+        CompletableFuture<Void> rejected = executor.submit(HOT, () -> null);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40L);
+        try {
+            rejected.get(1, TimeUnit.SECONDS);
+            fail("等待队列满时应拒绝");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        release.countDown();
+        for (CompletableFuture<Void> future : accepted) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(0, executor.getQueueSize());
+        assertEquals(0, executor.getActiveCount());
+    }
+
+    private void awaitCounts(int active, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((executor.getActiveCount() != active || executor.getQueueSize() != queued) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals(active, executor.getActiveCount());
+        assertEquals(queued, executor.getQueueSize());
+    }
+
+    private static boolean isJdk21OrLater() {
+        String version = System.getProperty("java.specification.version");
+        return !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+    }
+
+    /**
+     * 用普通的每任务一线程执行器代替虚拟线程，在 JDK 21 以下验证虚拟线程模式的许可逻辑
+     */
+    private static DingDingSendExecutor virtualExecutor(int maxConcurrent, int maxPerWebhook, int queueCapacity) {
+        DingDingSendExecutor executor = new DingDingSendExecutor();
+        executor.setVirtualThreads(true);
+        executor.setVirtualExecutor(Executors.newCachedThreadPool());
+        executor.setMaxConcurrent(maxConcurrent);
+        executor.setMaxPerWebhook(maxPerWebhook);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setOfferTimeout(50L);
+        executor.afterPropertiesSet();
+        return executor;
+    }
+
+    private static DingDingSendExecutor poolExecutor(int threads, int queueCapacity, long offerTimeout) {
+        DingDingSendExecutor executor = new DingDingSendExecutor();
+        executor.setCoreSize(threads);
+        executor.setMaxSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setOfferTimeout(offerTimeout);
+        executor.afterPropertiesSet();
+        return executor;
+    }
+}
@@ -0,0 +1,171 @@
+package wh.spring.batch;
+
+import com.taobao.api.internal.util.TaobaoUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.TestContexts;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingMessageAggregatorTest {
+
+    private static final List<String> PERSONS = Collections.singletonList("13800000000");
+
+    private StubWebhookServer stub;
+    private AnnotationConfigApplicationContext context;
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    public void batchesAreKeyedByWebhookAndSecret() throws Exception {
+        start("dingding.batch.maxSize", "2");
+        DingDingService service = context.getBean(DingDingService.class);
+        String webhook = stub.register("robot", "SEC-a");
+        service.sendDingMarkdownMessage("SEC-a", webhook, PERSONS, "a1", "a1", null, null);
+        service.sendDingMarkdownMessage("SEC-b", webhook, PERSONS, "b1", "b1", null, null);
+        service.sendDingMarkdownMessage("SEC-a", webhook, PERSONS, "a2", "a2", null, null);
+        awaitRequests(1);
+
+        StubWebhookServer.Request digest = stub.requests().get(0);
+        assertTrue("汇总消息应使用批次自己的密钥签名", digest.signValid);
+        String text = markdownText(digest);
+        assertTrue(text.contains("a1") && text.contains("a2"));
+        assertFalse("不同密钥的消息不应合并", text.contains("b1"));
+    }
+
+    @Test
+    public void digestIsFlushedBeforeExceedingMaxBytes() throws Exception {
+        int maxBytes = 2048;
+        start("dingding.batch.maxSize", "100", "dingding.split.maxBytes", String.valueOf(maxBytes));
+        DingDingService service = context.getBean(DingDingService.class);
+        String webhook = stub.register("robot", "SEC-a");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("告警");
+        }
+        int messages = 20;
+        for (int i = 0; i < messages; i++) {
+            service.sendDingTextMessage("SEC-a", webhook, PERSONS, i + ":" + content);
+        }
+        // 关闭容器时发出剩余消息，此时客户端尚未销毁
+        context.close();
+        context = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received(maxBytes) < messages && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(messages, received(maxBytes));
+        assertTrue("应拆成多条汇总消息", stub.count() > 1);
+    }
+
+    @Test
+    public void pendingBatchIsSentWhenContextCloses() throws Exception {
+        start("dingding.batch.maxSize", "100");
+        DingDingService service = context.getBean(DingDingService.class);
+        String webhook = stub.register("robot", "SEC-a");
+        service.sendDingMarkdownMessage("SEC-a", webhook, PERSONS, "关闭前1", "关闭前1", null, null);
+        service.sendDingMarkdownMessage("SEC-a", webhook, PERSONS, "关闭前2", "关闭前2", null, null);
+        assertEquals(0, stub.count());
+
+        context.close();
+        context = null;
+        // 关闭返回时汇总已经发出
+        assertEquals(1, stub.count());
+        StubWebhookServer.Request digest = stub.requests().get(0);
+        assertTrue(digest.signValid);
+        String text = markdownText(digest);
+        assertTrue(text, text.contains("关闭前1") && text.contains("关闭前2"));
+    }
+
+    @Test
+    public void messagesAfterStopAreSentDirectly() throws Exception {
+        start("dingding.batch.maxSize", "100");
+        DingDingService service = context.getBean(DingDingService.class);
+        String webhook = stub.register("robot", "SEC-a");
+        // 容器停止阶段合并已停止，其他组件仍在发送
+        context.getBean(DingDingMessageAggregator.class).stop();
+        DingDingSendResult result = service.sendDingTextMessage("SEC-a", webhook, PERSONS, "停止后");
+        assertEquals(Long.valueOf(0L), result.getErrcode());
+        assertEquals(1, stub.count());
+        assertEquals(0, context.getBean(DingDingMessageAggregator.class).getBufferedCount());
+    }
+
+    @Test
+    public void rejectedDigestIsCountedAsFailed() throws Exception {
+        start("dingding.batch.maxSize", "2", "dingding.retry.maxAttempts", "1");
+        stub.respond(request -> StubWebhookServer.Response.errcode(310000L, "keywords not in content"));
+        DingDingService service = context.getBean(DingDingService.class);
+        DingDingMessageAggregator aggregator = context.getBean(DingDingMessageAggregator.class);
+        String webhook = stub.register("robot", "SEC-a");
+        service.sendDingMarkdownMessage("SEC-a", webhook, PERSONS, "a1", "a1", null, null);
+        service.sendDingMarkdownMessage("SEC-a", webhook, PERSONS, "a2", "a2", null, null);
+        awaitRequests(1);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (aggregator.getFailedCount() == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals("钉钉返回错误码的汇总应计为失败", 1L, aggregator.getFailedCount());
+    }
+
+    /**
+     * @return 已收到的汇总消息中合并的消息条数
+     */
+    private int received(int maxBytes) {
+        int received = 0;
+        for (StubWebhookServer.Request request : stub.requests()) {
+            assertTrue(request.signValid);
+            int size = request.body.getBytes(StandardCharsets.UTF_8).length;
+            assertTrue("汇总消息超过上限: " + size, size <= maxBytes);
+            received += markdownText(request).split("#### ").length - 1;
+        }
+        return received;
+    }
+
+    private void start(String... properties) throws Exception {
+        stub = StubWebhookServer.start();
+        String[] all = new String[properties.length + 6];
+        all[0] = "dingding.batch.enabled";
+        all[1] = "true";
+        all[2] = "dingding.batch.window";
+        all[3] = "60000";
+        all[4] = "dingding.limit.enabled";
+        all[5] = "false";
+        System.arraycopy(properties, 0, all, 6, properties.length);
+        context = TestContexts.create(all);
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stub.count() < count && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue("未收到汇总消息", stub.count() >= count);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String markdownText(StubWebhookServer.Request request) {
+        Map<String, Object> json = (Map<String, Object>) TaobaoUtils.jsonToObject(request.body);
+        return (String) ((Map<String, Object>) json.get("markdown")).get("text");
+    }
+}
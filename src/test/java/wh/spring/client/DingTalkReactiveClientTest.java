@@ -0,0 +1,94 @@
+package wh.spring.client;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DingTalkReactiveClientTest {
+
+    private static final byte[] BODY = "{\"msgtype\":\"text\",\"text\":{\"content\":\"hi\"}}".getBytes(StandardCharsets.UTF_8);
+    private static final Duration WAIT = Duration.ofSeconds(5);
+
+    private StubWebhookServer stub;
+    private DingTalkReactiveClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = StubWebhookServer.start();
+        client = new DingTalkReactiveClient();
+        client.setReadTimeout(500);
+        client.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        client.destroy();
+        stub.close();
+    }
+
+    @Test
+    public void returnsServerErrcode() {
+        stub.respond(request -> Response.errcode(310000L, "sign not match"));
+        OapiRobotSendResponse response = client.execute(stub.webhook("token"), BODY, "").block(WAIT);
+        assertEquals(Long.valueOf(310000L), response.getErrcode());
+        assertEquals("sign not match", response.getErrmsg());
+        assertTrue(stub.requests().get(0).body.contains("hi"));
+    }
+
+    @Test
+    public void emptyServerErrorBecomesApiException() {
+        stub.respond(request -> Response.status(503, ""));
+        assertFails("503");
+    }
+
+    @Test
+    public void htmlErrorPageBecomesApiException() {
+        stub.respond(request -> Response.status(502, "<html><body>Bad Gateway</body></html>"));
+        assertFails("502");
+    }
+
+    @Test
+    public void clientErrorBecomesApiException() {
+        stub.respond(request -> Response.status(400, "{\"errcode\":40035}"));
+        assertFails("400");
+    }
+
+    @Test
+    public void emptySuccessBodyBecomesApiException() {
+        stub.respond(request -> Response.status(200, ""));
+        assertFails("200");
+    }
+
+    @Test
+    public void slowResponseTimesOut() {
+        stub.respond(request -> Response.ok().delayed(2000));
+        try {
+            client.execute(stub.webhook("token"), BODY, "").block(WAIT);
+            fail("应以 ApiException 结束");
+        } catch (RuntimeException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ApiException);
+        }
+    }
+
+    private void assertFails(String status) {
+        try {
+            client.execute(stub.webhook("token"), BODY, "").block(WAIT);
+            fail("应以 ApiException 结束，而不是空结果");
+        } catch (RuntimeException e) {
+            // block 把受检异常包装为 RuntimeException
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ApiException);
+            assertEquals(status, ((ApiException) e.getCause()).getErrCode());
+        }
+    }
+}
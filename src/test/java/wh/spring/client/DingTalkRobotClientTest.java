@@ -0,0 +1,113 @@
+package wh.spring.client;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class DingTalkRobotClientTest {
+
+    private static final byte[] BODY = "{\"msgtype\":\"text\",\"text\":{\"content\":\"hi\"}}".getBytes(StandardCharsets.UTF_8);
+
+    private StubWebhookServer stub;
+    private DingTalkClientRegistry registry;
+    private DingTalkRobotClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = StubWebhookServer.start();
+        registry = new DingTalkClientRegistry();
+        registry.afterPropertiesSet();
+        client = registry.getClient(stub.webhook("token"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.destroy();
+        stub.close();
+    }
+
+    @Test
+    public void returnsServerErrcode() throws ApiException {
+        stub.respond(request -> Response.errcode(310000L, "sign not match"));
+        OapiRobotSendResponse response = client.execute(BODY, "");
+        assertEquals(Long.valueOf(310000L), response.getErrcode());
+        assertEquals("sign not match", response.getErrmsg());
+    }
+
+    @Test
+    public void sameWebhookSharesClient() {
+        assertSame(client, registry.getClient(stub.webhook("token")));
+    }
+
+    @Test
+    public void evictedWebhookGetsNewClient() {
+        registry.evict(stub.webhook("token"));
+        assertEquals(0, registry.getClientCount());
+        assertNotSame(client, registry.getClient(stub.webhook("token")));
+    }
+
+    @Test
+    public void clientCountIsBounded() {
+        registry.setMaxClients(3);
+        for (int i = 0; i < 10; i++) {
+            registry.getClient(stub.webhook("token" + i));
+        }
+        assertEquals(3, registry.getClientCount());
+    }
+
+    @Test
+    public void htmlErrorPageBecomesApiException() {
+        stub.respond(request -> Response.status(502, "<html><body>Bad Gateway</body></html>"));
+        assertFails("502");
+    }
+
+    @Test
+    public void emptyServerErrorBecomesApiException() {
+        stub.respond(request -> Response.status(500, ""));
+        assertFails("500");
+    }
+
+    @Test
+    public void emptySuccessBodyBecomesApiException() {
+        stub.respond(request -> Response.status(200, ""));
+        assertFails("200");
+    }
+
+    @Test
+    public void unparsableSuccessBodyBecomesApiException() {
+        stub.respond(request -> Response.status(200, "<html>maintenance</html>"));
+        assertFails("200");
+    }
+
+    @Test
+    public void connectionFailureBecomesApiException() throws Exception {
+        String webhook = stub.webhook("token");
+        stub.close();
+        try {
+            registry.getClient(webhook).execute(BODY, "");
+            fail("连接失败应抛出 ApiException");
+        } catch (ApiException e) {
+            // 期望
+        }
+    }
+
+    private void assertFails(String status) {
+        try {
+            client.execute(BODY, "");
+            fail("应抛出 ApiException");
+        } catch (ApiException e) {
+            assertEquals(status, e.getErrCode());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package wh.spring.dedup;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.TestContexts;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingDeduplicatorTest {
+
+    private static final String WEBHOOK = "http://127.0.0.1/robot/send?access_token=a";
+    private static final List<String> PERSONS = Arrays.asList("13800000001", "13800000002");
+
+    private AnnotationConfigApplicationContext context;
+    private DingDingDeduplicator deduplicator;
+    private final BlockingQueue<DedupEntry> reports = new LinkedBlockingQueue<DedupEntry>();
+    private final Consumer<DedupEntry> reporter = reports::add;
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void repeatsWithinWindowAreSuppressed() {
+        start("60000", "100", "false");
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "磁盘  已满\n"));
+        assertTrue(isDuplicate(WEBHOOK, PERSONS, " 磁盘 已满"));
+        // @人员顺序无关
+        assertTrue(isDuplicate(WEBHOOK, Arrays.asList("13800000002", "13800000001"), "磁盘 已满"));
+        // webhook、@人员或内容不同都不是重复
+        assertFalse(isDuplicate(WEBHOOK + "b", PERSONS, "磁盘 已满"));
+        assertFalse(isDuplicate(WEBHOOK, Collections.<String>emptyList(), "磁盘 已满"));
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "磁盘已满"));
+        assertEquals(2L, deduplicator.getSuppressedCount());
+        assertEquals(4, deduplicator.getCachedCount());
+    }
+
+    @Test
+    public void ignoreDigitsTreatsNumbersAsEqual() {
+        start("60000", "100", "true");
+        assertEquals("CPU 使用率 #% 节点 #", deduplicator.normalize("  CPU 使用率 91%  节点 3 "));
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "CPU 使用率 91%"));
+        assertTrue(isDuplicate(WEBHOOK, PERSONS, "CPU 使用率 93%"));
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "内存使用率 93%"));
+    }
+
+    @Test
+    public void windowCloseReportsSuppressedCountAndReopens() throws InterruptedException {
+        start("100", "100", "false");
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "超时"));
+        assertTrue(isDuplicate(WEBHOOK, PERSONS, "超时"));
+        assertTrue(isDuplicate(WEBHOOK, PERSONS, "超时"));
+
+        DedupEntry report = reports.poll(2, TimeUnit.SECONDS);
+        assertNotNull("窗口关闭后应发送汇总", report);
+        assertEquals(2, report.getSuppressedCount());
+        assertEquals("超时", report.getPreview());
+        assertEquals(WEBHOOK, report.getWebhook());
+        assertEquals(0, deduplicator.getCachedCount());
+        // 新窗口里同一条消息重新发送
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "超时"));
+    }
+
+    @Test
+    public void windowWithoutRepeatsSendsNoSummary() throws InterruptedException {
+        start("100", "100", "false");
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "只发一次"));
+        assertNull(reports.poll(400, TimeUnit.MILLISECONDS));
+        assertEquals(0, deduplicator.getCachedCount());
+    }
+
+    @Test
+    public void eldestWindowIsClosedWhenFull() throws InterruptedException {
+        start("60000", "3", "false");
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "m0"));
+        assertTrue(isDuplicate(WEBHOOK, PERSONS, "m0"));
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "m1"));
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "m2"));
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "m3"));
+
+        assertEquals(3, deduplicator.getCachedCount());
+        DedupEntry report = reports.poll(2, TimeUnit.SECONDS);
+        assertNotNull("提前关闭的窗口也应汇总", report);
+        assertEquals("m0", report.getPreview());
+        assertEquals(1, report.getSuppressedCount());
+        // m0 的窗口已关闭，m1 仍在窗口内
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "m0"));
+        assertEquals(3, deduplicator.getCachedCount());
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "m1"));
+    }
+
+    @Test
+    public void pendingSummariesAreSentOnShutdown() {
+        start("60000", "100", "false");
+        assertFalse(isDuplicate(WEBHOOK, PERSONS, "关闭前"));
+        assertTrue(isDuplicate(WEBHOOK, PERSONS, "关闭前"));
+        context.close();
+        context = null;
+        assertEquals(1, reports.size());
+        assertEquals(1, reports.peek().getSuppressedCount());
+    }
+
+    @Test
+    public void pendingSummaryIsSentThroughServiceWhenContextCloses() throws Exception {
+        try (StubWebhookServer stub = StubWebhookServer.start()) {
+            String webhook = stub.register("dedup", "SEC-a");
+            start("60000", "100", "false");
+            DingDingService service = context.getBean(DingDingService.class);
+            service.sendDingTextMessage("SEC-a", webhook, PERSONS, "磁盘已满");
+            service.sendDingTextMessage("SEC-a", webhook, PERSONS, "磁盘已满");
+            assertEquals(1, stub.count());
+
+            context.close();
+            context = null;
+            // 关闭返回时汇总已经发出，发送用的客户端尚未销毁
+            assertEquals(2, stub.count());
+            StubWebhookServer.Request summary = stub.requests().get(1);
+            assertTrue(summary.signValid);
+            assertTrue(summary.body, summary.body.contains("磁盘已满"));
+        }
+    }
+
+    @Test
+    public void rejectedSummaryIsCountedAsFailed() throws Exception {
+        try (StubWebhookServer stub = StubWebhookServer.start()) {
+            String webhook = stub.register("dedup", "SEC-a");
+            AtomicInteger count = new AtomicInteger();
+            stub.respond(request -> count.incrementAndGet() == 1
+                    ? StubWebhookServer.Response.ok() : StubWebhookServer.Response.errcode(310000L, "keywords not in content"));
+            context = TestContexts.create("dingding.dedup.enabled", "true", "dingding.dedup.window", "60000",
+                    "dingding.retry.maxAttempts", "1");
+            deduplicator = context.getBean(DingDingDeduplicator.class);
+            DingDingService service = context.getBean(DingDingService.class);
+            service.sendDingTextMessage("SEC-a", webhook, PERSONS, "磁盘已满");
+            service.sendDingTextMessage("SEC-a", webhook, PERSONS, "磁盘已满");
+
+            context.close();
+            context = null;
+            assertEquals(2, stub.count());
+            assertEquals("钉钉返回错误码的汇总应计为失败", 1L, deduplicator.getFailedSummaryCount());
+        }
+    }
+
+    private void start(String window, String maxEntries, String ignoreDigits) {
+        context = TestContexts.create("dingding.dedup.enabled", "true", "dingding.dedup.window", window,
+                "dingding.dedup.maxEntries", maxEntries, "dingding.dedup.ignoreDigits", ignoreDigits);
+        deduplicator = context.getBean(DingDingDeduplicator.class);
+    }
+
+    private boolean isDuplicate(String webhook, List<String> persons, String content) {
+        return deduplicator.isDuplicate("SEC-a", webhook, "text", persons, reporter, content);
+    }
+}
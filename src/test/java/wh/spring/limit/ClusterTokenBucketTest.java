@@ -0,0 +1,176 @@
+package wh.spring.limit;
+
+import org.junit.Test;
+import wh.spring.quota.InMemoryQuotaStore;
+import wh.spring.quota.QuotaLease;
+import wh.spring.quota.QuotaStore;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterTokenBucketTest {
+
+    private static final String WEBHOOK = "http://127.0.0.1/robot/send?access_token=a";
+    /**
+     * 每小时一个许可，测试期间不会补充
+     */
+    private static final long INTERVAL = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    public void nodesSharingStoreNeverExceedBurstTogether() {
+        InMemoryQuotaStore store = new InMemoryQuotaStore();
+        ClusterTokenBucket a = new ClusterTokenBucket(WEBHOOK, store, 10, INTERVAL, 3, 60000L);
+        ClusterTokenBucket b = new ClusterTokenBucket(WEBHOOK, store, 10, INTERVAL, 3, 60000L);
+        int acquiredA = 0;
+        int acquiredB = 0;
+        for (int i = 0; i < 20; i++) {
+            acquiredA += a.tryAcquire() ? 1 : 0;
+            acquiredB += b.tryAcquire() ? 1 : 0;
+        }
+        assertEquals(10, acquiredA + acquiredB);
+        assertTrue(acquiredA > 0 && acquiredB > 0);
+        // 没有额度后记下等待时间，不再访问存储
+        assertTrue(a.getWaitNanos(1) > TimeUnit.MINUTES.toNanos(50));
+    }
+
+    @Test
+    public void leasedPermitsHonourRequestedTokens() throws InterruptedException {
+        InMemoryQuotaStore store = new InMemoryQuotaStore();
+        ClusterTokenBucket bucket = new ClusterTokenBucket(WEBHOOK, store, 10, INTERVAL, 3, 100L);
+        // 尚未租用时不知道共享额度，由获取去租用
+        assertEquals(0L, bucket.getWaitNanos(2));
+        assertTrue(bucket.tryAcquire());
+        assertEquals(0L, bucket.getWaitNanos(2));
+        assertTrue(bucket.tryAcquire());
+        // 只剩 1 个本地许可：需要 2 个(保留 1 个给 CRITICAL/HIGH)的调用方等租约到期，只要 1 个的仍可立即取
+        assertTrue(bucket.getWaitNanos(2) > 0L);
+        assertEquals(0L, bucket.getWaitNanos(1));
+        TimeUnit.MILLISECONDS.sleep(150);
+        // 租约到期后重新租用
+        assertEquals(0L, bucket.getWaitNanos(2));
+    }
+
+    @Test
+    public void releasedLeaseIsAvailableToOtherNodes() {
+        InMemoryQuotaStore store = new InMemoryQuotaStore();
+        ClusterTokenBucket a = new ClusterTokenBucket(WEBHOOK, store, 4, INTERVAL, 4, 60000L);
+        ClusterTokenBucket b = new ClusterTokenBucket(WEBHOOK, store, 4, INTERVAL, 4, 60000L);
+        assertTrue(a.tryAcquire());
+        assertEquals(3, a.getAvailableTokens());
+        a.releaseLease();
+        assertEquals(0, a.getAvailableTokens());
+        int acquired = 0;
+        for (int i = 0; i < 5; i++) {
+            acquired += b.tryAcquire() ? 1 : 0;
+        }
+        assertEquals(3, acquired);
+    }
+
+    @Test
+    public void expiredLeaseIsReturnedOnNextAcquire() throws InterruptedException {
+        InMemoryQuotaStore store = new InMemoryQuotaStore();
+        ClusterTokenBucket a = new ClusterTokenBucket(WEBHOOK, store, 4, INTERVAL, 4, 50L);
+        ClusterTokenBucket b = new ClusterTokenBucket(WEBHOOK, store, 4, INTERVAL, 1, 60000L);
+        assertTrue(a.tryAcquire());
+        TimeUnit.MILLISECONDS.sleep(80);
+        // 过期的 3 个先归还，再租用到其中 3 个
+        assertTrue(a.tryAcquire());
+        assertEquals(2, a.getAvailableTokens());
+        assertFalse(b.tryAcquire());
+    }
+
+    @Test
+    public void failingStoreFallsBackToLocalBucketAndRecovers() {
+        AtomicBoolean down = new AtomicBoolean(true);
+        InMemoryQuotaStore memory = new InMemoryQuotaStore();
+        QuotaStore store = new QuotaStore() {
+            @Override
+            public QuotaLease lease(String webhook, int permits, long interval, int burst, long maxWait) {
+                if (down.get()) {
+                    throw new IllegalStateException("store down");
+                }
+                return memory.lease(webhook, permits, interval, burst, maxWait);
+            }
+
+            @Override
+            public void release(String webhook, int permits, long interval) {
+                memory.release(webhook, permits, interval);
+            }
+
+            @Override
+            public void penalize(String webhook, long penalty, long interval, int burst) {
+                memory.penalize(webhook, penalty, interval, burst);
+            }
+        };
+        ClusterTokenBucket bucket = new ClusterTokenBucket(WEBHOOK, store, 2, INTERVAL, 2, 60000L);
+        // 存储不可用时按本地令牌桶的单机额度限流
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertTrue(bucket.getWaitNanos(1) > 0L);
+
+        down.set(false);
+        assertTrue(bucket.tryAcquire());
+        assertEquals(1, bucket.getAvailableTokens());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void slowStoreDoesNotBlockQueriesOrSecondLease() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        AtomicInteger leases = new AtomicInteger();
+        InMemoryQuotaStore memory = new InMemoryQuotaStore();
+        QuotaStore store = new QuotaStore() {
+            @Override
+            public QuotaLease lease(String webhook, int permits, long interval, int burst, long maxWait) {
+                leases.incrementAndGet();
+                entered.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return memory.lease(webhook, permits, interval, burst, maxWait);
+            }
+
+            @Override
+            public void release(String webhook, int permits, long interval) {
+                memory.release(webhook, permits, interval);
+            }
+
+            @Override
+            public void penalize(String webhook, long penalty, long interval, int burst) {
+                memory.penalize(webhook, penalty, interval, burst);
+            }
+        };
+        ClusterTokenBucket bucket = new ClusterTokenBucket(WEBHOOK, store, 5, INTERVAL, 5, 60000L);
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(bucket::tryAcquire);
+        CompletableFuture<Boolean> second;
+        try {
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            // 租用期间查询不等待存储返回
+            CompletableFuture<Long> wait = CompletableFuture.supplyAsync(() -> bucket.getWaitNanos(1));
+            assertEquals(Long.valueOf(0L), wait.get(1, TimeUnit.SECONDS));
+            assertEquals(0, (int) CompletableFuture.supplyAsync(bucket::getAvailableTokens).get(1, TimeUnit.SECONDS));
+            second = CompletableFuture.supplyAsync(bucket::tryAcquire);
+            TimeUnit.MILLISECONDS.sleep(50);
+            assertFalse(second.isDone());
+        } finally {
+            proceed.countDown();
+        }
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        // 第二个线程用第一个线程租到的许可，不再访问存储
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, leases.get());
+        assertEquals(3, bucket.getAvailableTokens());
+    }
+}
@@ -0,0 +1,141 @@
+package wh.spring.limit;
+
+import org.junit.After;
+import org.junit.Test;
+import wh.spring.quota.QuotaLease;
+import wh.spring.quota.QuotaStore;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingRateLimiterTest {
+
+    private static final String WEBHOOK = "http://127.0.0.1/robot/send?access_token=a";
+
+    private DingDingRateLimiter limiter;
+
+    @After
+    public void tearDown() {
+        if (limiter != null) {
+            limiter.destroy();
+        }
+    }
+
+    @Test
+    public void bucketsArePerWebhook() {
+        limiter = limiter(RateLimitPolicy.REJECT, 20, 5);
+        assertSame(limiter.getBucket(WEBHOOK), limiter.getBucket(WEBHOOK));
+        assertNotSame(limiter.getBucket(WEBHOOK), limiter.getBucket(WEBHOOK + "b"));
+        assertEquals(5, limiter.getBucket(WEBHOOK).getBurst());
+    }
+
+    @Test
+    public void rejectPolicyFailsFastAfterBurst() {
+        limiter = limiter(RateLimitPolicy.REJECT, 20, 2);
+        assertEquals(DingDingRateLimiter.Decision.PASS, limiter.acquire(WEBHOOK, null));
+        assertEquals(DingDingRateLimiter.Decision.PASS, limiter.acquire(WEBHOOK, null));
+        assertEquals(DingDingRateLimiter.Decision.REJECTED, limiter.acquire(WEBHOOK, null));
+        // 其他 webhook 不受影响
+        assertEquals(DingDingRateLimiter.Decision.PASS, limiter.acquire(WEBHOOK + "b", null));
+    }
+
+    @Test
+    public void blockPolicyWaitsForNextToken() {
+        // 每分钟 6002 条、突发 2 条，约每 10ms 补充一个
+        limiter = limiter(RateLimitPolicy.BLOCK, 6002, 2);
+        limiter.acquire(WEBHOOK, null);
+        limiter.acquire(WEBHOOK, null);
+        long start = System.nanoTime();
+        assertEquals(DingDingRateLimiter.Decision.PASS, limiter.acquire(WEBHOOK, null));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    @Test
+    public void blockPolicyRejectsBeyondMaxWait() {
+        limiter = limiter(RateLimitPolicy.BLOCK, 20, 1);
+        limiter.setMaxWait(10);
+        assertEquals(DingDingRateLimiter.Decision.PASS, limiter.acquire(WEBHOOK, null));
+        assertEquals(DingDingRateLimiter.Decision.REJECTED, limiter.acquire(WEBHOOK, null));
+    }
+
+    @Test
+    public void queuePolicyRunsDeferredSendWhenTokenArrives() throws InterruptedException {
+        // 每分钟 600 条，约每 100ms 补充一个，第三次获取前不会已经补充
+        limiter = limiter(RateLimitPolicy.QUEUE, 600, 2);
+        limiter.acquire(WEBHOOK, null);
+        limiter.acquire(WEBHOOK, null);
+        CountDownLatch sent = new CountDownLatch(1);
+        assertEquals(DingDingRateLimiter.Decision.QUEUED, limiter.acquire(WEBHOOK, sent::countDown));
+        assertEquals(1, limiter.getBucket(WEBHOOK).getPendingCount());
+        assertTrue(sent.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queuePolicyRejectsWhenQueueIsFull() {
+        limiter = limiter(RateLimitPolicy.QUEUE, 20, 1);
+        limiter.setQueueCapacity(1);
+        limiter.acquire(WEBHOOK, null);
+        assertEquals(DingDingRateLimiter.Decision.QUEUED, limiter.acquire(WEBHOOK, () -> {
+        }));
+        assertEquals(DingDingRateLimiter.Decision.REJECTED, limiter.acquire(WEBHOOK, () -> {
+        }));
+    }
+
+    @Test
+    public void queuePolicyRejectsWhenSharedQuotaGrantsNothing() {
+        limiter = new DingDingRateLimiter();
+        limiter.setPolicy(RateLimitPolicy.QUEUE);
+        limiter.setPermitsPerMinute(20);
+        limiter.setBurst(1);
+        limiter.setQuotaStore(new QuotaStore() {
+            @Override
+            public QuotaLease lease(String webhook, int permits, long interval, int burst, long maxWait) {
+                // 比较并更新一直冲突时的结果
+                return new QuotaLease(0, interval);
+            }
+
+            @Override
+            public void release(String webhook, int permits, long interval) {
+            }
+
+            @Override
+            public void penalize(String webhook, long penalty, long interval, int burst) {
+            }
+        });
+        limiter.afterPropertiesSet();
+        AtomicBoolean sent = new AtomicBoolean();
+        assertEquals(DingDingRateLimiter.Decision.REJECTED, limiter.acquire(WEBHOOK, () -> sent.set(true)));
+        assertEquals(0, limiter.getBucket(WEBHOOK).getPendingCount());
+        assertFalse(sent.get());
+    }
+
+    @Test
+    public void disabledLimiterAlwaysPasses() {
+        limiter = limiter(RateLimitPolicy.REJECT, 20, 1);
+        limiter.setEnabled(false);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(DingDingRateLimiter.Decision.PASS, limiter.acquire(WEBHOOK, null));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void burstMustBeBelowQuota() {
+        limiter(RateLimitPolicy.BLOCK, 5, 5);
+    }
+
+    static DingDingRateLimiter limiter(RateLimitPolicy policy, int permitsPerMinute, int burst) {
+        DingDingRateLimiter limiter = new DingDingRateLimiter();
+        limiter.setPolicy(policy);
+        limiter.setPermitsPerMinute(permitsPerMinute);
+        limiter.setBurst(burst);
+        limiter.afterPropertiesSet();
+        return limiter;
+    }
+}
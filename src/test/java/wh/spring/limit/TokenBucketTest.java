@@ -0,0 +1,89 @@
+package wh.spring.limit;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void burstIsAvailableImmediatelyThenRejected() {
+        TokenBucket bucket = new TokenBucket(3, 1, TimeUnit.MINUTES);
+        assertEquals(3, bucket.getAvailableTokens());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertEquals(0, bucket.getAvailableTokens());
+        assertEquals(3, bucket.getAcquiredCount());
+        assertEquals(1, bucket.getRejectedCount());
+    }
+
+    @Test
+    public void refillsOneTokenPerInterval() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 50, TimeUnit.MILLISECONDS);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        TimeUnit.MILLISECONDS.sleep(70);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void reserveReturnsWaitAndRejectsBeyondMaxWait() {
+        TokenBucket bucket = new TokenBucket(1, 100, TimeUnit.MILLISECONDS);
+        assertEquals(0L, bucket.reserve(0, TimeUnit.MILLISECONDS));
+        long wait = bucket.reserve(1, TimeUnit.SECONDS);
+        assertTrue("第二个令牌需等待约一个间隔: " + wait, wait > TimeUnit.MILLISECONDS.toNanos(80) && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+        // 已预约到 200ms 之后，50ms 内等不到
+        assertEquals(-1L, bucket.reserve(50, TimeUnit.MILLISECONDS));
+        assertEquals(1, bucket.getWaitedCount());
+        assertEquals(1, bucket.getRejectedCount());
+    }
+
+    @Test
+    public void penalizeEmptiesBucketForPenalty() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(5, 10, TimeUnit.MILLISECONDS);
+        bucket.penalize(100, TimeUnit.MILLISECONDS);
+        assertFalse(bucket.tryAcquire());
+        assertTrue(bucket.getWaitNanos(1) > TimeUnit.MILLISECONDS.toNanos(90));
+        TimeUnit.MILLISECONDS.sleep(130);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void concurrentAcquireNeverExceedsBurst() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 1, TimeUnit.HOURS);
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            threads.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(100, acquired.get());
+        assertEquals(100, bucket.getAcquiredCount());
+        assertEquals(8000 - 100, bucket.getRejectedCount());
+    }
+}
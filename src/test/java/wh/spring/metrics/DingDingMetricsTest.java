@@ -0,0 +1,109 @@
+package wh.spring.metrics;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingMetricsTest {
+
+    private static final String WEBHOOK = "https://oapi.dingtalk.com/robot/send?access_token=abcdef123456&x=1";
+
+    @Test
+    public void resultsAreClassifiedByErrcode() {
+        SendStats stats = new DingDingMetrics().getStats(WEBHOOK, "text");
+        stats.recordResult(response(0L));
+        stats.recordResult(response(0L));
+        stats.recordResult(response(130101L));
+        stats.recordResult(response(310000L));
+        stats.recordThrottled();
+        stats.recordFailure();
+        assertEquals(2, stats.getSuccessCount());
+        assertEquals(2, stats.getThrottledCount());
+        assertEquals(1, stats.getRejectedCount());
+        assertEquals(1, stats.getFailedCount());
+    }
+
+    @Test
+    public void timerKeepsCountTotalAndMax() {
+        SendStats stats = new DingDingMetrics().getStats(WEBHOOK, "text");
+        long start = System.nanoTime();
+        long next = stats.record(DingDingMetrics.Stage.SIGN, start);
+        stats.record(DingDingMetrics.Stage.HTTP, next);
+        TimerStats sign = stats.getTimer(DingDingMetrics.Stage.SIGN);
+        assertEquals(1, sign.getCount());
+        assertTrue(sign.getTotalNanos() >= 0 && sign.getMaxNanos() == sign.getTotalNanos());
+        assertEquals(0, stats.getTimer(DingDingMetrics.Stage.CLIENT).getCount());
+
+        TimerStats timer = new TimerStats();
+        timer.record(5L);
+        timer.record(20L);
+        timer.record(10L);
+        assertEquals(3, timer.getCount());
+        assertEquals(35L, timer.getTotalNanos());
+        assertEquals(20L, timer.getMaxNanos());
+    }
+
+    @Test
+    public void statsArePerWebhookAndMsgtypeAndAggregated() {
+        DingDingMetrics metrics = new DingDingMetrics();
+        SendStats text = metrics.getStats(WEBHOOK, "text");
+        assertSame(text, metrics.getStats(WEBHOOK, "text"));
+        SendStats markdown = metrics.getStats(WEBHOOK, "markdown");
+        SendStats other = metrics.getStats(WEBHOOK + "2", "text");
+        text.recordResult(response(0L));
+        markdown.recordResult(response(0L));
+        other.recordFailure();
+        assertEquals(3, metrics.getAllStats().size());
+        assertEquals(2, metrics.getSuccessCount());
+        assertEquals(1, metrics.getFailedCount());
+        assertEquals(3, metrics.getResults().size());
+        assertEquals(3 * DingDingMetrics.Stage.values().length, metrics.getTimers().size());
+    }
+
+    @Test
+    public void listenerSeesExistingAndNewStats() {
+        DingDingMetrics metrics = new DingDingMetrics();
+        metrics.getStats(WEBHOOK, "text");
+        List<SendStats> seen = new ArrayList<SendStats>();
+        metrics.addListener(seen::add);
+        metrics.getStats(WEBHOOK, "link");
+        metrics.getStats(WEBHOOK, "link");
+        assertEquals(2, seen.size());
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        DingDingMetrics metrics = new DingDingMetrics();
+        metrics.setEnabled(false);
+        SendStats stats = metrics.getStats(WEBHOOK, "text");
+        stats.recordResult(response(0L));
+        stats.record(DingDingMetrics.Stage.HTTP, System.nanoTime());
+        assertEquals(0, stats.getSuccessCount());
+        assertEquals(0, stats.getTimer(DingDingMetrics.Stage.HTTP).getCount());
+        assertTrue(metrics.getAllStats().isEmpty());
+    }
+
+    @Test
+    public void webhookTagHidesAccessToken() {
+        // 完整 token 的 SHA-256 前 8 位
+        assertEquals("https://oapi.dingtalk.com/robot/send?access_token=da4ec335", DingDingMetrics.maskWebhook(WEBHOOK));
+        assertEquals("https://oapi.dingtalk.com/robot/send?access_token=ba7816bf",
+                DingDingMetrics.maskWebhook("https://oapi.dingtalk.com/robot/send?access_token=abc"));
+        // 前缀相同的 token 不会得到同一个标签
+        assertEquals("https://oapi.dingtalk.com/robot/send?access_token=b91d9e76",
+                DingDingMetrics.maskWebhook("https://oapi.dingtalk.com/robot/send?access_token=abcdef654321"));
+        assertEquals("http://127.0.0.1/hook", DingDingMetrics.maskWebhook("http://127.0.0.1/hook?key=secret"));
+    }
+
+    private static OapiRobotSendResponse response(long errcode) {
+        OapiRobotSendResponse response = new OapiRobotSendResponse();
+        response.setErrcode(errcode);
+        return response;
+    }
+}
@@ -0,0 +1,73 @@
+package wh.spring.model;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+import wh.spring.support.TestContexts;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingSendResultTest {
+
+    private static StubWebhookServer stub;
+    private static AnnotationConfigApplicationContext context;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        stub = StubWebhookServer.start();
+        context = TestContexts.create("dingding.limit.enabled", "false");
+    }
+
+    @AfterClass
+    public static void stop() {
+        context.close();
+        stub.close();
+    }
+
+    @Test
+    public void resultFromResponseIsDingTalk() {
+        OapiRobotSendResponse response = new OapiRobotSendResponse();
+        response.setErrcode(0L);
+        response.setErrmsg("ok");
+        DingDingSendResult result = DingDingSendResult.of(response, 12L, 2);
+        assertEquals(DingDingSendResult.Source.DINGTALK, result.getSource());
+        assertFalse(result.isLocal());
+        assertEquals(12L, result.getLatency());
+        assertEquals(2, result.getAttempts());
+    }
+
+    @Test
+    public void constructedResultIsLocal() {
+        assertTrue(new DingDingSendResult(DingDingSendResult.THROTTLED, "limited").isLocal());
+        assertTrue(new DingDingSendResult().isLocal());
+    }
+
+    @Test
+    public void invalidParameterIsLocal() throws ApiException {
+        DingDingSendResult result = context.getBean(DingDingService.class)
+                .sendDingTextMessage("SEC-a", "", Collections.<String>emptyList(), "hi");
+        assertEquals(Long.valueOf(DingDingSendResult.INVALID), result.getErrcode());
+        assertTrue(result.isLocal());
+        assertEquals(0, result.getAttempts());
+    }
+
+    @Test
+    public void dingTalkErrcodeWithSameValueIsNotLocal() throws ApiException {
+        stub.respond(request -> Response.errcode(400L, "remote 400"));
+        DingDingSendResult result = context.getBean(DingDingService.class)
+                .sendDingTextMessage("SEC-a", stub.register("robot", "SEC-a"), Collections.<String>emptyList(), "hi");
+        assertEquals(Long.valueOf(400L), result.getErrcode());
+        assertEquals(DingDingSendResult.Source.DINGTALK, result.getSource());
+        assertEquals(1, result.getAttempts());
+    }
+}
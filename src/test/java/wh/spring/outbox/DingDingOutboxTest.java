@@ -0,0 +1,195 @@
+package wh.spring.outbox;
+
+import com.taobao.api.ApiException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+import wh.spring.support.TestContexts;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DingDingOutboxTest {
+
+    private static final List<String> PERSONS = Collections.singletonList("13800000000");
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[16]);
+    private static final String ROBOT_SECRET = "SEC-robot-secret";
+    private static final String ADHOC_SECRET = "SEC-adhoc-secret";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubWebhookServer stub;
+    private String robotWebhook;
+    private String adhocWebhook;
+    private File dir;
+    private AnnotationConfigApplicationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = StubWebhookServer.start();
+        robotWebhook = stub.register("robot", ROBOT_SECRET);
+        adhocWebhook = stub.register("adhoc", ADHOC_SECRET);
+        dir = new File(folder.getRoot(), "outbox");
+    }
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        stub.close();
+    }
+
+    @Test
+    public void failedSendIsRedeliveredWhenWebhookRecovers() throws Exception {
+        stub.respond(request -> Response.status(503, ""));
+        context = start(50L, KEY, 100);
+        assertEquals(Long.valueOf(202L), send(adhocWebhook, ADHOC_SECRET, "hello").getErrcode());
+
+        stub.respond(request -> Response.ok());
+        DingDingOutbox outbox = context.getBean(DingDingOutbox.class);
+        await(() -> outbox.getPendingCount() == 0);
+        StubWebhookServer.Request last = stub.requests().get(stub.count() - 1);
+        assertTrue(last.signValid);
+        assertTrue(last.body.contains("hello"));
+        assertEquals(0L, outbox.getDroppedCount());
+    }
+
+    @Test
+    public void recordIsDroppedAfterMaxAttempts() throws Exception {
+        stub.respond(request -> Response.status(500, ""));
+        context = start(20L, KEY, 2);
+        send(adhocWebhook, ADHOC_SECRET, "never");
+        DingDingOutbox outbox = context.getBean(DingDingOutbox.class);
+        await(() -> outbox.getDroppedCount() == 1);
+        assertEquals(0, outbox.getPendingCount());
+        assertEquals(0, outbox.getRetryQueueSize());
+    }
+
+    @Test
+    public void segmentsHoldNoPlaintextSecretAndDirectoryIsPrivate() throws Exception {
+        stub.respond(request -> Response.status(503, ""));
+        context = start(60000L, KEY, 100);
+        send(robotWebhook, ROBOT_SECRET, "robot");
+        send(adhocWebhook, ADHOC_SECRET, "adhoc");
+        context.close();
+        context = null;
+
+        File[] files = dir.listFiles();
+        assertTrue(files != null && files.length > 0);
+        for (File file : files) {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+            assertFalse(content.contains(ROBOT_SECRET));
+            assertFalse(content.contains(ADHOC_SECRET));
+        }
+        if (dir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir.toPath())));
+        }
+    }
+
+    @Test
+    public void robotAndEncryptedSecretsAreReplayedAfterRestart() throws Exception {
+        stub.respond(request -> Response.status(503, ""));
+        context = start(60000L, KEY, 100);
+        send(robotWebhook, ROBOT_SECRET, "robot");
+        send(adhocWebhook, ADHOC_SECRET, "adhoc");
+        context.close();
+
+        stub.respond(request -> Response.ok());
+        int before = stub.count();
+        context = start(50L, KEY, 100);
+        DingDingOutbox outbox = context.getBean(DingDingOutbox.class);
+        await(() -> outbox.getPendingCount() == 0);
+        List<StubWebhookServer.Request> replayed = stub.requests().subList(before, stub.count());
+        assertEquals(2, replayed.size());
+        for (StubWebhookServer.Request request : replayed) {
+            assertTrue(request.token, request.signValid);
+        }
+        assertEquals(0L, outbox.getDroppedCount());
+    }
+
+    @Test
+    public void unrecoverableSecretIsDroppedOnReplay() throws Exception {
+        stub.respond(request -> Response.status(503, ""));
+        context = start(60000L, KEY, 100);
+        send(robotWebhook, ROBOT_SECRET, "robot");
+        send(adhocWebhook, ADHOC_SECRET, "adhoc");
+        context.close();
+
+        // 重启后没有加密密钥，只能还原已注册机器人的密钥
+        stub.respond(request -> Response.ok());
+        int before = stub.count();
+        context = start(50L, "", 100);
+        DingDingOutbox outbox = context.getBean(DingDingOutbox.class);
+        await(() -> outbox.getPendingCount() == 0);
+        List<StubWebhookServer.Request> replayed = stub.requests().subList(before, stub.count());
+        assertEquals(1, replayed.size());
+        assertEquals("robot", replayed.get(0).token);
+        assertEquals(1L, outbox.getDroppedCount());
+    }
+
+    @Test
+    public void unreplayableMessageIsNotWrittenWithoutSecretKey() throws Exception {
+        stub.respond(request -> Response.status(503, ""));
+        context = start(60000L, "", 100);
+        DingDingOutbox outbox = context.getBean(DingDingOutbox.class);
+        assertEquals(Long.valueOf(202L), send(robotWebhook, ROBOT_SECRET, "robot").getErrcode());
+        assertEquals(1, outbox.getPendingCount());
+
+        // 重启后无法还原密钥的消息不写入发件箱，调用方拿到真实的失败而不是 202
+        try {
+            send(adhocWebhook, ADHOC_SECRET, "adhoc");
+            fail("未写入发件箱的消息应返回真实的发送失败");
+        } catch (ApiException expected) {
+        }
+        assertEquals(1, outbox.getPendingCount());
+        assertEquals(1, outbox.getRetryQueueSize());
+    }
+
+    private AnnotationConfigApplicationContext start(long retryInterval, String secretKey, int maxAttempts) {
+        return TestContexts.create(
+                "dingding.outbox.enabled", "true",
+                "dingding.outbox.dir", dir.getAbsolutePath(),
+                "dingding.outbox.segmentSize", String.valueOf(1024 * 1024),
+                "dingding.outbox.retryInterval", String.valueOf(retryInterval),
+                "dingding.outbox.maxAttempts", String.valueOf(maxAttempts),
+                "dingding.outbox.secretKey", secretKey,
+                "dingding.retry.maxAttempts", "1",
+                "dingding.breaker.enabled", "false",
+                "dingding.limit.enabled", "false",
+                "dingding.robots.ops.webhook", robotWebhook,
+                "dingding.robots.ops.secret", ROBOT_SECRET);
+    }
+
+    private DingDingSendResult send(String webhook, String secret, String content) throws ApiException {
+        return context.getBean(DingDingService.class).sendDingTextMessage(secret, webhook, PERSONS, content);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue("等待超时", condition.getAsBoolean());
+    }
+}
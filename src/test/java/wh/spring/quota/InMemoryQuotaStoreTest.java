@@ -0,0 +1,96 @@
+package wh.spring.quota;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryQuotaStoreTest {
+
+    private static final String WEBHOOK = "http://127.0.0.1/robot/send?access_token=a";
+    /**
+     * 每小时一个许可，测试期间不会补充
+     */
+    private static final long INTERVAL = 3600000L;
+
+    private final InMemoryQuotaStore store = new InMemoryQuotaStore();
+
+    @Test
+    public void leaseGrantsAvailablePermitsUpToBurst() {
+        QuotaLease first = store.lease(WEBHOOK, 3, INTERVAL, 5, 0L);
+        assertEquals(3, first.getGranted());
+        assertEquals(0L, first.getWaitMillis());
+        QuotaLease second = store.lease(WEBHOOK, 3, INTERVAL, 5, 0L);
+        assertEquals(2, second.getGranted());
+        QuotaLease empty = store.lease(WEBHOOK, 3, INTERVAL, 5, 0L);
+        assertEquals(0, empty.getGranted());
+        assertTrue(empty.getWaitMillis() > INTERVAL - 1000L);
+    }
+
+    @Test
+    public void emptyBucketReservesNextPermitWithinMaxWait() {
+        assertEquals(2, store.lease(WEBHOOK, 2, 100L, 2, 0L).getGranted());
+        QuotaLease reserved = store.lease(WEBHOOK, 2, 100L, 2, 1000L);
+        assertEquals(1, reserved.getGranted());
+        assertTrue(String.valueOf(reserved.getWaitMillis()), reserved.getWaitMillis() > 0L && reserved.getWaitMillis() <= 100L);
+        // 下一个预约排在前一个之后
+        QuotaLease next = store.lease(WEBHOOK, 2, 100L, 2, 1000L);
+        assertEquals(1, next.getGranted());
+        assertTrue(next.getWaitMillis() > 100L);
+        // 超过 maxWait 时不占用许可
+        QuotaLease rejected = store.lease(WEBHOOK, 2, 100L, 2, 50L);
+        assertEquals(0, rejected.getGranted());
+        assertEquals(1, store.lease(WEBHOOK, 2, 100L, 2, 1000L).getGranted());
+    }
+
+    @Test
+    public void releasedPermitsCanBeLeasedAgain() {
+        assertEquals(4, store.lease(WEBHOOK, 4, INTERVAL, 4, 0L).getGranted());
+        store.release(WEBHOOK, 3, INTERVAL);
+        assertEquals(3, store.lease(WEBHOOK, 4, INTERVAL, 4, 0L).getGranted());
+        // 桶已满时归还不会超过容量
+        store.release(WEBHOOK, 3, INTERVAL);
+        store.release(WEBHOOK, 10, INTERVAL);
+        assertEquals(4, store.lease(WEBHOOK, 10, INTERVAL, 4, 0L).getGranted());
+    }
+
+    @Test
+    public void penalizeEmptiesQuotaForAllNodes() {
+        store.penalize(WEBHOOK, 60000L, 100L, 5);
+        QuotaLease lease = store.lease(WEBHOOK, 5, 100L, 5, 0L);
+        assertEquals(0, lease.getGranted());
+        assertTrue(lease.getWaitMillis() > 59000L);
+    }
+
+    @Test
+    public void concurrentLeasesNeverExceedBurst() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> {
+                    int granted = 0;
+                    for (int j = 0; j < 200; j++) {
+                        granted += store.lease(WEBHOOK, 1, INTERVAL, 100, 0L).getGranted();
+                    }
+                    return granted;
+                });
+            }
+            int total = 0;
+            for (Future<Integer> future : pool.invokeAll(tasks)) {
+                total += future.get();
+            }
+            // 冲突时重新读取计算，许可不会重复发出
+            assertEquals(100, total);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
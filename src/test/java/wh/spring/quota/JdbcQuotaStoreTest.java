@@ -0,0 +1,152 @@
+package wh.spring.quota;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JdbcQuotaStoreTest {
+
+    private static final String WEBHOOK = "http://127.0.0.1/robot/send?access_token=a";
+    /**
+     * 每小时一个许可，测试期间不会补充
+     */
+    private static final long INTERVAL = 3600000L;
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        // 每个测试一个独立的内存库，两个 store 共用同一张表，模拟两个节点
+        dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:quota" + System.nanoTime(), "SA", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @After
+    public void tearDown() {
+        jdbcTemplate.execute("shutdown");
+    }
+
+    @Test
+    public void tableNameMustBeAnIdentifier() {
+        for (String table : new String[]{"dingding_quota; drop table users", "quota where 1=1", "a.b.c", "1quota", ""}) {
+            JdbcQuotaStore store = new JdbcQuotaStore();
+            store.setTable(table);
+            try {
+                store.afterPropertiesSet();
+                fail("应拒绝表名: " + table);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("dingding.quota.table"));
+            }
+        }
+    }
+
+    @Test
+    public void createTableIsSkippedWhenTableExists() {
+        store("dingding_quota");
+        // 第二个节点启动时表已存在，不再建表
+        store("dingding_quota");
+        // 带 schema 前缀、大小写与元数据不同的表名
+        store("public.quota_with_schema");
+        store("PUBLIC.QUOTA_WITH_SCHEMA");
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject("select count(*) from dingding_quota", Integer.class));
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject("select count(*) from public.quota_with_schema", Integer.class));
+    }
+
+    @Test
+    public void tableStoresHashOfWebhookOnly() {
+        JdbcQuotaStore store = store("dingding_quota");
+        assertEquals(1, store.lease(WEBHOOK, 1, INTERVAL, 5, 0L).getGranted());
+        String key = jdbcTemplate.queryForObject("select webhook_key from dingding_quota", String.class);
+        assertEquals(64, key.length());
+        assertFalse(key.contains("access_token"));
+    }
+
+    @Test
+    public void compareAndSetInsertsOnceAndUpdatesOnlyExpectedValue() {
+        JdbcQuotaStore first = store("dingding_quota");
+        JdbcQuotaStore second = store("dingding_quota");
+        assertTrue(first.compareAndSet(WEBHOOK, null, 100L));
+        // 另一节点同时首次写入时主键冲突，按比较失败处理
+        assertFalse(second.compareAndSet(WEBHOOK, null, 200L));
+        assertEquals(Long.valueOf(100L), second.get(WEBHOOK));
+        assertFalse(second.compareAndSet(WEBHOOK, 99L, 200L));
+        assertTrue(second.compareAndSet(WEBHOOK, 100L, 200L));
+        assertFalse(first.compareAndSet(WEBHOOK, 100L, 300L));
+        assertEquals(Long.valueOf(200L), first.get(WEBHOOK));
+    }
+
+    @Test
+    public void leaseAndReleaseAreSharedBetweenStores() {
+        JdbcQuotaStore first = store("dingding_quota");
+        JdbcQuotaStore second = store("dingding_quota");
+        assertEquals(3, first.lease(WEBHOOK, 3, INTERVAL, 5, 0L).getGranted());
+        assertEquals(2, second.lease(WEBHOOK, 3, INTERVAL, 5, 0L).getGranted());
+        QuotaLease empty = first.lease(WEBHOOK, 3, INTERVAL, 5, 0L);
+        assertEquals(0, empty.getGranted());
+        assertTrue(empty.getWaitMillis() > INTERVAL - 1000L);
+        second.release(WEBHOOK, 2, INTERVAL);
+        assertEquals(2, first.lease(WEBHOOK, 3, INTERVAL, 5, 0L).getGranted());
+    }
+
+    @Test
+    public void penalizeEmptiesQuotaForOtherStores() {
+        JdbcQuotaStore first = store("dingding_quota");
+        JdbcQuotaStore second = store("dingding_quota");
+        assertEquals(1, second.lease(WEBHOOK, 1, 100L, 5, 0L).getGranted());
+        first.penalize(WEBHOOK, 60000L, 100L, 5);
+        QuotaLease lease = second.lease(WEBHOOK, 5, 100L, 5, 0L);
+        assertEquals(0, lease.getGranted());
+        assertTrue(lease.getWaitMillis() > 59000L);
+    }
+
+    @Test
+    public void concurrentLeasesFromTwoStoresNeverExceedBurst() throws Exception {
+        JdbcQuotaStore[] stores = {store("dingding_quota"), store("dingding_quota")};
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                JdbcQuotaStore store = stores[i % 2];
+                tasks.add(() -> {
+                    int granted = 0;
+                    for (int j = 0; j < 200; j++) {
+                        granted += store.lease(WEBHOOK, 1, INTERVAL, 100, 0L).getGranted();
+                    }
+                    return granted;
+                });
+            }
+            int total = 0;
+            for (Future<Integer> future : pool.invokeAll(tasks)) {
+                total += future.get();
+            }
+            // 首次插入的主键冲突和 where tat = ? 的比较失败都会重新读取计算，许可不会重复发出
+            assertEquals(100, total);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private JdbcQuotaStore store(String table) {
+        JdbcQuotaStore store = new JdbcQuotaStore();
+        store.setDataSource(dataSource);
+        store.setTable(table);
+        store.setCreateTable(true);
+        store.afterPropertiesSet();
+        return store;
+    }
+}
@@ -0,0 +1,222 @@
+package wh.spring.retry;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import reactor.core.publisher.Mono;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.TestContexts;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DingDingRetryPolicyTest {
+
+    private static AnnotationConfigApplicationContext context;
+
+    private DingDingRetryPolicy policy;
+    private String webhook;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeClass
+    public static void start() {
+        context = TestContexts.create("dingding.retry.initialBackoff", "1", "dingding.retry.maxAttempts", "3",
+                "dingding.breaker.failureThreshold", "3", "dingding.breaker.openDuration", "20");
+    }
+
+    @AfterClass
+    public static void stop() {
+        context.close();
+    }
+
+    @Before
+    public void setUp() {
+        policy = context.getBean(DingDingRetryPolicy.class);
+        // 每个用例使用独立的熔断器
+        webhook = "http://127.0.0.1/robot/send?access_token=" + System.nanoTime();
+    }
+
+    @Test
+    public void systemBusyIsRetried() throws ApiException {
+        DingDingSendResult result = policy.execute(webhook, () -> calls.incrementAndGet() < 3 ? response(-1L) : response(0L));
+        assertEquals(Long.valueOf(0L), result.getErrcode());
+        assertEquals(3, result.getAttempts());
+    }
+
+    @Test
+    public void runtimeExceptionIsRetriedAndCountedThenWrapped() {
+        try {
+            policy.execute(webhook, () -> {
+                calls.incrementAndGet();
+                throw new NullPointerException("boom");
+            });
+            fail();
+        } catch (ApiException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        assertEquals(3, calls.get());
+        assertEquals(CircuitBreaker.State.OPEN, policy.getBreaker(webhook).getState());
+    }
+
+    @Test
+    public void connectFailureIsRetried() {
+        assertFails(() -> {
+            calls.incrementAndGet();
+            throw new ApiException(new ConnectException("Connection refused"));
+        });
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void failuresAfterSendAreCountedButNotRetried() {
+        // 读超时、5xx 和无法解析的响应：消息可能已经发出，重试会重复推送
+        assertFails(() -> {
+            calls.incrementAndGet();
+            throw new ApiException(new SocketTimeoutException("Read timed out"));
+        });
+        assertFails(() -> {
+            calls.incrementAndGet();
+            throw new ApiException("503", "unavailable");
+        });
+        assertFails(() -> {
+            calls.incrementAndGet();
+            throw new ApiException("200", "钉钉响应无法解析");
+        });
+        assertEquals(3, calls.get());
+        assertEquals(CircuitBreaker.State.OPEN, policy.getBreaker(webhook).getState());
+    }
+
+    @Test
+    public void failuresAfterSendAreRetriedWhenEnabled() {
+        policy.setRetryAfterSend(true);
+        try {
+            assertFails(() -> {
+                calls.incrementAndGet();
+                throw new ApiException("503", "unavailable");
+            });
+        } finally {
+            policy.setRetryAfterSend(false);
+        }
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void clientErrorIsNeitherRetriedNorCounted() {
+        assertFails(() -> {
+            calls.incrementAndGet();
+            throw new ApiException("404", "not found");
+        });
+        assertEquals(1, calls.get());
+        assertEquals(0, policy.getBreaker(webhook).getConsecutiveFailures());
+    }
+
+    @Test
+    public void contentErrorIsNeitherRetriedNorCounted() throws ApiException {
+        for (int i = 0; i < 5; i++) {
+            DingDingSendResult result = policy.execute(webhook, () -> {
+                calls.incrementAndGet();
+                return response(400101L);
+            });
+            assertEquals(Long.valueOf(400101L), result.getErrcode());
+        }
+        assertEquals(5, calls.get());
+        assertEquals(CircuitBreaker.State.CLOSED, policy.getBreaker(webhook).getState());
+        assertEquals(0, policy.getBreaker(webhook).getConsecutiveFailures());
+    }
+
+    @Test
+    public void openBreakerFailsFastAndProbeIsResolvedOnRuntimeException() throws Exception {
+        CircuitBreaker breaker = policy.getBreaker(webhook);
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        try {
+            policy.execute(webhook, () -> response(0L));
+            fail();
+        } catch (ApiException e) {
+            assertEquals("CIRCUIT_OPEN", e.getErrCode());
+        }
+
+        TimeUnit.MILLISECONDS.sleep(30);
+        assertFails(() -> {
+            throw new IllegalArgumentException("bad");
+        });
+        // 探测失败后重新打开，而不是停在半开状态
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        TimeUnit.MILLISECONDS.sleep(30);
+        assertEquals(Long.valueOf(0L), policy.execute(webhook, () -> response(0L)).getErrcode());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void probeIsResolvedWhenCallThrowsError() throws Exception {
+        CircuitBreaker breaker = policy.getBreaker(webhook);
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        TimeUnit.MILLISECONDS.sleep(30);
+        try {
+            policy.execute(webhook, () -> {
+                throw new AssertionError("error");
+            });
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("error", e.getMessage());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void reactiveRetriesConnectFailuresAndSystemBusy() {
+        DingDingSendResult result = policy.executeReactive(webhook, () -> {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                return Mono.error(new ConnectException("Connection refused"));
+            }
+            return Mono.just(response(call == 2 ? -1L : 0L));
+        }).block(Duration.ofSeconds(5));
+        assertEquals(Long.valueOf(0L), result.getErrcode());
+        assertEquals(3, result.getAttempts());
+    }
+
+    @Test
+    public void reactiveDoesNotRetryEmptyResponses() {
+        try {
+            policy.executeReactive(webhook, () -> {
+                calls.incrementAndGet();
+                return Mono.<OapiRobotSendResponse>empty();
+            }).block(Duration.ofSeconds(5));
+            fail();
+        } catch (RuntimeException e) {
+            // 期望
+        }
+        assertEquals(1, calls.get());
+    }
+
+    private void assertFails(RobotCall call) {
+        try {
+            policy.execute(webhook, call);
+            fail();
+        } catch (ApiException e) {
+            // 期望
+        }
+    }
+
+    private static OapiRobotSendResponse response(long errcode) {
+        OapiRobotSendResponse response = new OapiRobotSendResponse();
+        response.setErrcode(errcode);
+        response.setErrmsg(errcode == 0L ? "ok" : "error");
+        return response;
+    }
+}
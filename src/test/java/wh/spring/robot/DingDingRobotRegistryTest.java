@@ -0,0 +1,157 @@
+package wh.spring.robot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.client.DingTalkClientRegistry;
+import wh.spring.interfaces.DingDingRobotService;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+import wh.spring.support.TestContexts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingRobotRegistryTest {
+
+    private StubWebhookServer stub;
+    private String oldWebhook;
+    private String newWebhook;
+    private AnnotationConfigApplicationContext context;
+    private DingDingRobotRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = StubWebhookServer.start();
+        oldWebhook = stub.register("old", "SEC-old");
+        newWebhook = stub.register("new", "SEC-new");
+    }
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        stub.close();
+    }
+
+    @Test
+    public void sharedWebhookWithDifferentLimitsIsRejected() {
+        start("dingding.robots.a.webhook", oldWebhook, "dingding.robots.a.secret", "SEC-old",
+                "dingding.robots.a.permitsPerMinute", "20", "dingding.robots.a.burst", "5",
+                "dingding.robots.b.webhook", oldWebhook, "dingding.robots.b.secret", "SEC-old",
+                "dingding.robots.b.permitsPerMinute", "30", "dingding.robots.b.burst", "5",
+                "dingding.robots.c.webhook", oldWebhook, "dingding.robots.c.secret", "SEC-old",
+                "dingding.robots.c.permitsPerMinute", "20", "dingding.robots.c.burst", "5");
+        // 设置相同的 c 共用额度，设置不同的 b 不加载，额度仍是 a 的
+        assertNotNull(registry.getRobot("a"));
+        assertNull(registry.getRobot("b"));
+        assertNotNull(registry.getRobot("c"));
+        assertEquals(5, context.getBean(DingDingRateLimiter.class).getBucket(oldWebhook).getBurst());
+    }
+
+    @Test
+    public void sharedWebhookConflictKeepsPreviousConfig() throws Exception {
+        start("dingding.robots.a.webhook", oldWebhook, "dingding.robots.a.secret", "SEC-old",
+                "dingding.robots.b.webhook", newWebhook, "dingding.robots.b.secret", "SEC-new",
+                "dingding.robots.b.maxAttempts", "2");
+        DingDingRobot b = registry.getRobot("b");
+        // b 改用 a 的 webhook 且设置不同：继续使用原配置
+        properties().put("dingding.robots.b.webhook", oldWebhook);
+        registry.reload();
+        assertSame(b, registry.getRobot("b"));
+        assertEquals(newWebhook, registry.getRobot("b").getWebhook());
+    }
+
+    @Test
+    public void retiredWebhookClientIsEvicted() throws Exception {
+        start("dingding.robots.a.webhook", oldWebhook, "dingding.robots.a.secret", "SEC-old",
+                "dingding.robots.b.webhook", newWebhook, "dingding.robots.b.secret", "SEC-new");
+        DingTalkClientRegistry clientRegistry = context.getBean(DingTalkClientRegistry.class);
+        assertEquals(2, clientRegistry.getClientCount());
+        properties().remove("dingding.robots.b.webhook");
+        properties().remove("dingding.robots.b.secret");
+        registry.reload();
+        assertEquals(1, clientRegistry.getClientCount());
+        assertSame(registry.getRobot("a").getClient(), clientRegistry.getClient(oldWebhook));
+    }
+
+    @Test
+    public void environmentChangeEventForRobotKeysReloads() {
+        start("dingding.robots.a.webhook", oldWebhook, "dingding.robots.a.secret", "SEC-old");
+        properties().put("dingding.robots.b.webhook", newWebhook);
+        properties().put("dingding.robots.b.secret", "SEC-new");
+        context.publishEvent(new EnvironmentChangeEvent(context, Collections.singleton("server.port")));
+        assertNull("无关的键变化不重新加载", registry.getRobot("b"));
+
+        context.publishEvent(new EnvironmentChangeEvent(context, Collections.singleton("dingding.robots.b.webhook")));
+        assertEquals(newWebhook, registry.getRobot("b").getWebhook());
+
+        properties().remove("dingding.robots.a.webhook");
+        properties().remove("dingding.robots.a.secret");
+        context.publishEvent(new RefreshScopeRefreshedEvent());
+        assertNull(registry.getRobot("a"));
+    }
+
+    @Test
+    public void reloadWhileSendsInFlightCompletesWithPreviousWebhook() throws Exception {
+        start("dingding.limit.enabled", "false",
+                "dingding.robots.a.webhook", oldWebhook, "dingding.robots.a.secret", "SEC-old");
+        stub.respond(request -> "old".equals(request.token) ? Response.ok().delayed(300) : Response.ok());
+        DingDingRobotService service = context.getBean(DingDingRobotService.class);
+        List<CompletableFuture<DingDingSendResult>> inFlight = new ArrayList<CompletableFuture<DingDingSendResult>>();
+        for (int i = 0; i < 5; i++) {
+            inFlight.add(service.sendDingTextMessageAsync("a", null, "before-" + i));
+        }
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        // 发送途中换 webhook 和密钥，旧密钥的签名缓存被清除
+        properties().put("dingding.robots.a.webhook", newWebhook);
+        properties().put("dingding.robots.a.secret", "SEC-new");
+        context.publishEvent(new RefreshScopeRefreshedEvent());
+        assertEquals(newWebhook, registry.getRobot("a").getWebhook());
+        DingDingSendResult after = service.sendDingTextMessage("a", null, "after");
+        assertEquals(Long.valueOf(0L), after.getErrcode());
+
+        for (CompletableFuture<DingDingSendResult> future : inFlight) {
+            assertEquals(Long.valueOf(0L), future.get(5, TimeUnit.SECONDS).getErrcode());
+        }
+        int before = 0;
+        for (StubWebhookServer.Request request : stub.requests()) {
+            assertTrue(request.signValid);
+            if (request.body.contains("before-")) {
+                assertEquals("old", request.token);
+                before++;
+            } else {
+                assertEquals("new", request.token);
+            }
+        }
+        assertEquals(5, before);
+        assertEquals(6, stub.count());
+    }
+
+    private void start(String... properties) {
+        context = TestContexts.create(properties);
+        registry = context.getBean(DingDingRobotRegistry.class);
+        registry.setEnvironmentChangeEvent(EnvironmentChangeEvent.class.getName());
+        registry.setRefreshScopeRefreshedEvent(RefreshScopeRefreshedEvent.class.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> properties() {
+        return (Map<String, Object>) context.getEnvironment().getPropertySources().get("test").getSource();
+    }
+}
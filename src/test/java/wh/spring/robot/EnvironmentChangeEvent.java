@@ -0,0 +1,22 @@
+package wh.spring.robot;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Set;
+
+/**
+ * 与 Spring Cloud 中同名事件的 getKeys() 一致，测试中把类名设置到 DingDingRobotRegistry
+ */
+public class EnvironmentChangeEvent extends ApplicationEvent {
+
+    private final Set<String> keys;
+
+    public EnvironmentChangeEvent(Object context, Set<String> keys) {
+        super(context);
+        this.keys = keys;
+    }
+
+    public Set<String> getKeys() {
+        return keys;
+    }
+}
@@ -0,0 +1,13 @@
+package wh.spring.robot;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 代替 Spring Cloud 中的同名事件，测试中把类名设置到 DingDingRobotRegistry
+ */
+public class RefreshScopeRefreshedEvent extends ApplicationEvent {
+
+    public RefreshScopeRefreshedEvent() {
+        super("RefreshScopeRefreshed");
+    }
+}
@@ -0,0 +1,169 @@
+package wh.spring.schedule;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.metrics.DingDingMetrics;
+import wh.spring.metrics.SendStats;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.TestContexts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingPrioritySchedulerTest {
+
+    private static final String WEBHOOK = "http://127.0.0.1/robot/send?access_token=a";
+    private static final String OTHER = "http://127.0.0.1/robot/send?access_token=b";
+
+    private AnnotationConfigApplicationContext context;
+    private DingDingPriorityScheduler scheduler;
+    private SendStats stats;
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void criticalLatencyStaysBoundedUnderBulkFlood() throws Exception {
+        // 每 50ms 一个令牌、突发 3 个，其中 1 个只给 CRITICAL/HIGH
+        start("dingding.limit.permitsPerMinute", "1200", "dingding.limit.burst", "3", "dingding.priority.reservedTokens", "1",
+                "dingding.priority.workers", "2", "dingding.priority.reservedWorkers", "1");
+        for (int i = 0; i < 500; i++) {
+            submit(WEBHOOK, MessagePriority.BULK, 60000L, "bulk", 5);
+        }
+        TimeUnit.MILLISECONDS.sleep(100);
+        for (int i = 0; i < 5; i++) {
+            long begin = System.nanoTime();
+            DingDingSendResult result = submit(WEBHOOK, MessagePriority.CRITICAL, 10000L, "critical", 0).get(5, TimeUnit.SECONDS);
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertEquals(Long.valueOf(0L), result.getErrcode());
+            // 不用等 BULK 排空，也不用等下一个令牌
+            assertTrue("CRITICAL 延迟过长: " + latency + "ms", latency < 200);
+            TimeUnit.MILLISECONDS.sleep(60);
+        }
+        assertTrue(scheduler.getQueuedCount() > 400);
+    }
+
+    @Test
+    public void sharedQuotaKeepsReservedTokenForCritical() throws Exception {
+        // 共享额度下每次租 3 个许可，BULK 用掉 2 个后剩下的 1 个留给 CRITICAL
+        start("dingding.quota.store", "memory", "dingding.quota.leaseSize", "3", "dingding.quota.leaseTtl", "60000",
+                "dingding.limit.permitsPerMinute", "60", "dingding.limit.burst", "10", "dingding.priority.reservedTokens", "1");
+        DingDingRateLimiter rateLimiter = context.getBean(DingDingRateLimiter.class);
+        assertTrue(rateLimiter.isShared());
+        for (int i = 0; i < 5; i++) {
+            submit(WEBHOOK, MessagePriority.BULK, 60000L, "bulk", 0);
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(Arrays.asList("bulk", "bulk"), sent);
+        assertEquals(1, rateLimiter.getBucket(WEBHOOK).getAvailableTokens());
+        // CRITICAL 用掉保留的许可后 BULK 会再去租用，两者的发送线程先后不定，不比较之后的顺序
+        DingDingSendResult result = submit(WEBHOOK, MessagePriority.CRITICAL, 10000L, "critical", 0).get(1, TimeUnit.SECONDS);
+        assertEquals(Long.valueOf(0L), result.getErrcode());
+        assertTrue(sent.contains("critical"));
+    }
+
+    @Test
+    public void expiredBulkIsDroppedWithLocal429() throws Exception {
+        // 每秒一个令牌，保留 1 个后 BULK 只能发第一条
+        start("dingding.limit.permitsPerMinute", "60", "dingding.limit.burst", "2", "dingding.priority.reservedTokens", "1");
+        List<CompletableFuture<DingDingSendResult>> futures = new ArrayList<CompletableFuture<DingDingSendResult>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(submit(WEBHOOK, MessagePriority.BULK, 100L, "bulk-" + i, 0));
+        }
+        assertEquals(Long.valueOf(0L), futures.get(0).get(5, TimeUnit.SECONDS).getErrcode());
+        for (int i = 1; i < 5; i++) {
+            DingDingSendResult result = futures.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(Long.valueOf(DingDingSendResult.THROTTLED), result.getErrcode());
+            assertTrue(result.isLocal());
+        }
+        assertEquals(Collections.singletonList("bulk-0"), sent);
+        assertEquals(4L, scheduler.getExpiredCount());
+        assertEquals(4L, stats.getThrottledCount());
+    }
+
+    @Test
+    public void sameWebhookSendsEarliestDeadlineFirst() throws Exception {
+        // 突发 1 个：第一条立即发出，其余排队等下一个令牌，按截止时间出队
+        start("dingding.limit.permitsPerMinute", "1200", "dingding.limit.burst", "1", "dingding.priority.reservedTokens", "0");
+        List<CompletableFuture<DingDingSendResult>> futures = new ArrayList<CompletableFuture<DingDingSendResult>>();
+        // first 截止时间最晚，先让它取走唯一的令牌并停在发送中，其余消息再入队
+        CountDownLatch gate = new CountDownLatch(1);
+        futures.add(scheduler.submit(WEBHOOK, MessagePriority.NORMAL, 60000L, stats, () -> {
+            sent.add("first");
+            gate.await();
+            return new DingDingSendResult(0L, "ok");
+        }));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getInFlightCount() < 1 && System.nanoTime() - deadline < 0) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals(1, scheduler.getInFlightCount());
+        futures.add(submit(WEBHOOK, MessagePriority.NORMAL, 40000L, "d40", 0));
+        futures.add(submit(WEBHOOK, MessagePriority.NORMAL, 20000L, "d20", 0));
+        futures.add(submit(WEBHOOK, MessagePriority.NORMAL, 30000L, "d30", 0));
+        futures.add(submit(WEBHOOK, MessagePriority.HIGH, 50000L, "high", 0));
+        gate.countDown();
+        for (CompletableFuture<DingDingSendResult> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList("first", "high", "d20", "d30", "d40"), sent);
+    }
+
+    @Test
+    public void webhooksShareWorkersByWeight() throws Exception {
+        start("dingding.limit.enabled", "false", "dingding.priority.workers", "2", "dingding.priority.reservedWorkers", "1");
+        scheduler.setWeight(WEBHOOK, 3);
+        // 占住唯一给 NORMAL 用的发送线程，让两个 webhook 的消息都排上队
+        CountDownLatch gate = new CountDownLatch(1);
+        CompletableFuture<DingDingSendResult> blocker = scheduler.submit(OTHER, MessagePriority.NORMAL, 60000L, stats, () -> {
+            gate.await();
+            return new DingDingSendResult(0L, "ok");
+        });
+        TimeUnit.MILLISECONDS.sleep(50);
+        List<CompletableFuture<DingDingSendResult>> futures = new ArrayList<CompletableFuture<DingDingSendResult>>();
+        for (int i = 0; i < 40; i++) {
+            futures.add(submit(WEBHOOK, MessagePriority.NORMAL, 60000L, "a", 0));
+            futures.add(submit(OTHER, MessagePriority.NORMAL, 60000L, "b", 0));
+        }
+        gate.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<DingDingSendResult> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        int a = Collections.frequency(sent.subList(0, 20), "a");
+        assertTrue("权重 3:1 时前 20 条中 a 应约占 15 条: " + sent.subList(0, 20), a >= 14 && a <= 16);
+        assertEquals(40, Collections.frequency(sent, "a"));
+        assertEquals(40, Collections.frequency(sent, "b"));
+    }
+
+    private void start(String... properties) {
+        context = TestContexts.create(properties);
+        scheduler = context.getBean(DingDingPriorityScheduler.class);
+        stats = context.getBean(DingDingMetrics.class).getStats(WEBHOOK, "text");
+    }
+
+    private CompletableFuture<DingDingSendResult> submit(String webhook, MessagePriority priority, long deadline, String name, long sendMillis) {
+        Callable<DingDingSendResult> send = () -> {
+            sent.add(name);
+            TimeUnit.MILLISECONDS.sleep(sendMillis);
+            return new DingDingSendResult(0L, "ok");
+        };
+        return scheduler.submit(webhook, priority, deadline, stats, send);
+    }
+}
@@ -0,0 +1,120 @@
+package wh.spring.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.model.DingDingBroadcastResult;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.model.DingDingTarget;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+import wh.spring.support.TestContexts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingBroadcastTest {
+
+    private static final List<String> PERSONS = Collections.emptyList();
+
+    private StubWebhookServer stub;
+    private AnnotationConfigApplicationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = StubWebhookServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        stub.close();
+    }
+
+    @Test
+    public void largeBroadcastAppliesBackPressureInsteadOfRejecting() {
+        int parallelism = 4;
+        context = TestContexts.create("dingding.broadcast.parallelism", String.valueOf(parallelism),
+                "dingding.limit.enabled", "false", "dingding.client.maxPerRoute", "32");
+        AtomicInteger inflight = new AtomicInteger();
+        AtomicInteger maxInflight = new AtomicInteger();
+        stub.respond(request -> {
+            int current = inflight.incrementAndGet();
+            maxInflight.accumulateAndGet(current, Math::max);
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } finally {
+                inflight.decrementAndGet();
+            }
+            return Response.ok();
+        });
+        List<DingDingTarget> targets = new ArrayList<DingDingTarget>();
+        // 超过原来 parallelism + 队列长度(1000) 的上限
+        for (int i = 0; i < 1500; i++) {
+            String secret = "SEC-" + (i % 50);
+            targets.add(new DingDingTarget(stub.register("robot-" + (i % 50), secret), secret));
+        }
+        targets.add(new DingDingTarget("", "SEC-x"));
+
+        List<DingDingBroadcastResult> results = context.getBean(DingDingService.class).broadcastTextMessage(targets, PERSONS, "hello");
+
+        assertEquals(targets.size(), results.size());
+        for (int i = 0; i < 1500; i++) {
+            assertTrue(String.valueOf(results.get(i).getError()), results.get(i).isSuccess());
+            assertSame(targets.get(i), results.get(i).getTarget());
+        }
+        assertEquals(Long.valueOf(DingDingSendResult.INVALID), results.get(1500).getResult().getErrcode());
+        assertEquals(1500, stub.count());
+        assertTrue("同时在途的请求数超过 parallelism: " + maxInflight.get(), maxInflight.get() <= parallelism);
+    }
+
+    @Test
+    public void limiterWaitIsReservedAndBoundedByMaxWait() {
+        // 每分钟 1200 条、突发 1 条：同一 webhook 每条间隔 50ms，第三条约等 100ms，maxWait 内可以等到
+        context = TestContexts.create("dingding.limit.permitsPerMinute", "1200", "dingding.limit.burst", "1",
+                "dingding.limit.policy", "BLOCK", "dingding.limit.maxWait", "200", "dingding.priority.reservedTokens", "0");
+        String webhook = stub.register("robot", "SEC-a");
+        List<DingDingTarget> targets = new ArrayList<DingDingTarget>();
+        for (int i = 0; i < 3; i++) {
+            targets.add(new DingDingTarget(webhook, "SEC-a"));
+        }
+        long start = System.nanoTime();
+        List<DingDingBroadcastResult> results = context.getBean(DingDingService.class).broadcastTextMessage(targets, PERSONS, "hello");
+        for (DingDingBroadcastResult result : results) {
+            assertTrue(result.isSuccess());
+        }
+        List<StubWebhookServer.Request> requests = stub.requests();
+        assertEquals(3, requests.size());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(requests.get(2).receivedAt - start);
+        assertTrue("按令牌间隔发出: " + elapsed, elapsed >= 90);
+    }
+
+    @Test
+    public void targetBeyondMaxWaitIsThrottledWithoutWaiting() {
+        context = TestContexts.create("dingding.limit.permitsPerMinute", "20", "dingding.limit.burst", "1",
+                "dingding.limit.policy", "BLOCK", "dingding.limit.maxWait", "50", "dingding.priority.reservedTokens", "0");
+        String webhook = stub.register("robot", "SEC-a");
+        List<DingDingTarget> targets = new ArrayList<DingDingTarget>();
+        targets.add(new DingDingTarget(webhook, "SEC-a"));
+        targets.add(new DingDingTarget(webhook, "SEC-a"));
+        long start = System.nanoTime();
+        List<DingDingBroadcastResult> results = context.getBean(DingDingService.class).broadcastTextMessage(targets, PERSONS, "hello");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertTrue(results.get(0).isSuccess());
+        DingDingSendResult throttled = results.get(1).getResult();
+        assertEquals(Long.valueOf(DingDingSendResult.THROTTLED), throttled.getErrcode());
+        assertTrue(throttled.isLocal());
+        assertEquals(1, stub.count());
+    }
+}
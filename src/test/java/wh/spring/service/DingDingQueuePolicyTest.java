@@ -0,0 +1,82 @@
+package wh.spring.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+import wh.spring.support.TestContexts;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingQueuePolicyTest {
+
+    private static final String SECRET = "SEC-queue";
+    private static final long STALL_MILLIS = 2000L;
+
+    private StubWebhookServer stub;
+    private String slowWebhook;
+    private String fastWebhook;
+    private AnnotationConfigApplicationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = StubWebhookServer.start();
+        slowWebhook = stub.register("slow", SECRET);
+        fastWebhook = stub.register("fast", SECRET);
+    }
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        stub.close();
+    }
+
+    @Test
+    public void stalledWebhookDoesNotDelayQueuedMessagesOfOtherWebhooks() throws Exception {
+        // 每分钟 600 条、突发 1，约每 100ms 补充一个令牌
+        context = TestContexts.create("dingding.limit.policy", "QUEUE", "dingding.limit.permitsPerMinute", "600",
+                "dingding.limit.burst", "1", "dingding.priority.reservedTokens", "0", "dingding.retry.maxAttempts", "1");
+        stub.respond(request -> "slow".equals(request.token) ? Response.ok().delayed(STALL_MILLIS) : Response.ok());
+        DingDingRateLimiter limiter = context.getBean(DingDingRateLimiter.class);
+        DingDingService service = context.getBean(DingDingService.class);
+
+        // 用掉两个 webhook 的突发令牌，之后的消息都进入排队
+        assertTrue(limiter.getBucket(slowWebhook).tryAcquire());
+        assertTrue(limiter.getBucket(fastWebhook).tryAcquire());
+        for (int i = 0; i < 3; i++) {
+            DingDingSendResult result = service.sendDingTextMessage(SECRET, slowWebhook, null, "慢消息 " + i);
+            assertEquals(Long.valueOf(DingDingSendResult.ACCEPTED), result.getErrcode());
+        }
+        long queuedAt = System.nanoTime();
+        DingDingSendResult result = service.sendDingTextMessage(SECRET, fastWebhook, null, "快消息");
+        assertEquals(Long.valueOf(DingDingSendResult.ACCEPTED), result.getErrcode());
+
+        StubWebhookServer.Request fast = awaitRequest("fast", STALL_MILLIS * 2);
+        assertTrue("另一 webhook 的排队消息应按自己的令牌发出", fast != null);
+        long delay = TimeUnit.NANOSECONDS.toMillis(fast.receivedAt - queuedAt);
+        assertTrue("不应等待卡住的 webhook: " + delay + "ms", delay < STALL_MILLIS / 2);
+    }
+
+    private StubWebhookServer.Request awaitRequest(String token, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (System.nanoTime() - deadline < 0) {
+            for (StubWebhookServer.Request request : stub.requests()) {
+                if (token.equals(request.token)) {
+                    return request;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+package wh.spring.service;
+
+import com.taobao.api.internal.util.TaobaoUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.TestContexts;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多线程同时调用同一个 DingDingServiceImpl，校验每个请求体、签名和 @ 人都属于发出它的那条消息
+ */
+public class DingDingServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int MESSAGES_PER_THREAD = 200;
+
+    private static StubWebhookServer stub;
+    private static AnnotationConfigApplicationContext context;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        stub = StubWebhookServer.start();
+        context = TestContexts.create("dingding.limit.enabled", "false", "dingding.client.maxPerRoute", "32");
+    }
+
+    @AfterClass
+    public static void stop() {
+        context.close();
+        stub.close();
+    }
+
+    @Test
+    public void concurrentSendsKeepPayloadsApart() throws Exception {
+        DingDingService service = context.getBean(DingDingService.class);
+        String[] webhooks = new String[THREADS];
+        String[] secrets = new String[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            secrets[t] = "SEC-secret-" + t;
+            webhooks[t] = stub.register("robot-" + t, secrets[t]);
+        }
+        Set<String> sent = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        CountDownLatch ready = new CountDownLatch(1);
+        ExecutorService senders = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(senders.submit(() -> {
+                ready.await();
+                int ok = 0;
+                List<String> persons = Collections.singletonList(mobile(thread));
+                for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                    String id = thread + "-" + i;
+                    DingDingSendResult result;
+                    switch (i % 4) {
+                        case 0:
+                            result = service.sendDingTextMessage(secrets[thread], webhooks[thread], persons, id);
+                            break;
+                        case 1:
+                            result = service.sendDingMarkdownMessage(secrets[thread], webhooks[thread], persons, id, id, null, null);
+                            break;
+                        case 2:
+                            result = service.sendDingLinkMessage(secrets[thread], webhooks[thread], id, id, "http://example.com/" + id, null);
+                            break;
+                        default:
+                            result = service.sendDingOverallActionCardMessage(secrets[thread], webhooks[thread], id, id, "open", "http://example.com/" + id);
+                            break;
+                    }
+                    sent.add(id);
+                    if (result.getErrcode() != null && result.getErrcode() == 0L) {
+                        ok++;
+                    }
+                }
+                return ok;
+            }));
+        }
+        ready.countDown();
+        int ok = 0;
+        for (Future<Integer> future : futures) {
+            ok += future.get(60, TimeUnit.SECONDS);
+        }
+        senders.shutdown();
+
+        assertEquals(THREADS * MESSAGES_PER_THREAD, ok);
+        assertEquals(THREADS * MESSAGES_PER_THREAD, stub.count());
+        Set<String> received = new HashSet<String>();
+        for (StubWebhookServer.Request request : stub.requests()) {
+            assertTrue("签名与 webhook 不匹配: " + request.token, request.signValid);
+            String id = verifyBody(request);
+            assertTrue("重复收到 " + id, received.add(id));
+        }
+        assertEquals(sent, received);
+    }
+
+    /**
+     * @return 请求体中的消息编号，各字段必须属于同一条消息，且与发往的 webhook 一致
+     */
+    @SuppressWarnings("unchecked")
+    private static String verifyBody(StubWebhookServer.Request request) {
+        Map<String, Object> json = (Map<String, Object>) TaobaoUtils.jsonToObject(request.body);
+        String msgtype = (String) json.get("msgtype");
+        String id;
+        switch (msgtype) {
+            case "text":
+                id = (String) ((Map<String, Object>) json.get("text")).get("content");
+                assertAt(json, id);
+                break;
+            case "markdown": {
+                Map<String, Object> markdown = (Map<String, Object>) json.get("markdown");
+                id = (String) markdown.get("title");
+                assertEquals(id + "@" + mobile(thread(id)), markdown.get("text"));
+                assertAt(json, id);
+                break;
+            }
+            case "link": {
+                Map<String, Object> link = (Map<String, Object>) json.get("link");
+                id = (String) link.get("title");
+                assertEquals(id, link.get("text"));
+                assertEquals("http://example.com/" + id, link.get("messageUrl"));
+                break;
+            }
+            case "actionCard": {
+                Map<String, Object> card = (Map<String, Object>) json.get("actionCard");
+                id = (String) card.get("title");
+                assertEquals(id, card.get("text"));
+                assertEquals("http://example.com/" + id, card.get("singleURL"));
+                break;
+            }
+            default:
+                throw new AssertionError("未知消息类型: " + msgtype);
+        }
+        assertEquals("robot-" + thread(id), request.token);
+        return id;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertAt(Map<String, Object> json, String id) {
+        Map<String, Object> at = (Map<String, Object>) json.get("at");
+        assertEquals(Collections.singletonList(mobile(thread(id))), at.get("atMobiles"));
+    }
+
+    private static int thread(String id) {
+        return Integer.parseInt(id.substring(0, id.indexOf('-')));
+    }
+
+    private static String mobile(int thread) {
+        return String.valueOf(13800000000L + thread);
+    }
+}
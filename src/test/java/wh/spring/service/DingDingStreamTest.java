@@ -0,0 +1,149 @@
+package wh.spring.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.support.StubWebhookServer;
+import wh.spring.support.StubWebhookServer.Response;
+import wh.spring.support.TestContexts;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DingDingStreamTest {
+
+    private static final String SECRET = "SEC-stream";
+    private static final int MAX_BYTES = 1000;
+    /**
+     * 请求体中正文和标题之外的 JSON 结构
+     */
+    private static final int JSON_OVERHEAD = 150;
+
+    private StubWebhookServer stub;
+    private String webhook;
+    private AnnotationConfigApplicationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = StubWebhookServer.start();
+        webhook = stub.register("stream", SECRET);
+    }
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        stub.close();
+    }
+
+    @Test
+    public void partsAreSentInOrderWithinSizeLimitIncludingTitle() throws Exception {
+        start("dingding.limit.enabled", "false");
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            title.append('题');
+        }
+        List<DingDingSendResult> results = service().sendDingMarkdownStream(SECRET, webhook, null, title.toString(), lines(60));
+
+        assertTrue(results.size() > 2);
+        assertEquals(results.size(), stub.count());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Long.valueOf(0L), results.get(i).getErrcode());
+            StubWebhookServer.Request request = stub.requests().get(i);
+            assertTrue(request.signValid);
+            int bytes = request.body.getBytes(StandardCharsets.UTF_8).length;
+            assertTrue("带序号的标题也应计入大小限制: " + bytes, bytes <= MAX_BYTES + JSON_OVERHEAD);
+            String sequence = (i + 1) + (i == results.size() - 1 ? "，完" : "");
+            assertTrue(request.body, request.body.contains(title + "（" + sequence + "）"));
+        }
+    }
+
+    @Test
+    public void titleLeavingNoRoomForContentIsRejected() throws Exception {
+        start("dingding.limit.enabled", "false");
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            title.append('题');
+        }
+        List<DingDingSendResult> results = service().sendDingMarkdownStream(SECRET, webhook, null, title.toString(), lines(10));
+        assertEquals(1, results.size());
+        assertEquals(Long.valueOf(DingDingSendResult.INVALID), results.get(0).getErrcode());
+        assertEquals(0, stub.count());
+    }
+
+    @Test
+    public void partBeyondMaxWaitIsThrottledAndStopsTheStream() throws Exception {
+        // 每 50ms 一个令牌，第二段要等约 50ms，超过 maxWait
+        start("dingding.limit.permitsPerMinute", "1200", "dingding.limit.burst", "1", "dingding.limit.policy", "BLOCK",
+                "dingding.limit.maxWait", "20", "dingding.priority.reservedTokens", "0");
+        long start = System.nanoTime();
+        List<DingDingSendResult> results = service().sendDingTextStream(SECRET, webhook, null, "日志", lines(60));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertEquals(2, results.size());
+        assertEquals(Long.valueOf(0L), results.get(0).getErrcode());
+        assertEquals(Long.valueOf(DingDingSendResult.THROTTLED), results.get(1).getErrcode());
+        assertTrue(results.get(1).isLocal());
+        assertEquals(1, stub.count());
+    }
+
+    @Test
+    public void partsWaitForReservedTokensWithinMaxWait() throws Exception {
+        start("dingding.limit.permitsPerMinute", "1200", "dingding.limit.burst", "1", "dingding.limit.policy", "BLOCK",
+                "dingding.limit.maxWait", "500", "dingding.priority.reservedTokens", "0");
+        List<DingDingSendResult> results = service().sendDingTextStream(SECRET, webhook, null, "日志", lines(60));
+        assertTrue(results.size() >= 3);
+        for (DingDingSendResult result : results) {
+            assertEquals(Long.valueOf(0L), result.getErrcode());
+        }
+        List<StubWebhookServer.Request> requests = stub.requests();
+        for (int i = 1; i < requests.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(requests.get(i).receivedAt - requests.get(0).receivedAt);
+            assertTrue("第 " + (i + 1) + " 段应在其令牌之后发出: " + gap, gap >= 50L * i - 15);
+        }
+    }
+
+    @Test
+    public void failedPartStopsTheStreamAndNextPartIsNotSent() throws Exception {
+        start("dingding.limit.enabled", "false", "dingding.retry.maxAttempts", "1");
+        AtomicInteger count = new AtomicInteger();
+        stub.respond(request -> count.incrementAndGet() == 2 ? Response.errcode(300001L, "invalid") : Response.ok());
+        List<DingDingSendResult> results = service().sendDingTextStream(SECRET, webhook, null, "日志", lines(60));
+        assertEquals(2, results.size());
+        assertEquals(Long.valueOf(300001L), results.get(1).getErrcode());
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(2, stub.count());
+    }
+
+    private void start(String... properties) {
+        List<String> all = new ArrayList<String>();
+        all.add("dingding.split.maxBytes");
+        all.add(String.valueOf(MAX_BYTES));
+        for (String property : properties) {
+            all.add(property);
+        }
+        context = TestContexts.create(all.toArray(new String[0]));
+    }
+
+    private DingDingService service() {
+        return context.getBean(DingDingService.class);
+    }
+
+    private static Iterator<String> lines(int count) {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            lines.add("第 " + i + " 行：服务响应时间超过阈值，请检查");
+        }
+        return lines.iterator();
+    }
+}
@@ -0,0 +1,72 @@
+package wh.spring.sign;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SignatureCacheTest {
+
+    private static final String SECRET = "SEC-test-secret";
+
+    @Test
+    public void signMatchesDingTalkAlgorithm() throws Exception {
+        long timestamp = 1575446400000L;
+        assertEquals(expected(SECRET, timestamp), SignatureCache.sign(SECRET, timestamp));
+        // 池中复用的 Mac 换了密钥后结果仍然正确
+        assertEquals(expected("SEC-other", timestamp), SignatureCache.sign("SEC-other", timestamp));
+        assertEquals(expected(SECRET, timestamp), SignatureCache.sign(SECRET, timestamp));
+    }
+
+    @Test
+    public void queryCarriesUrlEncodedSignatureOfItsTimestamp() throws Exception {
+        String query = new SignatureCache().getSignature(SECRET);
+        assertTrue(query, query.startsWith("&timestamp="));
+        int sign = query.indexOf("&sign=");
+        long timestamp = Long.parseLong(query.substring("&timestamp=".length(), sign));
+        assertEquals(expected(SECRET, timestamp), URLDecoder.decode(query.substring(sign + "&sign=".length()), "UTF-8"));
+    }
+
+    @Test
+    public void signatureIsReusedWithinRefreshInterval() throws Exception {
+        SignatureCache cache = new SignatureCache();
+        String query = cache.getSignature(SECRET);
+        TimeUnit.MILLISECONDS.sleep(5);
+        assertSame(query, cache.getSignature(SECRET));
+        assertNotEquals(query, cache.getSignature("SEC-other"));
+    }
+
+    @Test
+    public void signatureIsRefreshedAfterInterval() throws Exception {
+        SignatureCache cache = new SignatureCache();
+        cache.setRefreshInterval(1L);
+        String query = cache.getSignature(SECRET);
+        TimeUnit.MILLISECONDS.sleep(5);
+        assertNotEquals(query, cache.getSignature(SECRET));
+    }
+
+    @Test
+    public void evictForcesResign() throws Exception {
+        SignatureCache cache = new SignatureCache();
+        String query = cache.getSignature(SECRET);
+        TimeUnit.MILLISECONDS.sleep(5);
+        cache.evict(SECRET);
+        assertNotEquals(query, cache.getSignature(SECRET));
+    }
+
+    private static String expected(String secret, long timestamp) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] data = mac.doFinal((timestamp + "\n" + secret).getBytes(StandardCharsets.UTF_8));
+        return new String(Base64.encodeBase64(data), StandardCharsets.UTF_8);
+    }
+}
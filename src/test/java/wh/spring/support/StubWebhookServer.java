@@ -0,0 +1,223 @@
+package wh.spring.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测试用的本地机器人 webhook，记录收到的每个请求
+ * <p>
+ * 为 access_token 注册密钥后按钉钉的算法独立校验 timestamp/sign，不依赖被测代码中的签名实现；
+ * 签名不符返回 310000。响应默认为 errcode 0，可以通过 respond 按请求指定状态码、响应体和延迟。
+ */
+public final class StubWebhookServer implements AutoCloseable {
+
+    /**
+     * 决定每个请求的响应
+     */
+    public interface Responder {
+        Response respond(Request request) throws Exception;
+    }
+
+    public static final class Request {
+        public final String token;
+        public final String body;
+        public final boolean signValid;
+        public final long receivedAt = System.nanoTime();
+
+        Request(String token, String body, boolean signValid) {
+            this.token = token;
+            this.body = body;
+            this.signValid = signValid;
+        }
+    }
+
+    public static final class Response {
+        final int status;
+        final String body;
+        final long delayMillis;
+
+        private Response(int status, String body, long delayMillis) {
+            this.status = status;
+            this.body = body;
+            this.delayMillis = delayMillis;
+        }
+
+        public static Response ok() {
+            return errcode(0L, "ok");
+        }
+
+        public static Response errcode(long errcode, String errmsg) {
+            return new Response(200, "{\"errcode\":" + errcode + ",\"errmsg\":\"" + errmsg + "\"}", 0L);
+        }
+
+        public static Response status(int status, String body) {
+            return new Response(status, body, 0L);
+        }
+
+        public Response delayed(long delayMillis) {
+            return new Response(status, body, delayMillis);
+        }
+    }
+
+    static {
+        // 响应头和响应体分两次写出，不关闭 Nagle 时每个请求都要等对端的延迟确认(约 40ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "stub-webhook");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, String> secrets = new ConcurrentHashMap<String, String>();
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<Request>();
+    private volatile Responder responder = request -> Response.ok();
+
+    /**
+     * JVM 中第一次发送响应头时要加载 Date 头的格式化，可能耗时数百毫秒，超过部分测试设置的读取超时
+     */
+    private static volatile boolean warmedUp;
+
+    private StubWebhookServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/robot/send", this::handle);
+        server.createContext("/warmup", exchange -> {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.setExecutor(executor);
+    }
+
+    public static StubWebhookServer start() throws IOException {
+        StubWebhookServer stub = new StubWebhookServer();
+        stub.server.start();
+        if (!warmedUp) {
+            // 先自己请求一次，不计入 requests()
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + stub.server.getAddress().getPort() + "/warmup").openConnection();
+            try {
+                connection.getResponseCode();
+            } finally {
+                connection.disconnect();
+            }
+            warmedUp = true;
+        }
+        return stub;
+    }
+
+    /**
+     * @return 注册后的 webhook 地址
+     */
+    public String register(String token, String secret) {
+        secrets.put(token, secret);
+        return webhook(token);
+    }
+
+    public String webhook(String token) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/robot/send?access_token=" + token;
+    }
+
+    public void respond(Responder responder) {
+        this.responder = responder;
+    }
+
+    public List<Request> requests() {
+        return new ArrayList<Request>(requests);
+    }
+
+    public int count() {
+        return requests.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String body = readBody(exchange.getRequestBody());
+            String token = query.get("access_token");
+            String secret = secrets.get(token);
+            boolean signValid = secret == null || verify(secret, query.get("timestamp"), query.get("sign"));
+            Request request = new Request(token, body, signValid);
+            requests.add(request);
+            Response response = signValid ? responder.respond(request) : Response.errcode(310000L, "sign not match");
+            if (response.delayMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(response.delayMillis);
+            }
+            byte[] bytes = response.body == null ? new byte[0] : response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+            // 长度为 -1 时响应体流已关闭，再写入会抛出异常，异常处理中再次发送响应头失败后连接被直接关闭
+            exchange.sendResponseHeaders(response.status, bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        } catch (Exception e) {
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static boolean verify(String secret, String timestamp, String sign) throws Exception {
+        if (timestamp == null || sign == null) {
+            return false;
+        }
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] expected = mac.doFinal((timestamp + "\n" + secret).getBytes(StandardCharsets.UTF_8));
+        return new String(Base64.encodeBase64(expected), StandardCharsets.UTF_8).equals(sign);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                params.put(pair.substring(0, index), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
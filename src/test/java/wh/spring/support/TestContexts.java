@@ -0,0 +1,33 @@
+package wh.spring.support;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按给定配置启动完整的 Spring 容器，配置只对该容器生效，不修改系统属性
+ */
+public final class TestContexts {
+
+    private TestContexts() {
+    }
+
+    /**
+     * @param properties 形如 "dingding.limit.enabled", "false" 的键值对
+     */
+    public static AnnotationConfigApplicationContext create(String... properties) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        // 多个容器共用一个 MBeanServer，测试中不注册 JMX
+        map.put("dingding.metrics.jmx", "false");
+        for (int i = 0; i + 1 < properties.length; i += 2) {
+            map.put(properties[i], properties[i + 1]);
+        }
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", map));
+        context.scan("wh.spring");
+        context.refresh();
+        return context;
+    }
+}
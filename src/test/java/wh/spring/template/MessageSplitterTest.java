@@ -0,0 +1,155 @@
+package wh.spring.template;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSplitterTest {
+
+    private static final int MAX_BYTES = 300;
+
+    @Test
+    public void textChunksStayWithinLimitAndKeepAllLines() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            lines.add("第 " + i + " 行 \"quoted\" / path");
+        }
+        List<String> chunks = split(lines, false);
+        assertTrue(chunks.size() > 1);
+        List<String> joined = new ArrayList<String>();
+        for (String chunk : chunks) {
+            assertTrue(chunk, MessageSplitter.sizeOf(chunk) <= MAX_BYTES);
+            joined.addAll(Arrays.asList(chunk.split("\n")));
+        }
+        assertEquals(lines, joined);
+    }
+
+    @Test
+    public void codeFenceIsClosedAndReopenedAcrossChunks() {
+        List<String> lines = new ArrayList<String>();
+        lines.add("说明");
+        lines.add("```java");
+        for (int i = 0; i < 60; i++) {
+            lines.add("int value" + i + " = " + i + ";");
+        }
+        lines.add("```");
+        lines.add("结束");
+        List<String> chunks = split(lines, true);
+        assertTrue(chunks.size() > 2);
+        List<String> code = new ArrayList<String>();
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            assertTrue(chunk, MessageSplitter.sizeOf(chunk) <= MAX_BYTES);
+            List<String> chunkLines = Arrays.asList(chunk.split("\n"));
+            int fences = 0;
+            for (String line : chunkLines) {
+                if (line.startsWith("```")) {
+                    fences++;
+                } else if (line.startsWith("int ")) {
+                    code.add(line);
+                }
+            }
+            assertEquals("每段的代码块都应闭合: " + chunk, 0, fences % 2);
+            if (i > 0 && i < chunks.size() - 1) {
+                assertEquals("```java", chunkLines.get(0));
+            }
+        }
+        assertEquals(60, code.size());
+        assertTrue(chunks.get(chunks.size() - 1).endsWith("结束"));
+    }
+
+    @Test
+    public void tableHeaderIsRepeatedAcrossChunks() {
+        List<String> lines = new ArrayList<String>();
+        lines.add("| 服务 | 状态 |");
+        lines.add("| --- | :---: |");
+        for (int i = 0; i < 40; i++) {
+            lines.add("| service-" + i + " | OK |");
+        }
+        lines.add("");
+        for (int i = 0; i < 20; i++) {
+            lines.add("表格之后第 " + i + " 行");
+        }
+        List<String> chunks = split(lines, true);
+        assertTrue(chunks.size() > 1);
+        int rows = 0;
+        for (String chunk : chunks) {
+            assertTrue(chunk, MessageSplitter.sizeOf(chunk) <= MAX_BYTES);
+            // 表格内切分时重复表头，表格结束后不再重复
+            assertEquals(chunk, chunk.contains("service-"), chunk.startsWith("| 服务 | 状态 |\n| --- | :---: |\n"));
+            for (String line : chunk.split("\n")) {
+                if (line.startsWith("| service-")) {
+                    rows++;
+                }
+            }
+        }
+        assertEquals(40, rows);
+        assertFalse(chunks.get(chunks.size() - 1).contains("service-"));
+    }
+
+    @Test
+    public void textModeIgnoresFencesAndTables() {
+        List<String> lines = new ArrayList<String>();
+        lines.add("```");
+        for (int i = 0; i < 40; i++) {
+            lines.add("| row " + i + " |");
+        }
+        List<String> chunks = split(lines, false);
+        assertTrue(chunks.size() > 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            assertFalse(chunks.get(i).startsWith("```"));
+        }
+    }
+
+    @Test
+    public void longLineIsCutWithoutBreakingSurrogatePairs() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            line.append("😀");
+        }
+        List<String> chunks = split(Collections.singletonList(line.toString()), false);
+        assertTrue(chunks.size() > 1);
+        StringBuilder joined = new StringBuilder();
+        for (String chunk : chunks) {
+            assertTrue(MessageSplitter.sizeOf(chunk) <= MAX_BYTES);
+            assertFalse(Character.isLowSurrogate(chunk.charAt(0)));
+            assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+            joined.append(chunk);
+        }
+        assertEquals(line.toString(), joined.toString());
+    }
+
+    @Test
+    public void readerLinesAndEmbeddedNewlinesAreSplit() {
+        Iterator<String> lines = MessageSplitter.lines(new StringReader("a\r\nb\n\nc"));
+        List<String> read = new ArrayList<String>();
+        while (lines.hasNext()) {
+            read.add(lines.next());
+        }
+        assertEquals(Arrays.asList("a", "b", "", "c"), read);
+        assertEquals(Collections.singletonList("x\ny\nz"), split(Collections.singletonList("x\r\ny\nz"), false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitBelowMinimumIsRejected() {
+        new MessageSplitter(Collections.<String>emptyIterator(), MessageSplitter.MIN_BYTES - 1, true);
+    }
+
+    private static List<String> split(List<String> lines, boolean markdown) {
+        MessageSplitter splitter = new MessageSplitter(lines.iterator(), MAX_BYTES, markdown);
+        List<String> chunks = new ArrayList<String>();
+        while (splitter.hasNext()) {
+            chunks.add(splitter.next());
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,103 @@
+package wh.spring.template;
+
+import org.junit.Test;
+import wh.spring.client.DingTalkRobotClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTemplateTest {
+
+    private static final List<String> PERSONS = Collections.singletonList("13800000000");
+
+    /**
+     * 需要转义或多字节编码的值：引号、反斜杠、斜杠、短转义的控制字符、中文、增补字符
+     */
+    private static final String[] VALUES = {
+            "plain",
+            "quote \" backslash \\ slash /",
+            "tab\t newline\n return\r backspace\b formfeed\f",
+            "中文 é ß",
+            "emoji 😀 end",
+            ""
+    };
+
+    @Test
+    public void renderMatchesSdkSerialization() {
+        MessageTemplate template = MessageTemplate.markdown(PERSONS, "${title}", "#### ${title}\n\n${detail}");
+        assertEquals(Arrays.asList("title", "detail"), template.getVariableNames());
+        for (String title : VALUES) {
+            for (String detail : VALUES) {
+                String expected = DingTalkRobotClient.toJson(RobotRequests.markdown(PERSONS, title, "#### " + title + "\n\n" + detail, null, null));
+                assertEquals(expected, new String(template.render(title, detail), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void otherControlCharactersUseUnicodeEscape() {
+        // SDK 把 0x0b、0x0e、0x0f 写成原字符，0x1a 以上的十六进制也算错，这里按 JSON 规范写 unicode 转义
+        MessageTemplate template = MessageTemplate.text(PERSONS, "${value}");
+        String prefix = new String(template.render(""), StandardCharsets.UTF_8);
+        for (char c = 0; c < 0x20; c++) {
+            if (c == '\b' || c == '\t' || c == '\n' || c == '\f' || c == '\r') {
+                continue;
+            }
+            String json = new String(template.render(String.valueOf(c)), StandardCharsets.UTF_8);
+            assertEquals(prefix.length() + 6, json.length());
+            assertTrue(json, json.contains(String.format("\\u%04x", (int) c)));
+        }
+    }
+
+    @Test
+    public void renderByNameTreatsNullAsEmpty() {
+        MessageTemplate template = MessageTemplate.text(PERSONS, "${service}: ${detail}");
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("service", "order");
+        variables.put("detail", null);
+        String expected = DingTalkRobotClient.toJson(RobotRequests.text(PERSONS, "order: "));
+        assertEquals(expected, new String(template.render(variables), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingVariableIsRejected() {
+        MessageTemplate.text(PERSONS, "${service}").render(Collections.<String, Object>emptyMap());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongValueCountIsRejected() {
+        MessageTemplate.text(PERSONS, "${a}${b}").render("only-one");
+    }
+
+    @Test
+    public void escapedLengthMatchesWrittenBytes() {
+        for (String value : VALUES) {
+            byte[] out = new byte[JsonStrings.escapedLength(value)];
+            assertEquals(value, out.length, JsonStrings.writeEscaped(value, out, 0));
+        }
+        // 不成对的代理字符与 String.getBytes 一样写为 ?
+        String lone = "a\uD83Db\uDE00";
+        byte[] out = new byte[JsonStrings.escapedLength(lone)];
+        JsonStrings.writeEscaped(lone, out, 0);
+        assertArrayEquals(lone.getBytes(StandardCharsets.UTF_8), out);
+    }
+
+    @Test
+    public void fittingEndKeepsSurrogatePairsAndEscapesWhole() {
+        String value = "ab😀\"c";
+        // a b 各 1 字节，表情 4 字节，引号转义后 2 字节
+        assertEquals(2, JsonStrings.fittingEnd(value, 0, 5));
+        assertEquals(4, JsonStrings.fittingEnd(value, 0, 6));
+        assertEquals(4, JsonStrings.fittingEnd(value, 0, 7));
+        assertEquals(5, JsonStrings.fittingEnd(value, 0, 8));
+        assertEquals(value.length(), JsonStrings.fittingEnd(value, 2, 100));
+    }
+}
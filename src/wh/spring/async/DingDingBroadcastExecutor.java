@@ -0,0 +1,172 @@
+package wh.spring.async;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 群发线程池
+ * <p>
+ * 与异步发送线程池分开，群发大量 webhook 时不会占满单条消息的发送线程。
+ * 固定 parallelism 个线程；每次群发同时最多 parallelism 个目标在途，一个目标结束后才开始下一个(背压)，
+ * 目标再多也不会把任务一次性堆进队列，不会因为队列满而让部分目标失败。
+ * 发送任务可以延迟执行，等待限流令牌时不占用线程；分段发送也用它延迟发出已预约令牌的片段。
+ * <pre>
+ * dingding.broadcast.parallelism   并发数，默认 16
+ * </pre>
+ */
+@Component
+public class DingDingBroadcastExecutor implements InitializingBean, DisposableBean {
+
+    @Value("${dingding.broadcast.parallelism:16}")
+    private int parallelism = 16;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    @Override
+    public void afterPropertiesSet() {
+        final AtomicInteger threadIndex = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "dingding-broadcast-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ScheduledThreadPoolExecutor(parallelism, threadFactory);
+        executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 对每个元素执行 task，同时最多 parallelism 个 task 未完成
+     *
+     * @param items 元素
+     * @param task  返回该元素的结果，不应异常结束；抛出的异常以 null 作为该元素的结果
+     * @return 与 items 顺序一致的结果
+     */
+    public <T, R> CompletableFuture<List<R>> submitAll(List<T> items, Function<? super T, CompletableFuture<R>> task) {
+        CompletableFuture<List<R>> future = new CompletableFuture<List<R>>();
+        if (items.isEmpty()) {
+            future.complete(new ArrayList<R>());
+            return future;
+        }
+        Window<T, R> window = new Window<T, R>(items, task, future);
+        for (int i = 0; i < Math.min(parallelism, items.size()); i++) {
+            window.next();
+        }
+        return future;
+    }
+
+    /**
+     * 提交发送任务
+     *
+     * @param task  发送任务
+     * @param delay 延迟，0 为立即执行
+     * @return 任务结果；任务抛出的异常或线程池已关闭都会使 future 异常结束
+     */
+    public <T> CompletableFuture<T> schedule(Callable<T> task, long delay, TimeUnit unit) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        Runnable command = () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        try {
+            if (delay > 0) {
+                executor.schedule(command, delay, unit);
+            } else {
+                executor.execute(command);
+            }
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return 等待执行的任务数，包括等待令牌的延迟任务
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 一次 submitAll 的进度，每个槽位结束一个元素后接着取下一个
+     */
+    private static final class Window<T, R> {
+
+        private final List<T> items;
+        private final Function<? super T, CompletableFuture<R>> task;
+        private final CompletableFuture<List<R>> future;
+        private final Object[] results;
+        private final AtomicInteger index = new AtomicInteger();
+        private final AtomicInteger remaining;
+
+        private Window(List<T> items, Function<? super T, CompletableFuture<R>> task, CompletableFuture<List<R>> future) {
+            this.items = items;
+            this.task = task;
+            this.future = future;
+            this.results = new Object[items.size()];
+            this.remaining = new AtomicInteger(items.size());
+        }
+
+        /**
+         * 同步完成的元素在循环里接着处理，不递归，避免大量目标时栈溢出
+         */
+        private void next() {
+            while (true) {
+                int i = index.getAndIncrement();
+                if (i >= results.length) {
+                    return;
+                }
+                CompletableFuture<R> result;
+                try {
+                    result = task.apply(items.get(i));
+                } catch (RuntimeException e) {
+                    result = null;
+                }
+                if (result == null || result.isDone()) {
+                    complete(i, result == null || result.isCompletedExceptionally() ? null : result.join());
+                    continue;
+                }
+                result.whenComplete((value, e) -> {
+                    complete(i, e == null ? value : null);
+                    next();
+                });
+                return;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(int i, R value) {
+            results[i] = value;
+            if (remaining.decrementAndGet() == 0) {
+                future.complete(new ArrayList<R>((List<R>) Arrays.asList(results)));
+            }
+        }
+    }
+}
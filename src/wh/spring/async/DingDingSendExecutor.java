@@ -0,0 +1,307 @@
+package wh.spring.async;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 钉钉异步发送线程池
+ * <p>
+ * 线程数与队列长度均有上限。队列满时调用方最多等待 offerTimeout 毫秒（背压），
+ * 仍无空位则返回以 RejectedExecutionException 结束的 future，调用线程不会去执行网络请求。
+ * <p>
+ * 开启 dingding.async.virtualThreads 且运行在 JDK 21 及以上时，每条消息一个虚拟线程，不再使用上面的线程池：
+ * 任务在虚拟线程内先等 webhook 许可(同一 webhook 同时执行不超过 maxPerWebhook)，再等全局许可(同时执行不超过 maxConcurrent)，
+ * 等待中的任务不占全局许可，一个 webhook 积压不会挤占其他 webhook 的并发；
+ * 等待中的任务数不超过 queueCapacity，已满时调用方同样最多等待 offerTimeout 毫秒。
+ * 低版本 JDK 上该配置无效，仍使用线程池。单个 webhook 的上限可以通过 setMaxPerWebhook(webhook, n) 覆盖，
+ * 对之后提交的任务生效，已在执行或等待的任务仍按提交时的许可计数。
+ * <pre>
+ * dingding.async.coreSize       核心线程数，默认 4
+ * dingding.async.maxSize        最大线程数，默认 16
+ * dingding.async.queueCapacity  等待队列长度，虚拟线程模式下为等待许可的任务数上限，默认 1000
+ * dingding.async.offerTimeout   队列满时最长等待(毫秒)，0 为立即拒绝，默认 100
+ * dingding.async.virtualThreads 是否使用虚拟线程，默认 false
+ * dingding.async.maxConcurrent  虚拟线程模式下同时执行的任务数上限，默认 10000
+ * dingding.async.maxPerWebhook  虚拟线程模式下每个 webhook 同时执行的任务数上限，不宜超过 dingding.client.maxPerRoute，默认 20
+ * </pre>
+ */
+@Component
+public class DingDingSendExecutor implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DingDingSendExecutor.class);
+
+    @Value("${dingding.async.coreSize:4}")
+    private int coreSize = 4;
+    @Value("${dingding.async.maxSize:16}")
+    private int maxSize = 16;
+    @Value("${dingding.async.queueCapacity:1000}")
+    private int queueCapacity = 1000;
+    @Value("${dingding.async.offerTimeout:100}")
+    private long offerTimeout = 100L;
+    @Value("${dingding.async.virtualThreads:false}")
+    private boolean virtualThreads = false;
+    @Value("${dingding.async.maxConcurrent:10000}")
+    private int maxConcurrent = 10000;
+    @Value("${dingding.async.maxPerWebhook:20}")
+    private int maxPerWebhook = 20;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 虚拟线程执行器，未启用或 JDK 不支持时为 null
+     */
+    private ExecutorService virtualExecutor;
+    /**
+     * 测试时替换虚拟线程执行器，JDK 21 以下也能验证虚拟线程模式的许可逻辑
+     */
+    private ExecutorService virtualExecutorOverride;
+    private Semaphore concurrency;
+    private Semaphore queueSlots;
+    private final ConcurrentMap<String, Semaphore> webhookPermits = new ConcurrentHashMap<String, Semaphore>();
+    private final ConcurrentMap<String, Integer> webhookLimits = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final AtomicInteger runningCount = new AtomicInteger();
+
+    @Override
+    public void afterPropertiesSet() {
+        final AtomicInteger threadIndex = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "dingding-send-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        if (virtualThreads) {
+            virtualExecutor = virtualExecutorOverride != null ? virtualExecutorOverride : newVirtualThreadExecutor("dingding-send-virtual-");
+            if (virtualExecutor != null) {
+                concurrency = new Semaphore(maxConcurrent);
+                queueSlots = new Semaphore(queueCapacity);
+                return;
+            }
+            log.warn("当前 JDK 不支持虚拟线程，钉钉异步发送仍使用线程池: " + System.getProperty("java.version"));
+        }
+        executor = new ThreadPoolExecutor(coreSize, Math.max(coreSize, maxSize), 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, (r, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("钉钉发送线程池已关闭");
+            }
+            try {
+                if (!pool.getQueue().offer(r, offerTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new RejectedExecutionException("钉钉发送队列已满");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("等待钉钉发送队列时被中断", e);
+            }
+        });
+    }
+
+    /**
+     * 通过反射创建每个任务一个虚拟线程的执行器，源码和字节码仍保持 Java 8
+     * <p>
+     * 等价于 Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory())
+     *
+     * @return JDK 21 以下返回 null
+     */
+    static ExecutorService newVirtualThreadExecutor(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // JDK 19/20 未开启 --enable-preview 时抛出 UnsupportedOperationException
+            return null;
+        }
+    }
+
+    /**
+     * 提交发送任务
+     *
+     * @param task 发送任务
+     * @return 任务结果；任务抛出的异常或队列拒绝都会使 future 异常结束
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submit(null, task);
+    }
+
+    /**
+     * 提交发往指定 webhook 的发送任务，虚拟线程模式下按 webhook 限制并发
+     *
+     * @param webhook 目标 webhook，为 null 时不限制单个 webhook 的并发
+     * @param task    发送任务
+     * @return 任务结果；任务抛出的异常或队列拒绝都会使 future 异常结束
+     */
+    public <T> CompletableFuture<T> submit(String webhook, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        if (virtualExecutor != null) {
+            submitVirtual(webhook, task, future);
+            return future;
+        }
+        try {
+            executor.execute(() -> run(task, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void submitVirtual(String webhook, Callable<T> task, CompletableFuture<T> future) {
+        try {
+            if (!queueSlots.tryAcquire(offerTimeout, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException("钉钉发送等待队列已满"));
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new RejectedExecutionException("等待钉钉发送队列时被中断", e));
+            return;
+        }
+        Semaphore permits = webhook == null ? null : webhookPermits.computeIfAbsent(webhook, k -> new Semaphore(webhookLimits.getOrDefault(k, maxPerWebhook)));
+        waitingCount.incrementAndGet();
+        try {
+            virtualExecutor.execute(() -> {
+                boolean webhookAcquired = false;
+                boolean globalAcquired = false;
+                try {
+                    // 先等 webhook 许可再占全局许可，等待中的任务不计入 maxConcurrent
+                    if (permits != null) {
+                        permits.acquire();
+                        webhookAcquired = true;
+                    }
+                    concurrency.acquire();
+                    globalAcquired = true;
+                } catch (InterruptedException e) {
+                    future.completeExceptionally(new RejectedExecutionException("等待钉钉发送许可时被中断", e));
+                } finally {
+                    waitingCount.decrementAndGet();
+                    queueSlots.release();
+                }
+                try {
+                    if (globalAcquired) {
+                        runningCount.incrementAndGet();
+                        try {
+                            run(task, future);
+                        } finally {
+                            runningCount.decrementAndGet();
+                        }
+                    }
+                } finally {
+                    if (globalAcquired) {
+                        concurrency.release();
+                    }
+                    if (webhookAcquired) {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            waitingCount.decrementAndGet();
+            queueSlots.release();
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static <T> void run(Callable<T> task, CompletableFuture<T> future) {
+        try {
+            future.complete(task.call());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return 是否实际使用虚拟线程
+     */
+    public boolean isVirtual() {
+        return virtualExecutor != null;
+    }
+
+    /**
+     * @return 等待执行的任务数；虚拟线程模式下为等待 webhook 许可或全局许可的任务数
+     */
+    public int getQueueSize() {
+        return virtualExecutor != null ? waitingCount.get() : executor.getQueue().size();
+    }
+
+    /**
+     * @return 正在执行的任务数
+     */
+    public int getActiveCount() {
+        return virtualExecutor != null ? runningCount.get() : executor.getActiveCount();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        ExecutorService service = virtualExecutor != null ? virtualExecutor : executor;
+        service.shutdown();
+        service.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public void setCoreSize(int coreSize) {
+        this.coreSize = coreSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * 用给定的执行器代替虚拟线程，需在 afterPropertiesSet 之前调用，仅供测试
+     */
+    void setVirtualExecutor(ExecutorService virtualExecutor) {
+        this.virtualExecutorOverride = virtualExecutor;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * 单独设置 webhook 同时执行的任务数上限，小于 1 时恢复为 dingding.async.maxPerWebhook；只在虚拟线程模式下生效
+     */
+    public void setMaxPerWebhook(String webhook, int max) {
+        Integer previous = max < 1 ? webhookLimits.remove(webhook) : webhookLimits.put(webhook, max);
+        if (previous == null ? max >= 1 : previous != max) {
+            // 已提交的任务持有旧的信号量，释放时归还给旧的，新任务使用新的上限
+            webhookPermits.remove(webhook);
+        }
+    }
+
+    public void setMaxPerWebhook(int maxPerWebhook) {
+        this.maxPerWebhook = maxPerWebhook;
+    }
+}
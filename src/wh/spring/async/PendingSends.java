@@ -0,0 +1,58 @@
+package wh.spring.async;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 已提交到发送线程池、尚未完成的后台发送
+ * <p>
+ * 合并、去重等先缓存后发送的组件在容器停止阶段发出剩余消息后，用它等待已提交的发送完成，
+ * 避免发送用到的客户端和线程池先被销毁。
+ */
+public final class PendingSends {
+
+    /**
+     * 等待已提交的发送完成的最长时间(毫秒)
+     */
+    public static final long STOP_TIMEOUT = 10000L;
+
+    private final Set<CompletableFuture<?>> sending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 记录一个发送，完成后自动移除
+     *
+     * @return 传入的 future
+     */
+    public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        sending.add(future);
+        future.whenComplete((result, e) -> sending.remove(future));
+        return future;
+    }
+
+    /**
+     * 等待当前已记录的发送完成，最多 STOP_TIMEOUT 毫秒；发送失败不在这里处理，由提交方记录
+     *
+     * @return 超时或被中断时仍未完成的发送数，0 为全部完成
+     */
+    public int await() {
+        CompletableFuture<?>[] futures = sending.toArray(new CompletableFuture<?>[0]);
+        try {
+            CompletableFuture.allOf(futures).get(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // 失败的发送也算完成，超时按下面的未完成数返回
+        }
+        int remaining = 0;
+        for (CompletableFuture<?> future : futures) {
+            if (!future.isDone()) {
+                remaining++;
+            }
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,86 @@
+package wh.spring.batch;
+
+import wh.spring.template.MessageSplitter;
+
+import java.util.List;
+
+/**
+ * 等待合并的单条消息
+ */
+public class BatchMessage {
+
+    /**
+     * 汇总消息中每条消息的固定部分，包括小标题、图片和页面链接的 Markdown 标记以及 FeedCard 的字段名
+     */
+    private static final int DIGEST_OVERHEAD = 96;
+
+    private final String msgtype;
+    private final String title;
+    private final String content;
+    private final List<String> contactPersons;
+    private final String pageUrl;
+    private final String picUrl;
+    private final int digestBytes;
+
+    public BatchMessage(String msgtype, String title, String content, List<String> contactPersons, String pageUrl, String picUrl) {
+        this.msgtype = msgtype;
+        this.title = title;
+        this.content = content;
+        this.contactPersons = contactPersons;
+        this.pageUrl = pageUrl;
+        this.picUrl = picUrl;
+        this.digestBytes = digestBytes();
+    }
+
+    /**
+     * 按汇总 Markdown 的拼接方式估算，FeedCard 的每条链接不会比它更大
+     */
+    private int digestBytes() {
+        int size = DIGEST_OVERHEAD + sizeOf(title) + sizeOf(content) + sizeOf(pageUrl) + sizeOf(picUrl);
+        if (contactPersons != null) {
+            for (String person : contactPersons) {
+                // 正文中的 @手机号 和 atMobiles 中的 "手机号",
+                size += 2 * sizeOf(person) + 4;
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOf(String value) {
+        return value == null ? 0 : MessageSplitter.sizeOf(value);
+    }
+
+    public String getMsgtype() {
+        return msgtype;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * @return 推送人，为空表示 @所有人
+     */
+    public List<String> getContactPersons() {
+        return contactPersons;
+    }
+
+    public String getPageUrl() {
+        return pageUrl;
+    }
+
+    public String getPicUrl() {
+        return picUrl;
+    }
+
+    /**
+     * @return 合并进汇总消息后占用的字节数，按 JSON 转义并 UTF-8 编码后计算
+     */
+    public int getDigestBytes() {
+        return digestBytes;
+    }
+}
@@ -0,0 +1,260 @@
+package wh.spring.batch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import wh.spring.async.DingDingSendExecutor;
+import wh.spring.async.PendingSends;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 消息合并
+ * <p>
+ * 开启后同一 webhook、同一密钥的 Markdown/Text 消息先缓存，窗口到期、条数或大小达到上限时合并成一条汇总消息发出，
+ * 大幅减少请求次数，避免触发机器人限流。汇总消息用批次自己的密钥签名，不同密钥的消息不会合并到一起。
+ * <pre>
+ * dingding.batch.enabled     是否开启，默认 false
+ * dingding.batch.window      合并窗口(毫秒)，默认 5000
+ * dingding.batch.maxSize     单条汇总最多合并条数，默认 20
+ * dingding.batch.digestType  汇总消息类型 markdown/feedCard，默认 markdown
+ * dingding.split.maxBytes    单条汇总消息转义编码后的最大字节数，与长消息切分共用，默认 18000
+ * </pre>
+ * 容器关闭时在销毁任何单例之前(SmartLifecycle 停止阶段)发出剩余的消息，并等待已提交的汇总发送完成，
+ * 此时发送用到的客户端和线程池都还可用。停止后收到的消息不再合并，由调用方直接发送。
+ * <p>
+ * 合并的消息已向调用方返回 202，汇总发送失败、被限流或钉钉返回错误码时 flusher 抛出异常，
+ * 这里记录错误日志并计入 getFailedCount()。
+ */
+@Component
+public class DingDingMessageAggregator implements InitializingBean, SmartLifecycle, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DingDingMessageAggregator.class);
+
+    public static final String DIGEST_MARKDOWN = "markdown";
+    public static final String DIGEST_FEED_CARD = "feedCard";
+
+    /**
+     * 为汇总消息的 msgtype、标题、@ 等字段预留的字节数
+     */
+    static final int DIGEST_RESERVE = 512;
+
+    @Value("${dingding.batch.enabled:false}")
+    private boolean enabled = false;
+    @Value("${dingding.batch.window:5000}")
+    private long window = 5000L;
+    @Value("${dingding.batch.maxSize:20}")
+    private int maxSize = 20;
+    @Value("${dingding.batch.digestType:markdown}")
+    private String digestType = DIGEST_MARKDOWN;
+    @Value("${dingding.split.maxBytes:18000}")
+    private int maxBytes = 18000;
+
+    @Autowired
+    private DingDingSendExecutor sendExecutor;
+
+    private final ConcurrentMap<String, MessageBatch> batches = new ConcurrentHashMap<String, MessageBatch>();
+
+    /**
+     * 已提交、尚未发送完成的汇总
+     */
+    private final PendingSends sending = new PendingSends();
+    private final LongAdder failedCount = new LongAdder();
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "dingding-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getDigestType() {
+        return digestType;
+    }
+
+    /**
+     * 缓存一条消息
+     *
+     * @param secret  密钥
+     * @param webhook webhook
+     * @param message 消息
+     * @param flusher 批次关闭时发送汇总消息的动作，在发送线程池中执行
+     * @return 是否已缓存；未启动或已停止(容器关闭阶段其他组件仍在发送)时为 false，由调用方直接发送
+     */
+    public boolean add(String secret, String webhook, BatchMessage message, Consumer<MessageBatch> flusher) {
+        if (!running) {
+            return false;
+        }
+        String key = key(secret, webhook);
+        while (true) {
+            MessageBatch batch = batches.get(key);
+            if (batch == null) {
+                MessageBatch created = new MessageBatch(key, secret, webhook, flusher);
+                batch = batches.putIfAbsent(key, created);
+                if (batch == null) {
+                    batch = created;
+                    try {
+                        scheduler.schedule(() -> flush(created), window, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // 检查之后 stop() 关闭了定时器：不留下无法到期的批次，其他线程已放入的消息随即发出
+                        flush(created);
+                        batches.remove(key, created);
+                        return false;
+                    }
+                }
+            }
+            int size = batch.offer(message, maxBytes - DIGEST_RESERVE);
+            if (size >= maxSize) {
+                flush(batch);
+            }
+            if (size > 0) {
+                return true;
+            }
+            // 批次已关闭或放不下这条消息，先发出再换一个新批次
+            flush(batch);
+            batches.remove(key, batch);
+        }
+    }
+
+    private static String key(String secret, String webhook) {
+        return secret == null ? webhook : webhook + '\n' + secret;
+    }
+
+    private void flush(MessageBatch batch) {
+        if (!batch.close()) {
+            return;
+        }
+        batches.remove(batch.getKey(), batch);
+        sending.track(sendExecutor.submit(batch.getWebhook(), () -> {
+            batch.getFlusher().accept(batch);
+            return null;
+        })).whenComplete((result, e) -> {
+            if (e != null) {
+                failedCount.increment();
+                log.error("钉钉汇总消息发送失败，合并条数: " + batch.getMessages().size(), e);
+            }
+        });
+    }
+
+    /**
+     * @return 正在缓存的消息条数
+     */
+    public int getBufferedCount() {
+        int count = 0;
+        for (MessageBatch batch : batches.values()) {
+            count += batch.getMessages().size();
+        }
+        return count;
+    }
+
+    /**
+     * @return 发送失败、被限流或钉钉返回错误码的汇总消息数
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * 把剩余消息直接发出，并等待已提交的汇总发送完成
+     */
+    @Override
+    public void stop() {
+        running = false;
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        flushAll();
+        int remaining = sending.await();
+        if (remaining > 0) {
+            log.warn("关闭时仍有钉钉汇总消息未发送完成: " + remaining);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 在其他组件之前停止
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 未经容器停止直接销毁时(如手动创建)同样发出剩余消息
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            flushAll();
+        }
+    }
+
+    private void flushAll() {
+        for (MessageBatch batch : new ArrayList<MessageBatch>(batches.values())) {
+            if (batch.close()) {
+                try {
+                    batch.getFlusher().accept(batch);
+                } catch (RuntimeException e) {
+                    failedCount.increment();
+                    log.error("钉钉汇总消息发送失败，合并条数: " + batch.getMessages().size(), e);
+                }
+            }
+        }
+        batches.clear();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setDigestType(String digestType) {
+        this.digestType = digestType;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,87 @@
+package wh.spring.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 同一 webhook、同一密钥在一个合并窗口内缓存的消息
+ */
+public class MessageBatch {
+
+    private final String key;
+    private final String secret;
+    private final String webhook;
+    private final Consumer<MessageBatch> flusher;
+    private final List<BatchMessage> messages = new ArrayList<BatchMessage>();
+    private int bytes;
+    private boolean closed;
+
+    MessageBatch(String key, String secret, String webhook, Consumer<MessageBatch> flusher) {
+        this.key = key;
+        this.secret = secret;
+        this.webhook = webhook;
+        this.flusher = flusher;
+    }
+
+    /**
+     * 批次中的第一条消息总能加入，超过 maxBytes 的单条消息单独成为一个批次
+     *
+     * @param maxBytes 批次中所有消息合并后的最大字节数
+     * @return 加入后的消息数，批次已关闭或加入后超过 maxBytes 时返回 -1
+     */
+    synchronized int offer(BatchMessage message, int maxBytes) {
+        if (closed) {
+            return -1;
+        }
+        int size = message.getDigestBytes();
+        if (!messages.isEmpty() && bytes + size > maxBytes) {
+            return -1;
+        }
+        bytes += size;
+        messages.add(message);
+        return messages.size();
+    }
+
+    /**
+     * @return 是否由本次调用关闭，保证每个批次只发送一次
+     */
+    synchronized boolean close() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    Consumer<MessageBatch> getFlusher() {
+        return flusher;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    /**
+     * @return 已加入消息合并后的字节数
+     */
+    public synchronized int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 批次关闭后调用
+     */
+    public synchronized List<BatchMessage> getMessages() {
+        return Collections.unmodifiableList(new ArrayList<BatchMessage>(messages));
+    }
+}
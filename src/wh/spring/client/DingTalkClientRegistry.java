@@ -0,0 +1,149 @@
+package wh.spring.client;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 机器人客户端注册表，按 webhook 缓存 DingTalkRobotClient
+ * <p>
+ * 客户端只是共用连接池的轻量包装，没有需要关闭的资源。缓存最多 dingding.client.maxClients 个，
+ * 超过时移除任意一个(已取到的客户端仍可继续使用，再次获取时重新创建)；机器人表不再使用的 webhook 由 evict 移除。
+ * <p>
+ * 所有客户端共用一个带长连接的连接池，连接池大小、空闲回收时间以及连接/读取超时均可通过配置调整：
+ * <pre>
+ * dingding.client.maxTotal              连接池最大连接数，默认 50
+ * dingding.client.maxPerRoute           每个目标主机最大连接数，默认 20
+ * dingding.client.connectTimeout        建立连接超时(毫秒)，默认 3000
+ * dingding.client.readTimeout           读取超时(毫秒)，默认 5000
+ * dingding.client.connectionRequestTimeout  从连接池获取连接超时(毫秒)，默认 1000
+ * dingding.client.idleTimeout           空闲连接回收时间(毫秒)，默认 60000
+ * dingding.client.maxClients            缓存的客户端数上限，默认 1000
+ * </pre>
+ */
+@Component
+public class DingTalkClientRegistry implements InitializingBean, DisposableBean {
+
+    @Value("${dingding.client.maxTotal:50}")
+    private int maxTotal = 50;
+    @Value("${dingding.client.maxPerRoute:20}")
+    private int maxPerRoute = 20;
+    @Value("${dingding.client.connectTimeout:3000}")
+    private int connectTimeout = 3000;
+    @Value("${dingding.client.readTimeout:5000}")
+    private int readTimeout = 5000;
+    @Value("${dingding.client.connectionRequestTimeout:1000}")
+    private int connectionRequestTimeout = 1000;
+    @Value("${dingding.client.idleTimeout:60000}")
+    private long idleTimeout = 60000L;
+    @Value("${dingding.client.maxClients:1000}")
+    private int maxClients = 1000;
+
+    private final ConcurrentMap<String, DingTalkRobotClient> clients = new ConcurrentHashMap<String, DingTalkRobotClient>();
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private RequestConfig requestConfig;
+
+    @Override
+    public void afterPropertiesSet() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        // 长时间空闲的连接可能已被服务端关闭，复用前先校验
+        connectionManager.setValidateAfterInactivity(2000);
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout)
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 获取 webhook 对应的客户端，不存在则创建
+     *
+     * @param webhook webhook
+     * @return 可被多线程共享的客户端
+     */
+    public DingTalkRobotClient getClient(String webhook) {
+        DingTalkRobotClient client = clients.get(webhook);
+        if (client == null) {
+            if (clients.size() >= maxClients) {
+                Iterator<String> webhooks = clients.keySet().iterator();
+                if (webhooks.hasNext()) {
+                    webhooks.next();
+                    webhooks.remove();
+                }
+            }
+            client = clients.computeIfAbsent(webhook, key -> new DingTalkRobotClient(key, httpClient, requestConfig));
+        }
+        return client;
+    }
+
+    /**
+     * 移除 webhook 的客户端，机器人被删除或更换 webhook 后调用
+     */
+    public void evict(String webhook) {
+        clients.remove(webhook);
+    }
+
+    /**
+     * @return 当前缓存的客户端数
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        clients.clear();
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public void setMaxPerRoute(int maxPerRoute) {
+        this.maxPerRoute = maxPerRoute;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public void setMaxClients(int maxClients) {
+        this.maxClients = maxClients;
+    }
+}
@@ -0,0 +1,151 @@
+package wh.spring.client;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 非阻塞的机器人客户端
+ * <p>
+ * 默认使用 WebClient + Reactor Netty 发送，等待响应期间不占用线程，大量消息同时在途时只需少量 IO 线程；
+ * dingding.reactive.transport 配置为 blocking 时改为在弹性线程池中调用连接池版的 DingTalkRobotClient。
+ * 连接数和超时沿用 dingding.client.* 配置。
+ * <pre>
+ * dingding.reactive.transport  webclient 或 blocking，默认 webclient
+ * </pre>
+ */
+@Component
+public class DingTalkReactiveClient implements InitializingBean, DisposableBean {
+
+    public static final String TRANSPORT_WEB_CLIENT = "webclient";
+    public static final String TRANSPORT_BLOCKING = "blocking";
+
+    private static final String READ_TIMEOUT_HANDLER = "dingding.readTimeout";
+
+    @Value("${dingding.reactive.transport:webclient}")
+    private String transport = TRANSPORT_WEB_CLIENT;
+    @Value("${dingding.client.maxTotal:50}")
+    private int maxTotal = 50;
+    @Value("${dingding.client.connectTimeout:3000}")
+    private int connectTimeout = 3000;
+    @Value("${dingding.client.readTimeout:5000}")
+    private int readTimeout = 5000;
+    @Value("${dingding.client.connectionRequestTimeout:1000}")
+    private int connectionRequestTimeout = 1000;
+
+    @Autowired
+    private DingTalkClientRegistry clientRegistry;
+
+    private ConnectionProvider connectionProvider;
+    private WebClient webClient;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (TRANSPORT_BLOCKING.equals(transport)) {
+            return;
+        }
+        if (!TRANSPORT_WEB_CLIENT.equals(transport)) {
+            throw new IllegalArgumentException("dingding.reactive.transport 只能为 webclient 或 blocking: " + transport);
+        }
+        connectionProvider = ConnectionProvider.fixed("dingding", maxTotal, connectionRequestTimeout);
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .tcpConfiguration(tcp -> tcp.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout))
+                // 与阻塞客户端的 socket 读取超时一致：请求发出后才开始计时，不计入取连接、建立连接和首次初始化的时间
+                .doAfterRequest((request, connection) -> connection.addHandlerLast(READ_TIMEOUT_HANDLER,
+                        new ReadTimeoutHandler(readTimeout, TimeUnit.MILLISECONDS)))
+                .doAfterResponse((response, connection) -> connection.removeHandler(READ_TIMEOUT_HANDLER));
+        webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * 发送已编码为 UTF-8 的消息，订阅时才发出请求
+     *
+     * @param webhook   webhook
+     * @param body      UTF-8 编码的 JSON 请求体
+     * @param signature getSignature 得到的 "&timestamp=XXX&sign=XXX" 串
+     * @return 钉钉服务端返回的响应；网络异常、超时、非 2xx 或响应无法解析时以 ApiException 结束，errCode 同 DingTalkRobotClient.parse
+     */
+    public Mono<OapiRobotSendResponse> execute(String webhook, byte[] body, String signature) {
+        if (webClient == null) {
+            return Mono.fromCallable(() -> clientRegistry.getClient(webhook).execute(body, signature))
+                    .subscribeOn(Schedulers.elastic());
+        }
+        // 签名已经 urlEncode 过，直接构造 URI，避免再次编码
+        return webClient.post()
+                .uri(URI.create(webhook + signature))
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .syncBody(body)
+                .exchange()
+                // 先带上状态码再解析：非 2xx 和空响应体都转为 ApiException，不会变成空的 Mono
+                .flatMap(response -> {
+                    int status = response.rawStatusCode();
+                    return response.bodyToMono(String.class)
+                            .defaultIfEmpty("")
+                            // 空的错误响应在服务端关闭连接时可能读不完(PrematureCloseException 或读取超时)，仍按状态码报告
+                            .onErrorMap(e -> status < 200 || status >= 300, e -> bodyFailure(status, e))
+                            .flatMap(responseBody -> Mono.fromCallable(() -> DingTalkRobotClient.parse(status, responseBody)));
+                })
+                // 读取超时由连接上的 ReadTimeoutHandler 负责，这里只是整体上限，防止异常情况下一直不结束
+                .timeout(Duration.ofMillis(connectionRequestTimeout + connectTimeout + 2L * readTimeout))
+                .onErrorMap(e -> !(e instanceof ApiException), e -> e instanceof TimeoutException || e instanceof ReadTimeoutException
+                        ? new ApiException("钉钉响应超时", e) : new ApiException(e));
+    }
+
+    private static ApiException bodyFailure(int status, Throwable cause) {
+        ApiException failure = new ApiException(String.valueOf(status), "钉钉返回 HTTP " + status + "，响应体读取失败");
+        failure.initCause(cause);
+        return failure;
+    }
+
+    @Override
+    public void destroy() {
+        if (connectionProvider != null) {
+            connectionProvider.dispose();
+        }
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+}
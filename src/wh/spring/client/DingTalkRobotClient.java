@@ -0,0 +1,145 @@
+package wh.spring.client;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import com.taobao.api.internal.parser.json.ObjectJsonParser;
+import com.taobao.api.internal.util.TaobaoUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 单个 webhook 对应的机器人客户端
+ * <p>
+ * 与 DefaultDingTalkClient 不同，签名不拼进客户端地址，而是每次发送时传入；
+ * 底层共用连接池中的长连接，避免每条消息都重新建立 TCP+TLS 连接。
+ */
+public class DingTalkRobotClient {
+
+    private final String webhook;
+    private final CloseableHttpClient httpClient;
+    private final RequestConfig requestConfig;
+
+    DingTalkRobotClient(String webhook, CloseableHttpClient httpClient, RequestConfig requestConfig) {
+        this.webhook = webhook;
+        this.httpClient = httpClient;
+        this.requestConfig = requestConfig;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    /**
+     * 发送机器人消息
+     *
+     * @param request   机器人消息请求
+     * @param signature getSignature 得到的 "&timestamp=XXX&sign=XXX" 串
+     * @return 钉钉服务端返回的响应
+     * @throws ApiException 网络异常、非 2xx 响应或响应无法解析，errCode 为 HTTP 状态码
+     */
+    public OapiRobotSendResponse execute(OapiRobotSendRequest request, String signature) throws ApiException {
+        return execute(toJson(request), signature);
+    }
+
+    /**
+     * 发送已序列化好的消息
+     *
+     * @param body      JSON 请求体
+     * @param signature getSignature 得到的 "&timestamp=XXX&sign=XXX" 串
+     * @return 钉钉服务端返回的响应
+     * @throws ApiException 网络异常、非 2xx 响应或响应无法解析，errCode 为 HTTP 状态码
+     */
+    public OapiRobotSendResponse execute(String body, String signature) throws ApiException {
+        return execute(body.getBytes(StandardCharsets.UTF_8), signature);
+    }
+
+    /**
+     * 发送已编码为 UTF-8 的消息，请求体直接写出，不再复制
+     *
+     * @param body      UTF-8 编码的 JSON 请求体
+     * @param signature getSignature 得到的 "&timestamp=XXX&sign=XXX" 串
+     * @return 钉钉服务端返回的响应
+     * @throws ApiException 网络异常、非 2xx 响应或响应无法解析，errCode 为 HTTP 状态码
+     */
+    public OapiRobotSendResponse execute(byte[] body, String signature) throws ApiException {
+        HttpPost post = new HttpPost(webhook + signature);
+        post.setConfig(requestConfig);
+        post.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        int status;
+        String responseBody;
+        try (CloseableHttpResponse httpResponse = httpClient.execute(post)) {
+            status = httpResponse.getStatusLine().getStatusCode();
+            // 必须完整读取响应体，连接才会归还连接池
+            responseBody = httpResponse.getEntity() == null ? "" : EntityUtils.toString(httpResponse.getEntity(), "UTF-8");
+        } catch (IOException e) {
+            throw new ApiException(e);
+        }
+        return parse(status, responseBody);
+    }
+
+    /**
+     * 解析钉钉响应，非 2xx、空响应体和无法解析的响应体(如网关返回的 HTML 错误页)都转为 ApiException，
+     * errCode 为 HTTP 状态码，调用方只需处理 ApiException
+     *
+     * @param status       HTTP 状态码
+     * @param responseBody 响应体
+     * @return 钉钉响应
+     * @throws ApiException 响应不是有效的钉钉响应
+     */
+    public static OapiRobotSendResponse parse(int status, String responseBody) throws ApiException {
+        if (status < 200 || status >= 300) {
+            throw new ApiException(String.valueOf(status), "钉钉返回 HTTP " + status + preview(responseBody));
+        }
+        OapiRobotSendResponse response;
+        try {
+            response = new ObjectJsonParser<OapiRobotSendResponse>(OapiRobotSendResponse.class, true).parse(responseBody, "dingtalk");
+        } catch (ApiException | RuntimeException e) {
+            ApiException failure = new ApiException(String.valueOf(status), "钉钉响应无法解析" + preview(responseBody));
+            failure.initCause(e);
+            throw failure;
+        }
+        if (response == null) {
+            throw new ApiException(String.valueOf(status), "钉钉响应为空");
+        }
+        response.setBody(responseBody);
+        return response;
+    }
+
+    private static String preview(String responseBody) {
+        if (responseBody == null || responseBody.isEmpty()) {
+            return "";
+        }
+        return ": " + (responseBody.length() > 200 ? responseBody.substring(0, 200) + "..." : responseBody);
+    }
+
+    /**
+     * 按 DefaultDingTalkClient 的方式把请求参数转成 JSON 请求体：
+     * 参数值本身是 JSON 数组或对象的，先还原成对象再整体序列化。
+     */
+    public static String toJson(OapiRobotSendRequest request) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        for (Map.Entry<String, String> entry : request.getTextParams().entrySet()) {
+            String value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            if ((value.startsWith("[") && value.endsWith("]")) || (value.startsWith("{") && value.endsWith("}"))) {
+                params.put(entry.getKey(), TaobaoUtils.jsonToObject(value));
+            } else {
+                params.put(entry.getKey(), value);
+            }
+        }
+        return TaobaoUtils.objectToJson(params);
+    }
+}
@@ -0,0 +1,100 @@
+package wh.spring.dedup;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 一条消息的去重窗口，记录窗口内被忽略的次数
+ */
+public class DedupEntry {
+
+    private static final int CLOSED = -1;
+
+    private final DedupKey key;
+    private final String secret;
+    private final String webhook;
+    private final String msgtype;
+    private final String preview;
+    private final long createdNanos;
+    private final Consumer<DedupEntry> reporter;
+    private final AtomicInteger suppressed = new AtomicInteger();
+    private volatile int suppressedCount;
+
+    DedupEntry(DedupKey key, String secret, String webhook, String msgtype, String preview, long createdNanos, Consumer<DedupEntry> reporter) {
+        this.key = key;
+        this.secret = secret;
+        this.webhook = webhook;
+        this.msgtype = msgtype;
+        this.preview = preview;
+        this.createdNanos = createdNanos;
+        this.reporter = reporter;
+    }
+
+    /**
+     * 记一次重复
+     *
+     * @return 窗口已关闭时返回 false
+     */
+    boolean suppress() {
+        while (true) {
+            int count = suppressed.get();
+            if (count == CLOSED) {
+                return false;
+            }
+            if (suppressed.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 关闭窗口，之后的重复不再计入本窗口
+     *
+     * @return 窗口内被忽略的次数，已被关闭过时返回 -1
+     */
+    int close() {
+        int count = suppressed.getAndSet(CLOSED);
+        if (count != CLOSED) {
+            suppressedCount = count;
+        }
+        return count;
+    }
+
+    DedupKey getKey() {
+        return key;
+    }
+
+    long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    Consumer<DedupEntry> getReporter() {
+        return reporter;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getMsgtype() {
+        return msgtype;
+    }
+
+    /**
+     * @return 窗口关闭时统计的被忽略次数
+     */
+    public int getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * @return 消息内容的开头部分，用于汇总消息
+     */
+    public String getPreview() {
+        return preview;
+    }
+}
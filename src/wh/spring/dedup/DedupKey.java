@@ -0,0 +1,38 @@
+package wh.spring.dedup;
+
+/**
+ * 去重键，只保存 128 位摘要，不持有消息内容，每个键占用的内存固定
+ */
+final class DedupKey {
+
+    private final long high;
+    private final long low;
+
+    DedupKey(byte[] digest) {
+        long h = 0L;
+        long l = 0L;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (digest[i] & 0xFF);
+            l = (l << 8) | (digest[i + 8] & 0xFF);
+        }
+        this.high = h;
+        this.low = l;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DedupKey)) {
+            return false;
+        }
+        DedupKey other = (DedupKey) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+}
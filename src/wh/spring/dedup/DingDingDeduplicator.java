@@ -0,0 +1,387 @@
+package wh.spring.dedup;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+import wh.spring.async.DingDingSendExecutor;
+import wh.spring.async.PendingSends;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 重复消息去重
+ * <p>
+ * 开启后以 (webhook, 消息类型, 规范化后的内容, @人员) 的 128 位摘要为键，窗口内同一条消息只发送第一次，
+ * 之后的重复直接忽略并计数；窗口关闭时若有被忽略的消息，发送一条不 @任何人 的汇总说明重复次数。
+ * 规范化：去掉首尾空白、连续空白合并为一个空格；ignoreDigits 为 true 时数字串视为相同，
+ * 适合“CPU 使用率 91%”“CPU 使用率 93%”这类只有数值不同的告警。
+ * 缓存只保存摘要和少量元数据，条目按创建顺序过期；条目数超过 maxEntries 时最早的窗口提前关闭，内存占用有上限。
+ * <pre>
+ * dingding.dedup.enabled       是否开启，默认 false
+ * dingding.dedup.window        去重窗口(毫秒)，默认 60000
+ * dingding.dedup.maxEntries    最多缓存条数，默认 100000
+ * dingding.dedup.ignoreDigits  比较内容时是否忽略数字，默认 false
+ * dingding.dedup.summary       窗口关闭时是否发送汇总，默认 true
+ * </pre>
+ * 容器关闭时在销毁任何单例之前(SmartLifecycle 停止阶段)发出未到期窗口的汇总，并等待已提交的汇总发送完成。
+ */
+@Component
+public class DingDingDeduplicator implements InitializingBean, SmartLifecycle, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DingDingDeduplicator.class);
+
+    private static final int PREVIEW_LENGTH = 100;
+    private static final byte SEPARATOR = 0;
+
+    @Value("${dingding.dedup.enabled:false}")
+    private boolean enabled = false;
+    @Value("${dingding.dedup.window:60000}")
+    private long window = 60000L;
+    @Value("${dingding.dedup.maxEntries:100000}")
+    private int maxEntries = 100000;
+    @Value("${dingding.dedup.ignoreDigits:false}")
+    private boolean ignoreDigits = false;
+    @Value("${dingding.dedup.summary:true}")
+    private boolean summary = true;
+
+    @Autowired
+    private DingDingSendExecutor sendExecutor;
+
+    private final ConcurrentMap<DedupKey, DedupEntry> entries = new ConcurrentHashMap<DedupKey, DedupEntry>();
+    /**
+     * 按创建顺序排列，窗口长度相同，队首总是最早过期的
+     */
+    private final ConcurrentLinkedQueue<DedupEntry> expiryQueue = new ConcurrentLinkedQueue<DedupEntry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder suppressedCount = new LongAdder();
+    private final LongAdder failedSummaryCount = new LongAdder();
+    /**
+     * 已提交、尚未发送完成的汇总
+     */
+    private final PendingSends sending = new PendingSends();
+
+    private long windowNanos;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        if (window <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("dingding.dedup.window和maxEntries必须大于0");
+        }
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dingding-dedup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.min(window, 1000L);
+        scheduler.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * 判断文本类消息是否在窗口内重复
+     *
+     * @param secret         密钥，发送汇总时使用
+     * @param webhook        webhook
+     * @param msgtype        消息类型
+     * @param contactPersons @的手机号，顺序无关，为空表示 @所有人
+     * @param reporter       窗口关闭且有被忽略的消息时发送汇总的动作，在发送线程池中执行
+     * @param contents       参与比较的内容，按规范化后的结果比较，第一个同时作为汇总消息中展示的内容
+     * @return true 为重复消息，调用方不应再发送
+     */
+    public boolean isDuplicate(String secret, String webhook, String msgtype, List<String> contactPersons,
+                               Consumer<DedupEntry> reporter, String... contents) {
+        MessageDigest digest = newDigest(webhook, msgtype);
+        if (CollectionUtils.isEmpty(contactPersons)) {
+            digest.update(SEPARATOR);
+        } else {
+            List<String> persons = new ArrayList<String>(contactPersons);
+            Collections.sort(persons);
+            for (String person : persons) {
+                digest.update(person.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ',');
+            }
+        }
+        for (String content : contents) {
+            digest.update(SEPARATOR);
+            if (content != null) {
+                digest.update(normalize(content).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return isDuplicate(new DedupKey(digest.digest()), secret, webhook, msgtype, contents.length == 0 ? null : contents[0], reporter);
+    }
+
+    /**
+     * 判断已编码的消息是否在窗口内重复，按请求体逐字节比较
+     *
+     * @param preview 汇总消息中展示的内容
+     * @see #isDuplicate(String, String, String, List, Consumer, String...)
+     */
+    public boolean isDuplicate(String secret, String webhook, String msgtype, byte[] body, String preview,
+                               Consumer<DedupEntry> reporter) {
+        MessageDigest digest = newDigest(webhook, msgtype);
+        digest.update(body);
+        return isDuplicate(new DedupKey(digest.digest()), secret, webhook, msgtype, preview, reporter);
+    }
+
+    private boolean isDuplicate(DedupKey key, String secret, String webhook, String msgtype, String preview,
+                                Consumer<DedupEntry> reporter) {
+        long now = System.nanoTime();
+        DedupEntry created = null;
+        while (true) {
+            DedupEntry entry = entries.get(key);
+            if (entry != null && now - entry.getCreatedNanos() < windowNanos && entry.suppress()) {
+                suppressedCount.increment();
+                return true;
+            }
+            if (created == null) {
+                created = new DedupEntry(key, secret, webhook, msgtype, abbreviate(preview), now, reporter);
+            }
+            // 没有条目，或条目已过期、已关闭，由本次调用开启新窗口；旧条目由过期清理关闭并汇总
+            boolean replaced = entry == null ? entries.putIfAbsent(key, created) == null : entries.replace(key, entry, created);
+            if (replaced) {
+                expiryQueue.offer(created);
+                if (size.incrementAndGet() > maxEntries) {
+                    evictEldest();
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 关闭已到期的窗口
+     */
+    private void expire() {
+        try {
+            long now = System.nanoTime();
+            DedupEntry entry;
+            while ((entry = expiryQueue.peek()) != null && now - entry.getCreatedNanos() >= windowNanos) {
+                if (expiryQueue.remove(entry)) {
+                    close(entry);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("钉钉去重缓存清理失败", e);
+        }
+    }
+
+    /**
+     * 条目数超过上限时提前关闭最早的窗口
+     */
+    private void evictEldest() {
+        while (size.get() > maxEntries) {
+            DedupEntry entry = expiryQueue.poll();
+            if (entry == null) {
+                return;
+            }
+            close(entry);
+        }
+    }
+
+    private void close(DedupEntry entry) {
+        size.decrementAndGet();
+        entries.remove(entry.getKey(), entry);
+        int count = entry.close();
+        if (count > 0 && summary && entry.getReporter() != null) {
+            sending.track(sendExecutor.submit(entry.getWebhook(), () -> {
+                entry.getReporter().accept(entry);
+                return null;
+            })).whenComplete((result, e) -> {
+                if (e != null) {
+                    failedSummaryCount.increment();
+                    log.error("钉钉重复消息汇总发送失败，忽略条数: " + count, e);
+                }
+            });
+        }
+    }
+
+    private static MessageDigest newDigest(String webhook, String msgtype) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(webhook.getBytes(StandardCharsets.UTF_8));
+        digest.update(SEPARATOR);
+        digest.update(msgtype.getBytes(StandardCharsets.UTF_8));
+        digest.update(SEPARATOR);
+        return digest;
+    }
+
+    /**
+     * 去掉首尾空白，连续空白合并为一个空格，ignoreDigits 时连续数字合并为一个 #
+     */
+    String normalize(String content) {
+        StringBuilder out = new StringBuilder(content.length());
+        boolean space = false;
+        boolean digit = false;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+                digit = false;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            if (ignoreDigits && c >= '0' && c <= '9') {
+                if (!digit) {
+                    out.append('#');
+                    digit = true;
+                }
+                continue;
+            }
+            digit = false;
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private static String abbreviate(String preview) {
+        if (preview == null) {
+            return "";
+        }
+        preview = preview.trim();
+        return preview.length() <= PREVIEW_LENGTH ? preview : preview.substring(0, PREVIEW_LENGTH) + "...";
+    }
+
+    /**
+     * @return 正在去重的消息条数
+     */
+    public int getCachedCount() {
+        return Math.max(0, size.get());
+    }
+
+    /**
+     * @return 累计忽略的重复消息条数
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.sum();
+    }
+
+    /**
+     * @return 发送失败、被限流或钉钉返回错误码的汇总数
+     */
+    public long getFailedSummaryCount() {
+        return failedSummaryCount.sum();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * 发出未到期窗口的汇总，并等待已提交的汇总发送完成
+     */
+    @Override
+    public void stop() {
+        running = false;
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        closeAll();
+        int remaining = sending.await();
+        if (remaining > 0) {
+            log.warn("关闭时仍有钉钉重复消息汇总未发送完成: " + remaining);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 在其他组件之前停止
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 未经容器停止直接销毁时(如手动创建)同样发出未到期窗口的汇总
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            closeAll();
+        }
+    }
+
+    private void closeAll() {
+        DedupEntry entry;
+        while ((entry = expiryQueue.poll()) != null) {
+            size.decrementAndGet();
+            entries.remove(entry.getKey(), entry);
+            int count = entry.close();
+            if (count > 0 && summary && entry.getReporter() != null) {
+                try {
+                    entry.getReporter().accept(entry);
+                } catch (RuntimeException e) {
+                    failedSummaryCount.increment();
+                    log.error("钉钉重复消息汇总发送失败，忽略条数: " + count, e);
+                }
+            }
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setIgnoreDigits(boolean ignoreDigits) {
+        this.ignoreDigits = ignoreDigits;
+    }
+
+    public void setSummary(boolean summary) {
+        this.summary = summary;
+    }
+}
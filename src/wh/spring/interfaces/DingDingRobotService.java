@@ -0,0 +1,52 @@
+package wh.spring.interfaces;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import com.taobao.api.ApiException;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.schedule.MessagePriority;
+import wh.spring.template.MessageTemplate;
+
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按机器人名称发送钉钉消息，webhook 和密钥由 DingDingRobotRegistry 从配置中加载
+ */
+public interface DingDingRobotService {
+
+    DingDingSendResult sendDingMarkdownMessage(String robot, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) throws ApiException;
+    DingDingSendResult sendDingTextMessage(String robot, List<String> contactPersons, String message) throws ApiException;
+    DingDingSendResult sendDingLinkMessage(String robot, String title, String text, String messageUrl, String picUrl) throws ApiException;
+    DingDingSendResult sendDingOverallActionCardMessage(String robot, String title, String text, String singleTitle, String singleURL) throws ApiException;
+    DingDingSendResult sendDingIndependentActionCardMessage(String robot, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) throws ApiException;
+    DingDingSendResult sendDingFeedCardMessage(String robot, List<OapiRobotSendRequest.Links> linkList) throws ApiException;
+
+    /*
+     * 异步发送
+     */
+    CompletableFuture<DingDingSendResult> sendDingMarkdownMessageAsync(String robot, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl);
+    CompletableFuture<DingDingSendResult> sendDingTextMessageAsync(String robot, List<String> contactPersons, String message);
+
+    /*
+     * 按预编码的消息模板发送
+     */
+    DingDingSendResult sendTemplateMessage(String robot, MessageTemplate template, Map<String, ?> variables) throws ApiException;
+    CompletableFuture<DingDingSendResult> sendTemplateMessageAsync(String robot, MessageTemplate template, Map<String, ?> variables);
+
+    /*
+     * 按优先级调度发送
+     */
+    CompletableFuture<DingDingSendResult> sendPriorityMessage(String robot, OapiRobotSendRequest request, MessagePriority priority);
+    CompletableFuture<DingDingSendResult> sendPriorityTemplateMessage(String robot, MessageTemplate template, Map<String, ?> variables, MessagePriority priority);
+
+    /*
+     * 分段发送超长内容
+     */
+    List<DingDingSendResult> sendDingMarkdownStream(String robot, List<String> contactPersons, String messageTitle, Reader content) throws ApiException;
+    List<DingDingSendResult> sendDingTextStream(String robot, List<String> contactPersons, String messageTitle, Reader content) throws ApiException;
+    CompletableFuture<List<DingDingSendResult>> sendDingMarkdownStreamAsync(String robot, List<String> contactPersons, String messageTitle, Iterator<String> lines);
+
+}
@@ -1,11 +1,19 @@
 package wh.spring.interfaces;
 
 import com.dingtalk.api.request.OapiRobotSendRequest;
-import com.dingtalk.api.response.OapiRobotSendResponse;
 import com.taobao.api.ApiException;
+import wh.spring.model.DingDingBroadcastResult;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.model.DingDingTarget;
+import wh.spring.schedule.MessagePriority;
+import wh.spring.template.MessageTemplate;
 
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author lubin
@@ -16,11 +24,55 @@ import java.util.Map;
  */
 public interface DingDingService {
 
-    OapiRobotSendResponse sendDingMarkdownMessage(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) throws ApiException;
-    OapiRobotSendResponse sendDingTextMessage(String secret, String webhook, List<String> contactPersons,String message) throws ApiException;
-    OapiRobotSendResponse sendDingLinkMessage(String secret, String webhook, String title, String text,String messageUrl,String picUrl) throws ApiException;
-    OapiRobotSendResponse sendDingOverallActionCardMessage(String secret, String webhook, String title, String text, String singleTitle, String singleURL) throws ApiException;
-    OapiRobotSendResponse sendDingIndependentActionCardMessage(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) throws ApiException;
-    OapiRobotSendResponse sendDingFeedCardMessage(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList) throws ApiException;
+    DingDingSendResult sendDingMarkdownMessage(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) throws ApiException;
+    DingDingSendResult sendDingTextMessage(String secret, String webhook, List<String> contactPersons,String message) throws ApiException;
+    DingDingSendResult sendDingLinkMessage(String secret, String webhook, String title, String text,String messageUrl,String picUrl) throws ApiException;
+    DingDingSendResult sendDingOverallActionCardMessage(String secret, String webhook, String title, String text, String singleTitle, String singleURL) throws ApiException;
+    DingDingSendResult sendDingIndependentActionCardMessage(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) throws ApiException;
+    DingDingSendResult sendDingFeedCardMessage(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList) throws ApiException;
+
+    /*
+     * 异步发送，在独立的有界线程池中执行，调用线程不等待网络请求
+     */
+    CompletableFuture<DingDingSendResult> sendDingMarkdownMessageAsync(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl);
+    CompletableFuture<DingDingSendResult> sendDingTextMessageAsync(String secret, String webhook, List<String> contactPersons, String message);
+    CompletableFuture<DingDingSendResult> sendDingLinkMessageAsync(String secret, String webhook, String title, String text, String messageUrl, String picUrl);
+    CompletableFuture<DingDingSendResult> sendDingOverallActionCardMessageAsync(String secret, String webhook, String title, String text, String singleTitle, String singleURL);
+    CompletableFuture<DingDingSendResult> sendDingIndependentActionCardMessageAsync(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation);
+    CompletableFuture<DingDingSendResult> sendDingFeedCardMessageAsync(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList);
+
+    /*
+     * 按预编码的消息模板发送
+     */
+    DingDingSendResult sendTemplateMessage(String secret, String webhook, MessageTemplate template, Map<String, ?> variables) throws ApiException;
+    CompletableFuture<DingDingSendResult> sendTemplateMessageAsync(String secret, String webhook, MessageTemplate template, Map<String, ?> variables);
+
+    /*
+     * 群发，同一条消息并行发送到多个机器人，返回每个机器人的发送结果
+     */
+    List<DingDingBroadcastResult> broadcastMarkdownMessage(List<DingDingTarget> targets, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl);
+    List<DingDingBroadcastResult> broadcastTextMessage(List<DingDingTarget> targets, List<String> contactPersons, String message);
+    List<DingDingBroadcastResult> broadcast(List<DingDingTarget> targets, OapiRobotSendRequest request);
+    CompletableFuture<List<DingDingBroadcastResult>> broadcastAsync(List<DingDingTarget> targets, OapiRobotSendRequest request);
+    List<DingDingBroadcastResult> broadcastTemplateMessage(List<DingDingTarget> targets, MessageTemplate template, Map<String, ?> variables);
+
+    /*
+     * 按优先级调度发送，告警不会排在批量消息后面，低优先级消息在额度不足时可能被丢弃
+     */
+    CompletableFuture<DingDingSendResult> sendPriorityMessage(String secret, String webhook, OapiRobotSendRequest request, MessagePriority priority);
+    CompletableFuture<DingDingSendResult> sendPriorityMessage(String secret, String webhook, OapiRobotSendRequest request, MessagePriority priority, long deadlineMillis);
+    CompletableFuture<DingDingSendResult> sendPriorityTemplateMessage(String secret, String webhook, MessageTemplate template, Map<String, ?> variables, MessagePriority priority);
+
+    /*
+     * 分段发送超长内容，流式读取并切分为不超过大小限制的片段，按顺序、按限流额度逐段发出
+     */
+    List<DingDingSendResult> sendDingMarkdownStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Reader content) throws ApiException;
+    List<DingDingSendResult> sendDingMarkdownStream(String secret, String webhook, List<String> contactPersons, String messageTitle, InputStream content) throws ApiException;
+    List<DingDingSendResult> sendDingMarkdownStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines) throws ApiException;
+    CompletableFuture<List<DingDingSendResult>> sendDingMarkdownStreamAsync(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines);
+    List<DingDingSendResult> sendDingTextStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Reader content) throws ApiException;
+    List<DingDingSendResult> sendDingTextStream(String secret, String webhook, List<String> contactPersons, String messageTitle, InputStream content) throws ApiException;
+    List<DingDingSendResult> sendDingTextStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines) throws ApiException;
+    CompletableFuture<List<DingDingSendResult>> sendDingTextStreamAsync(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines);
 
 }
@@ -0,0 +1,26 @@
+package wh.spring.interfaces;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import reactor.core.publisher.Mono;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.template.MessageTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * 钉钉发送消息，非阻塞版本，参数与 DingDingService 相同，订阅时才发送
+ *
+ */
+public interface ReactiveDingDingService {
+
+    Mono<DingDingSendResult> sendDingMarkdownMessage(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl);
+    Mono<DingDingSendResult> sendDingTextMessage(String secret, String webhook, List<String> contactPersons, String message);
+    Mono<DingDingSendResult> sendDingLinkMessage(String secret, String webhook, String title, String text, String messageUrl, String picUrl);
+    Mono<DingDingSendResult> sendDingOverallActionCardMessage(String secret, String webhook, String title, String text, String singleTitle, String singleURL);
+    Mono<DingDingSendResult> sendDingIndependentActionCardMessage(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation);
+    Mono<DingDingSendResult> sendDingFeedCardMessage(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList);
+    Mono<DingDingSendResult> sendTemplateMessage(String secret, String webhook, MessageTemplate template, Map<String, ?> variables);
+
+}
@@ -0,0 +1,248 @@
+package wh.spring.limit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import wh.spring.quota.QuotaLease;
+import wh.spring.quota.QuotaStore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 从 QuotaStore 租用许可的令牌桶，多个节点共享同一 webhook 的额度
+ * <p>
+ * 本地没有可用许可时一次租用 leaseSize 个，leaseTtl 毫秒内用完，过期未用的归还给其他节点。
+ * 访问存储时不持有锁，查询可用许可和等待时间不会被存储的往返阻塞；同一节点同时只有一个线程租用，
+ * 其他需要租用的线程等它返回后再取本地许可。没有额度时记下下一个许可的时间，此前不再访问存储。
+ * 存储不可用时退回到本地令牌桶，各节点只按单机额度限流，存储恢复后自动切回。
+ */
+class ClusterTokenBucket extends TokenBucket {
+
+    private static final Log log = LogFactory.getLog(ClusterTokenBucket.class);
+
+    private final String webhook;
+    private final QuotaStore store;
+    private final int leaseSize;
+    private final long leaseTtl;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition leased = lock.newCondition();
+    /**
+     * 是否有线程正在访问存储租用许可
+     */
+    private boolean leasing;
+    /**
+     * 已租用未使用的许可数及其过期时间(毫秒时间戳)
+     */
+    private int permits;
+    private long expiresAt;
+    /**
+     * 共享额度下一个许可可用的时间(毫秒时间戳)
+     */
+    private long nextAvailableAt;
+    private volatile boolean storeFailed;
+
+    ClusterTokenBucket(String webhook, QuotaStore store, int burst, long intervalNanos, int leaseSize, long leaseTtl) {
+        super(burst, intervalNanos, TimeUnit.NANOSECONDS);
+        this.webhook = webhook;
+        this.store = store;
+        this.leaseSize = Math.max(1, leaseSize);
+        this.leaseTtl = leaseTtl;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return acquire(0L) >= 0;
+    }
+
+    @Override
+    public long reserve(long maxWait, TimeUnit unit) {
+        return acquire(unit.toMillis(maxWait));
+    }
+
+    /**
+     * @param maxWait 可以接受的最长等待(毫秒)
+     * @return 需要等待的纳秒数，-1 表示没有额度
+     */
+    private long acquire(long maxWait) {
+        int expired;
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (permits > 0 && now < expiresAt) {
+                    permits--;
+                    recordAcquired(false);
+                    return 0L;
+                }
+                if (nextAvailableAt - now > maxWait) {
+                    recordRejected();
+                    return -1L;
+                }
+                if (!leasing) {
+                    break;
+                }
+                // 其他线程正在租用，等它放入许可或得知下一个许可的时间
+                leased.awaitUninterruptibly();
+            }
+            leasing = true;
+            expired = permits;
+            permits = 0;
+        } finally {
+            lock.unlock();
+        }
+        QuotaLease lease = null;
+        try {
+            releaseToStore(expired);
+            lease = store.lease(webhook, leaseSize, intervalMillis(), getBurst(), maxWait);
+        } catch (RuntimeException e) {
+            failed(e);
+        } finally {
+            if (lease == null) {
+                leaseDone(null);
+            }
+        }
+        if (lease == null) {
+            return maxWait == 0L ? (super.tryAcquire() ? 0L : -1L) : super.reserve(maxWait, TimeUnit.MILLISECONDS);
+        }
+        recovered();
+        return leaseDone(lease);
+    }
+
+    /**
+     * 结束租用，先放入租到的许可再唤醒等待的线程，它们醒来后直接使用
+     *
+     * @return 需要等待的纳秒数，-1 表示没有额度
+     */
+    private long leaseDone(QuotaLease lease) {
+        lock.lock();
+        try {
+            leasing = false;
+            leased.signalAll();
+            if (lease == null) {
+                return -1L;
+            }
+            long now = System.currentTimeMillis();
+            if (lease.getGranted() == 0) {
+                nextAvailableAt = Math.max(nextAvailableAt, now + lease.getWaitMillis());
+                recordRejected();
+                return -1L;
+            }
+            if (lease.getWaitMillis() == 0L) {
+                permits = lease.getGranted() - 1;
+                expiresAt = now + leaseTtl;
+            }
+            recordAcquired(lease.getWaitMillis() > 0L);
+            return TimeUnit.MILLISECONDS.toNanos(lease.getWaitMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空本地许可，并让所有节点在 penalty 内暂停
+     */
+    @Override
+    public void penalize(long penalty, TimeUnit unit) {
+        super.penalize(penalty, unit);
+        lock.lock();
+        try {
+            permits = 0;
+            nextAvailableAt = System.currentTimeMillis() + intervalMillis() * getBurst() + unit.toMillis(penalty);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            store.penalize(webhook, unit.toMillis(penalty), intervalMillis(), getBurst());
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * @return 本地已租用、可立即使用的许可数
+     */
+    @Override
+    public int getAvailableTokens() {
+        lock.lock();
+        try {
+            return System.currentTimeMillis() < expiresAt ? permits : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 本地许可足够时为 0；本地还有许可但不足 tokens 个时为租约剩余时间，这些许可留给只需更少令牌的调用方
+     * (优先级调度为 CRITICAL/HIGH 保留的令牌在共享额度下即按此从每次租到的许可中保留，leaseSize 需大于 reservedTokens)，
+     * 到期归还后再重新租用；本地没有许可时为最近一次租用得知的共享额度等待时间，尚未得知时为 0，由下一次获取去租用。
+     * 存储不可用期间为本地令牌桶的等待时间。
+     */
+    @Override
+    public long getWaitNanos(int tokens) {
+        if (storeFailed) {
+            return super.getWaitNanos(tokens);
+        }
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            int available = now < expiresAt ? permits : 0;
+            if (available >= tokens) {
+                return 0L;
+            }
+            if (available > 0) {
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(1L, expiresAt - now));
+            }
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, nextAvailableAt - now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还未使用的许可
+     */
+    void releaseLease() {
+        int unused;
+        lock.lock();
+        try {
+            unused = permits;
+            permits = 0;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            releaseToStore(unused);
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    private void releaseToStore(int unused) {
+        if (unused > 0) {
+            store.release(webhook, unused, intervalMillis());
+        }
+    }
+
+    /**
+     * @return 存储使用的补充间隔(毫秒)，随 setRate 变化
+     */
+    private long intervalMillis() {
+        return Math.max(1L, (getIntervalNanos() + 999999L) / 1000000L);
+    }
+
+    private void failed(RuntimeException e) {
+        if (!storeFailed) {
+            storeFailed = true;
+            log.warn("钉钉共享额度存储不可用，暂时按本地令牌桶限流", e);
+        }
+    }
+
+    private void recovered() {
+        if (storeFailed) {
+            storeFailed = false;
+            log.info("钉钉共享额度存储已恢复");
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package wh.spring.limit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wh.spring.quota.QuotaStore;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按 webhook 限流
+ * <p>
+ * 钉钉自定义机器人每个 webhook 每分钟最多发送 20 条，超出后会被限流。
+ * 每个 webhook 一个令牌桶，桶容量为 burst，补充速率为 (permitsPerMinute - burst) 个/分钟，
+ * 保证任意一分钟内发出的消息不超过 permitsPerMinute 条。
+ * <pre>
+ * dingding.limit.enabled           是否启用，默认 true
+ * dingding.limit.permitsPerMinute  每分钟允许发送条数，默认 20
+ * dingding.limit.burst             允许的突发条数，默认 5
+ * dingding.limit.policy            令牌不足时的策略 BLOCK/QUEUE/REJECT，默认 BLOCK
+ * dingding.limit.maxWait           BLOCK 策略最长等待(毫秒)，默认 10000
+ * dingding.limit.queueCapacity     QUEUE 策略每个 webhook 最多排队条数，默认 100
+ * </pre>
+ * QUEUE 策略的排队消息由一个限流线程按各自令牌的时间唤醒，唤醒后交给发送线程池发送，排队条数只计等待令牌的消息。
+ * 单个 webhook 的额度可以通过 setQuota 覆盖，调整时原地修改已有的令牌桶，已占用的令牌和排队中的消息不受影响。
+ * 多个节点向同一 webhook 发送时，各节点的令牌桶会加起来超出额度。配置 dingding.quota.store 后
+ * 令牌改为从所有节点共享的 QuotaStore 批量租用，见 ClusterTokenBucket：
+ * <pre>
+ * dingding.quota.store      共享额度存储 memory/jdbc，默认不配置，只按本节点限流
+ * dingding.quota.leaseSize  每次租用的许可数，默认 5
+ * dingding.quota.leaseTtl   租用的许可在本地保留的时长(毫秒)，过期未用的归还，默认 2000
+ * </pre>
+ */
+@Component
+public class DingDingRateLimiter implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DingDingRateLimiter.class);
+
+    /**
+     * 限流结果
+     */
+    public enum Decision {
+        /**
+         * 可以立即发送
+         */
+        PASS,
+        /**
+         * 已进入待发送队列
+         */
+        QUEUED,
+        /**
+         * 被拒绝
+         */
+        REJECTED
+    }
+
+    @Value("${dingding.limit.enabled:true}")
+    private boolean enabled = true;
+    @Value("${dingding.limit.permitsPerMinute:20}")
+    private int permitsPerMinute = 20;
+    @Value("${dingding.limit.burst:5}")
+    private int burst = 5;
+    @Value("${dingding.limit.policy:BLOCK}")
+    private RateLimitPolicy policy = RateLimitPolicy.BLOCK;
+    @Value("${dingding.limit.maxWait:10000}")
+    private long maxWait = 10000L;
+    @Value("${dingding.limit.queueCapacity:100}")
+    private int queueCapacity = 100;
+    @Value("${dingding.quota.leaseSize:5}")
+    private int leaseSize = 5;
+    @Value("${dingding.quota.leaseTtl:2000}")
+    private long leaseTtl = 2000L;
+
+    @Autowired(required = false)
+    private QuotaStore quotaStore;
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+    /**
+     * 单独配置了额度的 webhook，值为 {burst, intervalNanos}
+     */
+    private final ConcurrentMap<String, long[]> quotas = new ConcurrentHashMap<String, long[]>();
+
+    private long intervalNanos;
+    private ScheduledExecutorService queueExecutor;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (burst < 1 || burst >= permitsPerMinute) {
+            throw new IllegalArgumentException("dingding.limit.burst必须大于0且小于permitsPerMinute");
+        }
+        intervalNanos = TimeUnit.MINUTES.toNanos(1) / (permitsPerMinute - burst);
+        if (policy == RateLimitPolicy.QUEUE) {
+            queueExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "dingding-limit-queue");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public RateLimitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return 共享额度时每次租用的许可数
+     */
+    public int getLeaseSize() {
+        return leaseSize;
+    }
+
+    /**
+     * 获取 webhook 对应的令牌桶
+     */
+    public TokenBucket getBucket(String webhook) {
+        TokenBucket bucket = buckets.get(webhook);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(webhook, key -> {
+                long[] quota = quotas.get(key);
+                int bucketBurst = quota == null ? burst : (int) quota[0];
+                long bucketInterval = quota == null ? intervalNanos : quota[1];
+                return quotaStore == null
+                        ? new TokenBucket(bucketBurst, bucketInterval, TimeUnit.NANOSECONDS)
+                        : new ClusterTokenBucket(key, quotaStore, bucketBurst, bucketInterval, leaseSize, leaseTtl);
+            });
+        }
+        return bucket;
+    }
+
+    /**
+     * 单独设置 webhook 的额度，覆盖 dingding.limit.permitsPerMinute 和 dingding.limit.burst
+     *
+     * @param webhook          webhook
+     * @param permitsPerMinute 每分钟允许发送条数
+     * @param burst            允许的突发条数，大于 0 且小于 permitsPerMinute
+     */
+    public void setQuota(String webhook, int permitsPerMinute, int burst) {
+        if (burst < 1 || burst >= permitsPerMinute) {
+            throw new IllegalArgumentException("burst必须大于0且小于permitsPerMinute");
+        }
+        long[] quota = {burst, TimeUnit.MINUTES.toNanos(1) / (permitsPerMinute - burst)};
+        quotas.put(webhook, quota);
+        applyQuota(webhook, (int) quota[0], quota[1]);
+    }
+
+    /**
+     * 取消 webhook 的单独额度，恢复为全局配置
+     */
+    public void removeQuota(String webhook) {
+        if (quotas.remove(webhook) != null) {
+            applyQuota(webhook, burst, intervalNanos);
+        }
+    }
+
+    private void applyQuota(String webhook, int bucketBurst, long bucketInterval) {
+        TokenBucket bucket = buckets.get(webhook);
+        if (bucket != null && (bucket.getBurst() != bucketBurst || bucket.getIntervalNanos() != bucketInterval)) {
+            bucket.setRate(bucketBurst, bucketInterval);
+        }
+    }
+
+    /**
+     * 申请发送一条消息
+     *
+     * @param webhook      webhook
+     * @param deferredSend QUEUE 策略下令牌可用时在限流线程中执行，应只把发送交给发送线程池，不能阻塞：
+     *                     所有 webhook 的排队消息共用一个限流线程
+     * @return PASS 调用方立即发送；QUEUED 已交给后台发送；REJECTED 被限流
+     */
+    public Decision acquire(String webhook, Runnable deferredSend) {
+        if (!enabled) {
+            return Decision.PASS;
+        }
+        TokenBucket bucket = getBucket(webhook);
+        switch (policy) {
+            case REJECT:
+                return bucket.tryAcquire() ? Decision.PASS : Decision.REJECTED;
+            case QUEUE:
+                if (bucket.tryAcquire()) {
+                    return Decision.PASS;
+                }
+                return enqueue(bucket, deferredSend);
+            case BLOCK:
+            default:
+                long wait = bucket.reserve(maxWait, TimeUnit.MILLISECONDS);
+                if (wait < 0) {
+                    return Decision.REJECTED;
+                }
+                if (wait > 0) {
+                    bucket.pending().incrementAndGet();
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return Decision.REJECTED;
+                    } finally {
+                        bucket.pending().decrementAndGet();
+                    }
+                }
+                return Decision.PASS;
+        }
+    }
+
+    /**
+     * 非阻塞地申请发送一条消息，等待由调用方自行调度，不占用线程
+     * <p>
+     * REJECT 策略令牌不足时直接拒绝；BLOCK 与 QUEUE 策略预约令牌，最多等待 maxWait 毫秒。
+     *
+     * @param webhook webhook
+     * @return 需要等待的纳秒数，-1 表示被限流
+     */
+    public long reserve(String webhook) {
+        if (!enabled) {
+            return 0L;
+        }
+        TokenBucket bucket = getBucket(webhook);
+        if (policy == RateLimitPolicy.REJECT) {
+            return bucket.tryAcquire() ? 0L : -1L;
+        }
+        return bucket.reserve(maxWait, TimeUnit.MILLISECONDS);
+    }
+
+    private Decision enqueue(TokenBucket bucket, Runnable deferredSend) {
+        AtomicInteger pending = bucket.pending();
+        if (pending.incrementAndGet() > queueCapacity) {
+            pending.decrementAndGet();
+            return Decision.REJECTED;
+        }
+        long wait = bucket.reserve(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (wait < 0) {
+            // 共享额度时存储可能一个许可也不给，不能不带令牌发送
+            pending.decrementAndGet();
+            return Decision.REJECTED;
+        }
+        queueExecutor.schedule(() -> {
+            try {
+                deferredSend.run();
+            } catch (RuntimeException e) {
+                log.error("钉钉排队消息发送失败", e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }, wait, TimeUnit.NANOSECONDS);
+        return Decision.QUEUED;
+    }
+
+    /**
+     * @return 各 webhook 的令牌桶，用于查看限流状态
+     */
+    public Map<String, TokenBucket> getBuckets() {
+        return Collections.unmodifiableMap(buckets);
+    }
+
+    /**
+     * @return 是否与其他节点共享额度
+     */
+    public boolean isShared() {
+        return quotaStore != null;
+    }
+
+    @Override
+    public void destroy() {
+        if (queueExecutor != null) {
+            queueExecutor.shutdown();
+        }
+        // 停止前把未用完的许可还给其他节点
+        for (TokenBucket bucket : buckets.values()) {
+            if (bucket instanceof ClusterTokenBucket) {
+                ((ClusterTokenBucket) bucket).releaseLease();
+            }
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setPermitsPerMinute(int permitsPerMinute) {
+        this.permitsPerMinute = permitsPerMinute;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public void setPolicy(RateLimitPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setLeaseSize(int leaseSize) {
+        this.leaseSize = leaseSize;
+    }
+
+    public void setLeaseTtl(long leaseTtl) {
+        this.leaseTtl = leaseTtl;
+    }
+
+    public void setQuotaStore(QuotaStore quotaStore) {
+        this.quotaStore = quotaStore;
+    }
+}
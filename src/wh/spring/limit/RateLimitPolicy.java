@@ -0,0 +1,20 @@
+package wh.spring.limit;
+
+/**
+ * 令牌不足时的处理策略
+ */
+public enum RateLimitPolicy {
+
+    /**
+     * 调用线程等待令牌，最长等待 maxWait
+     */
+    BLOCK,
+    /**
+     * 消息进入待发送队列，令牌可用时由后台线程发出，调用方立即返回
+     */
+    QUEUE,
+    /**
+     * 立即拒绝
+     */
+    REJECT
+}
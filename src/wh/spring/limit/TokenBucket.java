@@ -0,0 +1,186 @@
+package wh.spring.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁令牌桶
+ * <p>
+ * 只保存一个“理论到达时间”(GCRA 算法)，通过 CAS 更新，不需要加锁。
+ * 桶容量为 burst，每 interval 补充一个令牌。两者放在同一个不可变对象中，可以在运行中整体替换，
+ * 替换后已占用的令牌仍然有效，不会因为调整额度而清空或重新放满。
+ */
+public class TokenBucket {
+
+    private volatile Rate rate;
+
+    /**
+     * 理论到达时间，小于当前时间表示桶已满
+     */
+    private final AtomicLong theoreticalArrival;
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder waitedCount = new LongAdder();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    public TokenBucket(int burst, long interval, TimeUnit unit) {
+        this.rate = new Rate(burst, unit.toNanos(interval));
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 立即获取一个令牌
+     *
+     * @return 是否获取成功
+     */
+    public boolean tryAcquire() {
+        Rate rate = this.rate;
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat, now) + rate.intervalNanos;
+            if (next - now > rate.toleranceNanos) {
+                rejectedCount.increment();
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                acquiredCount.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 预约一个令牌，调用方需等待返回的时长后再发送
+     *
+     * @param maxWait 最长可接受的等待时间
+     * @param unit    时间单位
+     * @return 需要等待的纳秒数；超过 maxWait 时返回 -1 且不占用令牌
+     */
+    public long reserve(long maxWait, TimeUnit unit) {
+        long maxWaitNanos = unit.toNanos(maxWait);
+        Rate rate = this.rate;
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat, now) + rate.intervalNanos;
+            long wait = Math.max(0L, next - now - rate.toleranceNanos);
+            if (wait > maxWaitNanos) {
+                rejectedCount.increment();
+                return -1L;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                acquiredCount.increment();
+                if (wait > 0) {
+                    waitedCount.increment();
+                }
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * 服务端已判定发送过快时调用：清空令牌，并在 penalty 时长内不再补充
+     *
+     * @param penalty 额外暂停时长
+     * @param unit    时间单位
+     */
+    public void penalize(long penalty, TimeUnit unit) {
+        long target = System.nanoTime() + rate.toleranceNanos + unit.toNanos(penalty);
+        while (true) {
+            long tat = theoreticalArrival.get();
+            if (tat >= target || theoreticalArrival.compareAndSet(tat, target)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 当前可立即使用的令牌数
+     */
+    public int getAvailableTokens() {
+        Rate rate = this.rate;
+        long backlog = theoreticalArrival.get() - System.nanoTime();
+        if (backlog <= 0) {
+            return rate.burst;
+        }
+        return (int) Math.max(0L, (rate.toleranceNanos - backlog) / rate.intervalNanos);
+    }
+
+    /**
+     * @param tokens 需要的可用令牌数，不超过 burst
+     * @return 距离至少有 tokens 个可用令牌还需等待的纳秒数，0 表示当前已满足
+     */
+    public long getWaitNanos(int tokens) {
+        Rate rate = this.rate;
+        long backlog = theoreticalArrival.get() - System.nanoTime();
+        return Math.max(0L, backlog - rate.toleranceNanos + rate.intervalNanos * tokens);
+    }
+
+    public int getBurst() {
+        return rate.burst;
+    }
+
+    public long getAcquiredCount() {
+        return acquiredCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getWaitedCount() {
+        return waitedCount.sum();
+    }
+
+    /**
+     * @return 已预约令牌、尚未发出的消息数
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    AtomicInteger pending() {
+        return pendingCount;
+    }
+
+    void recordAcquired(boolean waited) {
+        acquiredCount.increment();
+        if (waited) {
+            waitedCount.increment();
+        }
+    }
+
+    void recordRejected() {
+        rejectedCount.increment();
+    }
+
+    long getIntervalNanos() {
+        return rate.intervalNanos;
+    }
+
+    /**
+     * 调整桶容量和补充间隔
+     */
+    void setRate(int burst, long intervalNanos) {
+        this.rate = new Rate(burst, intervalNanos);
+    }
+
+    private static final class Rate {
+        private final int burst;
+        private final long intervalNanos;
+        private final long toleranceNanos;
+
+        private Rate(int burst, long intervalNanos) {
+            if (burst < 1 || intervalNanos <= 0) {
+                throw new IllegalArgumentException("burst和interval必须大于0");
+            }
+            this.burst = burst;
+            this.intervalNanos = intervalNanos;
+            this.toleranceNanos = intervalNanos * burst;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package wh.spring.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 把发送指标注册到 Micrometer，只在 classpath 中有 Micrometer 时加载
+ * <p>
+ * 容器中有 MeterRegistry 时自动注册，也可以手动调用 bindTo。注册的指标：
+ * <pre>
+ * dingding.send.time    耗时，标签 stage(sign/client/http)、msgtype、webhook
+ * dingding.send.result  发送结果，标签 result(success/rejected/throttled/failed)、msgtype、webhook
+ * dingding.queue.size   队列长度，标签 queue(async/limit/batch/outbox.retry/outbox.pending/priority/dedup)
+ * </pre>
+ */
+@Component
+@Conditional(MicrometerPresentCondition.class)
+public class DingDingMeterBinder implements MeterBinder, InitializingBean {
+
+    @Autowired
+    private DingDingMetrics metrics;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (meterRegistry != null) {
+            bindTo(meterRegistry);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        gauge(registry, "async", DingDingMetrics::getAsyncQueueSize);
+        gauge(registry, "limit", DingDingMetrics::getLimitPendingCount);
+        gauge(registry, "batch", DingDingMetrics::getBatchBufferedCount);
+        gauge(registry, "outbox.retry", DingDingMetrics::getOutboxRetryQueueSize);
+        gauge(registry, "outbox.pending", DingDingMetrics::getOutboxPendingCount);
+        gauge(registry, "priority", DingDingMetrics::getPriorityQueuedCount);
+        gauge(registry, "dedup", DingDingMetrics::getDedupCachedCount);
+        metrics.addListener(stats -> bind(registry, stats));
+    }
+
+    private void gauge(MeterRegistry registry, String queue, ToDoubleFunction<DingDingMetrics> size) {
+        Gauge.builder("dingding.queue.size", metrics, size)
+                .tag("queue", queue)
+                .register(registry);
+    }
+
+    private static void bind(MeterRegistry registry, SendStats stats) {
+        Tags tags = Tags.of("msgtype", stats.getMsgtype(), "webhook", stats.getWebhookTag());
+        for (DingDingMetrics.Stage stage : DingDingMetrics.Stage.values()) {
+            FunctionTimer.builder("dingding.send.time", stats.getTimer(stage),
+                    TimerStats::getCount, TimerStats::getTotalNanos, TimeUnit.NANOSECONDS)
+                    .tags(tags)
+                    .tag("stage", stage.getTag())
+                    .register(registry);
+        }
+        counter(registry, tags, "success", stats, SendStats::getSuccessCount);
+        counter(registry, tags, "rejected", stats, SendStats::getRejectedCount);
+        counter(registry, tags, "throttled", stats, SendStats::getThrottledCount);
+        counter(registry, tags, "failed", stats, SendStats::getFailedCount);
+    }
+
+    private static void counter(MeterRegistry registry, Tags tags, String result, SendStats stats, ToDoubleFunction<SendStats> count) {
+        FunctionCounter.builder("dingding.send.result", stats, count)
+                .tags(tags)
+                .tag("result", result)
+                .register(registry);
+    }
+}
@@ -0,0 +1,305 @@
+package wh.spring.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wh.spring.async.DingDingSendExecutor;
+import wh.spring.batch.DingDingMessageAggregator;
+import wh.spring.dedup.DingDingDeduplicator;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.limit.TokenBucket;
+import wh.spring.outbox.DingDingOutbox;
+import wh.spring.schedule.DingDingPriorityScheduler;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 发送指标
+ * <p>
+ * 按 webhook 和消息类型统计加签、获取客户端、HTTP 请求三个阶段的耗时，以及成功、被拒绝、被限流、异常的次数，
+ * 另外提供异步队列、限流等待、合并缓存、发件箱、优先级调度、去重缓存的队列长度。
+ * 热路径上只有两次 ConcurrentHashMap 查找和 LongAdder 累加，不加锁、不分配对象。
+ * 指标通过 JMX 暴露；classpath 中有 Micrometer 且容器中有 MeterRegistry 时同时注册到 Micrometer，见 DingDingMeterBinder。
+ * 标签中的 webhook 隐去了 access_token，以其 SHA-256 的前 8 位十六进制代替。
+ * <pre>
+ * dingding.metrics.enabled  是否统计，默认 true
+ * dingding.metrics.jmx      是否注册 JMX，默认 true
+ * dingding.metrics.jmxName  JMX ObjectName，默认 wh.spring:type=DingDingMetrics
+ * </pre>
+ */
+@Component
+public class DingDingMetrics implements DingDingMetricsMXBean, InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DingDingMetrics.class);
+
+    /**
+     * 计时阶段
+     */
+    public enum Stage {
+        SIGN("sign"), CLIENT("client"), HTTP("http");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    @Value("${dingding.metrics.enabled:true}")
+    private boolean enabled = true;
+    @Value("${dingding.metrics.jmx:true}")
+    private boolean jmx = true;
+    @Value("${dingding.metrics.jmxName:wh.spring:type=DingDingMetrics}")
+    private String jmxName = "wh.spring:type=DingDingMetrics";
+
+    @Autowired
+    private DingDingSendExecutor sendExecutor;
+    @Autowired
+    private DingDingRateLimiter rateLimiter;
+    @Autowired
+    private DingDingMessageAggregator messageAggregator;
+    @Autowired
+    private DingDingOutbox outbox;
+    @Autowired
+    private DingDingPriorityScheduler priorityScheduler;
+    @Autowired
+    private DingDingDeduplicator deduplicator;
+
+    private final ConcurrentMap<String, ConcurrentMap<String, SendStats>> stats = new ConcurrentHashMap<String, ConcurrentMap<String, SendStats>>();
+    private final List<Consumer<SendStats>> listeners = new CopyOnWriteArrayList<Consumer<SendStats>>();
+
+    private ObjectName objectName;
+
+    @Override
+    public void afterPropertiesSet() throws JMException {
+        if (!enabled || !jmx) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(jmxName);
+        if (server.isRegistered(name)) {
+            log.warn("钉钉发送指标 JMX 名称已被占用: " + jmxName);
+            return;
+        }
+        server.registerMBean(this, name);
+        objectName = name;
+    }
+
+    /**
+     * 获取 webhook 某种消息类型的统计
+     *
+     * @param webhook webhook
+     * @param msgtype 消息类型
+     * @return 统计；未开启时返回空操作的实例
+     */
+    public SendStats getStats(String webhook, String msgtype) {
+        if (!enabled) {
+            return SendStats.DISABLED;
+        }
+        ConcurrentMap<String, SendStats> byType = stats.get(webhook);
+        if (byType == null) {
+            byType = stats.computeIfAbsent(webhook, key -> new ConcurrentHashMap<String, SendStats>());
+        }
+        SendStats sendStats = byType.get(msgtype);
+        if (sendStats == null) {
+            SendStats created = new SendStats(webhook, maskWebhook(webhook), msgtype, true);
+            sendStats = byType.putIfAbsent(msgtype, created);
+            if (sendStats == null) {
+                sendStats = created;
+                for (Consumer<SendStats> listener : listeners) {
+                    listener.accept(created);
+                }
+            }
+        }
+        return sendStats;
+    }
+
+    /**
+     * 监听新出现的统计，注册时先回放已有统计
+     */
+    public void addListener(Consumer<SendStats> listener) {
+        listeners.add(listener);
+        for (SendStats sendStats : getAllStats()) {
+            listener.accept(sendStats);
+        }
+    }
+
+    public Collection<SendStats> getAllStats() {
+        List<SendStats> all = new ArrayList<SendStats>();
+        for (ConcurrentMap<String, SendStats> byType : stats.values()) {
+            all.addAll(byType.values());
+        }
+        return all;
+    }
+
+    /**
+     * 隐去 access_token，以完整 token 的 SHA-256 前 8 位十六进制代替；只保留前几位时前缀相同的 token 会得到同一个标签
+     */
+    public static String maskWebhook(String webhook) {
+        int index = webhook.indexOf("access_token=");
+        if (index < 0) {
+            int query = webhook.indexOf('?');
+            return query < 0 ? webhook : webhook.substring(0, query);
+        }
+        int start = index + "access_token=".length();
+        int end = webhook.indexOf('&', start);
+        String token = end < 0 ? webhook.substring(start) : webhook.substring(start, end);
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder masked = new StringBuilder(webhook.substring(0, start));
+        for (int i = 0; i < 4; i++) {
+            masked.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return masked.toString();
+    }
+
+    @Override
+    public long getSuccessCount() {
+        long count = 0;
+        for (SendStats sendStats : getAllStats()) {
+            count += sendStats.getSuccessCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getRejectedCount() {
+        long count = 0;
+        for (SendStats sendStats : getAllStats()) {
+            count += sendStats.getRejectedCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getThrottledCount() {
+        long count = 0;
+        for (SendStats sendStats : getAllStats()) {
+            count += sendStats.getThrottledCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getFailedCount() {
+        long count = 0;
+        for (SendStats sendStats : getAllStats()) {
+            count += sendStats.getFailedCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getAsyncQueueSize() {
+        return sendExecutor.getQueueSize();
+    }
+
+    @Override
+    public int getLimitPendingCount() {
+        int count = 0;
+        for (TokenBucket bucket : rateLimiter.getBuckets().values()) {
+            count += bucket.getPendingCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getBatchBufferedCount() {
+        return messageAggregator.getBufferedCount();
+    }
+
+    @Override
+    public int getOutboxRetryQueueSize() {
+        return outbox.getRetryQueueSize();
+    }
+
+    @Override
+    public int getOutboxPendingCount() {
+        return outbox.getPendingCount();
+    }
+
+    @Override
+    public int getPriorityQueuedCount() {
+        return priorityScheduler.getQueuedCount();
+    }
+
+    @Override
+    public long getPriorityDroppedCount() {
+        return priorityScheduler.getDroppedCount();
+    }
+
+    @Override
+    public int getDedupCachedCount() {
+        return deduplicator.getCachedCount();
+    }
+
+    @Override
+    public long getDedupSuppressedCount() {
+        return deduplicator.getSuppressedCount();
+    }
+
+    @Override
+    public List<TimerSnapshot> getTimers() {
+        List<TimerSnapshot> timers = new ArrayList<TimerSnapshot>();
+        for (SendStats sendStats : getAllStats()) {
+            for (Stage stage : Stage.values()) {
+                timers.add(new TimerSnapshot(sendStats, stage));
+            }
+        }
+        return timers;
+    }
+
+    @Override
+    public List<ResultSnapshot> getResults() {
+        List<ResultSnapshot> results = new ArrayList<ResultSnapshot>();
+        for (SendStats sendStats : getAllStats()) {
+            results.add(new ResultSnapshot(sendStats));
+        }
+        return results;
+    }
+
+    @Override
+    public void destroy() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public void setJmxName(String jmxName) {
+        this.jmxName = jmxName;
+    }
+}
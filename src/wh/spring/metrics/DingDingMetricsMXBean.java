@@ -0,0 +1,72 @@
+package wh.spring.metrics;
+
+import java.util.List;
+
+/**
+ * 发送指标的 JMX 视图，耗时单位均为毫秒
+ */
+public interface DingDingMetricsMXBean {
+
+    long getSuccessCount();
+
+    long getRejectedCount();
+
+    long getThrottledCount();
+
+    long getFailedCount();
+
+    /**
+     * @return 异步发送线程池排队任务数
+     */
+    int getAsyncQueueSize();
+
+    /**
+     * @return 等待令牌的消息数
+     */
+    int getLimitPendingCount();
+
+    /**
+     * @return 等待合并的消息数
+     */
+    int getBatchBufferedCount();
+
+    /**
+     * @return 发件箱中等待后台重发的消息数
+     */
+    int getOutboxRetryQueueSize();
+
+    /**
+     * @return 发件箱中尚未确认的消息数
+     */
+    int getOutboxPendingCount();
+
+    /**
+     * @return 优先级调度器中排队的消息数
+     */
+    int getPriorityQueuedCount();
+
+    /**
+     * @return 优先级调度器丢弃的低优先级消息数
+     */
+    long getPriorityDroppedCount();
+
+    /**
+     * @return 去重缓存中的消息条数
+     */
+    int getDedupCachedCount();
+
+    /**
+     * @return 去重忽略的重复消息数
+     */
+    long getDedupSuppressedCount();
+
+    /**
+     * @return 按 webhook、消息类型、阶段分组的耗时
+     */
+    List<TimerSnapshot> getTimers();
+
+    /**
+     * @return 按 webhook、消息类型分组的发送结果
+     */
+    List<ResultSnapshot> getResults();
+}
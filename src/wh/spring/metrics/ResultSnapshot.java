@@ -0,0 +1,47 @@
+package wh.spring.metrics;
+
+/**
+ * 发送结果计数的快照，供 JMX 展示
+ */
+public class ResultSnapshot {
+
+    private final String webhook;
+    private final String msgtype;
+    private final long successCount;
+    private final long rejectedCount;
+    private final long throttledCount;
+    private final long failedCount;
+
+    ResultSnapshot(SendStats stats) {
+        this.webhook = stats.getWebhookTag();
+        this.msgtype = stats.getMsgtype();
+        this.successCount = stats.getSuccessCount();
+        this.rejectedCount = stats.getRejectedCount();
+        this.throttledCount = stats.getThrottledCount();
+        this.failedCount = stats.getFailedCount();
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getMsgtype() {
+        return msgtype;
+    }
+
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getThrottledCount() {
+        return throttledCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+}
@@ -0,0 +1,123 @@
+package wh.spring.metrics;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import wh.spring.retry.DingDingRetryPolicy;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 某个 webhook 某种消息类型的发送统计
+ * <p>
+ * 结果分为：success 钉钉返回 0；rejected 钉钉返回其它错误码；
+ * throttled 钉钉返回发送过快或被本地限流；failed 网络异常、熔断、加签失败等异常。
+ */
+public class SendStats {
+
+    /**
+     * 未开启统计时使用，记录方法均为空操作
+     */
+    static final SendStats DISABLED = new SendStats(null, null, null, false);
+
+    private final String webhook;
+    private final String webhookTag;
+    private final String msgtype;
+    private final boolean recording;
+    private final TimerStats[] timers = new TimerStats[DingDingMetrics.Stage.values().length];
+
+    private final LongAdder successCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    SendStats(String webhook, String webhookTag, String msgtype, boolean recording) {
+        this.webhook = webhook;
+        this.webhookTag = webhookTag;
+        this.msgtype = msgtype;
+        this.recording = recording;
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new TimerStats();
+        }
+    }
+
+    /**
+     * 记录从 start 到现在的耗时
+     *
+     * @param stage 阶段
+     * @param start System.nanoTime() 起始值
+     * @return 当前 System.nanoTime()，可作为下一阶段的起始值
+     */
+    public long record(DingDingMetrics.Stage stage, long start) {
+        long now = System.nanoTime();
+        if (recording) {
+            timers[stage.ordinal()].record(now - start);
+        }
+        return now;
+    }
+
+    /**
+     * 按钉钉返回的错误码记录结果
+     */
+    public void recordResult(OapiRobotSendResponse response) {
+        if (!recording) {
+            return;
+        }
+        Long errcode = response.getErrcode();
+        if (errcode == null || errcode == 0L) {
+            successCount.increment();
+        } else if (DingDingRetryPolicy.isThrottled(response)) {
+            throttledCount.increment();
+        } else {
+            rejectedCount.increment();
+        }
+    }
+
+    /**
+     * 被本地限流
+     */
+    public void recordThrottled() {
+        if (recording) {
+            throttledCount.increment();
+        }
+    }
+
+    public void recordFailure() {
+        if (recording) {
+            failedCount.increment();
+        }
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    /**
+     * @return 隐去 access_token 的 webhook，用于指标标签
+     */
+    public String getWebhookTag() {
+        return webhookTag;
+    }
+
+    public String getMsgtype() {
+        return msgtype;
+    }
+
+    public TimerStats getTimer(DingDingMetrics.Stage stage) {
+        return timers[stage.ordinal()];
+    }
+
+    public long getSuccessCount() {
+        return successCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+}
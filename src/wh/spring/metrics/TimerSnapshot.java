@@ -0,0 +1,58 @@
+package wh.spring.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 某一阶段耗时的快照，供 JMX 展示
+ */
+public class TimerSnapshot {
+
+    private final String webhook;
+    private final String msgtype;
+    private final String stage;
+    private final long count;
+    private final double totalTime;
+    private final double maxTime;
+
+    TimerSnapshot(SendStats stats, DingDingMetrics.Stage stage) {
+        TimerStats timer = stats.getTimer(stage);
+        this.webhook = stats.getWebhookTag();
+        this.msgtype = stats.getMsgtype();
+        this.stage = stage.getTag();
+        this.count = timer.getCount();
+        this.totalTime = toMillis(timer.getTotalNanos());
+        this.maxTime = toMillis(timer.getMaxNanos());
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getMsgtype() {
+        return msgtype;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotalTime() {
+        return totalTime;
+    }
+
+    public double getMeanTime() {
+        return count == 0 ? 0 : totalTime / count;
+    }
+
+    public double getMaxTime() {
+        return maxTime;
+    }
+}
@@ -0,0 +1,35 @@
+package wh.spring.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计时统计，只累加次数、总耗时和最大耗时，记录时不加锁、不分配对象
+ */
+public class TimerStats {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return 启动以来的最大耗时(纳秒)
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+}
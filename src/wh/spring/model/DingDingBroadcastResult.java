@@ -0,0 +1,38 @@
+package wh.spring.model;
+
+/**
+ * 群发中某一个目标的发送结果
+ * <p>
+ * 正常返回时 result 非空(含钉钉错误码)；发送抛出异常时 result 为空，error 为异常。
+ */
+public class DingDingBroadcastResult {
+
+    private final DingDingTarget target;
+    private final DingDingSendResult result;
+    private final Throwable error;
+
+    public DingDingBroadcastResult(DingDingTarget target, DingDingSendResult result, Throwable error) {
+        this.target = target;
+        this.result = result;
+        this.error = error;
+    }
+
+    public DingDingTarget getTarget() {
+        return target;
+    }
+
+    public DingDingSendResult getResult() {
+        return result;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return 钉钉是否返回 0
+     */
+    public boolean isSuccess() {
+        return result != null && result.getErrcode() != null && result.getErrcode() == 0L;
+    }
+}
@@ -0,0 +1,106 @@
+package wh.spring.model;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+
+/**
+ * 发送结果
+ * <p>
+ * source 为 DINGTALK 时 errcode/errmsg 为钉钉服务端真实返回值(0 表示成功)；
+ * 为 LOCAL 时没有拿到钉钉的响应，errcode 为本地状态码，与钉钉错误码无关：
+ * <pre>
+ * 400 INVALID   参数错误，未发送
+ * 202 ACCEPTED  已排队、已合并、已去重忽略或已写入发件箱，稍后发送或不再发送
+ * 429 THROTTLED 被本地限流，未发送
+ * </pre>
+ * 区分两者时使用 getSource()/isLocal()，不要只看 errcode 的取值。
+ * 另外记录请求耗时和实际尝试次数。
+ */
+public class DingDingSendResult extends OapiRobotSendResponse {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 本地状态码：参数错误
+     */
+    public static final long INVALID = 400L;
+    /**
+     * 本地状态码：已受理，稍后发送
+     */
+    public static final long ACCEPTED = 202L;
+    /**
+     * 本地状态码：被本地限流
+     */
+    public static final long THROTTLED = 429L;
+
+    /**
+     * 结果来源
+     */
+    public enum Source {
+        /**
+         * errcode/errmsg 为钉钉服务端的响应
+         */
+        DINGTALK,
+        /**
+         * 未拿到钉钉的响应，errcode 为本地状态码
+         */
+        LOCAL
+    }
+
+    private Source source = Source.LOCAL;
+
+    /**
+     * 调用钉钉接口总耗时(毫秒)，含重试等待
+     */
+    private long latency;
+    /**
+     * 实际请求钉钉的次数，0 表示未发出请求
+     */
+    private int attempts;
+
+    public DingDingSendResult() {
+    }
+
+    public DingDingSendResult(Long errcode, String errmsg) {
+        setErrcode(errcode);
+        setErrmsg(errmsg);
+    }
+
+    /**
+     * 由钉钉服务端响应生成，source 为 DINGTALK；其他构造方式生成的结果 source 为 LOCAL
+     */
+    public static DingDingSendResult of(OapiRobotSendResponse response, long latency, int attempts) {
+        DingDingSendResult result = new DingDingSendResult(response.getErrcode(), response.getErrmsg());
+        result.source = Source.DINGTALK;
+        result.setBody(response.getBody());
+        result.setLatency(latency);
+        result.setAttempts(attempts);
+        return result;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return errcode 是否为本地状态码
+     */
+    public boolean isLocal() {
+        return source == Source.LOCAL;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+}
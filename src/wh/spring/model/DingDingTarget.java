@@ -0,0 +1,42 @@
+package wh.spring.model;
+
+import java.util.Objects;
+
+/**
+ * 群发目标，一个机器人的 webhook 和密钥
+ */
+public class DingDingTarget {
+
+    private final String webhook;
+    private final String secret;
+
+    public DingDingTarget(String webhook, String secret) {
+        this.webhook = webhook;
+        this.secret = secret;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DingDingTarget)) {
+            return false;
+        }
+        DingDingTarget that = (DingDingTarget) o;
+        return Objects.equals(webhook, that.webhook) && Objects.equals(secret, that.secret);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(webhook, secret);
+    }
+}
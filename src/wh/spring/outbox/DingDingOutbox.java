@@ -0,0 +1,462 @@
+package wh.spring.outbox;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wh.spring.client.DingTalkClientRegistry;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.metrics.DingDingMetrics;
+import wh.spring.retry.DingDingRetryPolicy;
+import wh.spring.robot.DingDingRobotRegistry;
+import wh.spring.sign.SignatureCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 持久化发件箱
+ * <p>
+ * 开启后每条消息发送前先追加写入内存映射的日志段文件，确认发送成功后再标记为已确认；
+ * 钉钉不可达时消息留在发件箱中，由后台线程定期重发，应用重启后未确认的消息会被重放。
+ * 写入只落到映射内存(进程崩溃不丢失)，由后台线程每 flushInterval 毫秒统一刷盘一次(组提交)，
+ * 避免每条消息一次 fsync；waitForCommit 为 true 时写入方等待刷盘完成后再发送。
+ * <p>
+ * 日志段不保存明文密钥，见 OutboxSecrets：已注册机器人的消息保存机器人名称，其他消息在配置了 secretKey 时加密保存。
+ * 未配置 secretKey 时直接传 secret 和 webhook 的消息无法在重启后重放，不写入发件箱，按未开启发件箱发送
+ * (失败时返回真实结果而不是 202)，启动时记录警告；这类消息需要持久化时请配置 secretKey 或改用已注册的机器人。
+ * 目录只允许当前用户访问。
+ * 重发超过 maxAttempts 次或写入超过 maxAge 毫秒仍未成功的消息记录错误日志后丢弃。
+ * <pre>
+ * dingding.outbox.enabled        是否开启，默认 false
+ * dingding.outbox.dir            日志段目录，默认 ${java.io.tmpdir}/dingding-outbox
+ * dingding.outbox.segmentSize    单个日志段大小(字节)，默认 64M
+ * dingding.outbox.flushInterval  组提交刷盘间隔(毫秒)，默认 10
+ * dingding.outbox.waitForCommit  写入后是否等待刷盘，默认 false
+ * dingding.outbox.retryInterval  后台重发间隔(毫秒)，默认 5000
+ * dingding.outbox.maxAttempts    后台最多重发次数，默认 100
+ * dingding.outbox.maxAge         消息最长保留时间(毫秒)，默认 24 小时
+ * dingding.outbox.secretKey      加密密钥的 AES 密钥，16/24/32 字节的 Base64 编码，默认不配置
+ * </pre>
+ */
+@Component
+public class DingDingOutbox implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DingDingOutbox.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("outbox-(\\d+)\\.log");
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    @Value("${dingding.outbox.enabled:false}")
+    private boolean enabled = false;
+    @Value("${dingding.outbox.dir:${java.io.tmpdir}/dingding-outbox}")
+    private String dir = System.getProperty("java.io.tmpdir") + "/dingding-outbox";
+    @Value("${dingding.outbox.segmentSize:67108864}")
+    private int segmentSize = 64 * 1024 * 1024;
+    @Value("${dingding.outbox.flushInterval:10}")
+    private long flushInterval = 10L;
+    @Value("${dingding.outbox.waitForCommit:false}")
+    private boolean waitForCommit = false;
+    @Value("${dingding.outbox.retryInterval:5000}")
+    private long retryInterval = 5000L;
+    @Value("${dingding.outbox.maxAttempts:100}")
+    private int maxAttempts = 100;
+    @Value("${dingding.outbox.maxAge:86400000}")
+    private long maxAge = 86400000L;
+    @Value("${dingding.outbox.secretKey:}")
+    private String secretKey = "";
+
+    @Autowired
+    private DingTalkClientRegistry clientRegistry;
+    @Autowired
+    private SignatureCache signatureCache;
+    @Autowired
+    private DingDingRateLimiter rateLimiter;
+    @Autowired
+    private DingDingRetryPolicy retryPolicy;
+    @Autowired
+    private DingDingRobotRegistry robotRegistry;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Map<Long, OutboxSegment> segments = new ConcurrentSkipListMap<Long, OutboxSegment>();
+    private final ConcurrentLinkedQueue<OutboxRecord> retryQueue = new ConcurrentLinkedQueue<OutboxRecord>();
+    private final AtomicInteger retrySize = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition committed = commitLock.newCondition();
+
+    private File directory;
+    private OutboxSecrets secrets;
+    private volatile OutboxSegment active;
+    private long appendedCount;
+    private volatile long committedCount;
+    private ScheduledExecutorService executor;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        secrets = new OutboxSecrets(robotRegistry, StringUtils.isBlank(secretKey) ? null : Base64.getDecoder().decode(secretKey.trim()));
+        if (!secrets.canEncrypt()) {
+            log.warn("钉钉发件箱未配置 dingding.outbox.secretKey，只有 dingding.robots.* 中注册的机器人的消息会写入发件箱，"
+                    + "直接传 secret 和 webhook 发送的消息不写入发件箱，失败后不会重发");
+        }
+        directory = new File(dir);
+        createPrivateDirectory(directory.toPath());
+        long lastSequence = 0;
+        Map<Long, File> files = new TreeMap<Long, File>();
+        File[] existing = directory.listFiles();
+        if (existing != null) {
+            for (File file : existing) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+        // 重放上次未确认的消息
+        for (Map.Entry<Long, File> entry : files.entrySet()) {
+            OutboxSegment segment = new OutboxSegment(entry.getKey(), entry.getValue(), segmentSize);
+            List<OutboxRecord> pending = segment.recover(secrets);
+            segment.seal();
+            lastSequence = entry.getKey();
+            if (pending.isEmpty()) {
+                delete(segment);
+            } else {
+                segments.put(segment.getSequence(), segment);
+                log.info("钉钉发件箱重放 " + pending.size() + " 条未确认消息: " + segment.getFile());
+                for (OutboxRecord record : pending) {
+                    if (record.getSecret() == null) {
+                        drop(record, "密钥无法还原");
+                    } else {
+                        scheduleRetry(record);
+                    }
+                }
+            }
+        }
+        active = newSegment(lastSequence + 1);
+
+        executor = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "dingding-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::commit, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::dispatch, retryInterval, retryInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 写入一条待发送消息
+     *
+     * @param webhook webhook
+     * @param secret  密钥，重发时重新加签使用
+     * @param body    UTF-8 编码的 JSON 请求体
+     * @return 发件箱记录，发送成功后需调用 ack；密钥无法在重启后还原时不写入，返回 null，调用方按未开启发件箱处理
+     * @throws ApiException 写入失败
+     */
+    public OutboxRecord append(String webhook, String secret, byte[] body) throws ApiException {
+        byte[] reference;
+        try {
+            reference = secrets.encode(webhook, secret);
+        } catch (GeneralSecurityException e) {
+            throw new ApiException("发件箱密钥加密失败", e);
+        }
+        if (reference == null) {
+            return null;
+        }
+        long sequence;
+        OutboxRecord record;
+        appendLock.lock();
+        try {
+            record = active.append(webhook, secret, reference, body);
+            if (record == null) {
+                roll();
+                record = active.append(webhook, secret, reference, body);
+                if (record == null) {
+                    throw new ApiException("消息超过发件箱日志段大小");
+                }
+            }
+            sequence = ++appendedCount;
+        } catch (IOException e) {
+            throw new ApiException("发件箱写入失败", e);
+        } finally {
+            appendLock.unlock();
+        }
+        if (waitForCommit) {
+            awaitCommit(sequence);
+        }
+        return record;
+    }
+
+    /**
+     * 确认消息已发送
+     *
+     * @param record 发件箱记录，为 null 时忽略
+     */
+    public void ack(OutboxRecord record) {
+        if (record == null) {
+            return;
+        }
+        OutboxSegment segment = record.getSegment();
+        if (segment.ack(record) && segment.isSealed()) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * 发送失败，交给后台重发
+     */
+    public void scheduleRetry(OutboxRecord record) {
+        retryQueue.add(record);
+        retrySize.incrementAndGet();
+    }
+
+    /**
+     * @return 等待后台重发的消息数
+     */
+    public int getRetryQueueSize() {
+        return retrySize.get();
+    }
+
+    /**
+     * @return 超过重发次数或保留时间后丢弃的消息数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return 发件箱中尚未确认的消息数
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (OutboxSegment segment : segments.values()) {
+            count += segment.getPendingCount();
+        }
+        return count;
+    }
+
+    /**
+     * 创建目录并设置为只有当前用户可以访问，不支持 POSIX 权限的文件系统上退化为 File 的权限设置
+     */
+    private static void createPrivateDirectory(Path path) throws IOException {
+        boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (!Files.isDirectory(path)) {
+            if (posix) {
+                Files.createDirectories(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } else {
+                Files.createDirectories(path);
+            }
+        }
+        if (posix) {
+            Files.setPosixFilePermissions(path, OWNER_ONLY);
+            return;
+        }
+        File file = path.toFile();
+        boolean restricted = file.setReadable(false, false) && file.setReadable(true, true)
+                && file.setWritable(false, false) && file.setWritable(true, true)
+                && file.setExecutable(false, false) && file.setExecutable(true, true);
+        if (!restricted) {
+            log.warn("钉钉发件箱目录权限设置失败: " + file);
+        }
+    }
+
+    private OutboxSegment newSegment(long sequence) throws IOException {
+        OutboxSegment segment = new OutboxSegment(sequence, new File(directory, String.format("outbox-%020d.log", sequence)), segmentSize);
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    private void roll() throws IOException {
+        OutboxSegment old = active;
+        old.force();
+        old.seal();
+        active = newSegment(old.getSequence() + 1);
+        if (old.getPendingCount() == 0) {
+            delete(old);
+        }
+    }
+
+    private void delete(OutboxSegment segment) {
+        segments.remove(segment.getSequence());
+        if (segment.getFile().exists() && !segment.getFile().delete()) {
+            log.warn("钉钉发件箱日志段删除失败: " + segment.getFile());
+        }
+    }
+
+    /**
+     * 组提交：把上次刷盘后写入的所有记录一次性刷盘
+     */
+    private void commit() {
+        try {
+            long target;
+            appendLock.lock();
+            try {
+                target = appendedCount;
+            } finally {
+                appendLock.unlock();
+            }
+            if (target == committedCount) {
+                return;
+            }
+            active.force();
+            committedCount = target;
+            commitLock.lock();
+            try {
+                committed.signalAll();
+            } finally {
+                commitLock.unlock();
+            }
+        } catch (RuntimeException e) {
+            log.error("钉钉发件箱刷盘失败", e);
+        }
+    }
+
+    private void awaitCommit(long sequence) throws ApiException {
+        commitLock.lock();
+        try {
+            while (committedCount < sequence) {
+                try {
+                    committed.await(flushInterval, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ApiException("等待发件箱刷盘时被中断", e);
+                }
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * 后台重发，每轮最多处理一遍当前队列；没有令牌的 webhook 留到下一轮
+     */
+    private void dispatch() {
+        int count = retrySize.get();
+        for (int i = 0; i < count; i++) {
+            OutboxRecord record = retryQueue.poll();
+            if (record == null) {
+                break;
+            }
+            retrySize.decrementAndGet();
+            if (System.currentTimeMillis() - record.getCreatedAt() > maxAge) {
+                drop(record, "超过最长保留时间");
+                continue;
+            }
+            if (rateLimiter.isEnabled() && !rateLimiter.getBucket(record.getWebhook()).tryAcquire()) {
+                scheduleRetry(record);
+                continue;
+            }
+            record.incrementAttempts();
+            try {
+                String signature = signatureCache.getSignature(record.getSecret());
+                OapiRobotSendResponse response = retryPolicy.executeOnce(record.getWebhook(),
+                        () -> clientRegistry.getClient(record.getWebhook()).execute(record.getBody(), signature));
+                if (DingDingRetryPolicy.isThrottled(response)) {
+                    retryOrDrop(record);
+                } else {
+                    ack(record);
+                }
+            } catch (ApiException | RuntimeException e) {
+                log.warn("钉钉发件箱重发失败，第 " + record.getAttempts() + " 次: " + e.getMessage());
+                retryOrDrop(record);
+            }
+        }
+    }
+
+    private void retryOrDrop(OutboxRecord record) {
+        if (record.getAttempts() >= maxAttempts) {
+            drop(record, "重发 " + record.getAttempts() + " 次仍未成功");
+        } else {
+            scheduleRetry(record);
+        }
+    }
+
+    /**
+     * 记录错误日志后确认，不再重发
+     */
+    private void drop(OutboxRecord record, String reason) {
+        log.error("钉钉发件箱丢弃消息，" + reason + ": webhook=" + DingDingMetrics.maskWebhook(record.getWebhook())
+                + ", 写入时间=" + record.getCreatedAt() + ", 请求体 " + record.getBody().length + " 字节");
+        ack(record);
+        droppedCount.incrementAndGet();
+    }
+
+    @Override
+    public void destroy() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        active.force();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setWaitForCommit(boolean waitForCommit) {
+        this.waitForCommit = waitForCommit;
+    }
+
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public void setSecretKey(String secretKey) {
+        this.secretKey = secretKey;
+    }
+}
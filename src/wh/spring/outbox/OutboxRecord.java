@@ -0,0 +1,68 @@
+package wh.spring.outbox;
+
+/**
+ * 发件箱中的一条待确认消息
+ */
+public class OutboxRecord {
+
+    private final OutboxSegment segment;
+    private final int offset;
+    private final long createdAt;
+    private final String webhook;
+    private final String secret;
+    private final byte[] body;
+    private int attempts;
+
+    OutboxRecord(OutboxSegment segment, int offset, long createdAt, String webhook, String secret, byte[] body) {
+        this.segment = segment;
+        this.offset = offset;
+        this.createdAt = createdAt;
+        this.webhook = webhook;
+        this.secret = secret;
+        this.body = body;
+    }
+
+    OutboxSegment getSegment() {
+        return segment;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return 写入发件箱的时间(毫秒)
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    /**
+     * @return 密钥，重启后无法从日志段还原时为 null
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * @return UTF-8 编码的 JSON 请求体
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return 后台重发次数
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void incrementAttempts() {
+        attempts++;
+    }
+}
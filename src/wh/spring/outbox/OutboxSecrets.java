@@ -0,0 +1,115 @@
+package wh.spring.outbox;
+
+import wh.spring.robot.DingDingRobot;
+import wh.spring.robot.DingDingRobotRegistry;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * 发件箱日志段中密钥的保存方式，日志段里不保存明文密钥
+ * <p>
+ * 保存的是密钥引用，第一个字节为类型：
+ * <pre>
+ * 0 不保存，旧版本写入的记录，重启后无法重放
+ * 1 机器人名称，重放时从 DingDingRobotRegistry 取密钥，webhook 或密钥已变更时无法重放
+ * 2 用 dingding.outbox.secretKey 以 AES-GCM 加密的密钥，12 字节 IV + 密文
+ * </pre>
+ * 优先使用机器人名称，其次加密，都不可用时无法保存，发件箱不写入这条消息。
+ */
+final class OutboxSecrets {
+
+    static final byte NONE = 0;
+    static final byte ROBOT = 1;
+    static final byte ENCRYPTED = 2;
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+
+    private final DingDingRobotRegistry robotRegistry;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param key AES 密钥，16/24/32 字节，为 null 时不加密保存
+     */
+    OutboxSecrets(DingDingRobotRegistry robotRegistry, byte[] key) {
+        if (key != null && key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("dingding.outbox.secretKey 必须是 16、24 或 32 字节的 Base64 编码: " + key.length);
+        }
+        this.robotRegistry = robotRegistry;
+        this.key = key == null ? null : new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * @return 是否配置了加密密钥；未配置时只有已注册机器人的消息能在重启后重放
+     */
+    boolean canEncrypt() {
+        return key != null;
+    }
+
+    /**
+     * @return 写入日志段的密钥引用，既不是已注册的机器人又没有配置加密密钥时为 null
+     */
+    byte[] encode(String webhook, String secret) throws GeneralSecurityException {
+        DingDingRobot robot = robotRegistry.findRobot(webhook, secret);
+        if (robot != null) {
+            return withType(ROBOT, robot.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        if (key == null) {
+            return null;
+        }
+        byte[] iv = new byte[IV_SIZE];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        // webhook 作为附加数据，密文不能挪到其他 webhook 的记录上使用
+        cipher.updateAAD(webhook.getBytes(StandardCharsets.UTF_8));
+        byte[] encrypted = cipher.doFinal(secret.getBytes(StandardCharsets.UTF_8));
+        return withType(ENCRYPTED, ByteBuffer.allocate(IV_SIZE + encrypted.length).put(iv).put(encrypted).array());
+    }
+
+    /**
+     * @return 密钥，引用无法还原时返回 null
+     */
+    String decode(String webhook, byte[] reference) {
+        if (reference.length == 0) {
+            return null;
+        }
+        byte[] value = Arrays.copyOfRange(reference, 1, reference.length);
+        switch (reference[0]) {
+            case ROBOT: {
+                DingDingRobot robot = robotRegistry.getRobot(new String(value, StandardCharsets.UTF_8));
+                return robot != null && robot.getWebhook().equals(webhook) ? robot.getSecret() : null;
+            }
+            case ENCRYPTED:
+                if (key == null || value.length <= IV_SIZE) {
+                    return null;
+                }
+                try {
+                    Cipher cipher = Cipher.getInstance(CIPHER);
+                    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, value, 0, IV_SIZE));
+                    cipher.updateAAD(webhook.getBytes(StandardCharsets.UTF_8));
+                    return new String(cipher.doFinal(value, IV_SIZE, value.length - IV_SIZE), StandardCharsets.UTF_8);
+                } catch (GeneralSecurityException e) {
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] withType(byte type, byte[] value) {
+        byte[] reference = new byte[value.length + 1];
+        reference[0] = type;
+        System.arraycopy(value, 0, reference, 1, value.length);
+        return reference;
+    }
+}
@@ -0,0 +1,162 @@
+package wh.spring.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发件箱日志段，固定大小的内存映射文件，只追加写
+ * <p>
+ * 记录格式：
+ * <pre>
+ * int  记录总长度(写完其余部分后最后写入，0 表示日志结束)
+ * byte 状态 0-待发送 1-已确认
+ * long 写入时间
+ * int+bytes webhook
+ * int+bytes 密钥引用，见 OutboxSecrets，不保存明文密钥
+ * int+bytes JSON 请求体
+ * </pre>
+ */
+class OutboxSegment {
+
+    static final byte PENDING = 0;
+    static final byte ACKED = 1;
+
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+
+    private final long sequence;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * 已写入位置，只在 DingDingOutbox 的追加锁内修改
+     */
+    private int position;
+    private volatile boolean sealed;
+
+    OutboxSegment(long sequence, File file, int size) throws IOException {
+        this.sequence = sequence;
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, raf.length()));
+        }
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    void seal() {
+        sealed = true;
+    }
+
+    /**
+     * 追加一条记录，调用方需保证串行调用
+     *
+     * @param secret    密钥，只保存在返回的记录中
+     * @param reference 写入日志段的密钥引用
+     * @return 记录，空间不足时返回 null
+     */
+    OutboxRecord append(String webhook, String secret, byte[] reference, byte[] body) {
+        byte[] webhookBytes = webhook.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_SIZE + 12 + webhookBytes.length + reference.length + body.length;
+        // 末尾至少保留 4 字节的 0 作为结束标记
+        if (position + length + 4 > buffer.capacity()) {
+            return null;
+        }
+        int offset = position;
+        long createdAt = System.currentTimeMillis();
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4);
+        record.put(PENDING);
+        record.putLong(createdAt);
+        putBytes(record, webhookBytes);
+        putBytes(record, reference);
+        putBytes(record, body);
+        buffer.putInt(offset, length);
+        position += length;
+        pendingCount.incrementAndGet();
+        return new OutboxRecord(this, offset, createdAt, webhook, secret, body);
+    }
+
+    /**
+     * 确认记录已发送
+     *
+     * @return 本段是否已没有待发送记录
+     */
+    boolean ack(OutboxRecord record) {
+        buffer.put(record.getOffset() + 4, ACKED);
+        return pendingCount.decrementAndGet() == 0;
+    }
+
+    /**
+     * 读取段内全部待发送记录，启动时重放使用
+     *
+     * @return 待发送记录，密钥引用无法还原的记录密钥为 null
+     */
+    List<OutboxRecord> recover(OutboxSecrets secrets) {
+        List<OutboxRecord> records = new ArrayList<OutboxRecord>();
+        int offset = 0;
+        while (offset + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + length > buffer.capacity()) {
+                break;
+            }
+            if (buffer.get(offset + 4) == PENDING) {
+                long createdAt = buffer.getLong(offset + 5);
+                ByteBuffer record = buffer.duplicate();
+                record.position(offset + HEADER_SIZE);
+                String webhook = getString(record);
+                String secret = secrets.decode(webhook, getBytes(record));
+                byte[] body = getBytes(record);
+                records.add(new OutboxRecord(this, offset, createdAt, webhook, secret, body));
+            }
+            offset += length;
+        }
+        position = offset;
+        pendingCount.set(records.size());
+        return records;
+    }
+
+    /**
+     * 刷盘
+     */
+    void force() {
+        buffer.force();
+    }
+
+    private static void putBytes(ByteBuffer target, byte[] bytes) {
+        target.putInt(bytes.length);
+        target.put(bytes);
+    }
+
+    private static String getString(ByteBuffer source) {
+        return new String(getBytes(source), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getBytes(ByteBuffer source) {
+        byte[] bytes = new byte[source.getInt()];
+        source.get(bytes);
+        return bytes;
+    }
+}
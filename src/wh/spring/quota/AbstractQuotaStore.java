@@ -0,0 +1,77 @@
+package wh.spring.quota;
+
+/**
+ * QuotaStore 的 GCRA 计算，子类只需提供按 webhook 读取和比较并更新理论到达时间的操作。
+ * 更新冲突(其他节点同时修改)时重新读取计算，超过 MAX_ATTEMPTS 次仍冲突则本次不租用。
+ */
+public abstract class AbstractQuotaStore implements QuotaStore {
+
+    private static final int MAX_ATTEMPTS = 16;
+
+    /**
+     * @return webhook 的理论到达时间，没有记录时为 null
+     */
+    protected abstract Long get(String webhook);
+
+    /**
+     * 理论到达时间仍为 expect 时更新为 update；expect 为 null 时表示在没有记录时插入
+     *
+     * @return 是否更新成功
+     */
+    protected abstract boolean compareAndSet(String webhook, Long expect, long update);
+
+    @Override
+    public QuotaLease lease(String webhook, int permits, long interval, int burst, long maxWait) {
+        long tolerance = interval * burst;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long now = System.currentTimeMillis();
+            Long tat = get(webhook);
+            long base = tat == null ? now : Math.max(tat, now);
+            long available = (now + tolerance - base) / interval;
+            int granted;
+            long wait;
+            if (available >= 1) {
+                granted = (int) Math.min(permits, available);
+                wait = 0L;
+            } else {
+                wait = base + interval - now - tolerance;
+                if (wait > maxWait) {
+                    return new QuotaLease(0, wait);
+                }
+                granted = 1;
+            }
+            if (compareAndSet(webhook, tat, base + interval * granted)) {
+                return new QuotaLease(granted, wait);
+            }
+        }
+        return new QuotaLease(0, interval);
+    }
+
+    @Override
+    public void release(String webhook, int permits, long interval) {
+        if (permits <= 0) {
+            return;
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Long tat = get(webhook);
+            if (tat == null || tat <= System.currentTimeMillis()) {
+                // 桶已满，归还没有意义
+                return;
+            }
+            if (compareAndSet(webhook, tat, tat - interval * permits)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void penalize(String webhook, long penalty, long interval, int burst) {
+        long target = System.currentTimeMillis() + interval * burst + penalty;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Long tat = get(webhook);
+            if ((tat != null && tat >= target) || compareAndSet(webhook, tat, target)) {
+                return;
+            }
+        }
+    }
+}
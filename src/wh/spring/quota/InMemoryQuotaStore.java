@@ -0,0 +1,39 @@
+package wh.spring.quota;
+
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 保存在当前 JVM 内存中的共享额度，dingding.quota.store=memory 时加载
+ * <p>
+ * 用于测试，或同一 JVM 中的多个容器共享额度；多个节点之间请使用 JdbcQuotaStore。
+ */
+@Component
+@Conditional(QuotaStoreCondition.Memory.class)
+public class InMemoryQuotaStore extends AbstractQuotaStore {
+
+    private final ConcurrentMap<String, Long> arrivals = new ConcurrentHashMap<String, Long>();
+
+    @Override
+    protected Long get(String webhook) {
+        return arrivals.get(webhook);
+    }
+
+    @Override
+    protected boolean compareAndSet(String webhook, Long expect, long update) {
+        if (expect == null) {
+            return arrivals.putIfAbsent(webhook, update) == null;
+        }
+        return arrivals.replace(webhook, expect, update);
+    }
+
+    /**
+     * 清空所有额度记录
+     */
+    public void clear() {
+        arrivals.clear();
+    }
+}
@@ -0,0 +1,138 @@
+package wh.spring.quota;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 保存在数据库中的共享额度，dingding.quota.store=jdbc 时加载，使用容器中的 DataSource
+ * <p>
+ * 每个 webhook 一行，只用普通的 select / insert / update ... where tat = ? 实现比较并更新，不依赖特定数据库的语法和行锁。
+ * webhook 中含 access_token，表中只保存其 SHA-256。节点每次租用 dingding.quota.leaseSize 个许可，
+ * 每条消息不需要访问数据库。表结构：
+ * <pre>
+ * create table dingding_quota (
+ *     webhook_key char(64) not null primary key,
+ *     tat         bigint   not null
+ * )
+ *
+ * dingding.quota.table        表名，可带 schema 前缀，只能由字母、数字和下划线组成，默认 dingding_quota
+ * dingding.quota.createTable  启动时是否建表(已存在时忽略)，默认 false
+ * </pre>
+ */
+@Component
+@Conditional(QuotaStoreCondition.Jdbc.class)
+public class JdbcQuotaStore extends AbstractQuotaStore implements InitializingBean {
+
+    /**
+     * 表名直接拼进 SQL，只接受 [schema.]table 形式的标识符
+     */
+    private static final Pattern TABLE_NAME = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*\\.)?[A-Za-z_][A-Za-z0-9_]*");
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${dingding.quota.table:dingding_quota}")
+    private String table = "dingding_quota";
+    @Value("${dingding.quota.createTable:false}")
+    private boolean createTable = false;
+
+    private JdbcTemplate jdbcTemplate;
+    private String selectSql;
+    private String insertSql;
+    private String updateSql;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (table == null || !TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("dingding.quota.table必须是由字母、数字和下划线组成的表名: " + table);
+        }
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        selectSql = "select tat from " + table + " where webhook_key = ?";
+        insertSql = "insert into " + table + " (webhook_key, tat) values (?, ?)";
+        updateSql = "update " + table + " set tat = ? where webhook_key = ? and tat = ?";
+        if (createTable && !tableExists()) {
+            jdbcTemplate.execute("create table " + table + " (webhook_key char(64) not null primary key, tat bigint not null)");
+        }
+    }
+
+    /**
+     * 不同数据库元数据中表名的大小写不同，逐一查找；带 schema 前缀时按 schema 查找
+     */
+    private boolean tableExists() {
+        int dot = table.indexOf('.');
+        String schema = dot < 0 ? null : table.substring(0, dot);
+        String name = table.substring(dot + 1);
+        Boolean exists = jdbcTemplate.execute((Connection connection) -> {
+            String[][] candidates = {{schema, name},
+                    {schema == null ? null : schema.toUpperCase(), name.toUpperCase()},
+                    {schema == null ? null : schema.toLowerCase(), name.toLowerCase()}};
+            for (String[] candidate : candidates) {
+                try (ResultSet tables = connection.getMetaData().getTables(null, candidate[0], candidate[1], null)) {
+                    if (tables.next()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+        return Boolean.TRUE.equals(exists);
+    }
+
+    @Override
+    protected Long get(String webhook) {
+        List<Long> arrivals = jdbcTemplate.queryForList(selectSql, Long.class, key(webhook));
+        return arrivals.isEmpty() ? null : arrivals.get(0);
+    }
+
+    @Override
+    protected boolean compareAndSet(String webhook, Long expect, long update) {
+        if (expect == null) {
+            try {
+                return jdbcTemplate.update(insertSql, key(webhook), update) == 1;
+            } catch (DuplicateKeyException e) {
+                return false;
+            }
+        }
+        return jdbcTemplate.update(updateSql, update, key(webhook), expect) == 1;
+    }
+
+    private static String key(String webhook) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(webhook.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder key = new StringBuilder(64);
+        for (byte b : digest) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public void setTable(String table) {
+        this.table = table;
+    }
+
+    public void setCreateTable(boolean createTable) {
+        this.createTable = createTable;
+    }
+}
@@ -0,0 +1,29 @@
+package wh.spring.quota;
+
+/**
+ * 一次租用的结果
+ */
+public final class QuotaLease {
+
+    private final int granted;
+    private final long waitMillis;
+
+    public QuotaLease(int granted, long waitMillis) {
+        this.granted = granted;
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * @return 租到的许可数，0 表示没有租到
+     */
+    public int getGranted() {
+        return granted;
+    }
+
+    /**
+     * @return 租到许可时为使用前需要等待的毫秒数；没有租到时为距下一个许可可用的毫秒数
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+}
@@ -0,0 +1,46 @@
+package wh.spring.quota;
+
+/**
+ * 多个节点共享的 webhook 发送额度
+ * <p>
+ * 额度按 GCRA 算法计算，每个 webhook 只保存一个“理论到达时间”(毫秒时间戳)：
+ * 容量为 burst，每 interval 毫秒补充一个许可，与单机的 TokenBucket 相同，但由所有节点共同扣减。
+ * 节点一次租用多个许可在本地使用，减少与存储之间的往返，未用完的许可可以归还。
+ * 时间取各节点的系统时钟，节点之间需要做时钟同步。
+ */
+public interface QuotaStore {
+
+    /**
+     * 租用许可
+     * <p>
+     * 有立即可用的许可时最多租用 permits 个，waitMillis 为 0；
+     * 没有时预约下一个许可，waitMillis 为需要等待的时长，超过 maxWait 时不占用许可，granted 为 0。
+     *
+     * @param webhook  webhook
+     * @param permits  希望租用的许可数
+     * @param interval 补充一个许可的间隔(毫秒)
+     * @param burst    容量
+     * @param maxWait  可以接受的最长等待(毫秒)，0 为只租用立即可用的许可
+     * @return 租约
+     */
+    QuotaLease lease(String webhook, int permits, long interval, int burst, long maxWait);
+
+    /**
+     * 归还租用后未使用的许可
+     *
+     * @param webhook  webhook
+     * @param permits  归还的许可数
+     * @param interval 补充一个许可的间隔(毫秒)
+     */
+    void release(String webhook, int permits, long interval);
+
+    /**
+     * 服务端已判定发送过快时调用：所有节点的额度清空，并在 penalty 毫秒内不再补充
+     *
+     * @param webhook  webhook
+     * @param penalty  额外暂停时长(毫秒)
+     * @param interval 补充一个许可的间隔(毫秒)
+     * @param burst    容量
+     */
+    void penalize(String webhook, long penalty, long interval, int burst);
+}
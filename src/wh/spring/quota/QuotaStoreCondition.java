@@ -0,0 +1,34 @@
+package wh.spring.quota;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * dingding.quota.store 为指定值时成立，未配置时不加载任何 QuotaStore，各节点只按本地令牌桶限流
+ */
+abstract class QuotaStoreCondition implements Condition {
+
+    private final String store;
+
+    QuotaStoreCondition(String store) {
+        this.store = store;
+    }
+
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        return store.equalsIgnoreCase(context.getEnvironment().getProperty("dingding.quota.store", "").trim());
+    }
+
+    static class Memory extends QuotaStoreCondition {
+        Memory() {
+            super("memory");
+        }
+    }
+
+    static class Jdbc extends QuotaStoreCondition {
+        Jdbc() {
+            super("jdbc");
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package wh.spring.retry;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.model.DingDingSendResult;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 重试与熔断
+ * <p>
+ * 确定没有送达的暂时性故障按指数退避加随机抖动重试并计入熔断：连接失败(连接被拒绝、连接超时、域名无法解析、
+ * 取连接池连接超时)、阻塞调用在发出请求前抛出的运行时异常，以及钉钉“系统繁忙”(-1)。
+ * 读超时、HTTP 5xx、响应为空或无法解析时请求可能已经到达钉钉，消息可能已经发出，默认只计入熔断、不重试，
+ * 避免重复推送告警；开启 retryAfterSend 后这类失败也重试，代价是可能重复发送。
+ * “发送过快”(130101/130102) 不重试，计入熔断，并清空本地令牌桶暂停 throttlePenalty 毫秒，
+ * 与服务端的限流状态保持一致。参数错误、关键词不匹配等内容错误和 HTTP 4xx 是请求本身的问题，换个时间也不会成功，
+ * 既不重试也不计入熔断。每个 webhook 一个熔断器，钉钉持续不可用时快速失败，不再占用线程等待超时；
+ * 每次调用无论结果如何都会更新熔断器，半开状态的探测请求不会一直占着探测名额。
+ * <pre>
+ * dingding.retry.maxAttempts        最多尝试次数(含首次)，默认 3
+ * dingding.retry.initialBackoff     首次退避(毫秒)，默认 200
+ * dingding.retry.multiplier         退避倍数，默认 2
+ * dingding.retry.maxBackoff         最大退避(毫秒)，默认 5000
+ * dingding.retry.throttlePenalty    被服务端限流后暂停发送(毫秒)，默认 60000
+ * dingding.retry.retryAfterSend     请求可能已到达钉钉的失败是否也重试，可能重复发送，默认 false
+ * dingding.breaker.enabled          是否启用熔断，默认 true
+ * dingding.breaker.failureThreshold 连续失败多少次后熔断，默认 5
+ * dingding.breaker.openDuration     熔断持续时间(毫秒)，默认 30000
+ * </pre>
+ * 单个 webhook 的最多尝试次数可以通过 setMaxAttempts(webhook, n) 覆盖，对之后开始的发送生效。
+ */
+@Component
+public class DingDingRetryPolicy {
+
+    /**
+     * 钉钉“发送过快”错误码
+     */
+    public static final long ERRCODE_SEND_TOO_FAST = 130101L;
+    public static final long ERRCODE_SEND_TOO_FAST_MINUTE = 130102L;
+    /**
+     * 钉钉“系统繁忙”错误码
+     */
+    public static final long ERRCODE_SYSTEM_BUSY = -1L;
+
+    @Value("${dingding.retry.maxAttempts:3}")
+    private int maxAttempts = 3;
+    @Value("${dingding.retry.initialBackoff:200}")
+    private long initialBackoff = 200L;
+    @Value("${dingding.retry.multiplier:2}")
+    private double multiplier = 2;
+    @Value("${dingding.retry.maxBackoff:5000}")
+    private long maxBackoff = 5000L;
+    @Value("${dingding.retry.throttlePenalty:60000}")
+    private long throttlePenalty = 60000L;
+    @Value("${dingding.retry.retryAfterSend:false}")
+    private boolean retryAfterSend = false;
+    @Value("${dingding.breaker.enabled:true}")
+    private boolean breakerEnabled = true;
+    @Value("${dingding.breaker.failureThreshold:5}")
+    private int failureThreshold = 5;
+    @Value("${dingding.breaker.openDuration:30000}")
+    private long openDuration = 30000L;
+
+    @Autowired
+    private DingDingRateLimiter rateLimiter;
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private final ConcurrentMap<String, Integer> webhookMaxAttempts = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * 带重试地调用
+     *
+     * @param webhook webhook
+     * @param call    调用
+     * @return 最后一次调用的响应，附带总耗时和尝试次数
+     * @throws ApiException 重试耗尽仍失败、HTTP 4xx 或 webhook 已熔断，调用抛出的运行时异常也包装为 ApiException
+     */
+    public DingDingSendResult execute(String webhook, RobotCall call) throws ApiException {
+        return execute(webhook, call, getMaxAttempts(webhook));
+    }
+
+    /**
+     * 只调用一次，但仍受熔断保护，供有自身重发机制的调用方使用
+     */
+    public DingDingSendResult executeOnce(String webhook, RobotCall call) throws ApiException {
+        return execute(webhook, call, 1);
+    }
+
+    private DingDingSendResult execute(String webhook, RobotCall call, int attempts) throws ApiException {
+        CircuitBreaker breaker = getBreaker(webhook);
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            if (breakerEnabled && !breaker.allowRequest()) {
+                throw circuitOpen();
+            }
+            OapiRobotSendResponse response = null;
+            ApiException error = null;
+            boolean preSend = false;
+            boolean retry = false;
+            try {
+                response = call.call();
+                if (response == null) {
+                    error = new ApiException("钉钉未返回响应");
+                }
+            } catch (ApiException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                // 网络异常都以 ApiException 抛出，运行时异常发生在发出请求之前(如连接池已关闭)
+                error = new ApiException(e);
+                preSend = true;
+            } finally {
+                // 包括抛出 Error 在内都要更新熔断器，半开状态的探测请求必须有结果
+                retry = error == null && response != null ? onResponse(webhook, breaker, response) : onError(breaker, error, preSend);
+            }
+            if (error == null && (!retry || attempt >= attempts)) {
+                return DingDingSendResult.of(response, elapsed(start), attempt);
+            }
+            if (error != null && (!retry || attempt >= attempts)) {
+                throw error;
+            }
+            sleep(backoff(attempt));
+        }
+    }
+
+    /**
+     * 非阻塞地带重试调用，语义与 execute 相同，退避等待用定时器而不是占用线程
+     *
+     * @param webhook webhook
+     * @param call    每次调用时订阅一次，返回钉钉响应
+     * @return 最后一次调用的响应，附带总耗时和尝试次数
+     */
+    public Mono<DingDingSendResult> executeReactive(String webhook, Supplier<Mono<OapiRobotSendResponse>> call) {
+        return Mono.defer(() -> executeReactive(webhook, call, 1, System.nanoTime()));
+    }
+
+    private Mono<DingDingSendResult> executeReactive(String webhook, Supplier<Mono<OapiRobotSendResponse>> call, int attempt, long start) {
+        int attempts = getMaxAttempts(webhook);
+        CircuitBreaker breaker = getBreaker(webhook);
+        if (breakerEnabled && !breaker.allowRequest()) {
+            return Mono.error(circuitOpen());
+        }
+        return Mono.defer(call).materialize().flatMap(signal -> {
+            OapiRobotSendResponse response = signal.get();
+            if (signal.isOnError() || response == null) {
+                ApiException error = signal.isOnError() ? toApiException(signal.getThrowable()) : new ApiException("钉钉未返回响应");
+                if (!onError(breaker, error, false) || attempt >= attempts) {
+                    return Mono.error(error);
+                }
+            } else if (!onResponse(webhook, breaker, response) || attempt >= attempts) {
+                return Mono.just(DingDingSendResult.of(response, elapsed(start), attempt));
+            }
+            return Mono.delay(Duration.ofMillis(backoff(attempt)))
+                    .then(Mono.defer(() -> executeReactive(webhook, call, attempt + 1, start)));
+        }).doOnCancel(() -> {
+            // 订阅被取消时请求结果未知，按失败结束半开状态的探测
+            if (breaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+                breaker.onFailure();
+            }
+        });
+    }
+
+    /**
+     * 根据钉钉响应更新熔断器；被判定发送过快时暂停本地令牌桶
+     *
+     * @return 是否可以重试
+     */
+    private boolean onResponse(String webhook, CircuitBreaker breaker, OapiRobotSendResponse response) {
+        if (isThrottled(response)) {
+            breaker.onFailure();
+            if (rateLimiter.isEnabled()) {
+                rateLimiter.getBucket(webhook).penalize(throttlePenalty, TimeUnit.MILLISECONDS);
+            }
+            return false;
+        }
+        if (response.getErrcode() != null && response.getErrcode() == ERRCODE_SYSTEM_BUSY) {
+            breaker.onFailure();
+            return true;
+        }
+        // 成功或内容错误：webhook 可用，请求本身有问题的不重试
+        breaker.onSuccess();
+        return false;
+    }
+
+    /**
+     * 根据调用异常更新熔断器
+     *
+     * @param error   为 null 表示调用抛出了 Error
+     * @param preSend 是否确定在发出请求之前失败
+     * @return 是否可以重试：确定没有送达的才重试，可能已送达的只在开启 retryAfterSend 时重试
+     */
+    private boolean onError(CircuitBreaker breaker, ApiException error, boolean preSend) {
+        if (error != null && isClientError(error)) {
+            breaker.onSuccess();
+            return false;
+        }
+        breaker.onFailure();
+        return error == null || preSend || isConnectFailure(error) || retryAfterSend;
+    }
+
+    /**
+     * @return 是否为建立连接时的失败，请求还没有发出；netty 的连接异常也是 ConnectException 的子类
+     */
+    static boolean isConnectFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+                    || cause instanceof UnknownHostException || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 是否为 HTTP 4xx，DingTalkRobotClient 把 HTTP 状态码放在 errCode 中
+     */
+    private static boolean isClientError(ApiException error) {
+        String code = error.getErrCode();
+        return code != null && code.length() == 3 && code.charAt(0) == '4' && StringUtils.isNumeric(code);
+    }
+
+    private static ApiException toApiException(Throwable error) {
+        return error instanceof ApiException ? (ApiException) error : new ApiException(error);
+    }
+
+    private static ApiException circuitOpen() {
+        return new ApiException("CIRCUIT_OPEN", "webhook连续发送失败，已熔断");
+    }
+
+    private static long elapsed(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * @return 是否被钉钉判定为发送过快
+     */
+    public static boolean isThrottled(OapiRobotSendResponse response) {
+        Long errcode = response.getErrcode();
+        return errcode != null && (errcode == ERRCODE_SEND_TOO_FAST || errcode == ERRCODE_SEND_TOO_FAST_MINUTE);
+    }
+
+    /**
+     * 指数退避加全量随机抖动：在 [0, min(maxBackoff, initialBackoff * multiplier^(attempt-1))] 内随机取值
+     *
+     * @return 退避时长(毫秒)
+     */
+    private long backoff(int attempt) {
+        long ceiling = (long) Math.min(maxBackoff, initialBackoff * Math.pow(multiplier, attempt - 1));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void sleep(long millis) throws ApiException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("重试等待时被中断", e);
+        }
+    }
+
+    public CircuitBreaker getBreaker(String webhook) {
+        CircuitBreaker breaker = breakers.get(webhook);
+        if (breaker == null) {
+            breaker = breakers.computeIfAbsent(webhook, key -> new CircuitBreaker(failureThreshold, openDuration));
+        }
+        return breaker;
+    }
+
+    /**
+     * @return 各 webhook 的熔断器，用于查看熔断状态
+     */
+    public Map<String, CircuitBreaker> getBreakers() {
+        return Collections.unmodifiableMap(breakers);
+    }
+
+    /**
+     * @return webhook 的最多尝试次数(含首次)
+     */
+    public int getMaxAttempts(String webhook) {
+        Integer attempts = webhookMaxAttempts.get(webhook);
+        return attempts == null ? maxAttempts : attempts;
+    }
+
+    /**
+     * 单独设置 webhook 的最多尝试次数(含首次)，小于 1 时恢复为 dingding.retry.maxAttempts
+     */
+    public void setMaxAttempts(String webhook, int maxAttempts) {
+        if (maxAttempts < 1) {
+            webhookMaxAttempts.remove(webhook);
+        } else {
+            webhookMaxAttempts.put(webhook, maxAttempts);
+        }
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public void setThrottlePenalty(long throttlePenalty) {
+        this.throttlePenalty = throttlePenalty;
+    }
+
+    public void setRetryAfterSend(boolean retryAfterSend) {
+        this.retryAfterSend = retryAfterSend;
+    }
+
+    public void setBreakerEnabled(boolean breakerEnabled) {
+        this.breakerEnabled = breakerEnabled;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+}
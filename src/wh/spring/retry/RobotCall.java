@@ -0,0 +1,13 @@
+package wh.spring.retry;
+
+import com.dingtalk.api.response.OapiRobotSendResponse;
+import com.taobao.api.ApiException;
+
+/**
+ * 一次机器人接口调用
+ */
+@FunctionalInterface
+public interface RobotCall {
+
+    OapiRobotSendResponse call() throws ApiException;
+}
@@ -0,0 +1,142 @@
+package wh.spring.robot;
+
+import wh.spring.client.DingTalkRobotClient;
+import wh.spring.model.DingDingTarget;
+
+import java.util.Objects;
+
+/**
+ * 按名称配置的机器人，由 DingDingRobotRegistry 加载，不可变
+ * <p>
+ * 加载时已创建好客户端并算好签名，发送时不再查找或计算。重新加载后发送中的消息仍使用取到的这一份，
+ * 配置未变化的机器人沿用原对象。各项额度为 0 时使用全局配置。
+ */
+public final class DingDingRobot {
+
+    private final String name;
+    private final String webhook;
+    private final String secret;
+    private final int permitsPerMinute;
+    private final int burst;
+    private final int weight;
+    private final int maxAttempts;
+    private final int maxConcurrent;
+    private final DingTalkRobotClient client;
+
+    DingDingRobot(String name, String webhook, String secret, int permitsPerMinute, int burst, int weight,
+                  int maxAttempts, int maxConcurrent, DingTalkRobotClient client) {
+        this.name = name;
+        this.webhook = webhook;
+        this.secret = secret;
+        this.permitsPerMinute = permitsPerMinute;
+        this.burst = burst;
+        this.weight = weight;
+        this.maxAttempts = maxAttempts;
+        this.maxConcurrent = maxConcurrent;
+        this.client = client;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * @return 每分钟允许发送条数，0 为 dingding.limit.permitsPerMinute
+     */
+    public int getPermitsPerMinute() {
+        return permitsPerMinute;
+    }
+
+    /**
+     * @return 允许的突发条数，permitsPerMinute 为 0 时无效
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return 优先级调度的权重，0 为 dingding.priority.defaultWeight
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return 最多尝试次数(含首次)，0 为 dingding.retry.maxAttempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return 虚拟线程模式下同时执行的任务数上限，0 为 dingding.async.maxPerWebhook
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return 按 webhook 设置的额度、权重、重试次数和并发上限是否相同
+     */
+    boolean hasSameLimits(DingDingRobot other) {
+        return permitsPerMinute == other.permitsPerMinute && burst == other.burst && weight == other.weight
+                && maxAttempts == other.maxAttempts && maxConcurrent == other.maxConcurrent;
+    }
+
+    public DingTalkRobotClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return 配置相同、使用该客户端的机器人
+     */
+    DingDingRobot withClient(DingTalkRobotClient client) {
+        return new DingDingRobot(name, webhook, secret, permitsPerMinute, burst, weight, maxAttempts, maxConcurrent, client);
+    }
+
+    /**
+     * @return 群发目标
+     */
+    public DingDingTarget toTarget() {
+        return new DingDingTarget(webhook, secret);
+    }
+
+    /**
+     * 比较配置项，不比较客户端
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DingDingRobot)) {
+            return false;
+        }
+        DingDingRobot that = (DingDingRobot) o;
+        return permitsPerMinute == that.permitsPerMinute && burst == that.burst && weight == that.weight
+                && maxAttempts == that.maxAttempts && maxConcurrent == that.maxConcurrent
+                && name.equals(that.name) && webhook.equals(that.webhook) && secret.equals(that.secret);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, webhook, secret, permitsPerMinute, burst, weight, maxAttempts, maxConcurrent);
+    }
+
+    /**
+     * 不输出 webhook 中的 access_token 和密钥
+     */
+    @Override
+    public String toString() {
+        return "DingDingRobot{name=" + name + ", permitsPerMinute=" + permitsPerMinute + ", burst=" + burst
+                + ", weight=" + weight + ", maxAttempts=" + maxAttempts + ", maxConcurrent=" + maxConcurrent + "}";
+    }
+}
@@ -0,0 +1,456 @@
+package wh.spring.robot;
+
+import com.taobao.api.ApiException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ResourceUtils;
+import wh.spring.async.DingDingSendExecutor;
+import wh.spring.client.DingTalkClientRegistry;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.retry.DingDingRetryPolicy;
+import wh.spring.schedule.DingDingPriorityScheduler;
+import wh.spring.sign.SignatureCache;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按名称注册的机器人，调用方只需要机器人名称，不再传递 webhook 和密钥
+ * <p>
+ * 机器人配置在 Spring 配置中，也可以放在单独的 properties 文件里(同名时文件优先)：
+ * <pre>
+ * dingding.robots.&lt;name&gt;.webhook           webhook (必填)
+ * dingding.robots.&lt;name&gt;.secret            加签密钥 (必填)
+ * dingding.robots.&lt;name&gt;.permitsPerMinute  每分钟允许发送条数，默认使用 dingding.limit.permitsPerMinute
+ * dingding.robots.&lt;name&gt;.burst             允许的突发条数，默认 dingding.limit.burst 与 permitsPerMinute - 1 中较小的
+ * dingding.robots.&lt;name&gt;.weight            优先级调度的权重，默认使用 dingding.priority.defaultWeight
+ * dingding.robots.&lt;name&gt;.maxAttempts       最多尝试次数(含首次)，默认使用 dingding.retry.maxAttempts
+ * dingding.robots.&lt;name&gt;.maxConcurrent     虚拟线程模式下同时执行的任务数上限，默认使用 dingding.async.maxPerWebhook
+ *
+ * dingding.robots.location         机器人配置文件，文件路径或 classpath: 开头，默认不配置
+ * dingding.robots.refreshInterval  检查配置文件是否修改的间隔(毫秒)，0 为不检查，默认 10000
+ * </pre>
+ * 加载时为每个机器人创建客户端、算好签名，并把额度、权重、重试次数和并发上限设置到对应的组件上。
+ * 这些设置按 webhook 生效，多个机器人使用同一 webhook 时共用一份额度：设置相同时记录警告后加载，
+ * 设置不同时按名称排序保留第一个，其余视为无效配置。
+ * <p>
+ * 配置文件修改后自动重新加载；使用 Spring Cloud 时收到 EnvironmentChangeEvent(变化的键含 dingding.robots.)
+ * 或 RefreshScopeRefreshedEvent 后重新加载，事件按类名识别，不依赖 Spring Cloud，类名可用 setter 更换。其他配置中心推送后请调用 reload()。
+ * dingding.robots.location 和 refreshInterval 只在启动时读取。重新加载时整体替换只读的机器人表，
+ * 已取到机器人的发送照常完成；某个机器人的新配置无效时记录错误并继续使用原配置，配置未变化的机器人不做任何调整。
+ */
+@Component
+public class DingDingRobotRegistry implements InitializingBean, DisposableBean, ApplicationListener<ApplicationEvent> {
+
+    private static final Log log = LogFactory.getLog(DingDingRobotRegistry.class);
+
+    private static final String PREFIX = "dingding.robots.";
+
+    @Value("${dingding.robots.location:}")
+    private String location = "";
+    @Value("${dingding.robots.refreshInterval:10000}")
+    private long refreshInterval = 10000L;
+
+    /**
+     * 按类名识别的刷新事件，默认为 Spring Cloud 中的类
+     */
+    private String environmentChangeEvent = "org.springframework.cloud.context.environment.EnvironmentChangeEvent";
+    private String refreshScopeRefreshedEvent = "org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent";
+
+    @Autowired
+    private Environment environment;
+    @Autowired
+    private DingTalkClientRegistry clientRegistry;
+    @Autowired
+    private SignatureCache signatureCache;
+    @Autowired
+    private DingDingRateLimiter rateLimiter;
+    @Autowired
+    private DingDingRetryPolicy retryPolicy;
+    @Autowired
+    private DingDingPriorityScheduler priorityScheduler;
+    @Autowired
+    private DingDingSendExecutor sendExecutor;
+
+    /**
+     * 只读的机器人表，重新加载时整体替换
+     */
+    private volatile Map<String, DingDingRobot> robots = Collections.emptyMap();
+    /**
+     * webhook 与密钥到机器人的索引，与机器人表一起重建；多个机器人相同时取名称排序的第一个
+     */
+    private volatile Map<String, DingDingRobot> byCredentials = Collections.emptyMap();
+
+    private Resource resource;
+    private long lastModified;
+    private ScheduledExecutorService watcher;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (StringUtils.isNotBlank(location)) {
+            String path = location.trim();
+            // FileSystemResourceLoader 会把 / 开头的绝对路径当作相对路径，不带前缀时直接按文件处理
+            resource = ResourceUtils.isUrl(path) ? new DefaultResourceLoader().getResource(path) : new FileSystemResource(path);
+            if (!resource.exists()) {
+                throw new IllegalStateException("钉钉机器人配置文件不存在: " + location);
+            }
+            lastModified = resource.lastModified();
+        }
+        reload(load());
+        if (resource != null && refreshInterval > 0) {
+            watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "dingding-robots-watcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.scheduleWithFixedDelay(this::checkModified, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param name 机器人名称
+     * @return 未配置时为 null
+     */
+    public DingDingRobot getRobot(String name) {
+        return name == null ? null : robots.get(name);
+    }
+
+    /**
+     * @return 当前的机器人表，不随重新加载变化
+     */
+    public Map<String, DingDingRobot> getRobots() {
+        return robots;
+    }
+
+    /**
+     * @return 使用该 webhook 和密钥的机器人，没有时为 null
+     */
+    public DingDingRobot findRobot(String webhook, String secret) {
+        return webhook == null || secret == null ? null : byCredentials.get(credentials(webhook, secret));
+    }
+
+    private static String credentials(String webhook, String secret) {
+        return webhook + '\n' + secret;
+    }
+
+    /**
+     * 重新读取 Spring 配置和配置文件并替换机器人表
+     *
+     * @throws IOException 配置文件读取失败，此时机器人表不变
+     */
+    public synchronized void reload() throws IOException {
+        reload(load());
+    }
+
+    /**
+     * Spring Cloud 刷新配置后重新加载
+     */
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        String type = event.getClass().getName();
+        if (!(environmentChangeEvent.equals(type) && affectsRobots(event)) && !refreshScopeRefreshedEvent.equals(type)) {
+            return;
+        }
+        try {
+            reload();
+            log.info("钉钉机器人配置已随配置刷新重新加载: " + robots.keySet());
+        } catch (IOException | RuntimeException e) {
+            log.error("钉钉机器人配置重新加载失败，继续使用原配置", e);
+        }
+    }
+
+    /**
+     * EnvironmentChangeEvent.getKeys() 中是否有机器人配置，无法读取时按有处理
+     */
+    private static boolean affectsRobots(ApplicationEvent event) {
+        Object keys;
+        try {
+            keys = event.getClass().getMethod("getKeys").invoke(event);
+        } catch (ReflectiveOperationException e) {
+            return true;
+        }
+        if (!(keys instanceof Collection)) {
+            return true;
+        }
+        for (Object key : (Collection<?>) keys) {
+            if (String.valueOf(key).startsWith(PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkModified() {
+        try {
+            long modified = resource.lastModified();
+            if (modified == lastModified) {
+                return;
+            }
+            synchronized (this) {
+                Properties properties = load();
+                lastModified = modified;
+                reload(properties);
+            }
+            log.info("钉钉机器人配置已重新加载: " + robots.keySet());
+        } catch (IOException | RuntimeException e) {
+            log.error("钉钉机器人配置重新加载失败，继续使用原配置: " + location, e);
+        }
+    }
+
+    /**
+     * Spring 配置中以 dingding.robots. 开头的属性，再用配置文件覆盖
+     */
+    private Properties load() throws IOException {
+        Properties properties = new Properties();
+        if (environment instanceof ConfigurableEnvironment) {
+            for (PropertySource<?> source : ((ConfigurableEnvironment) environment).getPropertySources()) {
+                if (!(source instanceof EnumerablePropertySource)) {
+                    continue;
+                }
+                for (String key : ((EnumerablePropertySource<?>) source).getPropertyNames()) {
+                    if (key.startsWith(PREFIX) && !properties.containsKey(key)) {
+                        // 按 Environment 的优先级取值并解析占位符
+                        String value = environment.getProperty(key);
+                        if (value != null) {
+                            properties.setProperty(key, value);
+                        }
+                    }
+                }
+            }
+        }
+        if (resource != null) {
+            Properties file = PropertiesLoaderUtils.loadProperties(new EncodedResource(resource, "UTF-8"));
+            for (String key : file.stringPropertyNames()) {
+                if (key.startsWith(PREFIX)) {
+                    properties.setProperty(key, environment.resolvePlaceholders(file.getProperty(key)));
+                }
+            }
+        }
+        return properties;
+    }
+
+    private synchronized void reload(Properties properties) {
+        Set<String> names = new TreeSet<String>();
+        for (String key : properties.stringPropertyNames()) {
+            int end = key.indexOf('.', PREFIX.length());
+            // dingding.robots.location 等不带机器人名称的配置没有第二个点
+            if (end > PREFIX.length()) {
+                names.add(key.substring(PREFIX.length(), end));
+            }
+        }
+        Map<String, DingDingRobot> previous = robots;
+        Map<String, DingDingRobot> next = new LinkedHashMap<String, DingDingRobot>();
+        Map<String, DingDingRobot> byWebhook = new HashMap<String, DingDingRobot>();
+        for (String name : names) {
+            DingDingRobot old = previous.get(name);
+            DingDingRobot robot;
+            try {
+                robot = create(name, properties);
+                checkShared(robot, byWebhook);
+            } catch (IllegalArgumentException e) {
+                if (old != null && !conflicts(old, byWebhook)) {
+                    log.error("钉钉机器人配置无效，继续使用原配置: " + name, e);
+                    next.put(name, old);
+                    byWebhook.putIfAbsent(old.getWebhook(), old);
+                } else {
+                    log.error("钉钉机器人配置无效，未加载: " + name, e);
+                }
+                continue;
+            }
+            byWebhook.putIfAbsent(robot.getWebhook(), robot);
+            if (robot.equals(old)) {
+                next.put(name, old);
+                continue;
+            }
+            robot = activate(robot);
+            apply(robot);
+            next.put(name, robot);
+        }
+        Map<String, DingDingRobot> index = new HashMap<String, DingDingRobot>();
+        for (DingDingRobot robot : next.values()) {
+            index.putIfAbsent(credentials(robot.getWebhook(), robot.getSecret()), robot);
+        }
+        byCredentials = index;
+        robots = Collections.unmodifiableMap(next);
+        retire(previous, next);
+    }
+
+    /**
+     * 同一 webhook 已被其他机器人使用时，设置相同则记录警告，不同则视为无效配置
+     */
+    private static void checkShared(DingDingRobot robot, Map<String, DingDingRobot> byWebhook) {
+        DingDingRobot owner = byWebhook.get(robot.getWebhook());
+        if (owner == null) {
+            return;
+        }
+        if (!owner.hasSameLimits(robot)) {
+            throw new IllegalArgumentException("与机器人" + owner.getName() + "使用同一webhook但额度、权重、重试或并发设置不同");
+        }
+        log.warn("钉钉机器人" + robot.getName() + "与" + owner.getName() + "使用同一webhook，共用一份额度");
+    }
+
+    private static boolean conflicts(DingDingRobot robot, Map<String, DingDingRobot> byWebhook) {
+        DingDingRobot owner = byWebhook.get(robot.getWebhook());
+        return owner != null && !owner.hasSameLimits(robot);
+    }
+
+    private DingDingRobot create(String name, Properties properties) {
+        String prefix = PREFIX + name + ".";
+        String webhook = StringUtils.trimToEmpty(properties.getProperty(prefix + "webhook"));
+        String secret = StringUtils.trimToEmpty(properties.getProperty(prefix + "secret"));
+        if (webhook.isEmpty() || secret.isEmpty()) {
+            throw new IllegalArgumentException("webhook和secret不能为空");
+        }
+        if (!webhook.startsWith("http://") && !webhook.startsWith("https://")) {
+            throw new IllegalArgumentException("webhook不是http地址");
+        }
+        int permitsPerMinute = intValue(properties, prefix + "permitsPerMinute", 0);
+        int burst = 0;
+        if (permitsPerMinute > 0) {
+            burst = intValue(properties, prefix + "burst", Math.min(rateLimiter.getBurst(), permitsPerMinute - 1));
+            if (burst < 1 || burst >= permitsPerMinute) {
+                throw new IllegalArgumentException("burst必须大于0且小于permitsPerMinute");
+            }
+            if (burst <= priorityScheduler.getReservedTokens()) {
+                throw new IllegalArgumentException("burst必须大于dingding.priority.reservedTokens");
+            }
+        }
+        int weight = intValue(properties, prefix + "weight", 0);
+        int maxAttempts = intValue(properties, prefix + "maxAttempts", 0);
+        int maxConcurrent = intValue(properties, prefix + "maxConcurrent", 0);
+        if (weight < 0 || maxAttempts < 0 || maxConcurrent < 0) {
+            throw new IllegalArgumentException("weight、maxAttempts和maxConcurrent不能小于0");
+        }
+        try {
+            // 只校验，不写入签名缓存
+            SignatureCache.sign(secret, System.currentTimeMillis());
+        } catch (GeneralSecurityException | RuntimeException e) {
+            throw new IllegalArgumentException("secret无法用于加签", e);
+        }
+        return new DingDingRobot(name, webhook, secret, permitsPerMinute, burst, weight, maxAttempts, maxConcurrent, null);
+    }
+
+    /**
+     * 为通过校验并确定加载的机器人创建客户端、算好签名；无效配置不会留下客户端和签名缓存
+     */
+    private DingDingRobot activate(DingDingRobot robot) {
+        try {
+            signatureCache.getSignature(robot.getSecret());
+        } catch (ApiException e) {
+            // create 中已校验过密钥，这里失败时发送时会再次计算
+            log.warn("钉钉机器人" + robot.getName() + "预先加签失败", e);
+        }
+        return robot.withClient(clientRegistry.getClient(robot.getWebhook()));
+    }
+
+    private static int intValue(Properties properties, String key, int defaultValue) {
+        String value = StringUtils.trimToNull(properties.getProperty(key));
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + "不是整数: " + value, e);
+        }
+    }
+
+    /**
+     * 把机器人的单独配置设置到限流、调度、重试和发送线程上，0 表示恢复为全局配置
+     */
+    private void apply(DingDingRobot robot) {
+        String webhook = robot.getWebhook();
+        if (robot.getPermitsPerMinute() > 0) {
+            rateLimiter.setQuota(webhook, robot.getPermitsPerMinute(), robot.getBurst());
+        } else {
+            rateLimiter.removeQuota(webhook);
+        }
+        if (robot.getWeight() > 0) {
+            priorityScheduler.setWeight(webhook, robot.getWeight());
+        } else {
+            priorityScheduler.removeWeight(webhook);
+        }
+        retryPolicy.setMaxAttempts(webhook, robot.getMaxAttempts());
+        sendExecutor.setMaxPerWebhook(webhook, robot.getMaxConcurrent());
+    }
+
+    /**
+     * 不再使用的 webhook 恢复为全局配置并移除客户端，不再使用的密钥清除签名缓存
+     */
+    private void retire(Map<String, DingDingRobot> previous, Map<String, DingDingRobot> next) {
+        Set<String> webhooks = new HashSet<String>();
+        Set<String> secrets = new HashSet<String>();
+        for (DingDingRobot robot : next.values()) {
+            webhooks.add(robot.getWebhook());
+            secrets.add(robot.getSecret());
+        }
+        for (DingDingRobot robot : previous.values()) {
+            if (!webhooks.contains(robot.getWebhook())) {
+                rateLimiter.removeQuota(robot.getWebhook());
+                priorityScheduler.removeWeight(robot.getWebhook());
+                retryPolicy.setMaxAttempts(robot.getWebhook(), 0);
+                sendExecutor.setMaxPerWebhook(robot.getWebhook(), 0);
+                clientRegistry.evict(robot.getWebhook());
+            }
+            if (!secrets.contains(robot.getSecret())) {
+                signatureCache.evict(robot.getSecret());
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    public void setEnvironmentChangeEvent(String environmentChangeEvent) {
+        this.environmentChangeEvent = environmentChangeEvent;
+    }
+
+    public void setRefreshScopeRefreshedEvent(String refreshScopeRefreshedEvent) {
+        this.refreshScopeRefreshedEvent = refreshScopeRefreshedEvent;
+    }
+}
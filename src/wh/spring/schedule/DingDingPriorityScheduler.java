@@ -0,0 +1,484 @@
+package wh.spring.schedule;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.metrics.SendStats;
+import wh.spring.model.DingDingSendResult;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按优先级调度发送
+ * <p>
+ * 告警和批量消息共用同一批 webhook 与额度时，由一个调度线程决定下一条发哪个：
+ * 1. 不同优先级之间严格按 MessagePriority 顺序；
+ * 2. 同一优先级内，webhook 之间按权重做公平排队(start-time fair queuing)，一个 webhook 积压再多也不会饿死其他 webhook；
+ * 3. 同一 webhook 同一优先级内截止时间早的先发(EDF)。
+ * 调度线程直接使用限流器中该 webhook 的令牌桶，只在有令牌时派发，调度的消息不再经过 dingding.limit.policy。
+ * NORMAL/BULK 只能使用保留额度之外的令牌和发送线程，额度耗尽时低优先级等待，CRITICAL 总能立即拿到令牌和线程；
+ * 低优先级消息超过截止时间仍未发出、或队列满被更高优先级挤出时直接丢弃，结果为 429。
+ * CRITICAL/HIGH 超过截止时间仍会发送，只有队列中全是 CRITICAL/HIGH 且已满时新消息才会被拒绝。
+ * <pre>
+ * dingding.priority.workers         发送线程数，默认 8
+ * dingding.priority.reservedWorkers 只给 CRITICAL/HIGH 使用的发送线程数，默认 2
+ * dingding.priority.reservedTokens  每个 webhook 只给 CRITICAL/HIGH 使用的令牌数，默认 1，需小于 dingding.limit.burst；
+ *                                   共享额度时从本节点每次租到的许可中保留，需小于 dingding.quota.leaseSize
+ * dingding.priority.queueCapacity   每个 webhook 最多排队条数，默认 1000
+ * dingding.priority.defaultWeight   webhook 默认权重，默认 1
+ * </pre>
+ */
+@Component
+public class DingDingPriorityScheduler implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DingDingPriorityScheduler.class);
+
+    private static final MessagePriority[] PRIORITIES = MessagePriority.values();
+
+    @Value("${dingding.priority.workers:8}")
+    private int workers = 8;
+    @Value("${dingding.priority.reservedWorkers:2}")
+    private int reservedWorkers = 2;
+    @Value("${dingding.priority.reservedTokens:1}")
+    private int reservedTokens = 1;
+    @Value("${dingding.priority.queueCapacity:1000}")
+    private int queueCapacity = 1000;
+    @Value("${dingding.priority.defaultWeight:1}")
+    private int defaultWeight = 1;
+
+    @Autowired
+    private DingDingRateLimiter rateLimiter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /**
+     * 以下字段只在 lock 内访问
+     */
+    private final Map<String, WebhookQueue> queues = new LinkedHashMap<String, WebhookQueue>();
+    private final double[] virtualTime = new double[PRIORITIES.length];
+    private long sequence;
+    private int queuedCount;
+    private int inFlight;
+    private boolean running;
+
+    private final ConcurrentMap<String, Integer> weights = new ConcurrentHashMap<String, Integer>();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+
+    private ExecutorService workerPool;
+    private Thread dispatcher;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (reservedWorkers < 0 || reservedWorkers >= workers) {
+            throw new IllegalArgumentException("dingding.priority.reservedWorkers必须不小于0且小于workers");
+        }
+        if (reservedTokens < 0 || (rateLimiter.isEnabled() && reservedTokens >= rateLimiter.getBurst())) {
+            throw new IllegalArgumentException("dingding.priority.reservedTokens必须不小于0且小于dingding.limit.burst");
+        }
+        if (reservedTokens > 0 && rateLimiter.isEnabled() && rateLimiter.isShared() && reservedTokens >= rateLimiter.getLeaseSize()) {
+            throw new IllegalArgumentException("共享额度时dingding.priority.reservedTokens必须小于dingding.quota.leaseSize");
+        }
+        final AtomicInteger threadIndex = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "dingding-priority-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        dispatcher = new Thread(this::dispatch, "dingding-priority-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * 设置 webhook 的权重，同一优先级内该 webhook 获得的发送机会与权重成正比
+     */
+    public void setWeight(String webhook, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("权重必须大于0");
+        }
+        weights.put(webhook, weight);
+        lock.lock();
+        try {
+            WebhookQueue queue = queues.get(webhook);
+            if (queue != null) {
+                queue.weight = weight;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取消 webhook 单独设置的权重，恢复为 dingding.priority.defaultWeight
+     */
+    public void removeWeight(String webhook) {
+        if (weights.remove(webhook) != null) {
+            lock.lock();
+            try {
+                WebhookQueue queue = queues.get(webhook);
+                if (queue != null) {
+                    queue.weight = defaultWeight;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 提交一条消息
+     *
+     * @param webhook        webhook
+     * @param priority       优先级
+     * @param deadlineMillis 截止时间(毫秒，相对当前时间)
+     * @param stats          丢弃时记为被限流
+     * @param send           真正的发送动作，在调度器的发送线程中执行，不应再经过限流
+     * @return 发送结果；被丢弃时为 429，调度器已关闭时以 RejectedExecutionException 结束
+     */
+    public CompletableFuture<DingDingSendResult> submit(String webhook, MessagePriority priority, long deadlineMillis,
+                                                        SendStats stats, Callable<DingDingSendResult> send) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        PriorityMessage message;
+        PriorityMessage victim = null;
+        lock.lock();
+        try {
+            message = new PriorityMessage(webhook, priority, deadline, sequence++, stats, send);
+            if (!running) {
+                message.future.completeExceptionally(new RejectedExecutionException("钉钉优先级调度器已关闭"));
+                return message.future;
+            }
+            WebhookQueue queue = queues.get(webhook);
+            if (queue == null) {
+                queue = new WebhookQueue(webhook, rateLimiter.getBucket(webhook), weights.getOrDefault(webhook, defaultWeight));
+                queues.put(webhook, queue);
+            }
+            if (queue.size() >= queueCapacity) {
+                victim = queue.evict(priority);
+                if (victim == null) {
+                    victim = message;
+                } else {
+                    queuedCount--;
+                }
+            }
+            if (victim != message) {
+                queue.add(message);
+                queuedCount++;
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (victim != null) {
+            drop(victim, victim == message ? "发送队列已满，已被丢弃" : "发送队列已满，被更高优先级的消息挤出");
+        }
+        return message.future;
+    }
+
+    private void dispatch() {
+        List<PriorityMessage> expired = new ArrayList<PriorityMessage>();
+        while (true) {
+            WebhookQueue candidate = null;
+            PriorityMessage next = null;
+            lock.lock();
+            try {
+                if (!running) {
+                    return;
+                }
+                long now = System.nanoTime();
+                long waitNanos = expire(now, expired);
+                if (inFlight < workers) {
+                    for (MessagePriority priority : PRIORITIES) {
+                        if (priority.isDroppable() && inFlight >= workers - reservedWorkers) {
+                            break;
+                        }
+                        candidate = select(priority);
+                        if (candidate != null) {
+                            // 先取出消息并占住发送线程，取令牌期间后到的消息不会插到它前面
+                            next = candidate.poll(priority);
+                            queuedCount--;
+                            inFlight++;
+                            break;
+                        }
+                    }
+                }
+                if (candidate == null && expired.isEmpty()) {
+                    waitNanos = Math.min(waitNanos, nextTokenWait());
+                    changed.awaitNanos(waitNanos);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            for (PriorityMessage message : expired) {
+                expiredCount.increment();
+                drop(message, "超过截止时间仍未发送，已丢弃");
+            }
+            expired.clear();
+            if (next != null && take(candidate, next)) {
+                run(next);
+            }
+        }
+    }
+
+    /**
+     * 在该优先级有消息且有令牌的 webhook 中选虚拟开始时间最小的
+     */
+    private WebhookQueue select(MessagePriority priority) {
+        int p = priority.ordinal();
+        int reserve = priority.isDroppable() ? reservedTokens : 0;
+        WebhookQueue best = null;
+        double bestStart = 0;
+        for (WebhookQueue queue : queues.values()) {
+            if (queue.peek(priority) == null) {
+                continue;
+            }
+            if (rateLimiter.isEnabled() && queue.bucket.getWaitNanos(reserve + 1) > 0) {
+                continue;
+            }
+            double start = Math.max(queue.finish[p], virtualTime[p]);
+            if (best == null || start < bestStart) {
+                best = queue;
+                bestStart = start;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 为取出的消息占用一个令牌。共享额度时取令牌可能要访问存储，因此不持有调度锁
+     *
+     * @return 没有拿到令牌时为 false，消息放回队列，同时释放占住的发送线程
+     */
+    private boolean take(WebhookQueue queue, PriorityMessage message) {
+        boolean acquired = !rateLimiter.isEnabled() || queue.bucket.tryAcquire();
+        lock.lock();
+        try {
+            if (!acquired) {
+                inFlight--;
+                if (!running) {
+                    message.future.completeExceptionally(new RejectedExecutionException("钉钉优先级调度器已关闭"));
+                    return false;
+                }
+                // 取令牌期间空队列可能已被清理，放回时重新登记
+                WebhookQueue current = queues.get(queue.webhook);
+                if (current == null) {
+                    current = queue;
+                    queues.put(queue.webhook, queue);
+                }
+                current.add(message);
+                queuedCount++;
+                return false;
+            }
+            int p = message.priority.ordinal();
+            double start = Math.max(queue.finish[p], virtualTime[p]);
+            virtualTime[p] = start;
+            queue.finish[p] = start + 1.0 / queue.weight;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出已过截止时间的可丢弃消息，同时清理空队列
+     *
+     * @return 距离下一条可丢弃消息到期的纳秒数
+     */
+    private long expire(long now, List<PriorityMessage> expired) {
+        long waitNanos = Long.MAX_VALUE;
+        Iterator<WebhookQueue> iterator = queues.values().iterator();
+        while (iterator.hasNext()) {
+            WebhookQueue queue = iterator.next();
+            for (MessagePriority priority : PRIORITIES) {
+                if (!priority.isDroppable()) {
+                    continue;
+                }
+                PriorityMessage head;
+                while ((head = queue.peek(priority)) != null && head.deadline - now <= 0) {
+                    expired.add(queue.poll(priority));
+                    queuedCount--;
+                }
+                if (head != null) {
+                    waitNanos = Math.min(waitNanos, head.deadline - now);
+                }
+            }
+            if (queue.size() == 0) {
+                iterator.remove();
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * @return 有消息的 webhook 中最早拿到令牌的等待时间
+     */
+    private long nextTokenWait() {
+        long waitNanos = Long.MAX_VALUE;
+        if (!rateLimiter.isEnabled() || inFlight >= workers) {
+            return waitNanos;
+        }
+        for (WebhookQueue queue : queues.values()) {
+            for (MessagePriority priority : PRIORITIES) {
+                if (queue.peek(priority) != null) {
+                    int reserve = priority.isDroppable() ? reservedTokens : 0;
+                    waitNanos = Math.min(waitNanos, Math.max(1L, queue.bucket.getWaitNanos(reserve + 1)));
+                    break;
+                }
+            }
+        }
+        return waitNanos;
+    }
+
+    private void run(PriorityMessage message) {
+        try {
+            workerPool.execute(() -> {
+                try {
+                    message.future.complete(message.send.call());
+                } catch (Throwable e) {
+                    message.future.completeExceptionally(e);
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            message.future.completeExceptionally(e);
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drop(PriorityMessage message, String errmsg) {
+        droppedCount.increment();
+        message.stats.recordThrottled();
+        message.future.complete(new DingDingSendResult(DingDingSendResult.THROTTLED, errmsg));
+    }
+
+    /**
+     * @return 每个 webhook 只给 CRITICAL/HIGH 使用的令牌数，单独配置的 burst 需大于该值
+     */
+    public int getReservedTokens() {
+        return reservedTokens;
+    }
+
+    /**
+     * @return 排队中的消息数
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queuedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 正在发送的消息数
+     */
+    public int getInFlightCount() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 被丢弃的消息数，包括超过截止时间的
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return 超过截止时间被丢弃的消息数
+     */
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        List<PriorityMessage> pending = new ArrayList<PriorityMessage>();
+        lock.lock();
+        try {
+            running = false;
+            for (WebhookQueue queue : queues.values()) {
+                for (MessagePriority priority : PRIORITIES) {
+                    PriorityMessage message;
+                    while ((message = queue.poll(priority)) != null) {
+                        pending.add(message);
+                    }
+                }
+            }
+            queues.clear();
+            queuedCount = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (!pending.isEmpty()) {
+            log.warn("钉钉优先级调度器关闭，" + pending.size() + " 条消息未发送");
+        }
+        for (PriorityMessage message : pending) {
+            message.future.completeExceptionally(new RejectedExecutionException("钉钉优先级调度器已关闭"));
+        }
+        dispatcher.join(1000L);
+        workerPool.shutdown();
+        workerPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public void setReservedWorkers(int reservedWorkers) {
+        this.reservedWorkers = reservedWorkers;
+    }
+
+    public void setReservedTokens(int reservedTokens) {
+        this.reservedTokens = reservedTokens;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setDefaultWeight(int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+}
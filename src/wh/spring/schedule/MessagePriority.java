@@ -0,0 +1,49 @@
+package wh.spring.schedule;
+
+/**
+ * 消息优先级，从高到低排列
+ * <p>
+ * 不同优先级之间严格按优先级发送；同一优先级内截止时间早的先发。
+ * NORMAL 与 BULK 可被丢弃：超过截止时间仍未发出、或队列已满被更高优先级挤出时不再发送。
+ */
+public enum MessagePriority {
+
+    /**
+     * 故障告警等必须尽快送达的消息，默认截止时间 10 秒
+     */
+    CRITICAL(10000L, false),
+    /**
+     * 重要通知，默认截止时间 1 分钟
+     */
+    HIGH(60000L, false),
+    /**
+     * 普通消息，默认截止时间 5 分钟
+     */
+    NORMAL(300000L, true),
+    /**
+     * 营销、汇总等批量消息，默认截止时间 30 分钟
+     */
+    BULK(1800000L, true);
+
+    private final long defaultDeadline;
+    private final boolean droppable;
+
+    MessagePriority(long defaultDeadline, boolean droppable) {
+        this.defaultDeadline = defaultDeadline;
+        this.droppable = droppable;
+    }
+
+    /**
+     * @return 默认截止时间(毫秒，相对提交时刻)
+     */
+    public long getDefaultDeadline() {
+        return defaultDeadline;
+    }
+
+    /**
+     * @return 额度不足时是否可以丢弃，可丢弃的消息也不能使用为高优先级保留的令牌和线程
+     */
+    public boolean isDroppable() {
+        return droppable;
+    }
+}
@@ -0,0 +1,42 @@
+package wh.spring.schedule;
+
+import wh.spring.metrics.SendStats;
+import wh.spring.model.DingDingSendResult;
+
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 等待调度的消息
+ */
+final class PriorityMessage {
+
+    /**
+     * 截止时间早的在前，相同时按提交顺序
+     */
+    static final Comparator<PriorityMessage> EARLIEST_DEADLINE = (a, b) -> {
+        int result = Long.compare(a.deadline - b.deadline, 0L);
+        return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+    };
+
+    final String webhook;
+    final MessagePriority priority;
+    /**
+     * System.nanoTime() 时间轴上的截止时间
+     */
+    final long deadline;
+    final long sequence;
+    final SendStats stats;
+    final Callable<DingDingSendResult> send;
+    final CompletableFuture<DingDingSendResult> future = new CompletableFuture<DingDingSendResult>();
+
+    PriorityMessage(String webhook, MessagePriority priority, long deadline, long sequence, SendStats stats, Callable<DingDingSendResult> send) {
+        this.webhook = webhook;
+        this.priority = priority;
+        this.deadline = deadline;
+        this.sequence = sequence;
+        this.stats = stats;
+        this.send = send;
+    }
+}
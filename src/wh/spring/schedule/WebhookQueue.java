@@ -0,0 +1,81 @@
+package wh.spring.schedule;
+
+import wh.spring.limit.TokenBucket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 一个 webhook 的待发送消息，每个优先级一个按截止时间排序的集合
+ * <p>
+ * 只在 DingDingPriorityScheduler 的锁内访问。
+ * finish 为各优先级上一条消息的虚拟完成时间，用于 webhook 之间的加权公平排队。
+ */
+final class WebhookQueue {
+
+    final String webhook;
+    final TokenBucket bucket;
+    int weight;
+    final double[] finish = new double[MessagePriority.values().length];
+
+    /**
+     * 下标为 MessagePriority.ordinal()
+     */
+    private final List<TreeSet<PriorityMessage>> messages;
+    private int size;
+
+    WebhookQueue(String webhook, TokenBucket bucket, int weight) {
+        this.webhook = webhook;
+        this.bucket = bucket;
+        this.weight = weight;
+        this.messages = new ArrayList<TreeSet<PriorityMessage>>(MessagePriority.values().length);
+        for (int i = 0; i < MessagePriority.values().length; i++) {
+            messages.add(new TreeSet<PriorityMessage>(PriorityMessage.EARLIEST_DEADLINE));
+        }
+    }
+
+    void add(PriorityMessage message) {
+        messages.get(message.priority.ordinal()).add(message);
+        size++;
+    }
+
+    /**
+     * @return 该优先级中截止时间最早的消息，没有时返回 null
+     */
+    PriorityMessage peek(MessagePriority priority) {
+        TreeSet<PriorityMessage> set = messages.get(priority.ordinal());
+        return set.isEmpty() ? null : set.first();
+    }
+
+    PriorityMessage poll(MessagePriority priority) {
+        PriorityMessage message = messages.get(priority.ordinal()).pollFirst();
+        if (message != null) {
+            size--;
+        }
+        return message;
+    }
+
+    /**
+     * 队列已满时挑出最该让位的消息：优先级最低、截止时间最晚
+     *
+     * @return 优先级低于 incoming 的消息，没有时返回 null
+     */
+    PriorityMessage evict(MessagePriority incoming) {
+        for (int i = messages.size() - 1; i > incoming.ordinal(); i--) {
+            if (!MessagePriority.values()[i].isDroppable()) {
+                continue;
+            }
+            PriorityMessage message = messages.get(i).pollLast();
+            if (message != null) {
+                size--;
+                return message;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,174 @@
+package wh.spring.service;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import com.taobao.api.ApiException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import wh.spring.interfaces.DingDingRobotService;
+import wh.spring.interfaces.DingDingService;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.robot.DingDingRobot;
+import wh.spring.robot.DingDingRobotRegistry;
+import wh.spring.schedule.MessagePriority;
+import wh.spring.template.MessageTemplate;
+
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按机器人名称发送钉钉消息
+ * <p>
+ * 每次调用先从 DingDingRobotRegistry 取出机器人，之后整个发送过程都使用这一份 webhook 和密钥，
+ * 期间重新加载配置不影响本次发送。未配置的机器人返回 400。
+ */
+@Service
+public class DingDingRobotServiceImpl implements DingDingRobotService {
+
+    @Autowired
+    private DingDingRobotRegistry robotRegistry;
+    @Autowired
+    private DingDingService dingDingService;
+
+    @Override
+    public DingDingSendResult sendDingMarkdownMessage(String robot, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return unknown(robot);
+        }
+        return dingDingService.sendDingMarkdownMessage(target.getSecret(), target.getWebhook(), contactPersons, messageTitle, message, pageUrl, picUrl);
+    }
+
+    @Override
+    public DingDingSendResult sendDingTextMessage(String robot, List<String> contactPersons, String message) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return unknown(robot);
+        }
+        return dingDingService.sendDingTextMessage(target.getSecret(), target.getWebhook(), contactPersons, message);
+    }
+
+    @Override
+    public DingDingSendResult sendDingLinkMessage(String robot, String title, String text, String messageUrl, String picUrl) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return unknown(robot);
+        }
+        return dingDingService.sendDingLinkMessage(target.getSecret(), target.getWebhook(), title, text, messageUrl, picUrl);
+    }
+
+    @Override
+    public DingDingSendResult sendDingOverallActionCardMessage(String robot, String title, String text, String singleTitle, String singleURL) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return unknown(robot);
+        }
+        return dingDingService.sendDingOverallActionCardMessage(target.getSecret(), target.getWebhook(), title, text, singleTitle, singleURL);
+    }
+
+    @Override
+    public DingDingSendResult sendDingIndependentActionCardMessage(String robot, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return unknown(robot);
+        }
+        return dingDingService.sendDingIndependentActionCardMessage(target.getSecret(), target.getWebhook(), title, text, btns, btnOrientation);
+    }
+
+    @Override
+    public DingDingSendResult sendDingFeedCardMessage(String robot, List<OapiRobotSendRequest.Links> linkList) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return unknown(robot);
+        }
+        return dingDingService.sendDingFeedCardMessage(target.getSecret(), target.getWebhook(), linkList);
+    }
+
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingMarkdownMessageAsync(String robot, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return CompletableFuture.completedFuture(unknown(robot));
+        }
+        return dingDingService.sendDingMarkdownMessageAsync(target.getSecret(), target.getWebhook(), contactPersons, messageTitle, message, pageUrl, picUrl);
+    }
+
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingTextMessageAsync(String robot, List<String> contactPersons, String message) {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return CompletableFuture.completedFuture(unknown(robot));
+        }
+        return dingDingService.sendDingTextMessageAsync(target.getSecret(), target.getWebhook(), contactPersons, message);
+    }
+
+    @Override
+    public DingDingSendResult sendTemplateMessage(String robot, MessageTemplate template, Map<String, ?> variables) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return unknown(robot);
+        }
+        return dingDingService.sendTemplateMessage(target.getSecret(), target.getWebhook(), template, variables);
+    }
+
+    @Override
+    public CompletableFuture<DingDingSendResult> sendTemplateMessageAsync(String robot, MessageTemplate template, Map<String, ?> variables) {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return CompletableFuture.completedFuture(unknown(robot));
+        }
+        return dingDingService.sendTemplateMessageAsync(target.getSecret(), target.getWebhook(), template, variables);
+    }
+
+    @Override
+    public CompletableFuture<DingDingSendResult> sendPriorityMessage(String robot, OapiRobotSendRequest request, MessagePriority priority) {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return CompletableFuture.completedFuture(unknown(robot));
+        }
+        return dingDingService.sendPriorityMessage(target.getSecret(), target.getWebhook(), request, priority);
+    }
+
+    @Override
+    public CompletableFuture<DingDingSendResult> sendPriorityTemplateMessage(String robot, MessageTemplate template, Map<String, ?> variables, MessagePriority priority) {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return CompletableFuture.completedFuture(unknown(robot));
+        }
+        return dingDingService.sendPriorityTemplateMessage(target.getSecret(), target.getWebhook(), template, variables, priority);
+    }
+
+    @Override
+    public List<DingDingSendResult> sendDingMarkdownStream(String robot, List<String> contactPersons, String messageTitle, Reader content) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return Collections.singletonList(unknown(robot));
+        }
+        return dingDingService.sendDingMarkdownStream(target.getSecret(), target.getWebhook(), contactPersons, messageTitle, content);
+    }
+
+    @Override
+    public List<DingDingSendResult> sendDingTextStream(String robot, List<String> contactPersons, String messageTitle, Reader content) throws ApiException {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return Collections.singletonList(unknown(robot));
+        }
+        return dingDingService.sendDingTextStream(target.getSecret(), target.getWebhook(), contactPersons, messageTitle, content);
+    }
+
+    @Override
+    public CompletableFuture<List<DingDingSendResult>> sendDingMarkdownStreamAsync(String robot, List<String> contactPersons, String messageTitle, Iterator<String> lines) {
+        DingDingRobot target = robotRegistry.getRobot(robot);
+        if (target == null) {
+            return CompletableFuture.completedFuture(Collections.singletonList(unknown(robot)));
+        }
+        return dingDingService.sendDingMarkdownStreamAsync(target.getSecret(), target.getWebhook(), contactPersons, messageTitle, lines);
+    }
+
+    private static DingDingSendResult unknown(String robot) {
+        return new DingDingSendResult(DingDingSendResult.INVALID, "未配置的机器人: " + robot);
+    }
+}
@@ -1,45 +1,101 @@
 package wh.spring.service;
 
-import com.dingtalk.api.DefaultDingTalkClient;
-import com.dingtalk.api.DingTalkClient;
 import com.dingtalk.api.request.OapiRobotSendRequest;
 import com.dingtalk.api.response.OapiRobotSendResponse;
 import com.taobao.api.ApiException;
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import wh.spring.async.DingDingBroadcastExecutor;
+import wh.spring.async.DingDingSendExecutor;
+import wh.spring.batch.BatchMessage;
+import wh.spring.batch.DingDingMessageAggregator;
+import wh.spring.batch.MessageBatch;
+import wh.spring.client.DingTalkClientRegistry;
+import wh.spring.client.DingTalkRobotClient;
+import wh.spring.dedup.DedupEntry;
+import wh.spring.dedup.DingDingDeduplicator;
 import wh.spring.interfaces.DingDingService;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.metrics.DingDingMetrics;
+import wh.spring.metrics.SendStats;
+import wh.spring.model.DingDingBroadcastResult;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.model.DingDingTarget;
+import wh.spring.outbox.DingDingOutbox;
+import wh.spring.outbox.OutboxRecord;
+import wh.spring.retry.DingDingRetryPolicy;
+import wh.spring.retry.RobotCall;
+import wh.spring.schedule.DingDingPriorityScheduler;
+import wh.spring.schedule.MessagePriority;
+import wh.spring.sign.SignatureCache;
+import wh.spring.template.MessageSplitter;
+import wh.spring.template.MessageTemplate;
+import wh.spring.template.RobotRequests;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author lubin
  * <p>
  * 钉钉发送消息
  * <p>
+ * 本类为无状态单例：请求、响应、签名等均为方法内局部变量，可被多个线程并发调用，无需额外加锁。
+ * <p>
  * 2019-12-04
  */
 @Service
 public class DingDingServiceImpl implements DingDingService {
 
-    private OapiRobotSendRequest request;
-    private OapiRobotSendRequest.Markdown markdown;
-    private OapiRobotSendRequest.Text text;
-    private OapiRobotSendRequest.Link link;
-    private OapiRobotSendRequest.Feedcard feedcard;
-    private OapiRobotSendRequest.At at;
-    private OapiRobotSendRequest.Actioncard actioncard;
-    private DingTalkClient client;
-    private OapiRobotSendResponse response;
+    private static final Log log = LogFactory.getLog(DingDingServiceImpl.class);
+
+    @Autowired
+    private DingTalkClientRegistry clientRegistry;
+    @Autowired
+    private DingDingSendExecutor sendExecutor;
+    @Autowired
+    private DingDingBroadcastExecutor broadcastExecutor;
+    @Autowired
+    private DingDingRateLimiter rateLimiter;
+    @Autowired
+    private DingDingMessageAggregator messageAggregator;
+    @Autowired
+    private SignatureCache signatureCache;
+    @Autowired
+    private DingDingOutbox outbox;
+    @Autowired
+    private DingDingRetryPolicy retryPolicy;
+    @Autowired
+    private DingDingMetrics metrics;
+    @Autowired
+    private DingDingPriorityScheduler priorityScheduler;
+    @Autowired
+    private DingDingDeduplicator deduplicator;
 
-    private String signature;
+    /**
+     * 分段发送时每段正文转义编码后的最大字节数，钉钉限制消息内容 20000 字节，留出请求其余部分的篇幅
+     */
+    @Value("${dingding.split.maxBytes:18000}")
+    private int splitMaxBytes = 18000;
 
     /**
      * 钉钉文档地址
@@ -57,69 +113,40 @@ public class DingDingServiceImpl implements DingDingService {
      * @return
      */
     @Override
-    public OapiRobotSendResponse sendDingMarkdownMessage(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) throws ApiException {
-        this.response = new OapiRobotSendResponse();
+    public DingDingSendResult sendDingMarkdownMessage(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) throws ApiException {
+        DingDingSendResult response = new DingDingSendResult();
         if (StringUtils.isEmpty(secret)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("secret参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("secret参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(webhook)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("webhook参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("webhook参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(messageTitle)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("messageTitle参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("messageTitle参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(message)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("message参数为空");
-            return this.response;
-        }
-        this.signature = getSignature(secret);
-        if (this.signature != null) {
-            this.client = new DefaultDingTalkClient(webhook + this.signature);
-            this.request = new OapiRobotSendRequest();
-            this.at = new OapiRobotSendRequest.At();
-            String persons = "";
-            if (CollectionUtils.isEmpty(contactPersons)) {
-                this.at.setIsAtAll("true");
-            } else {
-                for (String person : contactPersons) {
-                    persons += "@" + person;
-                }
-                this.at.setAtMobiles(contactPersons);
-            }
-            this.request.setAt(this.at);
-            this.markdown = new OapiRobotSendRequest.Markdown();
-            this.request.setMsgtype("markdown");
-            this.markdown.setTitle(messageTitle);
-
-            String page = "";
-            if (!StringUtils.isEmpty(pageUrl)) {
-                page = "[页面](" + pageUrl + ")";
-            }
-            String pic = "";
-            if (!StringUtils.isEmpty(picUrl)) {
-                pic = "![screenshot](" + picUrl + ")";
-            }
-
-            this.markdown.setText(message + persons + pic + page);
-            this.request.setMarkdown(this.markdown);
-            this.client.execute(this.request);
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("发送成功");
-            return this.response;
-        } else {
-            this.response.setErrcode(500L);
-            this.response.setErrmsg("真实密钥获取失败");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("message参数为空");
+            return response;
+        }
+        if (deduplicator.isEnabled() && deduplicator.isDuplicate(secret, webhook, "markdown", contactPersons, this::sendDedupSummary, messageTitle, message, pageUrl, picUrl)) {
+            return duplicated(response);
+        }
+        if (messageAggregator.isEnabled() && messageAggregator.add(secret, webhook, new BatchMessage("markdown", messageTitle, message, contactPersons, pageUrl, picUrl), this::sendDigest)) {
+            response.setErrcode(DingDingSendResult.ACCEPTED);
+            response.setErrmsg("已合并到汇总消息");
+            return response;
         }
+        return execute(secret, webhook, RobotRequests.markdown(contactPersons, messageTitle, message, pageUrl, picUrl), response);
     }
 
+
     /**
      * 发送钉钉群消息  Text  类型
      *
@@ -130,54 +157,35 @@ public class DingDingServiceImpl implements DingDingService {
      * @return
      */
     @Override
-    public OapiRobotSendResponse sendDingTextMessage(String secret, String webhook, List<String> contactPersons, String message) throws ApiException {
-        this.response = new OapiRobotSendResponse();
+    public DingDingSendResult sendDingTextMessage(String secret, String webhook, List<String> contactPersons, String message) throws ApiException {
+        DingDingSendResult response = new DingDingSendResult();
         if (StringUtils.isEmpty(secret)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("secret参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("secret参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(webhook)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("webhook参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("webhook参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(message)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("message参数为空");
-            return this.response;
-        }
-        this.signature = getSignature(secret);
-        if (this.signature != null) {
-            this.client = new DefaultDingTalkClient(webhook + this.signature);
-            this.request = new OapiRobotSendRequest();
-            this.at = new OapiRobotSendRequest.At();
-            String persons = "";
-            if (CollectionUtils.isEmpty(contactPersons)) {
-                this.at.setIsAtAll("true");
-            } else {
-                for (String person : contactPersons) {
-                    persons += "@" + person;
-                }
-            }
-            this.at.setAtMobiles(contactPersons);
-            this.request.setAt(this.at);
-
-            this.request.setMsgtype("text");
-            this.text = new OapiRobotSendRequest.Text();
-            this.text.setContent(message);
-            this.request.setText(this.text);
-            this.client.execute(this.request);
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("发送成功");
-            return this.response;
-        } else {
-            this.response.setErrcode(500L);
-            this.response.setErrmsg("真实密钥获取失败");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("message参数为空");
+            return response;
+        }
+        if (deduplicator.isEnabled() && deduplicator.isDuplicate(secret, webhook, "text", contactPersons, this::sendDedupSummary, message)) {
+            return duplicated(response);
         }
+        if (messageAggregator.isEnabled() && messageAggregator.add(secret, webhook, new BatchMessage("text", null, message, contactPersons, null, null), this::sendDigest)) {
+            response.setErrcode(DingDingSendResult.ACCEPTED);
+            response.setErrmsg("已合并到汇总消息");
+            return response;
+        }
+        return execute(secret, webhook, RobotRequests.text(contactPersons, message), response);
     }
 
+
     /**
      * 发送钉钉群消息  Link  类型
      *
@@ -190,53 +198,37 @@ public class DingDingServiceImpl implements DingDingService {
      * @return
      */
     @Override
-    public OapiRobotSendResponse sendDingLinkMessage(String secret, String webhook, String title, String text, String messageUrl, String picUrl) throws ApiException {
-        this.response = new OapiRobotSendResponse();
+    public DingDingSendResult sendDingLinkMessage(String secret, String webhook, String title, String text, String messageUrl, String picUrl) throws ApiException {
+        DingDingSendResult response = new DingDingSendResult();
         if (StringUtils.isEmpty(secret)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("secret参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("secret参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(webhook)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("webhook参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("webhook参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(title)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("title参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("title参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(text)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("message参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("message参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(messageUrl)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("messageUrl参数为空");
-            return this.response;
-        }
-        this.signature = getSignature(secret);
-        if (this.signature != null) {
-            this.client = new DefaultDingTalkClient(webhook + this.signature);
-            this.request = new OapiRobotSendRequest();
-            this.request.setMsgtype("link");
-            this.link = new OapiRobotSendRequest.Link();
-            this.link.setTitle(title);
-            this.link.setText(text);
-            this.link.setPicUrl(picUrl);
-            this.link.setMessageUrl(messageUrl);
-            this.request.setLink(this.link);
-            this.client.execute(this.request);
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("发送成功");
-            return this.response;
-        } else {
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("真实密钥获取失败");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("messageUrl参数为空");
+            return response;
         }
+        if (deduplicator.isEnabled() && deduplicator.isDuplicate(secret, webhook, "link", null, this::sendDedupSummary, title, text, messageUrl, picUrl)) {
+            return duplicated(response);
+        }
+        return execute(secret, webhook, RobotRequests.link(title, text, messageUrl, picUrl), response);
     }
 
     /**
@@ -252,59 +244,43 @@ public class DingDingServiceImpl implements DingDingService {
      * @throws ApiException
      */
     @Override
-    public OapiRobotSendResponse sendDingOverallActionCardMessage(String secret, String webhook, String title, String text, String singleTitle, String singleURL) throws ApiException {
-        this.response = new OapiRobotSendResponse();
+    public DingDingSendResult sendDingOverallActionCardMessage(String secret, String webhook, String title, String text, String singleTitle, String singleURL) throws ApiException {
+        DingDingSendResult response = new DingDingSendResult();
         if (StringUtils.isEmpty(secret)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("secret参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("secret参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(webhook)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("webhook参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("webhook参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(title)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("title参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("title参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(text)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("text参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("text参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(singleTitle)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("singleTitle参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("singleTitle参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(singleURL)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("singleURL参数为空");
-            return this.response;
-        }
-
-        this.signature = getSignature(secret);
-        if (this.signature != null) {
-            this.client = new DefaultDingTalkClient(webhook + this.signature);
-            this.request = new OapiRobotSendRequest();
-            this.request.setMsgtype("actionCard");
-            this.actioncard = new OapiRobotSendRequest.Actioncard();
-            this.actioncard.setTitle(title);
-            this.actioncard.setText(text);
-            this.actioncard.setSingleTitle(singleTitle);
-            this.actioncard.setSingleURL(singleURL);
-            this.request.setActionCard(this.actioncard);
-            this.client.execute(this.request);
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("发送成功");
-            return this.response;
-        } else {
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("真实密钥获取失败");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("singleURL参数为空");
+            return response;
         }
+
+        if (deduplicator.isEnabled() && deduplicator.isDuplicate(secret, webhook, "actionCard", null, this::sendDedupSummary, title, text, singleTitle, singleURL)) {
+            return duplicated(response);
+        }
+        return execute(secret, webhook, RobotRequests.actionCard(title, text, singleTitle, singleURL), response);
     }
 
     /**
@@ -325,58 +301,39 @@ public class DingDingServiceImpl implements DingDingService {
      * @throws ApiException
      */
     @Override
-    public OapiRobotSendResponse sendDingIndependentActionCardMessage(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) throws ApiException {
+    public DingDingSendResult sendDingIndependentActionCardMessage(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) throws ApiException {
 
-        this.response = new OapiRobotSendResponse();
+        DingDingSendResult response = new DingDingSendResult();
         if (StringUtils.isEmpty(secret)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("secret参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("secret参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(webhook)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("webhook参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("webhook参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(title)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("title参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("title参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(text)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("text参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("text参数为空");
+            return response;
         }
         if (CollectionUtils.isEmpty(btns)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("btns参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("btns参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(btnOrientation)) {
             btnOrientation = "0";
         }
 
-        this.signature = getSignature(secret);
-        if (this.signature != null) {
-            this.client = new DefaultDingTalkClient(webhook + this.signature);
-            this.request = new OapiRobotSendRequest();
-            this.request.setMsgtype("actionCard");
-            this.actioncard = new OapiRobotSendRequest.Actioncard();
-            this.actioncard.setTitle(title);
-            this.actioncard.setText(text);
-            this.actioncard.setBtns(btns);
-            this.actioncard.setBtnOrientation(btnOrientation);
-            this.request.setActionCard(this.actioncard);
-            this.client.execute(this.request);
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("发送成功");
-            return this.response;
-        } else {
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("真实密钥获取失败");
-            return this.response;
-        }
+        return executeUnique(secret, webhook, RobotRequests.actionCard(title, text, btns, btnOrientation), title, response);
     }
 
     /**
@@ -394,79 +351,757 @@ public class DingDingServiceImpl implements DingDingService {
      * @throws ApiException
      */
     @Override
-    public OapiRobotSendResponse sendDingFeedCardMessage(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList) throws ApiException {
+    public DingDingSendResult sendDingFeedCardMessage(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList) throws ApiException {
 
-        this.response = new OapiRobotSendResponse();
+        DingDingSendResult response = new DingDingSendResult();
         if (StringUtils.isEmpty(secret)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("secret参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("secret参数为空");
+            return response;
         }
         if (StringUtils.isEmpty(webhook)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("webhook参数为空");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("webhook参数为空");
+            return response;
         }
         if (CollectionUtils.isEmpty(linkList)) {
-            this.response.setErrcode(400L);
-            this.response.setErrmsg("linkList参数为空");
-            return this.response;
-        }
-        this.signature = getSignature(secret);
-        if (this.signature != null) {
-            this.client = new DefaultDingTalkClient(webhook + this.signature);
-            this.request = new OapiRobotSendRequest();
-            this.request.setMsgtype("feedCard");
-            this.feedcard = new OapiRobotSendRequest.Feedcard();
-            this.feedcard.setLinks(linkList);
-            this.request.setFeedCard(feedcard);
-            this.client.execute(this.request);
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("发送成功");
-            return this.response;
-        } else {
-            this.response.setErrcode(200L);
-            this.response.setErrmsg("真实密钥获取失败");
-            return this.response;
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("linkList参数为空");
+            return response;
         }
+        return executeUnique(secret, webhook, RobotRequests.feedCard(linkList), linkList.get(0).getTitle(), response);
     }
 
 
     /**
-     * 获取真实秘钥
-     * <p>
-     * 算法
-     * 获取  timestamp  当前时间戳，单位是毫秒，与请求调用时间误差不能超过1小时
-     * sign       把 timestamp+"\n"+密钥 当做签名字符串，使用HmacSHA256算法计算签名，
-     * 然后进行Base64 encode，最后再把签名参数再进行urlEncode，
-     * 得到最终的签名（需要使用UTF-8字符集）。
+     * 异步发送钉钉群消息  Markdown  类型，参数同 sendDingMarkdownMessage
      *
-     * @param secret 密钥，机器人安全设置页面，加签一栏下面显示的SEC开头的字符串
+     * @return 发送结果，队列已满或发送异常时 future 异常结束
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingMarkdownMessageAsync(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) {
+        return sendExecutor.submit(webhook, () -> sendDingMarkdownMessage(secret, webhook, contactPersons, messageTitle, message, pageUrl, picUrl));
+    }
+
+    /**
+     * 异步发送钉钉群消息  Text  类型，参数同 sendDingTextMessage
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingTextMessageAsync(String secret, String webhook, List<String> contactPersons, String message) {
+        return sendExecutor.submit(webhook, () -> sendDingTextMessage(secret, webhook, contactPersons, message));
+    }
+
+    /**
+     * 异步发送钉钉群消息  Link  类型，参数同 sendDingLinkMessage
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingLinkMessageAsync(String secret, String webhook, String title, String text, String messageUrl, String picUrl) {
+        return sendExecutor.submit(webhook, () -> sendDingLinkMessage(secret, webhook, title, text, messageUrl, picUrl));
+    }
+
+    /**
+     * 异步发送整体跳转ActionCard类型，参数同 sendDingOverallActionCardMessage
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingOverallActionCardMessageAsync(String secret, String webhook, String title, String text, String singleTitle, String singleURL) {
+        return sendExecutor.submit(webhook, () -> sendDingOverallActionCardMessage(secret, webhook, title, text, singleTitle, singleURL));
+    }
+
+    /**
+     * 异步发送独立跳转ActionCard类型，参数同 sendDingIndependentActionCardMessage
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingIndependentActionCardMessageAsync(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) {
+        return sendExecutor.submit(webhook, () -> sendDingIndependentActionCardMessage(secret, webhook, title, text, btns, btnOrientation));
+    }
+
+    /**
+     * 异步发送FeedCard类型，参数同 sendDingFeedCardMessage
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendDingFeedCardMessageAsync(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList) {
+        return sendExecutor.submit(webhook, () -> sendDingFeedCardMessage(secret, webhook, linkList));
+    }
+
+    /**
+     * 按模板发送，不参与合并
+     *
+     * @param secret    密钥  (必填项)
+     * @param webhook   webhook  (必填项)
+     * @param template  消息模板  (必填项)
+     * @param variables 模板变量
      * @return
+     * @throws ApiException
      */
-    private String getSignature(String secret) {
-        Long timestamp = System.currentTimeMillis();
-        String stringToSign = timestamp + "\n" + secret;
+    @Override
+    public DingDingSendResult sendTemplateMessage(String secret, String webhook, MessageTemplate template, Map<String, ?> variables) throws ApiException {
+        DingDingSendResult response = new DingDingSendResult();
+        if (StringUtils.isEmpty(secret)) {
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("secret参数为空");
+            return response;
+        }
+        if (StringUtils.isEmpty(webhook)) {
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("webhook参数为空");
+            return response;
+        }
+        if (template == null) {
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg("template参数为空");
+            return response;
+        }
+        byte[] body;
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(secret.getBytes("UTF-8"), "HmacSHA256"));
-            byte[] signData = mac.doFinal(stringToSign.getBytes("UTF-8"));
-            String signature = URLEncoder.encode(new String(Base64.encodeBase64(signData)), "UTF-8");
-            /**
-             * 把 timestamp和第一步得到的签名值拼接到webhook中。
-             * https://oapi.dingtalk.com/robot/send?access_token=XXXXXX&timestamp=XXX&sign=XXX
-             */
-            return "&timestamp=" + timestamp + "&sign=" + signature;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+            body = template.render(variables == null ? Collections.<String, Object>emptyMap() : variables);
+        } catch (IllegalArgumentException e) {
+            response.setErrcode(DingDingSendResult.INVALID);
+            response.setErrmsg(e.getMessage());
+            return response;
+        }
+        if (deduplicator.isEnabled() && deduplicator.isDuplicate(secret, webhook, template.getMsgtype(), body, template.getMsgtype() + " 模板消息", this::sendDedupSummary)) {
+            return duplicated(response);
+        }
+        return execute(secret, webhook, template.getMsgtype(), body, response);
+    }
+
+    /**
+     * 异步按模板发送，参数同 sendTemplateMessage
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendTemplateMessageAsync(String secret, String webhook, MessageTemplate template, Map<String, ?> variables) {
+        return sendExecutor.submit(webhook, () -> sendTemplateMessage(secret, webhook, template, variables));
+    }
+
+    /**
+     * 按模板群发，模板只渲染一次
+     */
+    @Override
+    public List<DingDingBroadcastResult> broadcastTemplateMessage(List<DingDingTarget> targets, MessageTemplate template, Map<String, ?> variables) {
+        if (template == null) {
+            return reject(targets, "template参数为空");
+        }
+        byte[] body;
+        try {
+            body = template.render(variables == null ? Collections.<String, Object>emptyMap() : variables);
+        } catch (IllegalArgumentException e) {
+            return reject(targets, e.getMessage());
+        }
+        return broadcast(targets, template.getMsgtype(), body).join();
+    }
+
+    /**
+     * 按优先级发送，截止时间取该优先级的默认值
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendPriorityMessage(String secret, String webhook, OapiRobotSendRequest request, MessagePriority priority) {
+        return sendPriorityMessage(secret, webhook, request, priority, priority == null ? 0L : priority.getDefaultDeadline());
+    }
+
+    /**
+     * 按优先级发送，不参与合并，由 DingDingPriorityScheduler 决定发送顺序
+     *
+     * @param secret         密钥  (必填项)
+     * @param webhook        webhook  (必填项)
+     * @param request        任意类型的消息  (必填项)
+     * @param priority       优先级  (必填项)
+     * @param deadlineMillis 截止时间，毫秒，相对当前时间；同一优先级内截止时间早的先发，NORMAL/BULK 超过截止时间未发出即丢弃
+     * @return 发送结果，被丢弃时为 429；发送异常时 future 异常结束
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendPriorityMessage(String secret, String webhook, OapiRobotSendRequest request, MessagePriority priority, long deadlineMillis) {
+        DingDingSendResult invalid = validatePriority(secret, webhook, priority);
+        if (invalid == null && request == null) {
+            invalid = new DingDingSendResult(DingDingSendResult.INVALID, "request参数为空");
+        }
+        if (invalid != null) {
+            return CompletableFuture.completedFuture(invalid);
+        }
+        return schedule(secret, webhook, request.getMsgtype(), DingTalkRobotClient.toJson(request).getBytes(StandardCharsets.UTF_8), priority, deadlineMillis);
+    }
+
+    /**
+     * 按模板、优先级发送，截止时间取该优先级的默认值
+     */
+    @Override
+    public CompletableFuture<DingDingSendResult> sendPriorityTemplateMessage(String secret, String webhook, MessageTemplate template, Map<String, ?> variables, MessagePriority priority) {
+        DingDingSendResult invalid = validatePriority(secret, webhook, priority);
+        if (invalid == null && template == null) {
+            invalid = new DingDingSendResult(DingDingSendResult.INVALID, "template参数为空");
+        }
+        if (invalid != null) {
+            return CompletableFuture.completedFuture(invalid);
+        }
+        byte[] body;
+        try {
+            body = template.render(variables == null ? Collections.<String, Object>emptyMap() : variables);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(new DingDingSendResult(DingDingSendResult.INVALID, e.getMessage()));
+        }
+        return schedule(secret, webhook, template.getMsgtype(), body, priority, priority.getDefaultDeadline());
+    }
+
+    private static DingDingSendResult validatePriority(String secret, String webhook, MessagePriority priority) {
+        if (StringUtils.isEmpty(secret)) {
+            return new DingDingSendResult(DingDingSendResult.INVALID, "secret参数为空");
+        }
+        if (StringUtils.isEmpty(webhook)) {
+            return new DingDingSendResult(DingDingSendResult.INVALID, "webhook参数为空");
+        }
+        if (priority == null) {
+            return new DingDingSendResult(DingDingSendResult.INVALID, "priority参数为空");
         }
         return null;
     }
 
+    /**
+     * 交给优先级调度器，调度器已按令牌派发，发送时不再经过限流器
+     */
+    private CompletableFuture<DingDingSendResult> schedule(String secret, String webhook, String msgtype, byte[] body, MessagePriority priority, long deadlineMillis) {
+        if (deduplicator.isEnabled() && deduplicator.isDuplicate(secret, webhook, msgtype, body, msgtype + " 消息", this::sendDedupSummary)) {
+            return CompletableFuture.completedFuture(duplicated(new DingDingSendResult()));
+        }
+        return priorityScheduler.submit(webhook, priority, deadlineMillis, metrics.getStats(webhook, msgtype),
+                () -> execute(secret, webhook, msgtype, body, new DingDingSendResult(), DingDingRateLimiter.Decision.PASS));
+    }
+
+    /**
+     * 分段发送 Markdown 内容，按 UTF-8 读取 content，不关闭 content；其余同 sendDingMarkdownStream(Iterator)
+     */
+    @Override
+    public List<DingDingSendResult> sendDingMarkdownStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Reader content) throws ApiException {
+        return stream(secret, webhook, contactPersons, messageTitle, content == null ? null : MessageSplitter.lines(content), true);
+    }
+
+    @Override
+    public List<DingDingSendResult> sendDingMarkdownStream(String secret, String webhook, List<String> contactPersons, String messageTitle, InputStream content) throws ApiException {
+        return sendDingMarkdownStream(secret, webhook, contactPersons, messageTitle, content == null ? null : new InputStreamReader(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 分段发送 Markdown 内容
+     * <p>
+     * 内容按行流式读取，切分为不超过 dingding.split.maxBytes 的片段，在代码块、表格内切分时自动补全，见 MessageSplitter。
+     * 只有一段时与 sendDingMarkdownMessage 发出的消息相同；多段时每段标题和正文开头带上序号，最后一段标明"完"，
+     * 只有第一段 @contactPersons。
+     * 各段按顺序发送，前一段返回后才发出下一段；前一段在途时读取、切分下一段并预约它的限流令牌，等待令牌不占用线程。
+     * 令牌等待超过 dingding.limit.maxWait 的段与单条发送一样返回 429(开启发件箱时为 202)。
+     * 不参与合并和去重；某段发送失败(errcode 不为 0)时停止，后续内容不再读取，已为下一段预约的令牌不归还。
+     *
+     * @param secret         密钥  (必填项)
+     * @param webhook        webhook  (必填项)
+     * @param contactPersons 推送人List,不传就是@所有人   (非必填项)
+     * @param messageTitle   消息标题  (必填项)
+     * @param lines          消息内容，每个元素为一行  (必填项)
+     * @return 已发送各段的结果，最后一个为失败的那段；参数错误、或标题和 @ 人员过长以致每段放不下 MessageSplitter.MIN_BYTES 时只有一个 400 结果
+     * @throws ApiException 读取内容失败，或发送异常
+     */
+    @Override
+    public List<DingDingSendResult> sendDingMarkdownStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines) throws ApiException {
+        return stream(secret, webhook, contactPersons, messageTitle, lines, true);
+    }
+
+    /**
+     * 异步分段发送 Markdown 内容，参数同 sendDingMarkdownStream；整个发送过程占用一个发送线程
+     */
+    @Override
+    public CompletableFuture<List<DingDingSendResult>> sendDingMarkdownStreamAsync(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines) {
+        return sendExecutor.submit(webhook, () -> sendDingMarkdownStream(secret, webhook, contactPersons, messageTitle, lines));
+    }
+
+    /**
+     * 分段发送 Text 内容，按 UTF-8 读取 content，不关闭 content；其余同 sendDingTextStream(Iterator)
+     */
+    @Override
+    public List<DingDingSendResult> sendDingTextStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Reader content) throws ApiException {
+        return stream(secret, webhook, contactPersons, messageTitle, content == null ? null : MessageSplitter.lines(content), false);
+    }
+
+    @Override
+    public List<DingDingSendResult> sendDingTextStream(String secret, String webhook, List<String> contactPersons, String messageTitle, InputStream content) throws ApiException {
+        return sendDingTextStream(secret, webhook, contactPersons, messageTitle, content == null ? null : new InputStreamReader(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 分段发送 Text 内容，只按行切分；多段时每段开头为【messageTitle 序号】，其余同 sendDingMarkdownStream
+     */
+    @Override
+    public List<DingDingSendResult> sendDingTextStream(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines) throws ApiException {
+        return stream(secret, webhook, contactPersons, messageTitle, lines, false);
+    }
+
+    /**
+     * 异步分段发送 Text 内容，参数同 sendDingTextStream
+     */
+    @Override
+    public CompletableFuture<List<DingDingSendResult>> sendDingTextStreamAsync(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines) {
+        return sendExecutor.submit(webhook, () -> sendDingTextStream(secret, webhook, contactPersons, messageTitle, lines));
+    }
+
+    private List<DingDingSendResult> stream(String secret, String webhook, List<String> contactPersons, String messageTitle, Iterator<String> lines, boolean markdown) throws ApiException {
+        if (StringUtils.isEmpty(secret)) {
+            return Collections.singletonList(new DingDingSendResult(DingDingSendResult.INVALID, "secret参数为空"));
+        }
+        if (StringUtils.isEmpty(webhook)) {
+            return Collections.singletonList(new DingDingSendResult(DingDingSendResult.INVALID, "webhook参数为空"));
+        }
+        if (StringUtils.isEmpty(messageTitle)) {
+            return Collections.singletonList(new DingDingSendResult(DingDingSendResult.INVALID, "messageTitle参数为空"));
+        }
+        if (lines == null) {
+            return Collections.singletonList(new DingDingSendResult(DingDingSendResult.INVALID, "message参数为空"));
+        }
+        // 序号、带序号的标题和 @ 占用的篇幅从每段的大小限制中预留
+        int reserve = MessageSplitter.sizeOf(streamHeader(messageTitle, Integer.MAX_VALUE, true, markdown));
+        if (markdown) {
+            reserve += MessageSplitter.sizeOf(streamTitle(messageTitle, Integer.MAX_VALUE));
+            if (!CollectionUtils.isEmpty(contactPersons)) {
+                for (String person : contactPersons) {
+                    reserve += 1 + MessageSplitter.sizeOf(person);
+                }
+            }
+        }
+        int maxBytes = splitMaxBytes - reserve;
+        if (maxBytes < MessageSplitter.MIN_BYTES) {
+            return Collections.singletonList(new DingDingSendResult(DingDingSendResult.INVALID,
+                    "messageTitle或contactPersons过长，每段正文不足" + MessageSplitter.MIN_BYTES + "字节"));
+        }
+        String msgtype = markdown ? "markdown" : "text";
+        List<DingDingSendResult> results = new ArrayList<DingDingSendResult>();
+        try {
+            MessageSplitter splitter = new MessageSplitter(lines, maxBytes, markdown);
+            if (!splitter.hasNext()) {
+                return Collections.singletonList(new DingDingSendResult(DingDingSendResult.INVALID, "message参数为空"));
+            }
+            int index = 1;
+            String chunk = splitter.next();
+            CompletableFuture<DingDingSendResult> inFlight = null;
+            while (true) {
+                // 预读一行即可判断是否为最后一段
+                boolean last = !splitter.hasNext();
+                boolean single = index == 1 && last;
+                String header = single ? "" : streamHeader(messageTitle, index, last, markdown);
+                String title = single ? messageTitle : streamTitle(messageTitle, index);
+                OapiRobotSendRequest request = markdown
+                        ? RobotRequests.markdown(contactPersons, title, header + chunk, null, null)
+                        : RobotRequests.text(contactPersons, header + chunk);
+                if (index > 1) {
+                    request.setAt(new OapiRobotSendRequest.At());
+                }
+                byte[] body = DingTalkRobotClient.toJson(request).getBytes(StandardCharsets.UTF_8);
+                // 上一段还在发送时就预约本段的令牌，令牌等待与上一段的请求重叠
+                long reservedAt = System.nanoTime();
+                long wait = rateLimiter.reserve(webhook);
+                if (inFlight != null) {
+                    DingDingSendResult previous = join(inFlight);
+                    results.add(previous);
+                    if (!isSuccess(previous)) {
+                        return results;
+                    }
+                }
+                DingDingRateLimiter.Decision decision = wait < 0 ? DingDingRateLimiter.Decision.REJECTED : DingDingRateLimiter.Decision.PASS;
+                long delay = Math.max(0L, reservedAt + wait - System.nanoTime());
+                inFlight = broadcastExecutor.schedule(() -> execute(secret, webhook, msgtype, body, new DingDingSendResult(), decision),
+                        decision == DingDingRateLimiter.Decision.PASS ? delay : 0L, TimeUnit.NANOSECONDS);
+                if (last) {
+                    results.add(join(inFlight));
+                    return results;
+                }
+                // 上一段在途时读取并切分下一段
+                chunk = splitter.next();
+                index++;
+            }
+        } catch (UncheckedIOException e) {
+            throw new ApiException("分段发送的内容读取失败", e.getCause());
+        }
+    }
+
+    private static boolean isSuccess(DingDingSendResult result) {
+        return result.getErrcode() != null && result.getErrcode() == 0L;
+    }
+
+    /**
+     * 等待一段发送完成，发送抛出的 ApiException 和运行时异常原样抛出
+     */
+    private static DingDingSendResult join(CompletableFuture<DingDingSendResult> future) throws ApiException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("等待分段发送结果时被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ApiException) {
+                throw (ApiException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ApiException(cause);
+        }
+    }
+
+    private static String streamTitle(String messageTitle, int index) {
+        return messageTitle + "（" + index + "）";
+    }
+
+    private static String streamHeader(String messageTitle, int index, boolean last, boolean markdown) {
+        String sequence = index + (last ? "，完" : "");
+        return markdown ? "**" + messageTitle + "（" + sequence + "）**\n\n" : "【" + messageTitle + " " + sequence + "】\n";
+    }
+
+    /**
+     * 群发 Markdown 消息，参数同 sendDingMarkdownMessage，不参与合并
+     *
+     * @param targets 群发目标
+     * @return 与 targets 顺序一致的发送结果
+     */
+    @Override
+    public List<DingDingBroadcastResult> broadcastMarkdownMessage(List<DingDingTarget> targets, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) {
+        if (StringUtils.isEmpty(messageTitle)) {
+            return reject(targets, "messageTitle参数为空");
+        }
+        if (StringUtils.isEmpty(message)) {
+            return reject(targets, "message参数为空");
+        }
+        return broadcast(targets, RobotRequests.markdown(contactPersons, messageTitle, message, pageUrl, picUrl));
+    }
+
+    /**
+     * 群发 Text 消息，参数同 sendDingTextMessage，不参与合并
+     */
+    @Override
+    public List<DingDingBroadcastResult> broadcastTextMessage(List<DingDingTarget> targets, List<String> contactPersons, String message) {
+        if (StringUtils.isEmpty(message)) {
+            return reject(targets, "message参数为空");
+        }
+        return broadcast(targets, RobotRequests.text(contactPersons, message));
+    }
+
+    /**
+     * 群发任意类型的消息，等待所有目标发送完成
+     */
+    @Override
+    public List<DingDingBroadcastResult> broadcast(List<DingDingTarget> targets, OapiRobotSendRequest request) {
+        return broadcastAsync(targets, request).join();
+    }
+
+    /**
+     * 异步群发
+     * <p>
+     * 请求体只序列化一次，各目标分别加签后在群发线程池中并行发送，同时在途的目标数由 dingding.broadcast.parallelism 限制，
+     * 一个目标结束后才开始下一个，目标再多也不会因为队列满而失败。
+     * 每个目标仍受各自 webhook 的限流、重试和熔断约束：令牌不足时按 reserve 预约，最多等待 dingding.limit.maxWait 毫秒，
+     * 等待期间不占用线程，等不到的目标与单条发送一样返回 429(开启发件箱时为 202)；只有重试退避会占用线程，
+     * 最长由 dingding.retry.* 决定。总耗时接近最慢的 webhook。
+     *
+     * @param targets 群发目标
+     * @param request 消息
+     * @return 与 targets 顺序一致的发送结果，单个目标失败不影响其它目标
+     */
+    @Override
+    public CompletableFuture<List<DingDingBroadcastResult>> broadcastAsync(List<DingDingTarget> targets, OapiRobotSendRequest request) {
+        return broadcast(targets, request.getMsgtype(), DingTalkRobotClient.toJson(request).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private CompletableFuture<List<DingDingBroadcastResult>> broadcast(List<DingDingTarget> targets, String msgtype, byte[] body) {
+        if (CollectionUtils.isEmpty(targets)) {
+            return CompletableFuture.completedFuture(new ArrayList<DingDingBroadcastResult>());
+        }
+        return broadcastExecutor.submitAll(targets, target -> broadcast(target, msgtype, body));
+    }
+
+    /**
+     * 向单个目标发送，令牌用 reserve 非阻塞地预约，需要等待时延迟提交而不是占着群发线程等待
+     */
+    private CompletableFuture<DingDingBroadcastResult> broadcast(DingDingTarget target, String msgtype, byte[] body) {
+        if (StringUtils.isEmpty(target.getSecret()) || StringUtils.isEmpty(target.getWebhook())) {
+            return CompletableFuture.completedFuture(new DingDingBroadcastResult(target,
+                    new DingDingSendResult(DingDingSendResult.INVALID, "webhook或secret参数为空"), null));
+        }
+        long wait = rateLimiter.reserve(target.getWebhook());
+        DingDingRateLimiter.Decision decision = wait < 0 ? DingDingRateLimiter.Decision.REJECTED : DingDingRateLimiter.Decision.PASS;
+        return broadcastExecutor.schedule(() -> execute(target.getSecret(), target.getWebhook(), msgtype, body, new DingDingSendResult(), decision),
+                Math.max(wait, 0L), TimeUnit.NANOSECONDS)
+                .handle((result, e) -> new DingDingBroadcastResult(target, result,
+                        e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+    }
+
+    private static List<DingDingBroadcastResult> reject(List<DingDingTarget> targets, String errmsg) {
+        List<DingDingBroadcastResult> results = new ArrayList<DingDingBroadcastResult>();
+        if (targets != null) {
+            for (DingDingTarget target : targets) {
+                results.add(new DingDingBroadcastResult(target, new DingDingSendResult(DingDingSendResult.INVALID, errmsg), null));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 发送合并后的汇总消息
+     * <p>
+     * 默认合并成一条 Markdown，@人员取所有消息的并集，任一消息 @所有人 则汇总消息 @所有人；
+     * digestType 为 feedCard 且每条消息都有 pageUrl 时合并成 FeedCard，FeedCard 不支持 @。
+     */
+    private void sendDigest(MessageBatch batch) {
+        List<BatchMessage> messages = batch.getMessages();
+        boolean atAll = false;
+        boolean allHavePage = true;
+        Set<String> persons = new LinkedHashSet<String>();
+        for (BatchMessage message : messages) {
+            if (CollectionUtils.isEmpty(message.getContactPersons())) {
+                atAll = true;
+            } else {
+                persons.addAll(message.getContactPersons());
+            }
+            if (StringUtils.isEmpty(message.getPageUrl())) {
+                allHavePage = false;
+            }
+        }
+
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        if (DingDingMessageAggregator.DIGEST_FEED_CARD.equals(messageAggregator.getDigestType()) && allHavePage) {
+            List<OapiRobotSendRequest.Links> linkList = new ArrayList<OapiRobotSendRequest.Links>(messages.size());
+            for (BatchMessage message : messages) {
+                OapiRobotSendRequest.Links link = new OapiRobotSendRequest.Links();
+                link.setTitle(StringUtils.defaultIfEmpty(message.getTitle(), message.getContent()));
+                link.setMessageURL(message.getPageUrl());
+                link.setPicURL(message.getPicUrl());
+                linkList.add(link);
+            }
+            request.setMsgtype("feedCard");
+            OapiRobotSendRequest.Feedcard feedcard = new OapiRobotSendRequest.Feedcard();
+            feedcard.setLinks(linkList);
+            request.setFeedCard(feedcard);
+        } else {
+            StringBuilder text = new StringBuilder();
+            for (BatchMessage message : messages) {
+                text.append("#### ").append(StringUtils.defaultIfEmpty(message.getTitle(), "消息")).append("\n\n")
+                        .append(message.getContent());
+                if (!StringUtils.isEmpty(message.getPicUrl())) {
+                    text.append("![screenshot](").append(message.getPicUrl()).append(")");
+                }
+                if (!StringUtils.isEmpty(message.getPageUrl())) {
+                    text.append("[页面](").append(message.getPageUrl()).append(")");
+                }
+                text.append("\n\n");
+            }
+            OapiRobotSendRequest.At at = new OapiRobotSendRequest.At();
+            if (atAll) {
+                at.setIsAtAll("true");
+            } else {
+                for (String person : persons) {
+                    text.append("@").append(person);
+                }
+                at.setAtMobiles(new ArrayList<String>(persons));
+            }
+            request.setAt(at);
+            request.setMsgtype("markdown");
+            OapiRobotSendRequest.Markdown markdown = new OapiRobotSendRequest.Markdown();
+            String title = StringUtils.defaultIfEmpty(messages.get(0).getTitle(), "消息汇总");
+            markdown.setTitle(messages.size() > 1 ? title + "等" + messages.size() + "条消息" : title);
+            markdown.setText(text.toString());
+            request.setMarkdown(markdown);
+        }
+
+        DingDingSendResult result;
+        try {
+            result = execute(batch.getSecret(), batch.getWebhook(), request, new DingDingSendResult());
+        } catch (ApiException e) {
+            throw new IllegalStateException("钉钉汇总消息发送失败", e);
+        }
+        if (!isDelivered(result)) {
+            throw new IllegalStateException("钉钉汇总消息未送达: " + describe(result));
+        }
+    }
+
+    /**
+     * 汇总等后台发送是否已送达或已受理
+     * <p>
+     * 调用方早已拿到本地的 202，未送达时只能由后台记录。开启发件箱时被限流和发送失败的消息已写入发件箱，结果为 202。
+     */
+    private static boolean isDelivered(DingDingSendResult result) {
+        return isSuccess(result) || result.isLocal() && Long.valueOf(DingDingSendResult.ACCEPTED).equals(result.getErrcode());
+    }
+
+    private static String describe(DingDingSendResult result) {
+        return (result.isLocal() ? "本地状态码 " : "errcode ") + result.getErrcode() + ", " + result.getErrmsg();
+    }
+
+    /**
+     * 按请求体去重后发送，用于没有单一正文字段的消息类型
+     *
+     * @param preview 汇总消息中展示的内容
+     */
+    private DingDingSendResult executeUnique(String secret, String webhook, OapiRobotSendRequest request, String preview, DingDingSendResult response) throws ApiException {
+        byte[] body = DingTalkRobotClient.toJson(request).getBytes(StandardCharsets.UTF_8);
+        if (deduplicator.isEnabled() && deduplicator.isDuplicate(secret, webhook, request.getMsgtype(), body, preview, this::sendDedupSummary)) {
+            return duplicated(response);
+        }
+        return execute(secret, webhook, request.getMsgtype(), body, response);
+    }
+
+    private static DingDingSendResult duplicated(DingDingSendResult response) {
+        response.setErrcode(DingDingSendResult.ACCEPTED);
+        response.setErrmsg("去重窗口内的重复消息，已忽略");
+        return response;
+    }
+
+    /**
+     * 发送去重窗口内被忽略消息的汇总，不 @任何人，也不参与合并和去重
+     */
+    private void sendDedupSummary(DedupEntry entry) {
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        request.setMsgtype("text");
+        OapiRobotSendRequest.Text text = new OapiRobotSendRequest.Text();
+        text.setContent("以下消息在最近 " + Math.max(1L, deduplicator.getWindow() / 1000) + " 秒内又重复出现 "
+                + entry.getSuppressedCount() + " 次，已忽略：\n" + entry.getPreview());
+        request.setText(text);
+        DingDingSendResult result;
+        try {
+            result = execute(entry.getSecret(), entry.getWebhook(), request, new DingDingSendResult());
+        } catch (ApiException e) {
+            throw new IllegalStateException("钉钉重复消息汇总发送失败", e);
+        }
+        if (!isDelivered(result)) {
+            throw new IllegalStateException("钉钉重复消息汇总未送达: " + describe(result));
+        }
+    }
+
+    /**
+     * 经 webhook 限流后发送
+     * <p>
+     * 令牌不足时按 dingding.limit.policy 处理：BLOCK 等待令牌；QUEUE 交给后台按令牌发出，返回 202；
+     * REJECT 或等待超时返回 429，不再把被限流的消息报告为发送成功。
+     * 开启发件箱时消息先落盘，钉钉不可达或被限流的消息留在发件箱由后台重发，返回 202。
+     * 网络异常与系统繁忙按 dingding.retry.* 重试，webhook 熔断期间直接失败。
+     * 真正请求了钉钉时返回服务端的 errcode/errmsg 及耗时、尝试次数，不再统一改写为 200。
+     * 各阶段耗时和发送结果记录到 DingDingMetrics。
+     */
+    private DingDingSendResult execute(String secret, String webhook, OapiRobotSendRequest request, DingDingSendResult response) throws ApiException {
+        return execute(secret, webhook, request.getMsgtype(), DingTalkRobotClient.toJson(request).getBytes(StandardCharsets.UTF_8), response);
+    }
+
+    private DingDingSendResult execute(String secret, String webhook, String msgtype, byte[] body, DingDingSendResult response) throws ApiException {
+        return execute(secret, webhook, msgtype, body, response, null);
+    }
+
+    /**
+     * @param decision 调用方已做出的限流决定，为 null 时由限流器决定；
+     *                 优先级调度器派发或已预约到令牌时为 PASS，预约失败时为 REJECTED
+     */
+    private DingDingSendResult execute(String secret, String webhook, String msgtype, byte[] body, DingDingSendResult response,
+                                       DingDingRateLimiter.Decision decision) throws ApiException {
+        SendStats stats = metrics.getStats(webhook, msgtype);
+        long start = System.nanoTime();
+        DingTalkRobotClient client = clientRegistry.getClient(webhook);
+        start = stats.record(DingDingMetrics.Stage.CLIENT, start);
+        String signature;
+        try {
+            signature = signatureCache.getSignature(secret);
+        } catch (ApiException e) {
+            stats.recordFailure();
+            throw e;
+        }
+        stats.record(DingDingMetrics.Stage.SIGN, start);
+        OutboxRecord record = outbox.isEnabled() ? outbox.append(webhook, secret, body) : null;
+        if (decision == null) {
+            // 限流器的线程只负责到点唤醒，真正的发送交给发送线程池，一个 webhook 慢不会拖住其它 webhook 的排队消息
+            decision = rateLimiter.acquire(webhook, () -> sendExecutor.submit(webhook, () -> sendQueued(secret, webhook, client, body, stats, record))
+                    .whenComplete((ignored, e) -> {
+                        if (e != null) {
+                            queuedFailed(webhook, stats, record, e);
+                        }
+                    }));
+        }
+        if (decision == DingDingRateLimiter.Decision.REJECTED) {
+            stats.recordThrottled();
+            if (record != null) {
+                outbox.scheduleRetry(record);
+                response.setErrcode(DingDingSendResult.ACCEPTED);
+                response.setErrmsg("发送过于频繁，已写入发件箱等待发送");
+                return response;
+            }
+            response.setErrcode(DingDingSendResult.THROTTLED);
+            response.setErrmsg("发送过于频繁，已被限流");
+            return response;
+        }
+        if (decision == DingDingRateLimiter.Decision.QUEUED) {
+            response.setErrcode(DingDingSendResult.ACCEPTED);
+            response.setErrmsg("已进入发送队列");
+            return response;
+        }
+        DingDingSendResult result;
+        try {
+            result = retryPolicy.execute(webhook, timed(stats, () -> client.execute(body, signature)));
+        } catch (ApiException | RuntimeException e) {
+            stats.recordFailure();
+            if (record == null) {
+                throw e;
+            }
+            outbox.scheduleRetry(record);
+            response.setErrcode(DingDingSendResult.ACCEPTED);
+            response.setErrmsg("发送失败，已写入发件箱等待重试");
+            return response;
+        }
+        stats.recordResult(result);
+        if (record != null && DingDingRetryPolicy.isThrottled(result)) {
+            outbox.scheduleRetry(record);
+            response.setErrcode(DingDingSendResult.ACCEPTED);
+            response.setErrmsg("发送过快，已写入发件箱等待重试");
+            response.setLatency(result.getLatency());
+            response.setAttempts(result.getAttempts());
+            return response;
+        }
+        outbox.ack(record);
+        return result;
+    }
+
+    /**
+     * 发送 QUEUE 策略下拿到令牌的排队消息，在发送线程池中执行
+     */
+    private Void sendQueued(String secret, String webhook, DingTalkRobotClient client, byte[] body, SendStats stats, OutboxRecord record) {
+        try {
+            // 排队期间签名可能已过期，发送前重新计算
+            OapiRobotSendResponse result = retryPolicy.execute(webhook, timed(stats, () -> client.execute(body, signatureCache.getSignature(secret))));
+            stats.recordResult(result);
+            if (record != null && DingDingRetryPolicy.isThrottled(result)) {
+                outbox.scheduleRetry(record);
+            } else {
+                outbox.ack(record);
+            }
+        } catch (ApiException | RuntimeException e) {
+            queuedFailed(webhook, stats, record, e);
+        }
+        return null;
+    }
+
+    /**
+     * 排队消息发送失败或发送线程池拒绝，开启发件箱时留给后台重发
+     */
+    private void queuedFailed(String webhook, SendStats stats, OutboxRecord record, Throwable e) {
+        stats.recordFailure();
+        if (record == null) {
+            log.error("钉钉排队消息发送失败: " + DingDingMetrics.maskWebhook(webhook), e);
+            return;
+        }
+        outbox.scheduleRetry(record);
+    }
+
+    /**
+     * 记录每次 HTTP 请求的耗时，重试的每一次单独计时
+     */
+    private static RobotCall timed(SendStats stats, RobotCall call) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                return call.call();
+            } finally {
+                stats.record(DingDingMetrics.Stage.HTTP, start);
+            }
+        };
+    }
+
 
     /*@Test
     public void test() throws ApiException {
@@ -0,0 +1,177 @@
+package wh.spring.service;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import com.taobao.api.ApiException;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Mono;
+import wh.spring.client.DingTalkReactiveClient;
+import wh.spring.client.DingTalkRobotClient;
+import wh.spring.interfaces.ReactiveDingDingService;
+import wh.spring.limit.DingDingRateLimiter;
+import wh.spring.metrics.DingDingMetrics;
+import wh.spring.metrics.SendStats;
+import wh.spring.model.DingDingSendResult;
+import wh.spring.retry.DingDingRetryPolicy;
+import wh.spring.sign.SignatureCache;
+import wh.spring.template.MessageTemplate;
+import wh.spring.template.RobotRequests;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 钉钉发送消息，非阻塞版本
+ * <p>
+ * 限流等待和重试退避都通过定时器调度，发送过程中不阻塞任何线程；
+ * 令牌桶、熔断器、签名缓存、发送指标与同步版本共用。限流策略中 BLOCK 与 QUEUE 都表现为延迟发送(最多 maxWait 毫秒)。
+ * 不经过消息合并和持久化发件箱，需要这两项时使用 DingDingService。
+ */
+@Service
+public class ReactiveDingDingServiceImpl implements ReactiveDingDingService {
+
+    @Autowired
+    private DingTalkReactiveClient reactiveClient;
+    @Autowired
+    private DingDingRateLimiter rateLimiter;
+    @Autowired
+    private SignatureCache signatureCache;
+    @Autowired
+    private DingDingRetryPolicy retryPolicy;
+    @Autowired
+    private DingDingMetrics metrics;
+
+    @Override
+    public Mono<DingDingSendResult> sendDingMarkdownMessage(String secret, String webhook, List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) {
+        DingDingSendResult invalid = validate(secret, webhook, "messageTitle", messageTitle, "message", message);
+        if (invalid != null) {
+            return Mono.just(invalid);
+        }
+        return send(secret, webhook, RobotRequests.markdown(contactPersons, messageTitle, message, pageUrl, picUrl));
+    }
+
+    @Override
+    public Mono<DingDingSendResult> sendDingTextMessage(String secret, String webhook, List<String> contactPersons, String message) {
+        DingDingSendResult invalid = validate(secret, webhook, "message", message);
+        if (invalid != null) {
+            return Mono.just(invalid);
+        }
+        return send(secret, webhook, RobotRequests.text(contactPersons, message));
+    }
+
+    @Override
+    public Mono<DingDingSendResult> sendDingLinkMessage(String secret, String webhook, String title, String text, String messageUrl, String picUrl) {
+        DingDingSendResult invalid = validate(secret, webhook, "title", title, "message", text, "messageUrl", messageUrl);
+        if (invalid != null) {
+            return Mono.just(invalid);
+        }
+        return send(secret, webhook, RobotRequests.link(title, text, messageUrl, picUrl));
+    }
+
+    @Override
+    public Mono<DingDingSendResult> sendDingOverallActionCardMessage(String secret, String webhook, String title, String text, String singleTitle, String singleURL) {
+        DingDingSendResult invalid = validate(secret, webhook, "title", title, "text", text, "singleTitle", singleTitle, "singleURL", singleURL);
+        if (invalid != null) {
+            return Mono.just(invalid);
+        }
+        return send(secret, webhook, RobotRequests.actionCard(title, text, singleTitle, singleURL));
+    }
+
+    @Override
+    public Mono<DingDingSendResult> sendDingIndependentActionCardMessage(String secret, String webhook, String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) {
+        DingDingSendResult invalid = validate(secret, webhook, "title", title, "text", text);
+        if (invalid == null && CollectionUtils.isEmpty(btns)) {
+            invalid = new DingDingSendResult(DingDingSendResult.INVALID, "btns参数为空");
+        }
+        if (invalid != null) {
+            return Mono.just(invalid);
+        }
+        return send(secret, webhook, RobotRequests.actionCard(title, text, btns, StringUtils.defaultIfEmpty(btnOrientation, "0")));
+    }
+
+    @Override
+    public Mono<DingDingSendResult> sendDingFeedCardMessage(String secret, String webhook, List<OapiRobotSendRequest.Links> linkList) {
+        DingDingSendResult invalid = validate(secret, webhook);
+        if (invalid == null && CollectionUtils.isEmpty(linkList)) {
+            invalid = new DingDingSendResult(DingDingSendResult.INVALID, "linkList参数为空");
+        }
+        if (invalid != null) {
+            return Mono.just(invalid);
+        }
+        return send(secret, webhook, RobotRequests.feedCard(linkList));
+    }
+
+    @Override
+    public Mono<DingDingSendResult> sendTemplateMessage(String secret, String webhook, MessageTemplate template, Map<String, ?> variables) {
+        DingDingSendResult invalid = validate(secret, webhook);
+        if (invalid == null && template == null) {
+            invalid = new DingDingSendResult(DingDingSendResult.INVALID, "template参数为空");
+        }
+        if (invalid != null) {
+            return Mono.just(invalid);
+        }
+        byte[] body;
+        try {
+            body = template.render(variables == null ? Collections.<String, Object>emptyMap() : variables);
+        } catch (IllegalArgumentException e) {
+            return Mono.just(new DingDingSendResult(DingDingSendResult.INVALID, e.getMessage()));
+        }
+        return send(secret, webhook, template.getMsgtype(), body);
+    }
+
+    private Mono<DingDingSendResult> send(String secret, String webhook, OapiRobotSendRequest request) {
+        return send(secret, webhook, request.getMsgtype(), DingTalkRobotClient.toJson(request).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 限流后带重试发送，每次尝试重新取签名，等待期间签名过期也不影响
+     */
+    private Mono<DingDingSendResult> send(String secret, String webhook, String msgtype, byte[] body) {
+        return Mono.defer(() -> {
+            SendStats stats = metrics.getStats(webhook, msgtype);
+            long wait = rateLimiter.reserve(webhook);
+            if (wait < 0) {
+                stats.recordThrottled();
+                return Mono.just(new DingDingSendResult(DingDingSendResult.THROTTLED, "发送过于频繁，已被限流"));
+            }
+            Mono<DingDingSendResult> call = retryPolicy.executeReactive(webhook, () -> {
+                long start = System.nanoTime();
+                String signature;
+                try {
+                    signature = signatureCache.getSignature(secret);
+                } catch (ApiException e) {
+                    return Mono.error(e);
+                }
+                long httpStart = stats.record(DingDingMetrics.Stage.SIGN, start);
+                return reactiveClient.execute(webhook, body, signature)
+                        .doFinally(signal -> stats.record(DingDingMetrics.Stage.HTTP, httpStart));
+            }).doOnNext(stats::recordResult).doOnError(e -> stats.recordFailure());
+            return wait > 0 ? Mono.delay(Duration.ofNanos(wait)).then(call) : call;
+        });
+    }
+
+    /**
+     * 校验 secret、webhook 以及成对传入的必填参数名和值
+     *
+     * @return 第一个为空的参数对应的 400 结果，全部非空返回 null
+     */
+    private static DingDingSendResult validate(String secret, String webhook, String... namesAndValues) {
+        if (StringUtils.isEmpty(secret)) {
+            return new DingDingSendResult(DingDingSendResult.INVALID, "secret参数为空");
+        }
+        if (StringUtils.isEmpty(webhook)) {
+            return new DingDingSendResult(DingDingSendResult.INVALID, "webhook参数为空");
+        }
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            if (StringUtils.isEmpty(namesAndValues[i + 1])) {
+                return new DingDingSendResult(DingDingSendResult.INVALID, namesAndValues[i] + "参数为空");
+            }
+        }
+        return null;
+    }
+}
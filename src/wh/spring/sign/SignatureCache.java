@@ -0,0 +1,119 @@
+package wh.spring.sign;
+
+import org.apache.commons.codec.binary.Base64;
+import com.taobao.api.ApiException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 加签缓存
+ * <p>
+ * 钉钉允许 timestamp 与请求时间相差 1 小时以内，因此同一密钥的签名可以复用一段时间，
+ * 超过 dingding.sign.refreshInterval(毫秒，默认 30 分钟) 后重新计算。
+ * 计算签名时从池中借用 Mac 实例，不再每次 Mac.getInstance。
+ * 不放在 ThreadLocal 中：虚拟线程每条消息一个线程，ThreadLocal 会退化为每次新建 Mac 并随线程数占用内存。
+ */
+@Component
+public class SignatureCache {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * 空闲的 Mac 实例，数量不超过同时签名的线程数峰值，最多保留 64 个
+     */
+    private static final BlockingQueue<Mac> MACS = new ArrayBlockingQueue<Mac>(64);
+
+    @Value("${dingding.sign.refreshInterval:1800000}")
+    private long refreshInterval = 1800000L;
+
+    private final ConcurrentMap<String, Signature> signatures = new ConcurrentHashMap<String, Signature>();
+
+    /**
+     * 获取真实秘钥
+     * <p>
+     * 算法
+     * 获取  timestamp  当前时间戳，单位是毫秒，与请求调用时间误差不能超过1小时
+     * sign       把 timestamp+"\n"+密钥 当做签名字符串，使用HmacSHA256算法计算签名，
+     * 然后进行Base64 encode，最后再把签名参数再进行urlEncode，
+     * 得到最终的签名（需要使用UTF-8字符集）。
+     *
+     * @param secret 密钥，机器人安全设置页面，加签一栏下面显示的SEC开头的字符串
+     * @return "&timestamp=XXX&sign=XXX"
+     * @throws ApiException 加签失败
+     */
+    public String getSignature(String secret) throws ApiException {
+        long now = System.currentTimeMillis();
+        Signature signature = signatures.get(secret);
+        if (signature != null && now - signature.timestamp < refreshInterval) {
+            return signature.query;
+        }
+        try {
+            /**
+             * 把 timestamp和第一步得到的签名值拼接到webhook中。
+             * https://oapi.dingtalk.com/robot/send?access_token=XXXXXX&timestamp=XXX&sign=XXX
+             */
+            String query = "&timestamp=" + now + "&sign=" + URLEncoder.encode(sign(secret, now), "UTF-8");
+            signatures.put(secret, new Signature(now, query));
+            return query;
+        } catch (GeneralSecurityException | UnsupportedEncodingException e) {
+            throw new ApiException("真实密钥获取失败", e);
+        }
+    }
+
+    /**
+     * 计算未 urlEncode 的签名
+     *
+     * @param secret    密钥
+     * @param timestamp 时间戳(毫秒)
+     * @return Base64 编码的签名
+     */
+    public static String sign(String secret, long timestamp) throws GeneralSecurityException {
+        Mac mac = MACS.poll();
+        if (mac == null) {
+            mac = Mac.getInstance(ALGORITHM);
+        }
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+        byte[] signData = mac.doFinal((timestamp + "\n" + secret).getBytes(StandardCharsets.UTF_8));
+        MACS.offer(mac);
+        return new String(Base64.encodeBase64(signData), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 清除一个密钥的缓存，机器人被删除或更换密钥后调用
+     */
+    public void evict(String secret) {
+        signatures.remove(secret);
+    }
+
+    /**
+     * 清除缓存，密钥更换后调用
+     */
+    public void clear() {
+        signatures.clear();
+    }
+
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    private static final class Signature {
+        private final long timestamp;
+        private final String query;
+
+        private Signature(long timestamp, String query) {
+            this.timestamp = timestamp;
+            this.query = query;
+        }
+    }
+}
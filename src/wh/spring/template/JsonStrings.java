@@ -0,0 +1,140 @@
+package wh.spring.template;
+
+/**
+ * 把字符串按 JSON 字符串字面量的规则转义并直接编码为 UTF-8 写入字节数组，中间不产生 String 或 byte[]。
+ * 可打印字符的转义与 SDK 的 JSON 序列化一致(包括把 / 转义为 \/)；
+ * 其余控制字符按 JSON 规范写为六个字符的 unicode 转义，SDK 对其中一部分(如 0x0b、0x1a~0x1f)的输出是错误的，不与之一致。
+ */
+final class JsonStrings {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private JsonStrings() {
+    }
+
+    /**
+     * @return 转义并编码后的字节数
+     */
+    static int escapedLength(String value) {
+        int length = 0;
+        int size = value.length();
+        for (int i = 0; i < size; i += charCount(value, i)) {
+            length += escapedLength(value, i);
+        }
+        return length;
+    }
+
+    /**
+     * 从 from 开始，转义并编码后不超过 maxBytes 的最长子串，不拆开代理对
+     *
+     * @return 子串的结束位置(不含)
+     */
+    static int fittingEnd(String value, int from, int maxBytes) {
+        int length = 0;
+        int size = value.length();
+        int i = from;
+        while (i < size) {
+            int charLength = escapedLength(value, i);
+            if (length + charLength > maxBytes) {
+                break;
+            }
+            length += charLength;
+            i += charCount(value, i);
+        }
+        return i;
+    }
+
+    /**
+     * @return 位置 i 处的字符(成对的代理字符按一个码点)转义并编码后的字节数
+     */
+    private static int escapedLength(String value, int i) {
+        char c = value.charAt(i);
+        if (c == '"' || c == '\\' || c == '/' || c == '\b' || c == '\f' || c == '\n' || c == '\r' || c == '\t') {
+            return 2;
+        } else if (c < 0x20) {
+            return 6;
+        } else if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (charCount(value, i) == 2) {
+            return 4;
+        } else if (Character.isSurrogate(c)) {
+            // 不成对的代理字符按 String.getBytes 的方式替换为 ?
+            return 1;
+        }
+        return 3;
+    }
+
+    private static int charCount(String value, int i) {
+        return Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)) ? 2 : 1;
+    }
+
+    /**
+     * 写入转义后的字节
+     *
+     * @return 写入后的位置
+     */
+    static int writeEscaped(String value, byte[] out, int pos) {
+        int size = value.length();
+        for (int i = 0; i < size; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    out[pos++] = '\\';
+                    out[pos++] = (byte) c;
+                    continue;
+                case '\b':
+                    out[pos++] = '\\';
+                    out[pos++] = 'b';
+                    continue;
+                case '\f':
+                    out[pos++] = '\\';
+                    out[pos++] = 'f';
+                    continue;
+                case '\n':
+                    out[pos++] = '\\';
+                    out[pos++] = 'n';
+                    continue;
+                case '\r':
+                    out[pos++] = '\\';
+                    out[pos++] = 'r';
+                    continue;
+                case '\t':
+                    out[pos++] = '\\';
+                    out[pos++] = 't';
+                    continue;
+                default:
+                    break;
+            }
+            if (c < 0x20) {
+                out[pos++] = '\\';
+                out[pos++] = 'u';
+                out[pos++] = '0';
+                out[pos++] = '0';
+                out[pos++] = HEX[c >> 4];
+                out[pos++] = HEX[c & 0xF];
+            } else if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,252 @@
+package wh.spring.template;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * 把超长的 markdown / text 内容按行流式切分为不超过 maxBytes 的片段
+ * <p>
+ * maxBytes 按 JSON 转义并 UTF-8 编码后的字节数计算，与片段写入请求体后的实际大小一致。
+ * 只在行边界切分，单行超长时在字符边界截断，不拆开代理对。markdown 模式下：
+ * 1. 在 ``` / ~~~ 代码块内切分时，当前片段末尾补上结束标记，下一片段开头重新打开同样的代码块(保留语言标记)；
+ * 2. 在表格内切分时，下一片段开头重复表头和分隔行。
+ * 内容按需从来源读取，任一时刻只保留当前片段和预读的一行。
+ * 每个元素按一行处理，元素内的换行符会再拆分为多行。来源抛出的 UncheckedIOException 原样抛给调用方。
+ */
+public final class MessageSplitter implements Iterator<String> {
+
+    /**
+     * 片段的最小长度，保证补上代码块标记和表头后还能放下内容
+     */
+    public static final int MIN_BYTES = 256;
+
+    private static final Pattern TABLE_SEPARATOR = Pattern.compile("^\\s*\\|?\\s*:?-+:?\\s*(\\|\\s*:?-+:?\\s*)*\\|?\\s*$");
+
+    private final Iterator<String> source;
+    private final int maxBytes;
+    private final boolean markdown;
+
+    /**
+     * 当前元素中尚未取出的部分
+     */
+    private String element;
+    private int elementPos;
+    /**
+     * 预读的一行，或上一片段放不下的剩余部分
+     */
+    private String carry;
+
+    /**
+     * 未关闭的代码块起始行及其标记，不在代码块内时为 null
+     */
+    private String fenceLine;
+    private String fenceMarker;
+    /**
+     * 当前表格的表头和分隔行，不在表格内时为 null
+     */
+    private String tableHeader;
+    private String previousLine;
+
+    /**
+     * @param source   内容，每个元素按一行处理
+     * @param maxBytes 每个片段转义编码后的最大字节数，不小于 MIN_BYTES
+     * @param markdown 是否按 markdown 处理代码块和表格
+     */
+    public MessageSplitter(Iterator<String> source, int maxBytes, boolean markdown) {
+        if (maxBytes < MIN_BYTES) {
+            throw new IllegalArgumentException("maxBytes 不能小于 " + MIN_BYTES + ": " + maxBytes);
+        }
+        this.source = source;
+        this.maxBytes = maxBytes;
+        this.markdown = markdown;
+    }
+
+    /**
+     * @return 按与 maxBytes 相同的方式计算的大小，即 JSON 转义并 UTF-8 编码后的字节数
+     */
+    public static int sizeOf(String value) {
+        return JsonStrings.escapedLength(value);
+    }
+
+    /**
+     * 按行读取 Reader，读取失败时抛出 UncheckedIOException；不关闭 Reader
+     */
+    public static Iterator<String> lines(Reader reader) {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        return new Iterator<String>() {
+
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = in.readLine();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (carry == null) {
+            carry = nextLine();
+        }
+        return carry != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        StringBuilder chunk = new StringBuilder();
+        if (fenceLine != null) {
+            chunk.append(fenceLine);
+        } else if (tableHeader != null) {
+            chunk.append(tableHeader);
+        }
+        int prefixLength = chunk.length();
+        int bytes = JsonStrings.escapedLength(chunk.toString());
+        while (hasNext()) {
+            String line = carry;
+            int separator = chunk.length() > 0 ? 2 : 0;
+            String fenceAfter = fenceAfter(line);
+            int reserve = fenceAfter != null ? 2 + JsonStrings.escapedLength(fenceAfter) : 0;
+            int lineBytes = JsonStrings.escapedLength(line);
+            if (bytes + separator + lineBytes + reserve > maxBytes) {
+                if (chunk.length() > prefixLength) {
+                    break;
+                }
+                // 片段中只有续接的前缀，这一行单独也放不下，截断
+                int end = JsonStrings.fittingEnd(line, 0, maxBytes - bytes - separator - (fenceMarker != null ? 2 + JsonStrings.escapedLength(fenceMarker) : 0));
+                if (separator > 0) {
+                    chunk.append('\n');
+                }
+                chunk.append(line, 0, end);
+                carry = line.substring(end);
+                break;
+            }
+            if (separator > 0) {
+                chunk.append('\n');
+            }
+            chunk.append(line);
+            bytes += separator + lineBytes;
+            carry = null;
+            track(line);
+        }
+        if (fenceMarker != null) {
+            chunk.append('\n').append(fenceMarker);
+        }
+        return chunk.toString();
+    }
+
+    /**
+     * @return 加入该行后仍未关闭的代码块标记
+     */
+    private String fenceAfter(String line) {
+        if (!markdown) {
+            return null;
+        }
+        String marker = fenceMarker(line);
+        if (fenceMarker == null) {
+            return marker;
+        }
+        return marker != null && marker.startsWith(fenceMarker) && line.trim().length() == marker.length() ? null : fenceMarker;
+    }
+
+    private void track(String line) {
+        if (!markdown) {
+            return;
+        }
+        String marker = fenceMarker(line);
+        if (fenceMarker == null && marker != null) {
+            // 续接的前缀不能占用太多篇幅，过长的起始行只保留标记
+            fenceLine = JsonStrings.escapedLength(line) > maxBytes / 4 ? marker : line;
+            fenceMarker = marker;
+            tableHeader = null;
+        } else if (fenceMarker != null) {
+            if (marker != null && marker.startsWith(fenceMarker) && line.trim().length() == marker.length()) {
+                fenceLine = null;
+                fenceMarker = null;
+            }
+        } else if (line.trim().startsWith("|")) {
+            if (tableHeader == null && previousLine != null && previousLine.trim().startsWith("|") && TABLE_SEPARATOR.matcher(line).matches()) {
+                String header = previousLine + "\n" + line;
+                // 表头过长时不再重复
+                tableHeader = JsonStrings.escapedLength(header) > maxBytes / 2 ? null : header;
+            }
+        } else {
+            tableHeader = null;
+        }
+        previousLine = line;
+    }
+
+    /**
+     * @return 行首的 ``` 或 ~~~ 标记(至少 3 个)，不是代码块标记时为 null
+     */
+    private static String fenceMarker(String line) {
+        String trimmed = line.trim();
+        if (trimmed.length() < 3) {
+            return null;
+        }
+        char c = trimmed.charAt(0);
+        if (c != '`' && c != '~') {
+            return null;
+        }
+        int end = 0;
+        while (end < trimmed.length() && trimmed.charAt(end) == c) {
+            end++;
+        }
+        return end >= 3 ? trimmed.substring(0, end) : null;
+    }
+
+    /**
+     * @return 下一行，来源已读完时为 null
+     */
+    private String nextLine() {
+        while (element == null) {
+            if (!source.hasNext()) {
+                return null;
+            }
+            element = source.next();
+            elementPos = 0;
+            if (element == null) {
+                element = "";
+            }
+        }
+        int newline = element.indexOf('\n', elementPos);
+        String line;
+        if (newline < 0) {
+            line = element.substring(elementPos);
+            element = null;
+        } else {
+            int end = newline > elementPos && element.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+            line = element.substring(elementPos, end);
+            elementPos = newline + 1;
+            if (elementPos == element.length()) {
+                element = null;
+            }
+        }
+        return line;
+    }
+}
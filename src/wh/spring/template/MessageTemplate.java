@@ -0,0 +1,175 @@
+package wh.spring.template;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import wh.spring.client.DingTalkRobotClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 不可变的消息模板，可被多线程共享
+ * <p>
+ * 消息中用 ${name} 表示变量，创建时整条消息只序列化一次，变量之间的固定部分预先编码为 JSON UTF-8 字节；
+ * 发送时只把变量值转义后拼入，一次渲染只分配一个与请求体等长的 byte[]。
+ * <pre>
+ * MessageTemplate alarm = MessageTemplate.markdown(null, "${service}告警", "#### ${service}\n\n${detail}");
+ * byte[] body = alarm.render("order", "超时");
+ * </pre>
+ */
+public final class MessageTemplate {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([A-Za-z0-9_.]+)}");
+
+    private final String msgtype;
+    /**
+     * 固定部分，比变量位置多一个
+     */
+    private final byte[][] segments;
+    /**
+     * 每个变量位置对应 variableNames 的下标
+     */
+    private final int[] slots;
+    private final String[] variableNames;
+    private final int staticLength;
+
+    private MessageTemplate(String msgtype, String json) {
+        List<byte[]> segmentList = new ArrayList<byte[]>();
+        List<Integer> slotList = new ArrayList<Integer>();
+        List<String> names = new ArrayList<String>();
+        Matcher matcher = VARIABLE.matcher(json);
+        int last = 0;
+        while (matcher.find()) {
+            segmentList.add(json.substring(last, matcher.start()).getBytes(StandardCharsets.UTF_8));
+            String name = matcher.group(1);
+            int index = names.indexOf(name);
+            if (index < 0) {
+                index = names.size();
+                names.add(name);
+            }
+            slotList.add(index);
+            last = matcher.end();
+        }
+        segmentList.add(json.substring(last).getBytes(StandardCharsets.UTF_8));
+
+        this.msgtype = msgtype;
+        this.segments = segmentList.toArray(new byte[0][]);
+        this.slots = new int[slotList.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slotList.get(i);
+        }
+        this.variableNames = names.toArray(new String[0]);
+        int length = 0;
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+        this.staticLength = length;
+    }
+
+    /**
+     * 由任意类型的消息请求创建模板，请求中的字符串字段可以包含 ${name}
+     */
+    public static MessageTemplate of(OapiRobotSendRequest request) {
+        return new MessageTemplate(request.getMsgtype(), DingTalkRobotClient.toJson(request));
+    }
+
+    /**
+     * Markdown 模板
+     *
+     * @param contactPersons @的手机号，为空时 @所有人
+     * @param title          标题
+     * @param text           正文
+     */
+    public static MessageTemplate markdown(List<String> contactPersons, String title, String text) {
+        return of(RobotRequests.markdown(contactPersons, title, text, null, null));
+    }
+
+    /**
+     * Text 模板
+     *
+     * @param contactPersons @的手机号，为空时 @所有人
+     * @param content        内容
+     */
+    public static MessageTemplate text(List<String> contactPersons, String content) {
+        return of(RobotRequests.text(contactPersons, content));
+    }
+
+    public static MessageTemplate link(String title, String text, String messageUrl, String picUrl) {
+        return of(RobotRequests.link(title, text, messageUrl, picUrl));
+    }
+
+    /**
+     * 整体跳转 ActionCard 模板
+     */
+    public static MessageTemplate actionCard(String title, String text, String singleTitle, String singleURL) {
+        return of(RobotRequests.actionCard(title, text, singleTitle, singleURL));
+    }
+
+    public String getMsgtype() {
+        return msgtype;
+    }
+
+    /**
+     * @return 模板中的变量名，按首次出现的顺序
+     */
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(Arrays.asList(variableNames));
+    }
+
+    /**
+     * 按变量名渲染
+     *
+     * @param variables 变量值
+     * @return UTF-8 编码的 JSON 请求体
+     * @throws IllegalArgumentException 缺少变量
+     */
+    public byte[] render(Map<String, ?> variables) {
+        String[] values = new String[variableNames.length];
+        for (int i = 0; i < variableNames.length; i++) {
+            Object value = variables.get(variableNames[i]);
+            if (value == null && !variables.containsKey(variableNames[i])) {
+                throw new IllegalArgumentException("缺少模板变量: " + variableNames[i]);
+            }
+            values[i] = value == null ? "" : value.toString();
+        }
+        return render(values);
+    }
+
+    /**
+     * 按 getVariableNames 的顺序渲染
+     *
+     * @param values 变量值，null 视为空串
+     * @return UTF-8 编码的 JSON 请求体
+     * @throws IllegalArgumentException 变量个数不符
+     */
+    public byte[] render(String... values) {
+        if (values.length != variableNames.length) {
+            throw new IllegalArgumentException("模板需要 " + variableNames.length + " 个变量，实际传入 " + values.length + " 个");
+        }
+        int length = staticLength;
+        for (int slot : slots) {
+            String value = values[slot];
+            if (value != null) {
+                length += JsonStrings.escapedLength(value);
+            }
+        }
+        byte[] out = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < slots.length; i++) {
+            System.arraycopy(segments[i], 0, out, pos, segments[i].length);
+            pos += segments[i].length;
+            String value = values[slots[i]];
+            if (value != null) {
+                pos = JsonStrings.writeEscaped(value, out, pos);
+            }
+        }
+        byte[] tail = segments[slots.length];
+        System.arraycopy(tail, 0, out, pos, tail.length);
+        return out;
+    }
+}
@@ -0,0 +1,115 @@
+package wh.spring.template;
+
+import com.dingtalk.api.request.OapiRobotSendRequest;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.util.CollectionUtils;
+
+import java.util.List;
+
+/**
+ * 构造各类型的机器人消息请求
+ */
+public final class RobotRequests {
+
+    private RobotRequests() {
+    }
+
+    /**
+     * Markdown 消息，contactPersons 为空时 @所有人，否则在正文末尾追加 @手机号
+     */
+    public static OapiRobotSendRequest markdown(List<String> contactPersons, String messageTitle, String message, String pageUrl, String picUrl) {
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        OapiRobotSendRequest.At at = new OapiRobotSendRequest.At();
+        StringBuilder text = new StringBuilder(message);
+        if (CollectionUtils.isEmpty(contactPersons)) {
+            at.setIsAtAll("true");
+        } else {
+            for (String person : contactPersons) {
+                text.append('@').append(person);
+            }
+            at.setAtMobiles(contactPersons);
+        }
+        request.setAt(at);
+        request.setMsgtype("markdown");
+        OapiRobotSendRequest.Markdown markdown = new OapiRobotSendRequest.Markdown();
+        markdown.setTitle(messageTitle);
+        if (!StringUtils.isEmpty(picUrl)) {
+            text.append("![screenshot](").append(picUrl).append(')');
+        }
+        if (!StringUtils.isEmpty(pageUrl)) {
+            text.append("[页面](").append(pageUrl).append(')');
+        }
+        markdown.setText(text.toString());
+        request.setMarkdown(markdown);
+        return request;
+    }
+
+    /**
+     * Text 消息，contactPersons 为空时 @所有人
+     */
+    public static OapiRobotSendRequest text(List<String> contactPersons, String message) {
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        OapiRobotSendRequest.At at = new OapiRobotSendRequest.At();
+        if (CollectionUtils.isEmpty(contactPersons)) {
+            at.setIsAtAll("true");
+        }
+        at.setAtMobiles(contactPersons);
+        request.setAt(at);
+        request.setMsgtype("text");
+        OapiRobotSendRequest.Text text = new OapiRobotSendRequest.Text();
+        text.setContent(message);
+        request.setText(text);
+        return request;
+    }
+
+    public static OapiRobotSendRequest link(String title, String text, String messageUrl, String picUrl) {
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        request.setMsgtype("link");
+        OapiRobotSendRequest.Link link = new OapiRobotSendRequest.Link();
+        link.setTitle(title);
+        link.setText(text);
+        link.setPicUrl(picUrl);
+        link.setMessageUrl(messageUrl);
+        request.setLink(link);
+        return request;
+    }
+
+    /**
+     * 整体跳转 ActionCard
+     */
+    public static OapiRobotSendRequest actionCard(String title, String text, String singleTitle, String singleURL) {
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        request.setMsgtype("actionCard");
+        OapiRobotSendRequest.Actioncard actioncard = new OapiRobotSendRequest.Actioncard();
+        actioncard.setTitle(title);
+        actioncard.setText(text);
+        actioncard.setSingleTitle(singleTitle);
+        actioncard.setSingleURL(singleURL);
+        request.setActionCard(actioncard);
+        return request;
+    }
+
+    /**
+     * 独立跳转 ActionCard
+     */
+    public static OapiRobotSendRequest actionCard(String title, String text, List<OapiRobotSendRequest.Btns> btns, String btnOrientation) {
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        request.setMsgtype("actionCard");
+        OapiRobotSendRequest.Actioncard actioncard = new OapiRobotSendRequest.Actioncard();
+        actioncard.setTitle(title);
+        actioncard.setText(text);
+        actioncard.setBtns(btns);
+        actioncard.setBtnOrientation(btnOrientation);
+        request.setActionCard(actioncard);
+        return request;
+    }
+
+    public static OapiRobotSendRequest feedCard(List<OapiRobotSendRequest.Links> linkList) {
+        OapiRobotSendRequest request = new OapiRobotSendRequest();
+        request.setMsgtype("feedCard");
+        OapiRobotSendRequest.Feedcard feedcard = new OapiRobotSendRequest.Feedcard();
+        feedcard.setLinks(linkList);
+        request.setFeedCard(feedcard);
+        return request;
+    }
+}